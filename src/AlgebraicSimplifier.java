@@ -0,0 +1,240 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This pass of `SsaOptimizer` folds the arithmetic on constants and rewrites the arithmetic with a constant operand
+ * into a simpler value, with the semantics of the interpreters, see `ConstantFolder.foldBytecode` and `SsaTypes`:
+ * `x + 0`, `x - 0`, `x * 1`, `x / 1`, `x & -1`, `x | 0`, `x ^ 0`, `x << 0`, `-(-x)` and `~~x` are `x` for an `int`,
+ * because the result is an `int` even if `x` is a `char`, `x - x`, `x * 0` and `x % 1` are 0,
+ * `x * -1` and `x / -1` are `-x`, and `x * 2^k` is `x << k`.
+ * For an `x` which is never negative, `x / 2^k` is `x >> k` and `x % 2^k` is `x & (2^k - 1)`.
+ * The values which are left without users and have no effect are removed.
+ */
+public class AlgebraicSimplifier implements SsaOptimizer.Pass {
+    private final Environment environment;
+    private ControlFlowGraph graph;
+    private SsaTypes types;
+    public int foldedValues = 0;
+    public int simplifiedValues = 0;
+
+    public AlgebraicSimplifier(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[ALGEBRA] folded %d values and simplified %d values%n", foldedValues, simplifiedValues);
+    }
+
+    @Override
+    public void run(ControlFlowGraph graph) {
+        this.graph = graph;
+        var changed = true;
+        while (changed) {
+            changed = false;
+            // The types are inferred again, because the rewrites may make them more precise
+            types = new SsaTypes(graph, environment);
+            for (var block : graph.blocks) {
+                for (var value : new ArrayList<>(block.values)) {
+                    if (value.block == block && simplify(value)) changed = true;
+                }
+            }
+        }
+        removeDeadValues();
+    }
+
+    private boolean simplify(SsaValue value) {
+        if (value.kind != SsaValue.Kind.BYTECODE || !isArithmetic(value.type())) return false;
+        var operands = new ArrayList<Object>();
+        for (var operand : value.operands) operands.add(types.constantOf(operand));
+        if (!operands.contains(null)) {
+            var result = ConstantFolder.foldBytecode(value.type(), operands);
+            if (result != null) {
+                replace(value, newConstant(value, result));
+                foldedValues++;
+                return true;
+            }
+        }
+        var replacement = operands.size() == 1 ? simplifyUnary(value) : simplifyBinary(value);
+        if (replacement == null) return false;
+        replace(value, replacement);
+        simplifiedValues++;
+        return true;
+    }
+
+    private SsaValue simplifyUnary(SsaValue value) {
+        var x = value.operands.get(0);
+        switch (value.type()) {
+            case OP_NEG:
+            case OP_BIT_NOT:
+                if (x.type() == value.type() && types.isInt(x.operands.get(0))) return x.operands.get(0);
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private SsaValue simplifyBinary(SsaValue value) {
+        var a = value.operands.get(0);
+        var b = value.operands.get(1);
+        var left = intConstantOf(a);
+        var right = intConstantOf(b);
+        switch (value.type()) {
+            case OP_ADD:
+                if (isConstant(right, 0) && types.isInt(a)) return a;
+                if (isConstant(left, 0) && types.isInt(b)) return b;
+                return null;
+            case OP_SUB:
+                if (isConstant(right, 0) && types.isInt(a)) return a;
+                if (a == b && isNumber(a)) return newConstant(value, 0);
+                return null;
+            case OP_MUL:
+                if (isConstant(right, 1) && types.isInt(a)) return a;
+                if (isConstant(left, 1) && types.isInt(b)) return b;
+                if (isConstant(right, 0) && isNumber(a) || isConstant(left, 0) && isNumber(b)) return newConstant(value, 0);
+                if (isConstant(right, -1) && isNumber(a)) return newValue(value, BytecodeType.OP_NEG, a);
+                if (isConstant(left, -1) && isNumber(b)) return newValue(value, BytecodeType.OP_NEG, b);
+                if (isPowerOfTwo(right) && isNumber(a)) return newValue(value, BytecodeType.OP_LSHIFT, a, newConstant(value, log2(right)));
+                if (isPowerOfTwo(left) && isNumber(b)) return newValue(value, BytecodeType.OP_LSHIFT, b, newConstant(value, log2(left)));
+                return null;
+            case OP_DIV:
+                if (isConstant(right, 1) && types.isInt(a)) return a;
+                if (isConstant(right, -1) && isNumber(a)) return newValue(value, BytecodeType.OP_NEG, a);
+                if (isPowerOfTwo(right) && isNumber(a) && types.isNonNegative(a)) {
+                    return newValue(value, BytecodeType.OP_RSHIFT, a, newConstant(value, log2(right)));
+                }
+                return null;
+            case OP_MOD:
+                if ((isConstant(right, 1) || isConstant(right, -1)) && isNumber(a)) return newConstant(value, 0);
+                if (isPowerOfTwo(right) && isNumber(a) && types.isNonNegative(a)) {
+                    return newValue(value, BytecodeType.OP_BIT_AND, a, newConstant(value, right - 1));
+                }
+                return null;
+            case OP_BIT_AND:
+                if (isConstant(right, -1) && types.isInt(a)) return a;
+                if (isConstant(left, -1) && types.isInt(b)) return b;
+                return null;
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+                if (isConstant(right, 0) && types.isInt(a)) return a;
+                if (isConstant(left, 0) && types.isInt(b)) return b;
+                return null;
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+                // Only the 5 low bits of the distance are used
+                if (right != null && (right & 31) == 0 && types.isInt(a)) return a;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isArithmetic(BytecodeType type) {
+        switch (type) {
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_BIT_NOT:
+            case OP_NEG:
+            case OP_INC:
+            case OP_DEC:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_LT:
+            case OP_LE:
+            case OP_GT:
+            case OP_GE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isNumber(SsaValue value) {
+        var type = types.typeOf(value);
+        return "int".equals(type) || "char".equals(type);
+    }
+
+    private Integer intConstantOf(SsaValue value) {
+        return types.constantOf(value) instanceof Integer number ? number : null;
+    }
+
+    private static boolean isConstant(Integer constant, int expected) {
+        return constant != null && constant == expected;
+    }
+
+    // The powers of two from 2 to 2^30, a multiplication by 2^31 is left as it is
+    private static boolean isPowerOfTwo(Integer constant) {
+        return constant != null && constant > 1 && Integer.bitCount(constant) == 1;
+    }
+
+    private static int log2(int constant) {
+        return Integer.numberOfTrailingZeros(constant);
+    }
+
+    // A new value before `position` in its block.
+    private SsaValue newValue(SsaValue position, BytecodeType type, SsaValue... operands) {
+        return insertBefore(position, new Bytecode(type), List.of(operands));
+    }
+
+    private SsaValue newConstant(SsaValue position, Object value) {
+        String type;
+        if (value instanceof Integer) type = "int";
+        else if (value instanceof Character) type = "char";
+        else if (value instanceof Boolean) type = "boolean";
+        else type = "string";
+        var constant = environment.newConstant(graph.name, type, value);
+        return insertBefore(position, new Bytecode(BytecodeType.OP_CONSTANT, constant.index), List.of());
+    }
+
+    private SsaValue insertBefore(SsaValue position, Bytecode bytecode, List<SsaValue> operands) {
+        var block = position.block;
+        var value = graph.newValue(SsaValue.Kind.BYTECODE, bytecode, block);
+        value.operands.addAll(operands);
+        block.values.add(block.values.indexOf(position), value);
+        return value;
+    }
+
+    private void replace(SsaValue value, SsaValue replacement) {
+        graph.replaceAllUses(value, replacement);
+        value.block.values.remove(value);
+        value.block = null;
+    }
+
+    // Remove the values without users which have no effect, e.g. the operands of the rewritten values.
+    private void removeDeadValues() {
+        var changed = true;
+        while (changed) {
+            changed = false;
+            var users = graph.users();
+            for (var block : graph.blocks) {
+                changed |= block.values.removeIf(value -> !users.containsKey(value) && isPure(value));
+            }
+        }
+    }
+
+    private static boolean isPure(SsaValue value) {
+        switch (value.type()) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_THIS:
+                return true;
+            case OP_DIV:
+            case OP_MOD:
+                return false;
+            default:
+                return isArithmetic(value.type());
+        }
+    }
+}
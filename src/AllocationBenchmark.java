@@ -0,0 +1,54 @@
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/**
+ * This class compares the boxed `Interpreter` with the `PrimitiveInterpreter`, interpreted only and tiered.
+ * Each program is compiled once, then executed by each engine a few times to warm up the JVM,
+ * and the allocated bytes and the elapsed time of the measured runs are reported per run.
+ * The allocated bytes are those of the thread executing the program, see `Main.runWithLargeStack`,
+ * and the output of the programs is discarded.
+ * Usage: AllocationBenchmark <source.mj>...
+ */
+public class AllocationBenchmark {
+    private static final int WARMUP_RUNS = 10;
+    private static final int MEASURED_RUNS = 10;
+    private static final String[] ENGINES = { Main.BOXED_ENGINE, Main.PRIMITIVE_ENGINE, Main.TIERED_ENGINE };
+
+    private static final PrintStream NULL_OUT = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Error: Usage: AllocationBenchmark <source.mj>...");
+            throw new RuntimeException("Incorrect number of arguments.");
+        }
+        System.out.printf("%-16s %-10s %16s %12s%n", "program", "engine", "bytes/run", "ms/run");
+        for (var source : args) {
+            var sourcePath = new File(source).getAbsolutePath();
+            var loader = Main.compile(sourcePath, false);
+            for (var engine : ENGINES) {
+                for (var i = 0; i < WARMUP_RUNS; i++) Main.execute(loader, engine, NULL_OUT);
+                var bytes = new long[1];
+                var start = System.nanoTime();
+                for (var i = 0; i < MEASURED_RUNS; i++) {
+                    // Measure on the thread which executes the program
+                    var program = Main.newEngine(loader, engine, NULL_OUT);
+                    Main.runWithLargeStack(() -> {
+                        var before = allocatedBytes();
+                        var exitCode = program.call();
+                        bytes[0] += allocatedBytes() - before;
+                        return exitCode;
+                    });
+                }
+                var millis = (System.nanoTime() - start) / 1e6;
+                System.out.printf("%-16s %-10s %16d %12.1f%n", new File(source).getName(), engine, bytes[0] / MEASURED_RUNS, millis / MEASURED_RUNS);
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a basic block of a `ControlFlowGraph`.
+ * The phis come first, then the values in execution order, and at last the terminator if there is one:
+ * a jump to `target`, or `OP_RETURN`.
+ * A block without terminator, or with a conditional jump, continues with `next` if the jump is not taken.
+ * The predecessors are listed once per edge, in the order of the operands of the phis.
+ */
+public class BasicBlock {
+    public final int id;
+    public final List<SsaValue> phis;
+    public final List<SsaValue> values;
+    public SsaValue terminator = null;
+    public BasicBlock target = null;
+    public BasicBlock next = null;
+    public final List<BasicBlock> predecessors;
+
+    public BasicBlock(int id) {
+        this.id = id;
+        this.phis = new ArrayList<>();
+        this.values = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+    }
+
+    // The successors of the block, the taken branch first.
+    public List<BasicBlock> successors() {
+        var successors = new ArrayList<BasicBlock>(2);
+        if (target != null) successors.add(target);
+        if (next != null) successors.add(next);
+        return successors;
+    }
+
+    // The values of the block in execution order, with the phis and the terminator.
+    public List<SsaValue> allValues() {
+        var all = new ArrayList<SsaValue>(phis.size() + values.size() + 1);
+        all.addAll(phis);
+        all.addAll(values);
+        if (terminator != null) all.add(terminator);
+        return all;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + id;
+    }
+}
@@ -29,6 +29,138 @@ public class Bytecode {
         this.type = type;
     }
 
+    // The change of the stack height after executing this bytecode.
+    // `OP_RETURN` leaves the frame, so its effect is not meaningful.
+    public int stackEffect() {
+        switch (type) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_GET_LOCAL:
+            case OP_DUP:
+            case OP_THIS:
+            case OP_SUPER:
+            case OP_NEW_ARRAY_FROM_POOL:
+                return 1;
+            case OP_POP:
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_GE:
+            case OP_LE:
+            case OP_GT:
+            case OP_LT:
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_FALSE:
+            case OP_IF_EQ_NULL:
+            case OP_IF_NE_NULL:
+            case OP_SET_FIELD:
+            case OP_SET_FIELD_UNCHECKED:
+            case OP_GET_INDEX:
+            case OP_GET_INDEX_UNCHECKED:
+                return -1;
+            case OP_SET_INDEX:
+            case OP_SET_INDEX_UNCHECKED:
+            case OP_IF_EQ:
+            case OP_IF_NE:
+            case OP_IF_LT:
+            case OP_IF_LE:
+            case OP_IF_GT:
+            case OP_IF_GE:
+                return -2;
+            case OP_CALL:
+                return 1 - arg2;
+            case OP_INVOKE:
+                return -arg2;
+            case OP_NEW_MULTI_ARRAY:
+            case OP_APPEND:
+                return -arg1;
+            case OP_CONCAT:
+                return 1 - arg1;
+            default:
+                return 0;
+        }
+    }
+
+    // The number of values popped by this bytecode, it pushes `stackEffect() + popCount()` values.
+    // `OP_RETURN` also pops the result of the method if there is one, which depends on the stack height.
+    public int popCount() {
+        switch (type) {
+            case OP_POP:
+            case OP_SET_LOCAL:
+            case OP_DUP:
+            case OP_INC:
+            case OP_DEC:
+            case OP_BIT_NOT:
+            case OP_NEG:
+            case OP_CAST:
+            case OP_INSTANCE_OF:
+            case OP_NEW_ARRAY:
+            case OP_NEW_BUILDER:
+            case OP_BUILD_STRING:
+            case OP_GET_FIELD:
+            case OP_GET_FIELD_UNCHECKED:
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_FALSE:
+            case OP_IF_EQ_NULL:
+            case OP_IF_NE_NULL:
+                return 1;
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_GE:
+            case OP_LE:
+            case OP_GT:
+            case OP_LT:
+            case OP_GET_INDEX:
+            case OP_GET_INDEX_UNCHECKED:
+            case OP_SET_FIELD:
+            case OP_SET_FIELD_UNCHECKED:
+            case OP_IF_EQ:
+            case OP_IF_NE:
+            case OP_IF_LT:
+            case OP_IF_LE:
+            case OP_IF_GT:
+            case OP_IF_GE:
+                return 2;
+            case OP_SET_INDEX:
+            case OP_SET_INDEX_UNCHECKED:
+                return 3;
+            case OP_CALL:
+                return arg2;
+            case OP_INVOKE:
+                return arg2 + 1;
+            case OP_NEW_MULTI_ARRAY:
+            case OP_APPEND:
+                return arg1 + 1;
+            case OP_CONCAT:
+                return arg1;
+            default:
+                return 0;
+        }
+    }
+
     @Override
     public String toString() {
         if (arg1 == null && arg2 == null && name == null) {
@@ -0,0 +1,484 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * This class writes a compiled program to a binary `.mjc` file, and loads it back for execution without the source.
+ * The file starts with a header: the magic number `MJC\0`, the major and minor versions as `u16`,
+ * and the offset of each section as `u32`, in the order of the `*_SECTION` constants:
+ * 1. strings: the names and string values of the program, the other sections refer to them by index,
+ *    a `u32` count and the `u32` offset of each string, then each string as a length and UTF-8 bytes;
+ * 2. methods: the method index, a fixed-size entry of `u32` per method and class initializer, in the order of the program,
+ *    with the name, the parameter count, and the offset and size of its code and of its pools;
+ * 3. classes: the parent class, and the field indices and slots of each class, see `RuntimeClass`;
+ * 4. vtables and 5. layouts: `Environment.vtables` and `Environment.fieldLayouts`;
+ * 6. code: the instructions of each method, an opcode byte whose high bit is set if the instruction has operands,
+ *    then the first operand shifted left by one, with the low bit set if there is a second operand;
+ * 7. pools: the typed constants and the variables of each method.
+ * Counts and operands are unsigned LEB128 varints, the signed ones are zigzag encoded.
+ * The sections are written with a single gathering write, and the file is loaded from a read-only `MappedByteBuffer`.
+ * Loading only reads the method index and links the classes, the code, the pools and the strings of a method
+ * are decoded from the page cache when the method is first executed, so unused methods are never read.
+ * A file of another major version is rejected, the minor version is bumped by changes which older readers can still load.
+ */
+public class BytecodeFile {
+    public static final int MAGIC = 0x4D4A4300;
+    public static final int MAJOR_VERSION = 1;
+    public static final int MINOR_VERSION = 0;
+
+    private static final int STRINGS_SECTION = 0;
+    private static final int METHODS_SECTION = 1;
+    private static final int CLASSES_SECTION = 2;
+    private static final int VTABLES_SECTION = 3;
+    private static final int LAYOUTS_SECTION = 4;
+    private static final int CODE_SECTION = 5;
+    private static final int POOLS_SECTION = 6;
+    private static final int SECTION_COUNT = 7;
+    private static final int HEADER_SIZE = 8 + 4 * SECTION_COUNT;
+    // The `u32` fields of an entry of the method index
+    private static final int METHOD_ENTRY_SIZE = 4 * 8;
+
+    // The tags of the typed constants
+    private static final int NULL_TAG = 0;
+    private static final int INT_TAG = 1;
+    private static final int CHAR_TAG = 2;
+    private static final int BOOLEAN_TAG = 3;
+    private static final int STRING_TAG = 4;
+    private static final int LIST_TAG = 5;
+
+    // The opcode is the low 7 bits of the first byte of an instruction
+    private static final int HAS_OPERANDS = 0x80;
+
+    static {
+        if (BytecodeType.values().length > HAS_OPERANDS) throw new RuntimeException("[ERROR] Too many opcodes for the .mjc format");
+    }
+
+    public final BytecodeLoader loader;
+    // The virtual method tables and the field layouts of the program, the pools are only added by `disassemble`
+    private final Environment environment;
+    // The methods and class initializers in the order of the program
+    private final List<RuntimeMethod> sections;
+    // The sections of the mapped file, in the order of the `*_SECTION` constants
+    private final ByteBuffer[] buffers;
+    // The strings of the string table which are decoded, by index
+    private final String[] strings;
+
+    // Write the sections of `bytecodes`, which are loaded by `loader`, to the file at `path`.
+    public static void write(List<Bytecode> bytecodes, Environment environment, BytecodeLoader loader, String path) throws IOException {
+        var sections = new ArrayList<RuntimeMethod>();
+        for (var bytecode : bytecodes) {
+            if (bytecode.type == BytecodeType.OP_CLASS) sections.add(loader.classes.get(bytecode.name).initializer);
+            else if (bytecode.type == BytecodeType.OP_METHOD) sections.add(loader.methods.get(bytecode.name));
+        }
+        var sectionIndices = new HashMap<String, Integer>();
+        for (var i = 0; i < sections.size(); i++) sectionIndices.put(sections.get(i).name, i);
+
+        var strings = new Strings();
+        var methods = new Output();
+        var classes = new Output();
+        var vtables = new Output();
+        var layouts = new Output();
+        var code = new Output();
+        var pools = new Output();
+
+        methods.u32(sections.size());
+        for (var method : sections) {
+            var codeOffset = code.size();
+            for (var bytecode : method.code()) writeInstruction(code, bytecode);
+            var poolsOffset = pools.size();
+            for (var constant : method.pools().constantPool) {
+                pools.varint(strings.indexOf(constant.type.toString()));
+                writeValue(pools, strings, constant.value);
+            }
+            for (var variable : method.pools().variablePool) {
+                pools.varint(strings.indexOf(variable.name));
+                pools.varint(strings.indexOfNullable(variable.type.primitiveType));
+                pools.varint(strings.indexOfNullable(variable.type.classType));
+                pools.varint(variable.type.arrayDimension);
+            }
+            methods.u32(strings.indexOf(method.name));
+            methods.u32(method.parameterCount);
+            methods.u32(codeOffset);
+            methods.u32(code.size() - codeOffset);
+            methods.u32(method.code().length);
+            methods.u32(poolsOffset);
+            methods.u32(method.pools().constantPool.size());
+            methods.u32(method.pools().variablePool.size());
+        }
+
+        classes.varint(loader.classes.size());
+        for (var runtimeClass : loader.classes.values()) {
+            classes.varint(sectionIndices.get(runtimeClass.name));
+            classes.varint(strings.indexOfNullable(runtimeClass.parent == null ? null : runtimeClass.parent.name));
+            classes.varint(runtimeClass.fieldIndices.size());
+            for (var i = 0; i < runtimeClass.fieldIndices.size(); i++) {
+                classes.varint(runtimeClass.fieldIndices.get(i));
+                classes.varint(runtimeClass.fieldSlots.get(i));
+            }
+        }
+        writeTables(vtables, strings, environment.vtables);
+        writeTables(layouts, strings, environment.fieldLayouts);
+
+        var buffers = new ByteBuffer[] {
+            null, strings.flip(), methods.flip(), classes.flip(), vtables.flip(), layouts.flip(), code.flip(), pools.flip()
+        };
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putShort((short) MAJOR_VERSION).putShort((short) MINOR_VERSION);
+        var offset = HEADER_SIZE;
+        for (var section = 0; section < SECTION_COUNT; section++) {
+            header.putInt(offset);
+            offset += buffers[section + 1].remaining();
+        }
+        buffers[0] = header.flip();
+
+        try (var channel = FileChannel.open(Path.of(path), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var remaining = (long) offset;
+            while (remaining > 0) remaining -= channel.write(buffers);
+        }
+    }
+
+    private static void writeInstruction(Output code, Bytecode bytecode) {
+        if (bytecode.name != null) throw new RuntimeException("[ERROR] Unexpected section header " + bytecode.name);
+        if (bytecode.arg1 == null) {
+            code.u8(bytecode.type.ordinal());
+            return;
+        }
+        code.u8(bytecode.type.ordinal() | HAS_OPERANDS);
+        code.varint(zigzag(bytecode.arg1) << 1 | (bytecode.arg2 != null ? 1 : 0));
+        if (bytecode.arg2 != null) code.varint(zigzag(bytecode.arg2));
+    }
+
+    private static void writeValue(Output pools, Strings strings, Object value) {
+        if (value == null) {
+            pools.u8(NULL_TAG);
+        } else if (value instanceof Integer i) {
+            pools.u8(INT_TAG);
+            pools.varint(zigzag(i));
+        } else if (value instanceof Character c) {
+            pools.u8(CHAR_TAG);
+            pools.varint(c);
+        } else if (value instanceof Boolean b) {
+            pools.u8(BOOLEAN_TAG);
+            pools.u8(b ? 1 : 0);
+        } else if (value instanceof String s) {
+            pools.u8(STRING_TAG);
+            pools.varint(strings.indexOf(s));
+        } else if (value instanceof List<?> elements) {
+            pools.u8(LIST_TAG);
+            pools.varint(elements.size());
+            for (var element : elements) writeValue(pools, strings, element);
+        } else {
+            throw new RuntimeException("[ERROR] Constant " + value + " cannot be written to a .mjc file");
+        }
+    }
+
+    private static void writeTables(Output output, Strings strings, LinkedHashMap<String, List<String>> tables) {
+        output.varint(tables.size());
+        for (var entry : tables.entrySet()) {
+            output.varint(strings.indexOf(entry.getKey()));
+            output.varint(entry.getValue().size());
+            for (var name : entry.getValue()) output.varint(strings.indexOf(name));
+        }
+    }
+
+    // Load the program of the file at `path`, only the method index and the class links are read,
+    // each method is decoded from the mapped file when its code or its pools are first used.
+    public static BytecodeFile load(String path) throws IOException {
+        MappedByteBuffer buffer;
+        try (var channel = FileChannel.open(Path.of(path), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new RuntimeException("[ERROR] " + path + " is not a .mjc file");
+        }
+        var major = Short.toUnsignedInt(buffer.getShort(4));
+        var minor = Short.toUnsignedInt(buffer.getShort(6));
+        if (major != MAJOR_VERSION) {
+            throw new RuntimeException("[ERROR] " + path + " has version " + major + "." + minor + ", expected " + MAJOR_VERSION + ".x");
+        }
+        var offsets = new int[SECTION_COUNT + 1];
+        for (var section = 0; section < SECTION_COUNT; section++) offsets[section] = buffer.getInt(8 + 4 * section);
+        offsets[SECTION_COUNT] = buffer.limit();
+        var sections = new ByteBuffer[SECTION_COUNT];
+        for (var section = 0; section < SECTION_COUNT; section++) {
+            sections[section] = buffer.slice(offsets[section], offsets[section + 1] - offsets[section]);
+        }
+        return new BytecodeFile(sections);
+    }
+
+    private BytecodeFile(ByteBuffer[] buffers) {
+        this.buffers = buffers;
+        this.strings = new String[buffers[STRINGS_SECTION].getInt(0)];
+        this.environment = new Environment();
+        this.loader = new BytecodeLoader();
+        readTables(input(VTABLES_SECTION, 0), environment.vtables);
+        readTables(input(LAYOUTS_SECTION, 0), environment.fieldLayouts);
+
+        var methods = buffers[METHODS_SECTION];
+        var methodCount = methods.getInt(0);
+        this.sections = new ArrayList<>(methodCount);
+        for (var i = 0; i < methodCount; i++) {
+            var entry = 4 + i * METHOD_ENTRY_SIZE;
+            var name = string(methods.getInt(entry));
+            var className = name.contains("::") ? name.substring(0, name.indexOf("::")) : name;
+            var method = new RuntimeMethod(name, className, methods.getInt(entry + 4), () -> readPools(entry), () -> readCode(entry));
+            loader.addMethod(method);
+            sections.add(method);
+        }
+
+        var classes = input(CLASSES_SECTION, 0);
+        for (var count = classes.varint(); count > 0; count--) {
+            var runtimeClass = loader.classes.get(sections.get((int) classes.varint()).name);
+            var parent = (int) classes.varint();
+            var fieldIndices = new ArrayList<Integer>();
+            var fieldSlots = new ArrayList<Integer>();
+            for (var fields = classes.varint(); fields > 0; fields--) {
+                fieldIndices.add((int) classes.varint());
+                fieldSlots.add((int) classes.varint());
+            }
+            loader.link(runtimeClass, parent == 0 ? null : string(parent - 1), fieldIndices, fieldSlots, environment);
+        }
+    }
+
+    // The section `section` of the file from `offset`.
+    private Input input(int section, int offset) {
+        return new Input(buffers[section].duplicate().position(offset));
+    }
+
+    // The string at `index` of the string table, decoded on first use.
+    private String string(int index) {
+        if (strings[index] == null) {
+            var data = 4 + 4 * strings.length;
+            strings[index] = input(STRINGS_SECTION, data + buffers[STRINGS_SECTION].getInt(4 + 4 * index)).string();
+        }
+        return strings[index];
+    }
+
+    // The code of the method of the entry at `entry` in the method index.
+    private Bytecode[] readCode(int entry) {
+        var methods = buffers[METHODS_SECTION];
+        var code = input(CODE_SECTION, methods.getInt(entry + 8));
+        var instructions = new Bytecode[methods.getInt(entry + 16)];
+        for (var pc = 0; pc < instructions.length; pc++) instructions[pc] = readInstruction(code);
+        return instructions;
+    }
+
+    private static Bytecode readInstruction(Input code) {
+        var opcode = code.u8();
+        var type = BytecodeType.values()[opcode & ~HAS_OPERANDS];
+        if ((opcode & HAS_OPERANDS) == 0) return new Bytecode(type);
+        var operands = code.varint();
+        var arg1 = unzigzag(operands >>> 1);
+        if ((operands & 1) == 0) return new Bytecode(type, arg1);
+        return new Bytecode(type, arg1, unzigzag(code.varint()));
+    }
+
+    // The pools of the method of the entry at `entry` in the method index.
+    private Pools readPools(int entry) {
+        var methods = buffers[METHODS_SECTION];
+        var name = string(methods.getInt(entry));
+        var input = input(POOLS_SECTION, methods.getInt(entry + 20));
+        var pools = new Pools();
+        pools.parameterCount = methods.getInt(entry + 4);
+        for (var i = methods.getInt(entry + 24); i > 0; i--) {
+            var constant = new MiniJavaObject(string((int) input.varint()), readValue(input));
+            constant.pool = name;
+            constant.index = pools.constantIndex++;
+            pools.addConstant(constant);
+        }
+        for (var i = methods.getInt(entry + 28); i > 0; i--) {
+            var variableName = string((int) input.varint());
+            var primitiveType = (int) input.varint();
+            var classType = (int) input.varint();
+            var type = new MiniJavaType(primitiveType == 0 ? null : string(primitiveType - 1),
+                                        classType == 0 ? null : string(classType - 1), (int) input.varint());
+            var variable = new MiniJavaObject(type, variableName);
+            variable.pool = name;
+            variable.index = pools.variableIndex++;
+            pools.variablePool.add(variable);
+        }
+        return pools;
+    }
+
+    private Object readValue(Input input) {
+        var tag = input.u8();
+        switch (tag) {
+            case NULL_TAG:
+                return null;
+            case INT_TAG:
+                return unzigzag(input.varint());
+            case CHAR_TAG:
+                return (char) input.varint();
+            case BOOLEAN_TAG:
+                return input.u8() != 0;
+            case STRING_TAG:
+                return string((int) input.varint());
+            case LIST_TAG: {
+                var elements = new ArrayList<Object>();
+                for (var count = input.varint(); count > 0; count--) elements.add(readValue(input));
+                return List.copyOf(elements);
+            }
+            default:
+                throw new RuntimeException("[ERROR] Unknown constant tag " + tag);
+        }
+    }
+
+    private void readTables(Input input, LinkedHashMap<String, List<String>> tables) {
+        for (var count = input.varint(); count > 0; count--) {
+            var key = string((int) input.varint());
+            var table = new ArrayList<String>();
+            for (var size = input.varint(); size > 0; size--) table.add(string((int) input.varint()));
+            tables.put(key, table);
+        }
+    }
+
+    // Write the bytecodes and the pools of the program in the text formats of
+    // `BytecodeGenerator.displayBytecodes` and `Environment.displayEnvironment`, every method is decoded.
+    public void disassemble(String bytecodePath, String poolsPath) {
+        var generator = new BytecodeGenerator();
+        for (var method : sections) {
+            generator.emitBytecode(method.isInitializer ? BytecodeType.OP_CLASS : BytecodeType.OP_METHOD, method.name);
+            generator.bytecodes.addAll(List.of(method.code()));
+            environment.pools.put(method.name, method.pools());
+        }
+        generator.displayBytecodes(bytecodePath);
+        environment.displayEnvironment(poolsPath);
+    }
+
+    // Print how many methods and class initializers were decoded, the others were never executed.
+    public void report(PrintStream log) {
+        var decoded = 0;
+        for (var method : sections) {
+            if (method.isDecoded()) decoded++;
+        }
+        log.printf("[LOAD] decoded %d of %d methods%n", decoded, sections.size());
+    }
+
+    private static long zigzag(int value) {
+        return Integer.toUnsignedLong((value << 1) ^ (value >> 31));
+    }
+
+    private static int unzigzag(long value) {
+        return (int) (value >>> 1) ^ -(int) (value & 1);
+    }
+
+    // The strings of the program, each one is written once and referred to by index.
+    private static class Strings {
+        final Output output = new Output();
+        final HashMap<String, Integer> indices = new HashMap<>();
+        final ArrayList<String> strings = new ArrayList<>();
+
+        int indexOf(String string) {
+            return indices.computeIfAbsent(string, key -> {
+                strings.add(key);
+                return strings.size() - 1;
+            });
+        }
+
+        // The index plus one, or 0 for null
+        int indexOfNullable(String string) {
+            return string == null ? 0 : indexOf(string) + 1;
+        }
+
+        // The count, the offset of each string from the end of the offsets, then the strings
+        ByteBuffer flip() {
+            var data = new Output();
+            output.u32(strings.size());
+            for (var string : strings) {
+                output.u32(data.size());
+                var bytes = string.getBytes(StandardCharsets.UTF_8);
+                data.varint(bytes.length);
+                data.bytes(bytes);
+            }
+            output.bytes(data.flip());
+            return output.flip();
+        }
+    }
+
+    // A growable buffer of a section.
+    private static class Output {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+
+        int size() {
+            return buffer.position();
+        }
+
+        private void reserve(int size) {
+            if (buffer.remaining() >= size) return;
+            var grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            grown.put(buffer.flip());
+            buffer = grown;
+        }
+
+        void u8(int value) {
+            reserve(1);
+            buffer.put((byte) value);
+        }
+
+        void u32(int value) {
+            reserve(4);
+            buffer.putInt(value);
+        }
+
+        void varint(long value) {
+            reserve(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void bytes(byte[] bytes) {
+            reserve(bytes.length);
+            buffer.put(bytes);
+        }
+
+        void bytes(ByteBuffer bytes) {
+            reserve(bytes.remaining());
+            buffer.put(bytes);
+        }
+
+        ByteBuffer flip() {
+            return buffer.flip();
+        }
+    }
+
+    // A section of the mapped file, read from its position.
+    private static class Input {
+        final ByteBuffer buffer;
+
+        Input(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int u8() {
+            return Byte.toUnsignedInt(buffer.get());
+        }
+
+        long varint() {
+            long value = 0;
+            for (var shift = 0; ; shift += 7) {
+                var b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+        }
+
+        String string() {
+            var length = (int) varint();
+            var string = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+            buffer.position(buffer.position() + length);
+            return string;
+        }
+    }
+}
@@ -2,12 +2,16 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 
 /**
  * This class is responsible for generating bytecode for the MiniJava compiler.
  * It contains a list of bytecodes and methods to emit bytecodes.
  * It also has methods to get and set variables, and to display the generated bytecodes.
+ * Jumps are emitted with the labels of `Environment.newLabel`, until `resolveJumps` replaces each label
+ * with the offset of its target in the method and removes `OP_LABEL`, so the output runs without relinking.
  */
 public class BytecodeGenerator {
     public final List<Bytecode> bytecodes;
@@ -40,6 +44,57 @@ public class BytecodeGenerator {
         } else emitBytecode(BytecodeType.OP_SET_INDEX);
     }
 
+    // Resolve the labels of each `OP_CLASS` or `OP_METHOD` section to offsets in the section, and remove `OP_LABEL`.
+    // Jumps are threaded first: a jump to `OP_JUMP L` jumps to `L` directly,
+    // and `OP_JUMP` to `OP_RETURN` is replaced with `OP_RETURN`.
+    public void resolveJumps() {
+        BytecodeLoader.rewriteSections(bytecodes, section -> resolveSection(section.code()));
+    }
+
+    private static List<Bytecode> resolveSection(List<Bytecode> section) {
+        // The index in `section` of the instruction following each label, and its offset once labels are removed
+        var targets = new HashMap<Integer, Integer>();
+        var offsets = new int[section.size() + 1];
+        var offset = 0;
+        for (var i = section.size() - 1; i >= 0; i--) {
+            if (section.get(i).type != BytecodeType.OP_LABEL) continue;
+            var next = i + 1;
+            while (next < section.size() && section.get(next).type == BytecodeType.OP_LABEL) next++;
+            targets.put(section.get(i).arg1, next);
+        }
+        for (var i = 0; i < section.size(); i++) {
+            offsets[i] = offset;
+            if (section.get(i).type != BytecodeType.OP_LABEL) offset++;
+        }
+        offsets[section.size()] = offset;
+
+        var code = new ArrayList<Bytecode>(offset);
+        for (var bytecode : section) {
+            if (bytecode.type == BytecodeType.OP_LABEL) continue;
+            if (!BytecodeLoader.isJump(bytecode.type)) {
+                code.add(bytecode);
+                continue;
+            }
+            var target = targetOf(targets, bytecode.arg1);
+            // Follow chains of unconditional jumps, a cycle of them is an infinite loop and stays as it is
+            var visited = new HashSet<Integer>();
+            while (target < section.size() && section.get(target).type == BytecodeType.OP_JUMP && visited.add(target)) {
+                target = targetOf(targets, section.get(target).arg1);
+            }
+            if (bytecode.type == BytecodeType.OP_JUMP && target < section.size() && section.get(target).type == BytecodeType.OP_RETURN) {
+                code.add(new Bytecode(BytecodeType.OP_RETURN));
+            } else {
+                code.add(new Bytecode(bytecode.type, offsets[target]));
+            }
+        }
+        return code;
+    }
+
+    private static int targetOf(HashMap<Integer, Integer> targets, Integer label) {
+        var target = targets.get(label);
+        if (target == null) throw new RuntimeException("[ERROR] Label " + label + " not found");
+        return target;
+    }
 
     public void displayBytecodes(String filePath) {
         try (PrintWriter writer = new PrintWriter(new FileWriter(filePath))) {
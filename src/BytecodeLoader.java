@@ -0,0 +1,153 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * This class loads the bytecodes emitted by `BytecodeGenerator` for execution.
+ * The bytecodes are split into sections by `OP_CLASS` and `OP_METHOD`,
+ * each section is paired with the pools of the same name in the `Environment`.
+ * The jumps are already resolved by `BytecodeGenerator.resolveJumps`:
+ * the operand of each jump instruction is the offset of its target in its section.
+ * Classes are linked with their parent classes and methods using the class hierarchy of `SemanticsVisitor`,
+ * their virtual method tables are resolved from the mangled names in `Environment.vtables`,
+ * and their fields get the slots of `Environment.fieldLayouts`.
+ * `BytecodeFile` loads the same classes and methods from a binary `.mjc` file instead.
+ */
+public class BytecodeLoader {
+    public final LinkedHashMap<String, RuntimeClass> classes;
+    public final LinkedHashMap<String, RuntimeMethod> methods;
+
+    // An empty loader, the methods are added with `addMethod`, see `BytecodeFile.load`
+    BytecodeLoader() {
+        this.classes = new LinkedHashMap<>();
+        this.methods = new LinkedHashMap<>();
+    }
+
+    public BytecodeLoader(List<Bytecode> bytecodes, Environment environment, SemanticsVisitor semanticsVisitor) {
+        this();
+
+        // Collect the parameter count of each method from its declared signature
+        var parameterCounts = new HashMap<String, Integer>();
+        for (var methodSignatures : semanticsVisitor.getClassMethodMap().values()) {
+            for (var methodSig : methodSignatures) {
+                parameterCounts.put(methodSig.mangle(), methodSig.parameterTypes.size());
+            }
+        }
+
+        for (var section : sections(bytecodes)) {
+            var name = section.header().name;
+            var className = section.isMethod() ? name.substring(0, name.indexOf("::")) : name;
+            loadSection(name, className, section.code(), environment, parameterCounts);
+        }
+
+        // Link the classes with their parent classes and fields
+        var parentClassMap = semanticsVisitor.getParentClassMap();
+        var classFieldMap = semanticsVisitor.getClassFieldMap();
+        for (var runtimeClass : classes.values()) {
+            var fields = classFieldMap.get(runtimeClass.name);
+            var variablePool = runtimeClass.initializer.pools().variablePool;
+            var layout = environment.fieldLayouts.getOrDefault(runtimeClass.name, List.of());
+            var fieldIndices = new ArrayList<Integer>();
+            var fieldSlots = new ArrayList<Integer>();
+            for (var i = 0; i < variablePool.size(); i++) {
+                // Temporary variables of the field initializers are not fields
+                if (fields == null || !fields.containsKey(variablePool.get(i).name)) continue;
+                fieldIndices.add(i);
+                fieldSlots.add(layout.indexOf(variablePool.get(i).name));
+            }
+            link(runtimeClass, parentClassMap.get(runtimeClass.name), fieldIndices, fieldSlots, environment);
+        }
+    }
+
+    // Link a class with its parent class, its fields at `fieldIndices` of the initializer's variable pool,
+    // which are stored at `fieldSlots` of its objects, and its virtual method table.
+    void link(RuntimeClass runtimeClass, String parentName, List<Integer> fieldIndices, List<Integer> fieldSlots, Environment environment) {
+        if (parentName != null) runtimeClass.parent = classes.get(parentName);
+        runtimeClass.fieldIndices.addAll(fieldIndices);
+        runtimeClass.fieldSlots.addAll(fieldSlots);
+        runtimeClass.fieldCount = environment.fieldLayouts.getOrDefault(runtimeClass.name, List.of()).size();
+        var table = environment.vtables.get(runtimeClass.name);
+        if (table == null) return;
+        runtimeClass.vtable = new RuntimeMethod[table.size()];
+        for (var slot = 0; slot < table.size(); slot++) {
+            runtimeClass.vtable[slot] = methods.get(table.get(slot));
+            if (runtimeClass.vtable[slot] == null) throw new RuntimeException("[ERROR] Method " + table.get(slot) + " not found");
+        }
+    }
+
+    private void loadSection(String name, String className, List<Bytecode> section, Environment environment, HashMap<String, Integer> parameterCounts) {
+        var pools = environment.pools.get(name);
+        addMethod(new RuntimeMethod(name, className, pools, section.toArray(new Bytecode[0]), parameterCounts.getOrDefault(name, 0)));
+    }
+
+    // Add a method, or a new class with its initializer. The class of a method is added before the method.
+    void addMethod(RuntimeMethod method) {
+        var className = method.className;
+        if (method.isInitializer) {
+            var runtimeClass = new RuntimeClass(className);
+            runtimeClass.initializer = method;
+            classes.put(className, runtimeClass);
+        } else {
+            methods.put(method.name, method);
+            var runtimeClass = classes.get(className);
+            if (runtimeClass != null) runtimeClass.methods.put(method.selector, method);
+        }
+    }
+
+    // A section of the bytecodes: its header, `OP_CLASS` or `OP_METHOD`, and its code up to the next header.
+    // The code of a class section is the initializer of its fields, and its locals are the fields of the class,
+    // so the passes which optimize the locals and the control flow of the methods leave it as it is, see `isMethod`.
+    public record Section(Bytecode header, List<Bytecode> code) {
+        public boolean isMethod() {
+            return header.type == BytecodeType.OP_METHOD;
+        }
+    }
+
+    // Split the bytecodes, which start with a header, into sections. The code of each section is a view of `bytecodes`.
+    public static List<Section> sections(List<Bytecode> bytecodes) {
+        var sections = new ArrayList<Section>();
+        var start = 0;
+        for (var end = 1; end <= bytecodes.size(); end++) {
+            if (end < bytecodes.size() && !isSectionHeader(bytecodes.get(end))) continue;
+            sections.add(new Section(bytecodes.get(start), bytecodes.subList(start + 1, end)));
+            start = end;
+        }
+        return sections;
+    }
+
+    // Replace the code of each section with the result of `rewrite`, which may return the code as it is.
+    public static void rewriteSections(List<Bytecode> bytecodes, Function<Section, List<Bytecode>> rewrite) {
+        var result = new ArrayList<Bytecode>(bytecodes.size());
+        for (var section : sections(bytecodes)) {
+            result.add(section.header());
+            result.addAll(rewrite.apply(section));
+        }
+        bytecodes.clear();
+        bytecodes.addAll(result);
+    }
+
+    private static boolean isSectionHeader(Bytecode bytecode) {
+        return bytecode.type == BytecodeType.OP_CLASS || bytecode.type == BytecodeType.OP_METHOD;
+    }
+
+    public static boolean isJump(BytecodeType type) {
+        switch (type) {
+            case OP_JUMP:
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_FALSE:
+            case OP_IF_EQ:
+            case OP_IF_NE:
+            case OP_IF_LT:
+            case OP_IF_LE:
+            case OP_IF_GT:
+            case OP_IF_GE:
+            case OP_IF_EQ_NULL:
+            case OP_IF_NE_NULL:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
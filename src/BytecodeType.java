@@ -171,6 +171,8 @@ public enum BytecodeType {
     OP_LT("OP_LT"),
 
     // Marks a label for jump instructions.
+    // It only exists during code generation: `BytecodeGenerator.resolveJumps` removes it,
+    // and the operand of each jump becomes the offset of its target in the method instead of the label.
     // Stack before: [...]
     // Stack after: [...]
     // Usage: OP_LABEL <label>
@@ -194,6 +196,54 @@ public enum BytecodeType {
     // Usage: OP_JUMP_IF_FALSE <label>
     OP_JUMP_IF_FALSE("OP_JUMP_IF_FALSE"),
 
+    // Pops two values and jumps to a label if they are equal, as `OP_EQ`.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_EQ <label>
+    OP_IF_EQ("OP_IF_EQ"),
+
+    // Pops two values and jumps to a label if they are not equal, as `OP_NEQ`.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_NE <label>
+    OP_IF_NE("OP_IF_NE"),
+
+    // Pops two values and jumps to a label if a < b.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_LT <label>
+    OP_IF_LT("OP_IF_LT"),
+
+    // Pops two values and jumps to a label if a <= b.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_LE <label>
+    OP_IF_LE("OP_IF_LE"),
+
+    // Pops two values and jumps to a label if a > b.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_GT <label>
+    OP_IF_GT("OP_IF_GT"),
+
+    // Pops two values and jumps to a label if a >= b.
+    // Stack before: [..., a, b]
+    // Stack after: [...]
+    // Usage: OP_IF_GE <label>
+    OP_IF_GE("OP_IF_GE"),
+
+    // Pops a value and jumps to a label if it is null.
+    // Stack before: [..., value]
+    // Stack after: [...]
+    // Usage: OP_IF_EQ_NULL <label>
+    OP_IF_EQ_NULL("OP_IF_EQ_NULL"),
+
+    // Pops a value and jumps to a label if it is not null.
+    // Stack before: [..., value]
+    // Stack after: [...]
+    // Usage: OP_IF_NE_NULL <label>
+    OP_IF_NE_NULL("OP_IF_NE_NULL"),
+
     // Defines a method with the `method_name`.
     // Stack before: []
     // Stack after: []
@@ -203,7 +253,8 @@ public enum BytecodeType {
     // Invokes a method on an object.
     // Stack before: [..., object, argument1, argument2, ...]
     // Stack after: [..., result]
-    // Usage: OP_INVOKE <method_name> <argument_count>
+    // The method is the one in the `vtable_slot` of the virtual method table of the object's class.
+    // Usage: OP_INVOKE <vtable_slot> <argument_count>
     OP_INVOKE("OP_INVOKE"),
 
 
@@ -216,13 +267,15 @@ public enum BytecodeType {
     // Gets a field from an object.
     // Stack before: [object]
     // Stack after: [object.property]
-    // Usage: OP_GET_FIELD <filed_name>
+    // The field is the one in the `field_slot` of the field layout of the object's class.
+    // Usage: OP_GET_FIELD <field_slot>
     OP_GET_FIELD("OP_GET_FIELD"),
 
     // Sets a field on an object.
     // Stack before: [object, value]
     // Stack after: [value]
-    // Usage: OP_SET_FIELD <filed_name>
+    // The field is the one in the `field_slot` of the field layout of the object's class.
+    // Usage: OP_SET_FIELD <field_slot>
     OP_SET_FIELD("OP_SET_FIELD"),
 
     // Gets the instance of current class.
@@ -250,6 +303,7 @@ public enum BytecodeType {
     OP_INSTANCE_OF("OP_INSTANCE_OF"),
 
     // Calls a function with arguments.
+    // An instance method is called without dispatch, its receiver is the first argument, see `ClassHierarchy`.
     // Stack before: [argument1, argument2, ..., argumentN]
     // Stack after: [result]
     // Usage: OP_CALL <method_name> <argument_count>
@@ -261,10 +315,11 @@ public enum BytecodeType {
     // Usage: OP_RETURN
     OP_RETURN("OP_RETURN"),
 
-    // Creates a new array with size.
+    // Creates a new array with size, the elements are of the type named by the constant `type_index`, e.g. "int",
+    // so that the arrays of `int`, `char` and `boolean` can be stored unboxed.
     // Stack before: [ size ]
     // Stack after: [ array ]
-    // Usage: OP_NEW_ARRAY
+    // Usage: OP_NEW_ARRAY <type_index>
     OP_NEW_ARRAY("OP_NEW_ARRAY"),
 
     // Duplicates the top value on the stack.
@@ -283,7 +338,70 @@ public enum BytecodeType {
     // Stack before: [array, index, value]
     // Stack after: [value]
     // Usage: OP_SET_INDEX
-    OP_SET_INDEX("OP_SET_INDEX");
+    OP_SET_INDEX("OP_SET_INDEX"),
+
+    // Gets a field from an object which is known not to be null, see `CheckElimination`.
+    // Stack before: [object]
+    // Stack after: [object.property]
+    // Usage: OP_GET_FIELD_UNCHECKED <field_slot>
+    OP_GET_FIELD_UNCHECKED("OP_GET_FIELD_UNCHECKED"),
+
+    // Sets a field on an object which is known not to be null, see `CheckElimination`.
+    // Stack before: [object, value]
+    // Stack after: [value]
+    // Usage: OP_SET_FIELD_UNCHECKED <field_slot>
+    OP_SET_FIELD_UNCHECKED("OP_SET_FIELD_UNCHECKED"),
+
+    // Gets an element from an array which is known not to be null, at an index known to be in bounds, see `CheckElimination`.
+    // Stack before: [ array, index ]
+    // Stack after: [ array[index] ]
+    // Usage: OP_GET_INDEX_UNCHECKED
+    OP_GET_INDEX_UNCHECKED("OP_GET_INDEX_UNCHECKED"),
+
+    // Sets an element in an array which is known not to be null, at an index known to be in bounds, see `CheckElimination`.
+    // Stack before: [array, index, value]
+    // Stack after: [value]
+    // Usage: OP_SET_INDEX_UNCHECKED
+    OP_SET_INDEX_UNCHECKED("OP_SET_INDEX_UNCHECKED"),
+
+    // Creates a new array with a copy of the elements of an array constant, e.g. `{1, 2, 3}`.
+    // Stack before: []
+    // Stack after: [ array ]
+    // Usage: OP_NEW_ARRAY_FROM_POOL <constant_index>
+    OP_NEW_ARRAY_FROM_POOL("OP_NEW_ARRAY_FROM_POOL"),
+
+    // Creates a new array of `dimension_count` dimensions, e.g. `new int[n][m]`,
+    // the elements of the last dimension are `default`, which is the default value of the element type or null.
+    // The sizes are checked before any array is created, a size of 0 leaves the next dimensions empty.
+    // Stack before: [ size1, size2, ..., sizeN, default ]
+    // Stack after: [ array ]
+    // Usage: OP_NEW_MULTI_ARRAY <dimension_count>
+    OP_NEW_MULTI_ARRAY("OP_NEW_MULTI_ARRAY"),
+
+    // Concatenates the display strings of `count` values, e.g. `s + ":" + n + "\n"`,
+    // the length of the result is computed first, so no intermediate string is created.
+    // Stack before: [ value1, value2, ..., valueN ]
+    // Stack after: [ string ]
+    // Usage: OP_CONCAT <count>
+    OP_CONCAT("OP_CONCAT"),
+
+    // Creates a string builder with the display string of the value, for a local string which is appended to in a loop.
+    // Stack before: [ string ]
+    // Stack after: [ builder ]
+    // Usage: OP_NEW_BUILDER
+    OP_NEW_BUILDER("OP_NEW_BUILDER"),
+
+    // Appends the display strings of `count` values to a string builder, e.g. `s += "," + n` in a loop.
+    // Stack before: [ builder, value1, value2, ..., valueN ]
+    // Stack after: [ builder ]
+    // Usage: OP_APPEND <count>
+    OP_APPEND("OP_APPEND"),
+
+    // Gets the string of a string builder, after the loop which appends to it.
+    // Stack before: [ builder ]
+    // Stack after: [ string ]
+    // Usage: OP_BUILD_STRING
+    OP_BUILD_STRING("OP_BUILD_STRING");
 
     private final String name;
 
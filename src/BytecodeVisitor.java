@@ -1,7 +1,13 @@
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Stack;
 
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ParseTree;
 
 
 /**
@@ -20,11 +26,75 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
     private final BytecodeGenerator bytecodeGenerator;
     // The semantics visitor is used to get the type of a `ParserRuleContext`.
     private final SemanticsVisitor semanticsVisitor;
-
-    public BytecodeVisitor(BytecodeGenerator bytecodeGenerator, Environment environment, SemanticsVisitor semanticsVisitor) {
+    // The virtual tables give the slot of each method invoked by `OP_INVOKE`.
+    private final VirtualTables virtualTables;
+    // The class hierarchy analysis turns invocations with a single target into calls, null if disabled.
+    private final ClassHierarchy classHierarchy;
+    // The field layouts give the slot of each field accessed by `OP_GET_FIELD` and `OP_SET_FIELD`.
+    private final FieldLayouts fieldLayouts;
+    // Constant expressions are emitted as a single constant, see `ConstantFolder`.
+    private final ConstantFolder constantFolder;
+    // The values of the local variables which are initialized with a constant and never assigned again
+    private final IdentityHashMap<MiniJavaObject, Object> constantLocals;
+
+    public BytecodeVisitor(BytecodeGenerator bytecodeGenerator, Environment environment, SemanticsVisitor semanticsVisitor,
+            ClassHierarchy classHierarchy) {
         this.bytecodeGenerator = bytecodeGenerator;
         this.environment = environment;
         this.semanticsVisitor = semanticsVisitor;
+        this.virtualTables = new VirtualTables(semanticsVisitor);
+        this.classHierarchy = classHierarchy;
+        this.fieldLayouts = new FieldLayouts(semanticsVisitor);
+        this.constantFolder = new ConstantFolder(this::constantOf);
+        this.constantLocals = new IdentityHashMap<>();
+    }
+
+    private Object constantOf(String identifier) {
+        var variable = environment.findVariable(identifier);
+        return variable != null ? constantLocals.get(variable) : null;
+    }
+
+    private void emitConstant(Object value) {
+        var constant = environment.newConstant(constantType(value), value);
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, constant.index);
+    }
+
+    // The type of a constant of `ConstantFolder`.
+    private static String constantType(Object value) {
+        if (value instanceof Integer) return "int";
+        if (value instanceof Character) return "char";
+        if (value instanceof Boolean) return "boolean";
+        return "string";
+    }
+
+    // Whether `name` is the target of an assignment, `++` or `--` in `ctx`.
+    private boolean isAssigned(ParseTree ctx, String name) {
+        if (ctx instanceof MiniJavaParser.ExpressionContext exp) {
+            MiniJavaParser.ExpressionContext target = null;
+            if (exp.bop != null && isArithmeticAssignExp(exp.bop.getType())) target = exp.expression(0);
+            else if (exp.postfix != null) target = exp.expression(0);
+            else if (exp.prefix != null && (exp.prefix.getType() == MiniJavaParser.INC || exp.prefix.getType() == MiniJavaParser.DEC)) target = exp.expression(0);
+            while (target != null && target.primary() != null && target.primary().expression() != null) target = target.primary().expression();
+            if (target != null && target.primary() != null && target.primary().identifier() != null
+                    && target.primary().identifier().getText().equals(name)) return true;
+        }
+        for (var i = 0; i < ctx.getChildCount(); i++) {
+            if (isAssigned(ctx.getChild(i), name)) return true;
+        }
+        return false;
+    }
+
+    // A local variable initialized with a constant is a constant if it is never assigned in its scope,
+    // i.e. the enclosing block, or the `for` statement of its declaration.
+    private void recordConstantLocal(MiniJavaParser.LocalVariableDeclarationContext ctx, MiniJavaObject variable,
+            MiniJavaParser.ExpressionContext initializer) {
+        if (initializer == null || !variable.type.isPrimitive()) return;
+        var value = constantFolder.fold(initializer);
+        if (value != null) value = ConstantFolder.cast(value, variable.type.toString());
+        if (value == null) return;
+        ParseTree scope = ctx.getParent();
+        while (!(scope instanceof MiniJavaParser.BlockContext || scope instanceof MiniJavaParser.StatementContext)) scope = scope.getParent();
+        if (!isAssigned(scope, variable.name)) constantLocals.put(variable, value);
     }
 
     // The break and continue stacks are used to manage the break and continue statements in loops.
@@ -32,6 +102,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
     // when we meet a break or continue statement, we pop the label from the stack and emit a jump instruction to the label.
     private Stack<Integer> breakStack = new Stack<>();
     private Stack<Integer> continueStack = new Stack<>();
+    // The local strings which hold a string builder in the current loops, see `beginBuilders`.
+    private HashSet<MiniJavaObject> builders = new HashSet<>();
 
 
     private boolean isConditionExp(MiniJavaParser.ExpressionContext ctx) {
@@ -109,6 +181,12 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         if (ctx.primary() != null) {
             var id = ctx.primary().identifier().getText();
             var variable = environment.findVariable(id);
+            // If the variable is not found in the local scope, it must be a field of `this`.
+            if (variable == null) {
+                bytecodeGenerator.emitBytecode(BytecodeType.OP_THIS);
+                var slot = fieldLayouts.slotOf(environment.currentClass, id);
+                return new MiniJavaObject(new MiniJavaType(null, "field", 0), slot);
+            }
             return new MiniJavaObject(new MiniJavaType("primitive", null, 0), variable.index);
         }
         // expression [ expression ]
@@ -120,15 +198,59 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         // expression DOT identifier
         else if (ctx.bop != null) {
             visit(ctx.expression(0));
-            var id = ctx.identifier().getText();
-            var field = environment.newConstant("string", id);
-            return new MiniJavaObject(new MiniJavaType(null, "field", 0), field.index);
+            var className = semanticsVisitor.getType(ctx.expression(0)).classType;
+            var slot = fieldLayouts.slotOf(className, ctx.identifier().getText());
+            return new MiniJavaObject(new MiniJavaType(null, "field", 0), slot);
         } 
         else {
             throw new RuntimeException("Unknown left value expression: " + ctx.getText());
         }
     }
 
+    // Primitive values are converted implicitly on assignment, e.g. `int x = 'a'` or `string s = 1`,
+    // but the conversion must be explicit in the bytecode, so that the value at runtime always has the declared type.
+    private void emitImplicitCast(MiniJavaType fromType, MiniJavaType toType) {
+        if (fromType == null || toType == null) return;
+        if (!fromType.isPrimitive() || !toType.isPrimitive() || fromType.isNull()) return;
+        if (fromType.isEqual(toType)) return;
+        var type = environment.newConstant("string", toType.toString());
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_CAST, type.index);
+    }
+
+    // Find the declared signature of a mangled method, built-in methods have no declared signature.
+    private MethodSignature findMethodSignature(String mangledMethod) {
+        var className = mangledMethod.substring(0, mangledMethod.indexOf("::"));
+        var methodSignatures = semanticsVisitor.getClassMethodMap().get(className);
+        if (methodSignatures == null) return null;
+        for (var methodSig : methodSignatures) {
+            if (methodSig.mangle().equals(mangledMethod)) return methodSig;
+        }
+        return null;
+    }
+
+    // Translate the escape sequences of a char or string literal.
+    static String unescape(String literal) {
+        var sb = new StringBuilder();
+        for (var i = 0; i < literal.length(); i++) {
+            var c = literal.charAt(i);
+            if (c != '\\' || i + 1 >= literal.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = literal.charAt(++i);
+            switch (c) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case '0': sb.append('\0'); break;
+                default: sb.append(c); break;
+            }
+        }
+        return sb.toString();
+    }
+
     @Override
     public Void visitCompilationUnit(MiniJavaParser.CompilationUnitContext ctx) {
         var classDecls = ctx.classDeclaration();
@@ -148,6 +270,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
     public Void visitClassDeclaration(MiniJavaParser.ClassDeclarationContext ctx) {
         var className = ctx.identifier().getText();
         environment.currentClass = className;
+        environment.vtables.put(className, virtualTables.tableOf(className));
+        environment.fieldLayouts.put(className, fieldLayouts.layoutOf(className));
         bytecodeGenerator.emitBytecode(BytecodeType.OP_CLASS, className);
         environment.clearSymbolTable();
         visitClassBody(ctx.classBody());
@@ -175,14 +299,15 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         for (var fieldDecl : fieldDecls) {
             visit(fieldDecl);
         }
+        // Fields are locals of the class initializer only,
+        // constructors and methods access them through `this`.
+        environment.removeSymbolTable();
         for (var constructor : constructors) {
             visit(constructor);
         }
         for (var methodDecl : methodDecls) {
             visit(methodDecl);
         }
-
-        environment.removeSymbolTable();
         return null;
     }
 
@@ -198,7 +323,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         } else {
             visit(declarator.variableInitializer());
             var type = semanticsVisitor.getType(declarator.variableInitializer());
-            var variable = environment.newVariable(type, identifier);
+            emitImplicitCast(type, defaultValue);
+            var variable = environment.newVariable(defaultValue, identifier);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
         }
         return null;
@@ -222,6 +348,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         environment.newMethod(methodMangle, params);
         bytecodeGenerator.emitBytecode(BytecodeType.OP_METHOD, methodMangle);
         visit(ctx.constructorBody);
+        // Remove the symbol table of the parameters
+        environment.removeSymbolTable();
         return null;
     }
 
@@ -249,6 +377,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         environment.newMethod(methodMangle, params);
         bytecodeGenerator.emitBytecode(BytecodeType.OP_METHOD, methodMangle);
         visit(ctx.methodBody);
+        // Remove the symbol table of the parameters
+        environment.removeSymbolTable();
         return null;
     }
 
@@ -282,19 +412,37 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         if (initializers == null) {
             var arraySize = environment.newConstant("int", 0);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, arraySize.index);
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY, environment.newConstant("string", "null").index);
             return null;
         }
         var size = initializers.size();
+        // The element type is the type of the first initializer, see `SemanticsVisitor.visitArrayInitializer`,
+        // and the other initializers are converted to it, e.g. `{1, 'a'}` is an `int[]`
+        var elementType = semanticsVisitor.getType(initializers.get(0));
+        // An array of constants, e.g. a lookup table, is a single constant copied by `OP_NEW_ARRAY_FROM_POOL`
+        var elements = new ArrayList<Object>(size);
+        for (var initializer : initializers) {
+            var element = initializer.expression() != null ? constantFolder.fold(initializer.expression()) : null;
+            if (element != null) element = ConstantFolder.cast(element, elementType.toString());
+            if (element == null) break;
+            elements.add(element);
+        }
+        if (elements.size() == size) {
+            var table = environment.newConstant(elementType + "[]", List.copyOf(elements));
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY_FROM_POOL, table.index); // { array[size] }
+            return null;
+        }
         // Create a new array of the given size
         var arraySize = environment.newConstant("int", size);
         bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, arraySize.index); // { size }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY); // { array[size] }
+        var type = environment.newConstant("string", elementType.toString());
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY, type.index); // { array[size] }
         for (var i = 0; i < size; i++) {
             bytecodeGenerator.emitBytecode(BytecodeType.OP_DUP); // { array[size], array[size] }
             var index = environment.newConstant("int", i);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, index.index); // { array[size], array[size], i }
             visit(initializers.get(i)); // { array[size], array[size], i, initializer }
+            emitImplicitCast(semanticsVisitor.getType(initializers.get(i)), elementType);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_INDEX); // { array[size], array[i] }
             bytecodeGenerator.emitBytecode(BytecodeType.OP_POP); // { array[size] }
         }
@@ -319,15 +467,21 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
             var defaultValue = semanticsVisitor.getType(ctx.typeType());
             var declarator = ctx.variableDeclarator();
             var identifier = declarator.identifier().getText();
-            // If the variable is not initialized, we need to set a default value
-            // to the variable in the symbol table
+            // If the variable is not initialized, we need to store its default value,
+            // because the declaration may run more than once (e.g. in a loop) and its slot may be shared
             if (declarator.variableInitializer() == null) {
-                environment.newVariable(defaultValue, identifier);
+                var value = RuntimeMethod.defaultValue(defaultValue).value;
+                if (value != null) emitConstant(value);
+                else bytecodeGenerator.emitBytecode(BytecodeType.OP_NIL);
+                var variable = environment.newVariable(defaultValue, identifier);
+                bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
             } else {
                 visit(declarator.variableInitializer());
                 var type = semanticsVisitor.getType(declarator.variableInitializer());
-                var variable = environment.newVariable(type, identifier);
+                emitImplicitCast(type, defaultValue);
+                var variable = environment.newVariable(defaultValue, identifier);
                 bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
+                recordConstantLocal(ctx, variable, declarator.variableInitializer().expression());
             }
             return null;
         }
@@ -338,29 +492,26 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
             visit(ctx.expression());
             var variable = environment.newVariable(type, identifier);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
+            recordConstantLocal(ctx, variable, ctx.expression());
             return null;
         }
     }
 
     private Void visitIfStatement(MiniJavaParser.StatementContext ctx) {
         if (ctx.ELSE() == null) {
-            Integer true_label = environment.newLabel();
             Integer end_label = environment.newLabel();
-            // visit the condition expression, if true, jump to true_label, else jump to end_label
-            visitConditionExp(ctx.parExpression().expression(), true_label, end_label);
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, true_label);
+            // visit the condition expression, if false, jump to end_label, else fall through to the statement
+            visitConditionJump(ctx.parExpression().expression(), end_label, false);
             visit(ctx.statement(0));
             bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, end_label);
         } else {
-            // If there is an else statement, we need to generate three labels:
-            // 1. true_label: the label for the true branch
-            // 2. false_label: the label for the false branch
-            // 3. end_label: the label for the end of the if statement
-            Integer true_label = environment.newLabel();
+            // If there is an else statement, we need to generate two labels:
+            // 1. false_label: the label for the false branch
+            // 2. end_label: the label for the end of the if statement
+            // The true branch follows the condition.
             Integer false_label = environment.newLabel();
             Integer end_label = environment.newLabel();
-            visitConditionExp(ctx.parExpression().expression(), true_label, false_label);
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, true_label);
+            visitConditionJump(ctx.parExpression().expression(), false_label, false);
             visit(ctx.statement(0));
             bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, end_label);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, false_label);
@@ -372,29 +523,30 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
 
     private Void visitWhileStatement(MiniJavaParser.StatementContext ctx) {
         // while ( parExpression ) statement
+        // The loop is rotated so that the condition is at the bottom:
+        // each iteration dispatches only the fused jump back to the body.
 
         // Generate labels for the loop:
-        Integer start_label = environment.newLabel(); // Loop condition check label
-        Integer true_label = environment.newLabel(); // Label for entering the loop body
+        Integer body_label = environment.newLabel(); // Label for the loop body
+        Integer condition_label = environment.newLabel(); // Loop condition check label
         Integer end_label = environment.newLabel(); // Label for loop exit
 
         // Push the current loop's labels onto the stacks
         breakStack.push(end_label);
-        continueStack.push(start_label);
-
-        // Emit label for the start of the loop (condition evaluation)
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, start_label);
-        // Evaluate the condition: if true, jump to true_label; if false, jump to
-        // end_label.
-        visitConditionExp(ctx.parExpression().expression(), true_label, end_label);
-        // Emit label for the loop body (true branch)
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, true_label);
-        // Process the loop body
+        continueStack.push(condition_label);
+
+        var strings = beginBuilders(ctx);
+        // Enter the loop at the condition check
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, condition_label);
+        // Emit label for the loop body and process it
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, body_label);
         visit(ctx.statement(0));
-        // After executing the body, jump back to the condition evaluation
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, start_label);
+        // Evaluate the condition: if true, jump back to the body, else fall through to the exit.
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, condition_label);
+        visitConditionJump(ctx.parExpression().expression(), body_label, true);
         // Emit the loop exit label
         bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, end_label);
+        endBuilders(strings);
 
         // Pop loop labels off the stacks
         breakStack.pop();
@@ -410,42 +562,49 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
 
         // Process initialization (if present)
         var forInit = ctx.forControl().forInit();
-        if (forInit != null)
-            visit(forInit);
+        if (forInit != null) {
+            if (forInit.localVariableDeclaration() != null) {
+                visit(forInit.localVariableDeclaration());
+                bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
+            } else {
+                visitForExpressionList(forInit.expressionList());
+            }
+        }
 
-        // Generate labels:
-        Integer start_label = environment.newLabel(); // Condition check label (also used for continue)
-        Integer true_label = environment.newLabel(); // Label for entering loop body
+        // Generate labels, the loop is rotated like in `visitWhileStatement`:
+        Integer body_label = environment.newLabel(); // Label for loop body
+        Integer update_label = environment.newLabel(); // Update label for continue
+        Integer condition_label = environment.newLabel(); // Condition check label
         Integer end_label = environment.newLabel(); // Exit label for break
 
         // Push the loop labels
         breakStack.push(end_label);
-        continueStack.push(start_label);
+        continueStack.push(update_label);
 
-        // Emit label for condition evaluation
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, start_label);
+        var strings = beginBuilders(ctx);
+        // Enter the loop at the condition check
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, condition_label);
 
-        // Evaluate the loop condition if present; if not, always true
-        if (ctx.forControl().expression() != null) {
-            visitConditionExp(ctx.forControl().expression(), true_label, end_label);
-        } else {
-            // No condition means always jump to the body
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, true_label);
-        }
-
-        // Emit label for loop body
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, true_label);
-        // Process the loop body
+        // Emit label for loop body and process it
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, body_label);
         visit(ctx.statement(0));
 
         // Process update expression(s) if present (forUpdate is an expressionList)
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, update_label);
         if (ctx.forControl().forUpdate != null) {
-            visit(ctx.forControl().forUpdate);
+            visitForExpressionList(ctx.forControl().forUpdate);
+        }
+
+        // Evaluate the loop condition if present: if true, jump back to the body; if not, always jump back
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, condition_label);
+        if (ctx.forControl().expression() != null) {
+            visitConditionJump(ctx.forControl().expression(), body_label, true);
+        } else {
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, body_label);
         }
-        // Jump back to condition check
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, start_label);
         // Emit loop exit label
         bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, end_label);
+        endBuilders(strings);
 
         // Pop the loop labels off the stacks
         breakStack.pop();
@@ -456,6 +615,15 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         return null;
     }
 
+    // Each expression of `forInit` and `forUpdate` is used as a statement,
+    // so we need to pop its value to keep the evaluation stack empty.
+    private void visitForExpressionList(MiniJavaParser.ExpressionListContext ctx) {
+        for (var exp : ctx.expression()) {
+            visit(exp);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
+        }
+    }
+
     private Void visitContinueStatement(MiniJavaParser.StatementContext ctx) {
         if (continueStack.isEmpty())
             throw new RuntimeException("Continue statement not within a loop");
@@ -513,9 +681,124 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         }
     }
 
+    // The local strings which are only appended to in the loop `ctx`, i.e. every use of the variable in the loop,
+    // including its condition and update, is a statement `s += x`, are kept in a string builder during the loop,
+    // so that building a string in a loop is not quadratic. Every exit of the loop goes through its end label,
+    // where the strings are built, except `return`, after which the variable is not used.
+    private List<MiniJavaObject> beginBuilders(MiniJavaParser.StatementContext ctx) {
+        var appends = new LinkedHashMap<String, Integer>();
+        var uses = new HashMap<String, Integer>();
+        countAppends(ctx, appends, uses);
+        var strings = new ArrayList<MiniJavaObject>();
+        for (var entry : appends.entrySet()) {
+            var variable = environment.findVariable(entry.getKey());
+            if (variable == null || !variable.type.isString() || builders.contains(variable)) continue;
+            if (!entry.getValue().equals(uses.get(entry.getKey()))) continue;
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, variable.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_BUILDER);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
+            builders.add(variable);
+            strings.add(variable);
+        }
+        return strings;
+    }
+
+    private void endBuilders(List<MiniJavaObject> strings) {
+        for (var variable : strings) {
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, variable.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_BUILD_STRING);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, variable.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
+            builders.remove(variable);
+        }
+    }
+
+    // Count the statements `name += x` and the uses of each name in `ctx`, a declaration is also a use.
+    private static void countAppends(ParseTree ctx, LinkedHashMap<String, Integer> appends, HashMap<String, Integer> uses) {
+        if (ctx instanceof MiniJavaParser.StatementContext statement && statement.expression() != null && statement.RETURN() == null) {
+            var exp = statement.expression();
+            if (exp.bop != null && exp.bop.getType() == MiniJavaParser.ADD_ASSIGN
+                    && exp.expression(0).primary() != null && exp.expression(0).primary().identifier() != null) {
+                appends.merge(exp.expression(0).primary().identifier().getText(), 1, Integer::sum);
+            }
+        } else if (ctx instanceof MiniJavaParser.PrimaryContext primary && primary.identifier() != null) {
+            uses.merge(primary.identifier().getText(), 1, Integer::sum);
+        } else if (ctx instanceof MiniJavaParser.VariableDeclaratorContext declarator) {
+            uses.merge(declarator.identifier().getText(), 1, Integer::sum);
+        } else if (ctx instanceof MiniJavaParser.LocalVariableDeclarationContext declaration && declaration.identifier() != null) {
+            uses.merge(declaration.identifier().getText(), 1, Integer::sum);
+        }
+        for (var i = 0; i < ctx.getChildCount(); i++) countAppends(ctx.getChild(i), appends, uses);
+    }
+
+    // The local string of `s` in `s += x` if it holds a string builder, otherwise null.
+    private MiniJavaObject builderOf(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.primary() == null || ctx.primary().identifier() == null) return null;
+        var variable = environment.findVariable(ctx.primary().identifier().getText());
+        return builders.contains(variable) ? variable : null;
+    }
+
+    // The operands of a chain of string `+`, e.g. `s + ":" + n` is `s`, `":"` and `n`.
+    // `+` is left-associative, so only the left operand may be a chain,
+    // and an operand which is not a string is kept whole, e.g. `1 + 2` in `1 + 2 + s`.
+    private List<MiniJavaParser.ExpressionContext> concatOperands(MiniJavaParser.ExpressionContext ctx) {
+        var operands = new ArrayList<MiniJavaParser.ExpressionContext>();
+        while (isStringAdd(ctx)) {
+            operands.add(0, ctx.expression(1));
+            ctx = ctx.expression(0);
+        }
+        operands.add(0, ctx);
+        return operands;
+    }
+
+    private boolean isStringAdd(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.bop == null || ctx.bop.getType() != MiniJavaParser.ADD) return false;
+        var type = semanticsVisitor.getType(ctx);
+        return type != null && type.isString();
+    }
+
+    // Emit the operands of a chain of string `+` and return the number of values on the stack,
+    // the adjacent constants are joined, e.g. `s + 1 + "\n"` is `s` and `"1\n"`.
+    private int emitConcatOperands(MiniJavaParser.ExpressionContext ctx) {
+        var count = 0;
+        var constants = new ArrayList<Object>();
+        for (var operand : concatOperands(ctx)) {
+            var value = constantFolder.fold(operand);
+            if (value != null) {
+                constants.add(value);
+                continue;
+            }
+            count += emitJoinedConstants(constants);
+            visit(operand);
+            count++;
+        }
+        return count + emitJoinedConstants(constants);
+    }
+
+    private int emitJoinedConstants(List<Object> constants) {
+        if (constants.isEmpty()) return 0;
+        if (constants.size() == 1) {
+            emitConstant(constants.get(0));
+        } else {
+            var joined = new StringBuilder();
+            for (var constant : constants) joined.append(ConstantFolder.cast(constant, "string"));
+            emitConstant(joined.toString());
+        }
+        constants.clear();
+        return 1;
+    }
+
     // When visit arithmetic expression, we prepare the left expression first,
     // then right expression, and emit the bytecode for the operation.
     private Void visitArithmeticExp(MiniJavaParser.ExpressionContext ctx) {
+        // A chain of string `+` creates a single string
+        if (isStringAdd(ctx)) {
+            var count = emitConcatOperands(ctx);
+            if (count == 2) bytecodeGenerator.emitBytecode(BytecodeType.OP_ADD);
+            else bytecodeGenerator.emitBytecode(BytecodeType.OP_CONCAT, count);
+            return null;
+        }
         visit(ctx.expression(0));
         visit(ctx.expression(1));
         switch (ctx.bop.getType()) {
@@ -561,10 +844,19 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
     // 1. prepare the left value for assignment, e.g. identifier, expression [ expression ], expression DOT identifier
     // 2. calculate the arithmetic expression and assign the result to the left value
     private Void visitArithmeticAssign(MiniJavaParser.ExpressionContext ctx) {
+        var builder = ctx.bop.getType() == MiniJavaParser.ADD_ASSIGN ? builderOf(ctx.expression(0)) : null;
+        if (builder != null) {
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, builder.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_APPEND, emitConcatOperands(ctx.expression(1)));
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, builder.index);
+            return null;
+        }
         var leftExp = getLeftValueExp(ctx.expression(0));
         var object = prepareLeftValue(leftExp);
+        var leftType = semanticsVisitor.getType(ctx.expression(0));
         if (ctx.bop.getType() == MiniJavaParser.ASSIGN) {
             visit(ctx.expression(1));
+            emitImplicitCast(semanticsVisitor.getType(ctx.expression(1)), leftType);
             bytecodeGenerator.setVariable(object);
             return null;
         }
@@ -573,6 +865,11 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         switch (ctx.bop.getType()) {
             case MiniJavaParser.ADD_ASSIGN:
                 bytecodeGenerator.emitBytecode(BytecodeType.OP_ADD);
+                // `char += int` keeps the type of the left value
+                if (leftType != null && leftType.isChar() && !semanticsVisitor.getType(ctx.expression(1)).isChar()) {
+                    var type = environment.newConstant("string", "char");
+                    bytecodeGenerator.emitBytecode(BytecodeType.OP_CAST, type.index);
+                }
                 bytecodeGenerator.setVariable(object);
                 return null;
             case MiniJavaParser.SUB_ASSIGN:
@@ -648,10 +945,12 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         if (ctx.postfix.getType() == MiniJavaParser.INC) {
             bytecodeGenerator.emitBytecode(BytecodeType.OP_INC);
             bytecodeGenerator.setVariable(object);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
             return null;
         } else if (ctx.postfix.getType() == MiniJavaParser.DEC) {
             bytecodeGenerator.emitBytecode(BytecodeType.OP_DEC);
             bytecodeGenerator.setVariable(object);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
             return null;
         }
         return null;
@@ -691,69 +990,111 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         }
     }
 
-    // To support short circuit evaluation, we need to use true label and false label to control the flow of the program.
-    // We introduce new bytecode for conditional jump: OP_JUMP_IF_TRUE and OP_JUMP_IF_FALSE.
-    private void visitConditionExp(MiniJavaParser.ExpressionContext ctx, Integer true_label, Integer false_label) {
-        if (ctx.bop != null) {
-            if (ctx.bop.getType() == MiniJavaParser.AND) {
-                Integer label = environment.newLabel();
-                visitConditionExp(ctx.expression(0), label, false_label);
-                bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, label);
-                visitConditionExp(ctx.expression(1), true_label, false_label);
-            } else if (ctx.bop.getType() == MiniJavaParser.OR) {
-                Integer label = environment.newLabel();
-                visitConditionExp(ctx.expression(0), true_label, label);
-                bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, label);
-                visitConditionExp(ctx.expression(1), true_label, false_label);
+    // To support short circuit evaluation, a condition is lowered to jumps instead of a boolean value.
+    // The emitted code jumps to `label` if the condition evaluates to `jumpIf`, and falls through otherwise,
+    // so the caller places the other branch right after the condition and no unconditional jump is needed.
+    // A comparison is fused with its jump, e.g. `a < b` jumping if false becomes `OP_IF_GE label`.
+    private void visitConditionJump(MiniJavaParser.ExpressionContext ctx, Integer label, boolean jumpIf) {
+        if (constantFolder.fold(ctx) instanceof Boolean value) {
+            // A constant condition either always jumps or always falls through
+            if (value == jumpIf) bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, label);
+        } else if (ctx.bop != null && isConditionExp(ctx)) {
+            var bop = ctx.bop.getType();
+            if (bop == MiniJavaParser.AND || bop == MiniJavaParser.OR) {
+                // The left operand decides alone if it is false for `&&` or true for `||`
+                var decides = bop == MiniJavaParser.OR;
+                if (decides == jumpIf) {
+                    visitConditionJump(ctx.expression(0), label, jumpIf);
+                    visitConditionJump(ctx.expression(1), label, jumpIf);
+                } else {
+                    Integer skip_label = environment.newLabel();
+                    visitConditionJump(ctx.expression(0), skip_label, decides);
+                    visitConditionJump(ctx.expression(1), label, jumpIf);
+                    bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, skip_label);
+                }
+            } else if ((bop == MiniJavaParser.EQUAL || bop == MiniJavaParser.NOTEQUAL) && isNullLiteral(ctx.expression(1))) {
+                // Exp == null, Exp != null
+                visit(ctx.expression(0));
+                var isNull = (bop == MiniJavaParser.EQUAL) == jumpIf;
+                bytecodeGenerator.emitBytecode(isNull ? BytecodeType.OP_IF_EQ_NULL : BytecodeType.OP_IF_NE_NULL, label);
             } else {
-                // Exp -> Exp RELOP Exp
+                // Exp -> Exp RELOP Exp, inverted if it jumps when false
                 visit(ctx.expression(0));
                 visit(ctx.expression(1));
-                switch (ctx.bop.getType()) {
-                    case MiniJavaParser.EQUAL:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_EQ);
-                        break;
-                    case MiniJavaParser.NOTEQUAL:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_NEQ);
-                        break;
-                    case MiniJavaParser.LT:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_LT);
-                        break;
-                    case MiniJavaParser.LE:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_LE);
-                        break;
-                    case MiniJavaParser.GT:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_GT);
-                        break;
-                    case MiniJavaParser.GE:
-                        bytecodeGenerator.emitBytecode(BytecodeType.OP_GE);
-                        break;
-                }
-                bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP_IF_TRUE, true_label);
-                bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, false_label);
+                bytecodeGenerator.emitBytecode(compareAndBranchOf(jumpIf ? bop : invertedOf(bop)), label);
             }
-        } else if (ctx.prefix != null) {
+        } else if (ctx.prefix != null && ctx.prefix.getType() == MiniJavaParser.BANG) {
             // Exp -> !Exp
-            visitConditionExp(ctx.expression(0), false_label, true_label);
+            visitConditionJump(ctx.expression(0), label, !jumpIf);
+        } else if (ctx.primary() != null && ctx.primary().expression() != null) {
+            // Exp -> ( Exp )
+            visitConditionJump(ctx.primary().expression(), label, jumpIf);
         } else {
-            throw new RuntimeException("Unknown condition expression: " + ctx.getText());
+            // Exp -> boolean value, e.g. a variable, a literal or a method call
+            visit(ctx);
+            bytecodeGenerator.emitBytecode(jumpIf ? BytecodeType.OP_JUMP_IF_TRUE : BytecodeType.OP_JUMP_IF_FALSE, label);
+        }
+    }
+
+    private static boolean isNullLiteral(MiniJavaParser.ExpressionContext ctx) {
+        return ctx.primary() != null && ctx.primary().literal() != null && ctx.primary().literal().NULL_LITERAL() != null;
+    }
+
+    private static int invertedOf(int bop) {
+        switch (bop) {
+            case MiniJavaParser.EQUAL: return MiniJavaParser.NOTEQUAL;
+            case MiniJavaParser.NOTEQUAL: return MiniJavaParser.EQUAL;
+            case MiniJavaParser.LT: return MiniJavaParser.GE;
+            case MiniJavaParser.LE: return MiniJavaParser.GT;
+            case MiniJavaParser.GT: return MiniJavaParser.LE;
+            case MiniJavaParser.GE: return MiniJavaParser.LT;
+            default: throw new RuntimeException("[ERROR] Not a comparison: " + bop);
         }
     }
 
-    // This method handles conditional expressions (e.g., logical AND, OR, etc.).
-    // It uses true and false labels to implement short-circuit evaluation.
-    // Initially, a false value is pushed onto the stack.
-    // If the condition evaluates to true, the false value is popped, and a true value is pushed instead.
+    private static BytecodeType compareAndBranchOf(int bop) {
+        switch (bop) {
+            case MiniJavaParser.EQUAL: return BytecodeType.OP_IF_EQ;
+            case MiniJavaParser.NOTEQUAL: return BytecodeType.OP_IF_NE;
+            case MiniJavaParser.LT: return BytecodeType.OP_IF_LT;
+            case MiniJavaParser.LE: return BytecodeType.OP_IF_LE;
+            case MiniJavaParser.GT: return BytecodeType.OP_IF_GT;
+            case MiniJavaParser.GE: return BytecodeType.OP_IF_GE;
+            default: throw new RuntimeException("[ERROR] Not a comparison: " + bop);
+        }
+    }
+
+    private static BytecodeType comparisonOf(int bop) {
+        switch (bop) {
+            case MiniJavaParser.EQUAL: return BytecodeType.OP_EQ;
+            case MiniJavaParser.NOTEQUAL: return BytecodeType.OP_NEQ;
+            case MiniJavaParser.LT: return BytecodeType.OP_LT;
+            case MiniJavaParser.LE: return BytecodeType.OP_LE;
+            case MiniJavaParser.GT: return BytecodeType.OP_GT;
+            case MiniJavaParser.GE: return BytecodeType.OP_GE;
+            default: throw new RuntimeException("[ERROR] Not a comparison: " + bop);
+        }
+    }
+
+    // This method handles conditions used as values (e.g., `var b = x < y && y < z;`).
+    // A single comparison pushes its result directly, e.g. `OP_LT`.
+    // Otherwise the condition jumps to false_label if it is false, and falls through to push true.
     private Void visitConditionalExp(MiniJavaParser.ExpressionContext ctx) {
-        Integer true_label = environment.newLabel();
+        var bop = ctx.bop != null ? ctx.bop.getType() : -1;
+        if (ctx.bop != null && bop != MiniJavaParser.AND && bop != MiniJavaParser.OR) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            bytecodeGenerator.emitBytecode(comparisonOf(bop));
+            return null;
+        }
         Integer false_label = environment.newLabel();
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_FALSE);
-        visitConditionExp(ctx, true_label, false_label);
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, true_label);
-        // Pop out the False value
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_POP);
+        Integer end_label = environment.newLabel();
+        visitConditionJump(ctx, false_label, false);
         bytecodeGenerator.emitBytecode(BytecodeType.OP_TRUE);
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, end_label);
         bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, false_label);
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_FALSE);
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, end_label);
         return null;
     }
 
@@ -787,96 +1128,20 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         return null;
     }
 
-    private Void arrayCreator(MiniJavaParser.CreatorContext ctx, int curDim) {
+    // new type[size1]...[sizeN][]...[], the sizes are evaluated first, then every dimension is created at once.
+    // The elements of the last given dimension are the default value of the element type,
+    // or null if it is an array, e.g. `int[3][]`, or an object, e.g. `MyClass[3]`.
+    private Void arrayCreator(MiniJavaParser.CreatorContext ctx) {
         var rest = ctx.arrayCreatorRest();
-        var expList = rest.expression();
-
-        int providedDims = expList.size();
-        int totalDims = rest.LBRACK().size();
-
-        // If we are at a dimension without a size expression
-        if (curDim >= providedDims) {
-            if (providedDims != totalDims || ctx.createdName().identifier() != null) {
-                // Push null for not fully initialized arrays: int[3][] or class arrays: MyClass[3]
-                bytecodeGenerator.emitBytecode(BytecodeType.OP_NIL); // stack: { null }
-                return null;
-            } else {
-                // Handle default values for fully initialized primitive types
-                var type = ctx.createdName().primitiveType().getText();
-                var primitive = MiniJavaType.newPrimitiveType(type);
-                if (primitive.isInt()) {
-                    var defaultInt = environment.newConstant("int", 0);
-                    bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, defaultInt.index); // stack: { 0 }
-                    return null;
-                } else if (primitive.isBoolean()) {
-                    var defaultBool = environment.newConstant("boolean", false);
-                    bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, defaultBool.index); // stack: { false }
-                    return null;
-                } else if (primitive.isChar()) {
-                    var defaultChar = environment.newConstant("char", '\0');
-                    bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, defaultChar.index); // stack: { '\0' }
-                    return null;
-                } else if (primitive.isString()) {
-                    var defaultString = environment.newConstant("string", "");
-                    bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, defaultString.index); // stack: { "" }
-                    return null;
-                }
-                throw new RuntimeException("Unknown primitive type: " + type);
-            }
-        }
-
-        // Visit the current dimension size expression
-        visit(expList.get(curDim)); // stack: { size }
-        var sizeVar = environment.newTemp();
-        // Store the size in a temporary variable
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, sizeVar.index); // stack: {}
-        // Create a new array of the given size
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_ARRAY); // stack: { array }
-        var arrayVar = environment.newTemp();
-        // Store the array in a temporary variable
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, arrayVar.index); // stack: {}
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_POP); // stack: {}
-
-        // Initialize the index variable to 0
-        var indexVar = environment.newTemp();
-        var defaultValue = environment.newConstant("int", 0);
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, defaultValue.index); // stack: { 0 }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, indexVar.index); // stack: {}
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_POP); // stack: {}
-
-        // Start of the loop
-        var loopStart = environment.newLabel();
-        var loopEnd = environment.newLabel();
-
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, loopStart); // stack: {}
-        // Load index and size for comparison
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, indexVar.index); // stack: { index }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, sizeVar.index); // stack: { index, size }
-        // Check if index >= size
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GE); // stack: { index >= size }
-        // If true, jump to the end of the loop
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP_IF_TRUE, loopEnd); // stack: {}
-
-        // Load the array and index for assignment
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, arrayVar.index); // stack: { array }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, indexVar.index); // stack: { array, index }
-        // Recursively create subarrays
-        arrayCreator(ctx, curDim + 1); // stack: { array, index, subArray }
-        // Assign the subarray to the current index
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_INDEX); // stack: {}
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_POP); // stack: {}
-
-        // Increment the index variable
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_LOCAL, indexVar.index); // stack: { index }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_INC); // stack: { index + 1 }
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_SET_LOCAL, indexVar.index); // stack: {}
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_POP); // stack: {}
-
-        // Jump back to the start of the loop
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_JUMP, loopStart); // stack: {}
-        // End of the loop
-        bytecodeGenerator.emitBytecode(BytecodeType.OP_LABEL, loopEnd); // stack: {}
-
+        var sizes = rest.expression();
+        for (var size : sizes) visit(size); // stack: { size1, ..., sizeN }
+        var createdName = ctx.createdName();
+        var elementType = new MiniJavaType(createdName.primitiveType() != null ? createdName.primitiveType().getText() : null,
+                createdName.identifier() != null ? createdName.identifier().getText() : null, rest.LBRACK().size() - sizes.size());
+        var defaultValue = RuntimeMethod.defaultValue(elementType).value;
+        if (defaultValue != null) emitConstant(defaultValue); // stack: { size1, ..., sizeN, default }
+        else bytecodeGenerator.emitBytecode(BytecodeType.OP_NIL); // stack: { size1, ..., sizeN, null }
+        bytecodeGenerator.emitBytecode(BytecodeType.OP_NEW_MULTI_ARRAY, sizes.size()); // stack: { array }
         return null;
     }
 
@@ -885,15 +1150,17 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         if (rest.arrayInitializer() != null) {
             return visit(rest.arrayInitializer());
         }
-        else return arrayCreator(ctx, 0);
+        else return arrayCreator(ctx);
     }
 
     private Void visitClassCreator(MiniJavaParser.CreatorContext ctx) {
         var paramTypes = new ArrayList<MiniJavaType>();
+        var constructor = findMethodSignature(semanticsVisitor.getMangledMethod(ctx));
         if (ctx.classCreatorRest().expressionList() != null)
             for (var exp : ctx.classCreatorRest().expressionList().expression()){
                 visit(exp);
                 var arg = semanticsVisitor.getType(exp);
+                emitImplicitCast(arg, constructor.parameterTypes.get(paramTypes.size()));
                 paramTypes.add(arg);
             }
         var methodName = environment.newConstant("string", semanticsVisitor.getMangledMethod(ctx)); 
@@ -913,21 +1180,39 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
     // Note that about method overloading, we handle it in the semantics visitor.
     // So we just get the right mangled method name from the semantics visitor,
     // and emit the bytecode for the method call.
-    private Void visitClassMethodCall(MiniJavaParser.MethodCallContext ctx, String className, boolean isDotMethodCall) {
+    // A method call without receiver inside a class may resolve to an instance method,
+    // in that case it is an invocation on `this`.
+    // For invocations, the overload is resolved statically but the override is resolved at runtime,
+    // so we emit the slot of the selector of the resolved method in the vtable of the static class of the receiver,
+    // unless the class hierarchy shows a single method can be invoked, which we call directly with the receiver.
+    private Void visitClassMethodCall(MiniJavaParser.MethodCallContext ctx, String className, boolean isDotMethodCall, boolean isSuper) {
+        var mangledMethod = semanticsVisitor.getMangledMethod(ctx);
+        var isImplicitThis = !isDotMethodCall && !mangledMethod.startsWith("global::");
+        var methodSig = findMethodSignature(mangledMethod);
+        if (isImplicitThis) {
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_THIS);
+        }
         var argumentTypes = new ArrayList<MiniJavaType>();
         if (ctx.arguments().expressionList() != null) {
             for (var exp : ctx.arguments().expressionList().expression()) {
                 visit(exp);
                 var arg = semanticsVisitor.getType(exp);
+                if (methodSig != null) emitImplicitCast(arg, methodSig.parameterTypes.get(argumentTypes.size()));
                 argumentTypes.add(arg);
             }
         }
-        if (isDotMethodCall) {
-            var methodSig = new MethodSignature(className, ctx.identifier().getText(), argumentTypes);
-            var methodName = environment.newConstant("string", methodSig.mangle());
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_INVOKE, methodName.index, argumentTypes.size());
+        if (isDotMethodCall || isImplicitThis) {
+            var selector = VirtualTables.selectorOf(mangledMethod);
+            var target = classHierarchy != null ? classHierarchy.uniqueTarget(className, selector, isSuper) : null;
+            if (target != null) {
+                var methodName = environment.newConstant("string", target);
+                bytecodeGenerator.emitBytecode(BytecodeType.OP_CALL, methodName.index, argumentTypes.size() + 1);
+            } else {
+                var slot = virtualTables.slotOf(className, selector);
+                bytecodeGenerator.emitBytecode(BytecodeType.OP_INVOKE, slot, argumentTypes.size());
+            }
         } else {
-            var methodName = environment.newConstant("string", semanticsVisitor.getMangledMethod(ctx));
+            var methodName = environment.newConstant("string", mangledMethod);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CALL, methodName.index, argumentTypes.size());
         }
         return null;
@@ -935,18 +1220,28 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
 
     private Void visitDotExp(MiniJavaParser.ExpressionContext ctx) {
         var expType = semanticsVisitor.getType(ctx.expression(0));
-        visit(ctx.expression(0));
+        var receiver = ctx.expression(0).primary();
+        var isSuper = receiver != null && receiver.SUPER() != null;
+        // A method called on `super` is a direct call with the class hierarchy, so it takes `this` as is:
+        // the view of `OP_SUPER` would change the dispatch of the invocations on `this` in an inlined copy.
+        if (isSuper && ctx.methodCall() != null && classHierarchy != null) bytecodeGenerator.emitBytecode(BytecodeType.OP_THIS);
+        else visit(ctx.expression(0));
         if (ctx.identifier() != null) {
-            var field = environment.newConstant("string", ctx.identifier().getText());
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_FIELD, field.index);
+            var slot = fieldLayouts.slotOf(expType.classType, ctx.identifier().getText());
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_FIELD, slot);
         } else {
-            visitClassMethodCall(ctx.methodCall(), expType.classType, true);
+            visitClassMethodCall(ctx.methodCall(), expType.classType, true, isSuper);
         }
         return null;
     }
 
     @Override
     public Void visitExpression(MiniJavaParser.ExpressionContext ctx) {
+        var constant = constantFolder.fold(ctx);
+        if (constant != null) {
+            emitConstant(constant);
+            return null;
+        }
         if (ctx.LBRACK() != null) {
            return visitArrayIndex(ctx);
         } else if (ctx.creator() != null) { 
@@ -954,7 +1249,7 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         } else if (ctx.bop != null && ctx.bop.getType() == MiniJavaParser.DOT) {
             return visitDotExp(ctx);
         } else if (ctx.methodCall() != null) {
-            return visitClassMethodCall(ctx.methodCall(), environment.currentClass,false);
+            return visitClassMethodCall(ctx.methodCall(), environment.currentClass, false, false);
         } else if (isConditionExp(ctx)) {
            return visitConditionalExp(ctx);
         } else if (isQuestionExp(ctx)) {
@@ -1010,7 +1305,7 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
             return null;
         } else if (ctx.STRING_LITERAL() != null) {
             var str = ctx.getText();
-            var ret = environment.newConstant("string", str.substring(1, str.length() - 1));
+            var ret = environment.newConstant("string", unescape(str.substring(1, str.length() - 1)));
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, ret.index);
             return null;
         } else if (ctx.BOOL_LITERAL() != null) {
@@ -1018,7 +1313,8 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, ret.index);
             return null;
         } else if (ctx.CHAR_LITERAL() != null) {
-            var ret = environment.newConstant("char", ctx.getText().charAt(1));
+            var str = ctx.getText();
+            var ret = environment.newConstant("char", unescape(str.substring(1, str.length() - 1)).charAt(0));
             bytecodeGenerator.emitBytecode(BytecodeType.OP_CONSTANT, ret.index);
             return null;
         } else if (ctx.NULL_LITERAL() != null) {
@@ -1042,9 +1338,9 @@ public class BytecodeVisitor extends MiniJavaParserBaseVisitor<Void> {
         } else {
             // If the variable is not found in the local scope, 
             // it must be a field variable.
-            var field = environment.newConstant("string", identifier);
+            var slot = fieldLayouts.slotOf(environment.currentClass, identifier);
             bytecodeGenerator.emitBytecode(BytecodeType.OP_THIS);
-            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_FIELD, field.index);
+            bytecodeGenerator.emitBytecode(BytecodeType.OP_GET_FIELD, slot);
         }
         return null;
     }
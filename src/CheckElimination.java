@@ -0,0 +1,414 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This pass of `SsaOptimizer` replaces the accesses of fields and elements which cannot fail with their unchecked variants,
+ * e.g. `OP_GET_INDEX_UNCHECKED` for `a[i]` in `for (int i = 0; i < length(a); i++)`.
+ * An object is not null if it is `this`, a new object or array, a phi of such values,
+ * or if a null check of it or an access to it comes before, i.e. dominates the access.
+ * An index is in bounds if it is never negative and below the length of the array at the access.
+ *
+ * The ranges come from the conditional jumps: the block which is only entered by one edge of a comparison,
+ * and the blocks it dominates, know that the comparison is true or false for that edge.
+ * Because a value of the SSA form never changes, e.g. `i < length(a)` holds in the whole body of the loop above.
+ * A value is never negative if it is a constant, a `char`, a length, the result of an arithmetic which keeps the sign,
+ * or an increment by one of a value which is known to be below another value, so it cannot overflow.
+ * An index is below the length of `a` if it is known from a comparison with `length(a)`,
+ * or if it is `length(a) - c` or a decrement of such a value which is not negative, e.g. in a loop counting down.
+ * The values of the phis are proven for all the iterations at once: a phi is assumed to be in range until an operand is not.
+ */
+public class CheckElimination implements SsaOptimizer.Pass {
+    // A comparison `left type right` which is known to be true in `block` and the blocks it dominates
+    private record Fact(BytecodeType type, SsaValue left, SsaValue right) {
+    }
+
+    private final Environment environment;
+    private ControlFlowGraph graph;
+    private SsaTypes types;
+    private HashMap<BasicBlock, BasicBlock> dominators;
+    private final HashMap<BasicBlock, List<Fact>> facts = new HashMap<>();
+    // The values which are not null after the block is entered
+    private final HashMap<BasicBlock, List<SsaValue>> nonNullFacts = new HashMap<>();
+    // The values which are never negative, and the values which are never null
+    private HashSet<SsaValue> nonNegative;
+    private HashSet<SsaValue> nonNull;
+    // The phis which are below the length of each array
+    private final HashMap<SsaValue, HashSet<SsaValue>> belowLengths = new HashMap<>();
+    public int accessCount = 0;
+    public int uncheckedAccesses = 0;
+
+    public CheckElimination(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[CHECKS] %d of %d field and element accesses are unchecked%n", uncheckedAccesses, accessCount);
+    }
+
+    @Override
+    public void run(ControlFlowGraph graph) {
+        this.graph = graph;
+        types = new SsaTypes(graph, environment);
+        dominators = graph.immediateDominators();
+        facts.clear();
+        nonNullFacts.clear();
+        belowLengths.clear();
+        for (var block : graph.blocks) addFacts(block);
+        nonNegative = greatestFixpoint(this::isNonNegative);
+        nonNull = greatestFixpoint(this::isNonNull);
+
+        for (var block : graph.blocks) {
+            for (var i = 0; i < block.values.size(); i++) {
+                var value = block.values.get(i);
+                var unchecked = uncheckedType(value.type());
+                if (value.kind != SsaValue.Kind.BYTECODE || unchecked == null) continue;
+                accessCount++;
+                var object = value.operands.get(0);
+                if (!isNonNullAt(object, block, i)) continue;
+                var isIndex = unchecked == BytecodeType.OP_GET_INDEX_UNCHECKED || unchecked == BytecodeType.OP_SET_INDEX_UNCHECKED;
+                if (isIndex && !isInBounds(value.operands.get(1), object, block)) continue;
+                value.bytecode.type = unchecked;
+                uncheckedAccesses++;
+            }
+        }
+    }
+
+    private static BytecodeType uncheckedType(BytecodeType type) {
+        if (type == null) return null;
+        switch (type) {
+            case OP_GET_FIELD:
+                return BytecodeType.OP_GET_FIELD_UNCHECKED;
+            case OP_SET_FIELD:
+                return BytecodeType.OP_SET_FIELD_UNCHECKED;
+            case OP_GET_INDEX:
+                return BytecodeType.OP_GET_INDEX_UNCHECKED;
+            case OP_SET_INDEX:
+                return BytecodeType.OP_SET_INDEX_UNCHECKED;
+            default:
+                return null;
+        }
+    }
+
+    // The facts of the edges of the conditional jump of `block`, for the successors which are only entered by that edge.
+    private void addFacts(BasicBlock block) {
+        var terminator = block.terminator;
+        if (terminator == null || block.target == null || block.next == null || block.target == block.next) return;
+        var operands = terminator.operands;
+        switch (terminator.type()) {
+            case OP_IF_EQ_NULL:
+                addNonNullFact(block.next, operands.get(0));
+                return;
+            case OP_IF_NE_NULL:
+                addNonNullFact(block.target, operands.get(0));
+                return;
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_FALSE: {
+                var condition = operands.get(0);
+                var type = comparisonOf(condition.type());
+                if (type == null) return;
+                var isTrue = terminator.type() == BytecodeType.OP_JUMP_IF_TRUE;
+                var left = condition.operands.get(0);
+                var right = condition.operands.get(1);
+                addFact(isTrue ? block.target : block.next, type, left, right);
+                addFact(isTrue ? block.next : block.target, negationOf(type), left, right);
+                return;
+            }
+            default: {
+                var type = comparisonOf(terminator.type());
+                if (type == null) return;
+                addFact(block.target, type, operands.get(0), operands.get(1));
+                addFact(block.next, negationOf(type), operands.get(0), operands.get(1));
+            }
+        }
+    }
+
+    private void addFact(BasicBlock block, BytecodeType type, SsaValue left, SsaValue right) {
+        if (block.predecessors.size() != 1) return;
+        facts.computeIfAbsent(block, key -> new ArrayList<>()).add(new Fact(type, left, right));
+        // `a < b` is `b > a`
+        facts.get(block).add(new Fact(swapOf(type), right, left));
+    }
+
+    private void addNonNullFact(BasicBlock block, SsaValue value) {
+        if (block.predecessors.size() == 1) nonNullFacts.computeIfAbsent(block, key -> new ArrayList<>()).add(value);
+    }
+
+    // The comparison of a comparison value or of a conditional jump, `OP_IF_LT` is `OP_LT`.
+    private static BytecodeType comparisonOf(BytecodeType type) {
+        if (type == null) return null;
+        switch (type) {
+            case OP_LT:
+            case OP_IF_LT:
+                return BytecodeType.OP_LT;
+            case OP_LE:
+            case OP_IF_LE:
+                return BytecodeType.OP_LE;
+            case OP_GT:
+            case OP_IF_GT:
+                return BytecodeType.OP_GT;
+            case OP_GE:
+            case OP_IF_GE:
+                return BytecodeType.OP_GE;
+            default:
+                return null;
+        }
+    }
+
+    private static BytecodeType negationOf(BytecodeType type) {
+        switch (type) {
+            case OP_LT:
+                return BytecodeType.OP_GE;
+            case OP_LE:
+                return BytecodeType.OP_GT;
+            case OP_GT:
+                return BytecodeType.OP_LE;
+            default:
+                return BytecodeType.OP_LT;
+        }
+    }
+
+    private static BytecodeType swapOf(BytecodeType type) {
+        switch (type) {
+            case OP_LT:
+                return BytecodeType.OP_GT;
+            case OP_LE:
+                return BytecodeType.OP_GE;
+            case OP_GT:
+                return BytecodeType.OP_LT;
+            default:
+                return BytecodeType.OP_LE;
+        }
+    }
+
+    // The facts which hold in `block`, from the block and its dominators.
+    private List<Fact> factsAt(BasicBlock block) {
+        var result = new ArrayList<Fact>();
+        for (var dominator = block; dominator != null; dominator = parentOf(dominator)) {
+            result.addAll(facts.getOrDefault(dominator, List.of()));
+        }
+        return result;
+    }
+
+    // The immediate dominator of the block, null for the entry and the unreachable blocks.
+    private BasicBlock parentOf(BasicBlock block) {
+        return block == graph.entry() ? null : dominators.get(block);
+    }
+
+    private interface Rule {
+        boolean holds(SsaValue value, HashSet<SsaValue> assumed);
+    }
+
+    // The largest set of values which satisfy `rule` when the values of the set are assumed to satisfy it.
+    private HashSet<SsaValue> greatestFixpoint(Rule rule) {
+        var values = new HashSet<SsaValue>();
+        for (var block : graph.blocks) {
+            for (var value : block.allValues()) {
+                if (value.hasResult()) values.add(value);
+            }
+        }
+        var changed = true;
+        while (changed) {
+            changed = values.removeIf(value -> !rule.holds(value, values));
+        }
+        return values;
+    }
+
+    private boolean isNonNegative(SsaValue value, HashSet<SsaValue> assumed) {
+        if ("char".equals(types.typeOf(value)) || types.isNonNegative(value)) return true;
+        if (value.isPhi()) return assumed.containsAll(value.operands);
+        if (value.kind != SsaValue.Kind.BYTECODE) return false;
+        var operands = value.operands;
+        switch (value.type()) {
+            case OP_INC:
+                return assumed.contains(operands.get(0)) && hasUpperBound(operands.get(0), value.block);
+            case OP_ADD:
+                for (var i = 0; i < 2; i++) {
+                    var x = operands.get(i);
+                    var isOne = Integer.valueOf(1).equals(types.constantOf(operands.get(1 - i)));
+                    if (isOne && assumed.contains(x) && hasUpperBound(x, value.block)) return true;
+                }
+                return false;
+            case OP_BIT_AND:
+                return assumed.contains(operands.get(0)) || assumed.contains(operands.get(1));
+            case OP_RSHIFT:
+            case OP_MOD:
+                return assumed.contains(operands.get(0));
+            case OP_DIV:
+                return assumed.contains(operands.get(0)) && types.constantOf(operands.get(1)) instanceof Integer divisor && divisor > 0;
+            default:
+                return false;
+        }
+    }
+
+    // Whether `x < y` holds in `block` for some `y`, so `x + 1` does not overflow.
+    private boolean hasUpperBound(SsaValue x, BasicBlock block) {
+        for (var fact : factsAt(block)) {
+            if (fact.left == x && fact.type == BytecodeType.OP_LT) return true;
+        }
+        return false;
+    }
+
+    private boolean isNonNegativeAt(SsaValue value, BasicBlock block) {
+        if (nonNegative.contains(value)) return true;
+        for (var fact : factsAt(block)) {
+            if (fact.left != value) continue;
+            var bound = types.constantOf(fact.right);
+            var isBoundNonNegative = nonNegative.contains(fact.right);
+            if (fact.type == BytecodeType.OP_GE && isBoundNonNegative) return true;
+            if (fact.type == BytecodeType.OP_GT && (isBoundNonNegative || bound instanceof Integer number && number >= -1)) return true;
+        }
+        return false;
+    }
+
+    // Whether `index < length(array)` holds in `block`.
+    private boolean isInBounds(SsaValue index, SsaValue array, BasicBlock block) {
+        return isNonNegativeAt(index, block) && isBelowLength(index, array, block, belowLengthsOf(array));
+    }
+
+    private HashSet<SsaValue> belowLengthsOf(SsaValue array) {
+        var phis = belowLengths.get(array);
+        if (phis != null) return phis;
+        phis = new HashSet<SsaValue>();
+        for (var block : graph.blocks) phis.addAll(block.phis);
+        // The operand of a phi is in range at the end of its predecessor
+        var changed = true;
+        while (changed) {
+            final var assumed = phis;
+            changed = phis.removeIf(phi -> {
+                for (var i = 0; i < phi.operands.size(); i++) {
+                    if (!isBelowLength(phi.operands.get(i), array, phi.block.predecessors.get(i), assumed)) return true;
+                }
+                return false;
+            });
+        }
+        belowLengths.put(array, phis);
+        return phis;
+    }
+
+    private boolean isBelowLength(SsaValue index, SsaValue array, BasicBlock block, HashSet<SsaValue> assumed) {
+        for (var fact : factsAt(block)) {
+            if (fact.left != index) continue;
+            if (fact.type == BytecodeType.OP_LT && isLengthOf(fact.right, array)) return true;
+            if (fact.type == BytecodeType.OP_LE && isLengthMinus(fact.right, array)) return true;
+        }
+        if (index.isPhi()) return assumed.contains(index);
+        if (index.kind != SsaValue.Kind.BYTECODE) return false;
+        if (isLengthMinus(index, array)) return true;
+        var x = index.operands.isEmpty() ? null : index.operands.get(0);
+        switch (index.type()) {
+            case OP_DEC:
+                return isNonNegativeAt(x, index.block) && isBelowLength(x, array, index.block, assumed);
+            case OP_SUB:
+                return types.constantOf(index.operands.get(1)) instanceof Integer c && c >= 1
+                        && isNonNegativeAt(x, index.block) && isBelowLength(x, array, index.block, assumed);
+            case OP_ADD:
+                return types.constantOf(index.operands.get(1)) instanceof Integer c && c <= -1
+                        && isNonNegativeAt(x, index.block) && isBelowLength(x, array, index.block, assumed);
+            case OP_DIV:
+            case OP_MOD:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+                // They do not make a value which is not negative larger
+                return isNonNegativeAt(x, index.block) && (index.type() != BytecodeType.OP_DIV && index.type() != BytecodeType.OP_MOD
+                        || types.constantOf(index.operands.get(1)) instanceof Integer c && c > 0)
+                        && isBelowLength(x, array, index.block, assumed);
+            default:
+                return false;
+        }
+    }
+
+    // Whether the value is `length(array)`, or the size of the new array `array`, e.g. `n` of `new int[n][m]`.
+    private boolean isLengthOf(SsaValue value, SsaValue array) {
+        if (array.type() == BytecodeType.OP_NEW_ARRAY || array.type() == BytecodeType.OP_NEW_MULTI_ARRAY) {
+            var size = array.operands.get(0);
+            if (size == value || types.constantOf(size) instanceof Integer constant && constant.equals(types.constantOf(value))) return true;
+        }
+        if (array.type() == BytecodeType.OP_NEW_ARRAY_FROM_POOL) {
+            var table = (List<?>) environment.pools.get(graph.name).constantPool.get(array.bytecode.arg1).value;
+            if (Integer.valueOf(table.size()).equals(types.constantOf(value))) return true;
+        }
+        return isLength(value) && value.operands.get(0) == array;
+    }
+
+    // Whether the value is a call of the built-in method `length`, which fails on null.
+    private boolean isLength(SsaValue value) {
+        if (value.type() != BytecodeType.OP_CALL || value.operands.size() != 1) return false;
+        var callee = (String) environment.pools.get(graph.name).constantPool.get(value.bytecode.arg1).value;
+        return !environment.pools.containsKey(callee) && VirtualTables.selectorOf(callee).startsWith("length(");
+    }
+
+    // Whether the value is `length(array) - c` with `c >= 1`, which cannot underflow since a length is not negative.
+    private boolean isLengthMinus(SsaValue value, SsaValue array) {
+        if (value.kind != SsaValue.Kind.BYTECODE || value.operands.isEmpty() || !isLengthOf(value.operands.get(0), array)) return false;
+        switch (value.type()) {
+            case OP_DEC:
+                return true;
+            case OP_SUB:
+                return types.constantOf(value.operands.get(1)) instanceof Integer c && c >= 1;
+            case OP_ADD:
+                return types.constantOf(value.operands.get(1)) instanceof Integer c && c <= -1 && c != Integer.MIN_VALUE;
+            default:
+                return false;
+        }
+    }
+
+    private boolean isNonNull(SsaValue value, HashSet<SsaValue> assumed) {
+        if (value.isPhi()) return assumed.containsAll(value.operands);
+        if (value.kind != SsaValue.Kind.BYTECODE) return false;
+        switch (value.type()) {
+            case OP_THIS:
+            case OP_SUPER:
+            case OP_NEW_ARRAY:
+            case OP_NEW_ARRAY_FROM_POOL:
+            case OP_NEW_MULTI_ARRAY:
+                return true;
+            case OP_CONSTANT:
+                return types.constantOf(value) instanceof String;
+            case OP_CALL: {
+                var callee = (String) environment.pools.get(graph.name).constantPool.get(value.bytecode.arg1).value;
+                return environment.pools.containsKey(callee) && VirtualTables.isConstructor(callee);
+            }
+            default:
+                return false;
+        }
+    }
+
+    // Whether `value` is not null before the value at `position` in `block`.
+    private boolean isNonNullAt(SsaValue value, BasicBlock block, int position) {
+        if (nonNull.contains(value)) return true;
+        for (var i = 0; i < position; i++) {
+            if (dereferences(block.values.get(i), value)) return true;
+        }
+        for (var dominator = block; dominator != null; dominator = parentOf(dominator)) {
+            if (nonNullFacts.getOrDefault(dominator, List.of()).contains(value)) return true;
+            if (dominator != block) {
+                for (var other : dominator.values) {
+                    if (dereferences(other, value)) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Whether `user` raises an error if `value` is null, so it is not null after `user`, e.g. `length(a)`.
+    private boolean dereferences(SsaValue user, SsaValue value) {
+        if (user.kind != SsaValue.Kind.BYTECODE || user.operands.isEmpty() || user.operands.get(0) != value) return false;
+        switch (user.type()) {
+            case OP_GET_FIELD:
+            case OP_SET_FIELD:
+            case OP_GET_INDEX:
+            case OP_SET_INDEX:
+            case OP_GET_FIELD_UNCHECKED:
+            case OP_SET_FIELD_UNCHECKED:
+            case OP_GET_INDEX_UNCHECKED:
+            case OP_SET_INDEX_UNCHECKED:
+            case OP_INVOKE:
+                return true;
+            default:
+                return isLength(user);
+        }
+    }
+}
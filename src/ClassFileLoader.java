@@ -0,0 +1,33 @@
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class loads the class files emitted by `ClassFileVisitor` into the running JVM,
+ * so that the program can be executed without writing a jar.
+ * The classes are defined lazily by `findClass`, `MiniJavaRuntime` is shared with the compiler.
+ */
+public class ClassFileLoader extends ClassLoader {
+    // The class files by their binary name, e.g. `minijava.global`
+    private final Map<String, byte[]> classFiles;
+
+    public ClassFileLoader(Map<String, byte[]> classFiles) {
+        super(ClassFileLoader.class.getClassLoader());
+        this.classFiles = new HashMap<>();
+        for (var entry : classFiles.entrySet()) {
+            this.classFiles.put(entry.getKey().replace('/', '.'), entry.getValue());
+        }
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        var bytes = classFiles.get(name);
+        if (bytes == null) throw new ClassNotFoundException(name);
+        return defineClass(name, bytes, 0, bytes.length);
+    }
+
+    // Returns the exit code of the program, the output is written to `out`.
+    public int run(PrintStream out) throws Exception {
+        return MiniJavaRuntime.run(loadClass(MiniJavaRuntime.GLOBAL_CLASS), out);
+    }
+}
@@ -0,0 +1,1077 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * This class lowers the typed parse tree into JVM class files, so that the program can be compiled by the JIT of the JVM.
+ * It uses the types and the resolved methods of `SemanticsVisitor`, just like `BytecodeVisitor`, but emits JVM bytecode with ASM.
+ * The MiniJava program is mapped to the JVM as follows:
+ * 1. each class `C` is the class `minijava.C`, the global methods are static methods of the class `minijava.global`.
+ * 2. `int`, `char`, `boolean` and `string` are `int`, `char`, `boolean` and `String`, arrays are JVM arrays.
+ * 3. a field is declared by the root-most class which declares its name, a redeclaration in a sub class shares it.
+ * 4. the only JVM constructor of a class runs the field initializers after the JVM constructor of the parent class,
+ *    a MiniJava constructor is a method named `init#C`, which starts with the nearest no-argument constructor of the super classes.
+ * 5. built-in methods are JVM instructions or static methods of `MiniJavaRuntime`.
+ * The semantics are those of `Interpreter`, e.g. `char` is 8-bit and the default value of `string` is "".
+ */
+public class ClassFileVisitor extends MiniJavaParserBaseVisitor<Void> {
+    public static final String PACKAGE = "minijava/";
+    public static final String GLOBAL_CLASS = PACKAGE + "global";
+    private static final String RUNTIME_CLASS = "MiniJavaRuntime";
+    private static final String STRING_CLASS = "java/lang/String";
+    private static final String OBJECT_CLASS = "java/lang/Object";
+    // The final (or special) methods of `java.lang.Object` must not be overridden by MiniJava methods.
+    private static final Set<String> OBJECT_METHODS = Set.of("wait", "notify", "notifyAll", "getClass", "hashCode", "equals", "toString", "clone", "finalize");
+
+    // A local variable of the current JVM method
+    private record Local(int index, MiniJavaType type) {
+    }
+
+    // A left value: a local variable, a field of the object on the stack, or an element of the array and index on the stack.
+    private record LeftValue(Local local, String owner, String field, MiniJavaType type) {
+        boolean isLocal() {
+            return local != null;
+        }
+
+        boolean isField() {
+            return field != null;
+        }
+    }
+
+    private final SemanticsVisitor semanticsVisitor;
+    // The class files indexed by internal name, e.g. `minijava/Shape`
+    private final LinkedHashMap<String, byte[]> classFiles;
+
+    private String currentClass;
+    private ClassWriter cw;
+    private MethodVisitor mv;
+    private MiniJavaType returnType;
+    private final ArrayList<HashMap<String, Local>> symbolTable = new ArrayList<>();
+    private int nextLocal;
+    private final Stack<Label> breakStack = new Stack<>();
+    private final Stack<Label> continueStack = new Stack<>();
+
+    public ClassFileVisitor(SemanticsVisitor semanticsVisitor) {
+        this.semanticsVisitor = semanticsVisitor;
+        this.classFiles = new LinkedHashMap<>();
+    }
+
+    public Map<String, byte[]> getClassFiles() {
+        return classFiles;
+    }
+
+    public static String internalName(String className) {
+        return PACKAGE + className;
+    }
+
+    // The JVM name of a MiniJava method, the name of a constructor of `C` is `init#C`.
+    public static String methodName(MethodSignature methodSig) {
+        if (methodSig.methodName.equals(methodSig.className)) return "init#" + methodSig.className;
+        if (OBJECT_METHODS.contains(methodSig.methodName)) return methodSig.methodName + "$";
+        return methodSig.methodName;
+    }
+
+    public static String descriptor(MiniJavaType type) {
+        if (type.isVoid()) return "V";
+        String element;
+        if (type.primitiveType == null) element = "L" + internalName(type.classType) + ";";
+        else if (type.isInt()) element = "I";
+        else if (type.isChar()) element = "C";
+        else if (type.isBoolean()) element = "Z";
+        else if (type.isString()) element = "L" + STRING_CLASS + ";";
+        else element = "L" + OBJECT_CLASS + ";";
+        return "[".repeat(type.arrayDimension) + element;
+    }
+
+    public static String methodDescriptor(MethodSignature methodSig) {
+        var sb = new StringBuilder("(");
+        for (var type : methodSig.parameterTypes) sb.append(descriptor(type));
+        sb.append(")");
+        // Constructors are initializers of an existing object
+        var isConstructor = methodSig.methodName.equals(methodSig.className);
+        sb.append(isConstructor ? "V" : descriptor(methodSig.returnType));
+        return sb.toString();
+    }
+
+    private static boolean isReference(MiniJavaType type) {
+        return type.isArray() || type.isClass() || type.isString() || type.isNull();
+    }
+
+    private ClassWriter newClassWriter() {
+        var parentClassMap = semanticsVisitor.getParentClassMap();
+        // Frames are computed by ASM, which needs the common super class of two MiniJava classes.
+        return new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                if (!type1.startsWith(PACKAGE) || !type2.startsWith(PACKAGE)) return OBJECT_CLASS;
+                var type = MiniJavaType.newClassType(type1.substring(PACKAGE.length()));
+                for (var className = type2.substring(PACKAGE.length()); className != null; className = parentClassMap.get(className)) {
+                    if (type.isSubclassOf(className, parentClassMap)) return internalName(className);
+                }
+                return OBJECT_CLASS;
+            }
+        };
+    }
+
+    // Find the declared signature of a mangled method, built-in methods have no declared signature.
+    private MethodSignature findMethodSignature(String mangledMethod) {
+        var className = mangledMethod.substring(0, mangledMethod.indexOf("::"));
+        var methodSignatures = semanticsVisitor.getClassMethodMap().get(className);
+        if (methodSignatures == null) return null;
+        for (var methodSig : methodSignatures) {
+            if (methodSig.mangle().equals(mangledMethod)) return methodSig;
+        }
+        return null;
+    }
+
+    // The class which owns the JVM field of `field` in `className`: the root-most class declaring it.
+    private String fieldOwner(String className, String field) {
+        String owner = null;
+        for (; className != null; className = semanticsVisitor.getParentClassMap().get(className)) {
+            var fields = semanticsVisitor.getClassFieldMap().get(className);
+            if (fields != null && fields.containsKey(field)) owner = className;
+        }
+        if (owner == null) throw new RuntimeException("[ERROR] Field " + field + " not found");
+        return owner;
+    }
+
+    private MiniJavaType fieldType(String owner, String field) {
+        return semanticsVisitor.getClassFieldMap().get(owner).get(field);
+    }
+
+    private void newSymbolTable() {
+        symbolTable.add(new HashMap<>());
+    }
+
+    private void removeSymbolTable() {
+        symbolTable.removeLast();
+    }
+
+    private Local newLocal(String name, MiniJavaType type) {
+        var local = new Local(nextLocal++, type);
+        if (name != null) symbolTable.getLast().put(name, local);
+        return local;
+    }
+
+    private Local findLocal(String name) {
+        for (var i = symbolTable.size() - 1; i >= 0; i--) {
+            var local = symbolTable.get(i).get(name);
+            if (local != null) return local;
+        }
+        return null;
+    }
+
+    // Start a JVM method, the parameters are the first locals after `this`.
+    private void beginMethod(MethodVisitor methodVisitor, boolean isStatic, MiniJavaType returnType) {
+        this.mv = methodVisitor;
+        this.returnType = returnType;
+        this.symbolTable.clear();
+        this.nextLocal = isStatic ? 0 : 1;
+        mv.visitCode();
+        newSymbolTable();
+    }
+
+    // A method may end without return statement, in that case it returns the default value.
+    private void endMethod() {
+        if (returnType.isVoid()) {
+            mv.visitInsn(Opcodes.RETURN);
+        } else {
+            pushDefaultValue(returnType);
+            mv.visitInsn(isReference(returnType) ? Opcodes.ARETURN : Opcodes.IRETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        removeSymbolTable();
+    }
+
+    private void addParameters(MiniJavaParser.FormalParametersContext ctx) {
+        if (ctx.formalParameterList() == null) return;
+        for (var param : ctx.formalParameterList().formalParameter()) {
+            newLocal(param.identifier().getText(), semanticsVisitor.getType(param.typeType()));
+        }
+    }
+
+    private ArrayList<MiniJavaType> parameterTypes(MiniJavaParser.FormalParametersContext ctx) {
+        var paramTypes = new ArrayList<MiniJavaType>();
+        if (ctx.formalParameterList() != null) {
+            for (var param : ctx.formalParameterList().formalParameter()) paramTypes.add(semanticsVisitor.getType(param.typeType()));
+        }
+        return paramTypes;
+    }
+
+    private void pushInt(int value) {
+        if (value >= -1 && value <= 5) mv.visitInsn(Opcodes.ICONST_0 + value);
+        else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) mv.visitIntInsn(Opcodes.BIPUSH, value);
+        else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) mv.visitIntInsn(Opcodes.SIPUSH, value);
+        else mv.visitLdcInsn(value);
+    }
+
+    // The default value of a variable without initializer, see `RuntimeMethod.defaultValue`.
+    private void pushDefaultValue(MiniJavaType type) {
+        if (type.isString() && !type.isArray()) mv.visitLdcInsn("");
+        else if (isReference(type)) mv.visitInsn(Opcodes.ACONST_NULL);
+        else mv.visitInsn(Opcodes.ICONST_0);
+    }
+
+    // `char` is an 8-bit integer in MiniJava
+    private void wrapChar() {
+        pushInt(0xFF);
+        mv.visitInsn(Opcodes.IAND);
+    }
+
+    // Convert the value on the stack from `fromType` to `toType`,
+    // for assignments (implicit casts) and cast expressions (explicit casts).
+    private void emitCast(MiniJavaType fromType, MiniJavaType toType) {
+        if (fromType == null || toType == null || fromType.isNull() || toType.isVoid()) return;
+        if (toType.isPrimitive() && toType.isChar() && fromType.isInt()) {
+            wrapChar();
+        } else if (toType.isPrimitive() && toType.isString() && fromType.isPrimitive() && !fromType.isString()) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, STRING_CLASS, "valueOf", "(" + descriptor(fromType) + ")L" + STRING_CLASS + ";", false);
+        } else if ((toType.isClass() || toType.isArray()) && !fromType.canImplicitlyCastTo(toType, semanticsVisitor.getParentClassMap())) {
+            mv.visitTypeInsn(Opcodes.CHECKCAST, toType.isArray() ? descriptor(toType) : internalName(toType.classType));
+        }
+    }
+
+    private int loadOpcode(MiniJavaType type) {
+        return isReference(type) ? Opcodes.ALOAD : Opcodes.ILOAD;
+    }
+
+    private int storeOpcode(MiniJavaType type) {
+        return isReference(type) ? Opcodes.ASTORE : Opcodes.ISTORE;
+    }
+
+    private int arrayLoadOpcode(MiniJavaType elementType) {
+        if (isReference(elementType)) return Opcodes.AALOAD;
+        if (elementType.isChar()) return Opcodes.CALOAD;
+        if (elementType.isBoolean()) return Opcodes.BALOAD;
+        return Opcodes.IALOAD;
+    }
+
+    private int arrayStoreOpcode(MiniJavaType elementType) {
+        if (isReference(elementType)) return Opcodes.AASTORE;
+        if (elementType.isChar()) return Opcodes.CASTORE;
+        if (elementType.isBoolean()) return Opcodes.BASTORE;
+        return Opcodes.IASTORE;
+    }
+
+    private static MiniJavaType elementType(MiniJavaType arrayType) {
+        return new MiniJavaType(arrayType.primitiveType, arrayType.classType, arrayType.arrayDimension - 1);
+    }
+
+    // Create an array of `arrayType` whose size is on the stack.
+    private void newArray(MiniJavaType arrayType) {
+        var elementType = elementType(arrayType);
+        if (elementType.isArray()) mv.visitTypeInsn(Opcodes.ANEWARRAY, descriptor(elementType));
+        else if (elementType.isInt()) mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_INT);
+        else if (elementType.isChar()) mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_CHAR);
+        else if (elementType.isBoolean()) mv.visitIntInsn(Opcodes.NEWARRAY, Opcodes.T_BOOLEAN);
+        else if (elementType.isClass()) mv.visitTypeInsn(Opcodes.ANEWARRAY, internalName(elementType.classType));
+        else mv.visitTypeInsn(Opcodes.ANEWARRAY, STRING_CLASS);
+    }
+
+    @Override
+    public Void visitCompilationUnit(MiniJavaParser.CompilationUnitContext ctx) {
+        for (var classDecl : ctx.classDeclaration()) {
+            visitClassDeclaration(classDecl);
+        }
+        currentClass = "global";
+        cw = newClassWriter();
+        cw.visit(Opcodes.V21, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, GLOBAL_CLASS, null, OBJECT_CLASS, null);
+        for (var methodDecl : ctx.methodDeclaration()) {
+            var methodSig = new MethodSignature("global", methodDecl.identifier().getText(), parameterTypes(methodDecl.formalParameters()));
+            methodSig = findMethodSignature(methodSig.mangle());
+            beginMethod(cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, methodName(methodSig), methodDescriptor(methodSig), null, null), true, methodSig.returnType);
+            addParameters(methodDecl.formalParameters());
+            visit(methodDecl.methodBody);
+            endMethod();
+        }
+        cw.visitEnd();
+        classFiles.put(GLOBAL_CLASS, cw.toByteArray());
+        return null;
+    }
+
+    @Override
+    public Void visitClassDeclaration(MiniJavaParser.ClassDeclarationContext ctx) {
+        currentClass = ctx.identifier().getText();
+        var parentClass = semanticsVisitor.getParentClassMap().get(currentClass);
+        var superName = parentClass != null ? internalName(parentClass) : OBJECT_CLASS;
+        cw = newClassWriter();
+        cw.visit(Opcodes.V21, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, internalName(currentClass), null, superName, null);
+
+        var fieldDecls = new ArrayList<MiniJavaParser.FieldDeclarationContext>();
+        for (var classBody : ctx.classBody().classBodyDeclaration()) {
+            if (classBody.fieldDeclaration() == null) continue;
+            var fieldDecl = classBody.fieldDeclaration();
+            fieldDecls.add(fieldDecl);
+            var field = fieldDecl.variableDeclarator().identifier().getText();
+            if (fieldOwner(currentClass, field).equals(currentClass)) {
+                cw.visitField(Opcodes.ACC_PUBLIC, field, descriptor(semanticsVisitor.getType(fieldDecl.typeType())), null, null).visitEnd();
+            }
+        }
+
+        // The JVM constructor runs the field initializers, see `RuntimeClass`
+        beginMethod(cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null), false, MiniJavaType.newPrimitiveType("void"));
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+        for (var fieldDecl : fieldDecls) {
+            visitFieldDeclaration(fieldDecl);
+        }
+        endMethod();
+
+        for (var classBody : ctx.classBody().classBodyDeclaration()) {
+            if (classBody.constructorDeclaration() != null) visitConstructorDeclaration(classBody.constructorDeclaration());
+            else if (classBody.methodDeclaration() != null) visitMethodDeclaration(classBody.methodDeclaration());
+        }
+        cw.visitEnd();
+        classFiles.put(internalName(currentClass), cw.toByteArray());
+        return null;
+    }
+
+    @Override
+    public Void visitFieldDeclaration(MiniJavaParser.FieldDeclarationContext ctx) {
+        var declarator = ctx.variableDeclarator();
+        var field = declarator.identifier().getText();
+        var owner = fieldOwner(currentClass, field);
+        var type = semanticsVisitor.getType(ctx.typeType());
+        // The JVM default value is only replaced for `string`, or when a super class has initialized the field
+        if (declarator.variableInitializer() == null && !(type.isPrimitive() && type.isString()) && owner.equals(currentClass)) return null;
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        if (declarator.variableInitializer() == null) {
+            pushDefaultValue(type);
+        } else {
+            visitVariableInitializer(declarator.variableInitializer(), type);
+        }
+        mv.visitFieldInsn(Opcodes.PUTFIELD, internalName(owner), field, descriptor(fieldType(owner, field)));
+        return null;
+    }
+
+    @Override
+    public Void visitConstructorDeclaration(MiniJavaParser.ConstructorDeclarationContext ctx) {
+        var methodSig = new MethodSignature(currentClass, ctx.identifier().getText(), parameterTypes(ctx.formalParameters()));
+        beginMethod(cw.visitMethod(Opcodes.ACC_PUBLIC, methodName(methodSig), methodDescriptor(methodSig), null, null), false, MiniJavaType.newPrimitiveType("void"));
+        addParameters(ctx.formalParameters());
+        // A constructor implicitly starts with the no-argument constructor of the nearest super class which has one
+        for (var parent = semanticsVisitor.getParentClassMap().get(currentClass); parent != null; parent = semanticsVisitor.getParentClassMap().get(parent)) {
+            var defaultConstructor = findMethodSignature(parent + "::" + parent + "()");
+            if (defaultConstructor != null) {
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(parent), methodName(defaultConstructor), "()V", false);
+                break;
+            }
+        }
+        visit(ctx.constructorBody);
+        endMethod();
+        return null;
+    }
+
+    @Override
+    public Void visitMethodDeclaration(MiniJavaParser.MethodDeclarationContext ctx) {
+        var methodSig = new MethodSignature(currentClass, ctx.identifier().getText(), parameterTypes(ctx.formalParameters()));
+        methodSig = findMethodSignature(methodSig.mangle());
+        beginMethod(cw.visitMethod(Opcodes.ACC_PUBLIC, methodName(methodSig), methodDescriptor(methodSig), null, null), false, methodSig.returnType);
+        addParameters(ctx.formalParameters());
+        visit(ctx.methodBody);
+        endMethod();
+        return null;
+    }
+
+    // To support variable shadowing, we need to create a new symbol table for each block.
+    @Override
+    public Void visitBlock(MiniJavaParser.BlockContext ctx) {
+        newSymbolTable();
+        visitChildren(ctx);
+        removeSymbolTable();
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStatement(MiniJavaParser.BlockStatementContext ctx) {
+        if (ctx.localVariableDeclaration() != null) return visit(ctx.localVariableDeclaration());
+        return visit(ctx.statement());
+    }
+
+    // A variable without initializer starts with its default value, so that it is always assigned for the JVM verifier.
+    @Override
+    public Void visitLocalVariableDeclaration(MiniJavaParser.LocalVariableDeclarationContext ctx) {
+        if (ctx.VAR() != null) {
+            var type = semanticsVisitor.getType(ctx.expression());
+            visit(ctx.expression());
+            var local = newLocal(ctx.identifier().getText(), type);
+            mv.visitVarInsn(storeOpcode(type), local.index());
+            return null;
+        }
+        var type = semanticsVisitor.getType(ctx.typeType());
+        var declarator = ctx.variableDeclarator();
+        if (declarator.variableInitializer() == null) {
+            pushDefaultValue(type);
+        } else {
+            visitVariableInitializer(declarator.variableInitializer(), type);
+        }
+        var local = newLocal(declarator.identifier().getText(), type);
+        mv.visitVarInsn(storeOpcode(type), local.index());
+        return null;
+    }
+
+    // The type of an array initializer is given by the declaration, e.g. `{}` in `int[] a = {}`.
+    private void visitVariableInitializer(MiniJavaParser.VariableInitializerContext ctx, MiniJavaType type) {
+        if (ctx.arrayInitializer() != null) {
+            visitArrayInitializer(ctx.arrayInitializer(), type);
+        } else {
+            visit(ctx.expression());
+            emitCast(semanticsVisitor.getType(ctx.expression()), type);
+        }
+    }
+
+    private void visitArrayInitializer(MiniJavaParser.ArrayInitializerContext ctx, MiniJavaType arrayType) {
+        var initializers = ctx.variableInitializer();
+        var elementType = elementType(arrayType);
+        pushInt(initializers.size());
+        newArray(arrayType);
+        for (var i = 0; i < initializers.size(); i++) {
+            mv.visitInsn(Opcodes.DUP);
+            pushInt(i);
+            visitVariableInitializer(initializers.get(i), elementType);
+            mv.visitInsn(arrayStoreOpcode(elementType));
+        }
+    }
+
+    @Override
+    public Void visitStatement(MiniJavaParser.StatementContext ctx) {
+        if (ctx.block() != null) {
+            return visit(ctx.block());
+        } else if (ctx.IF() != null) {
+            var falseLabel = new Label();
+            emitJump(ctx.parExpression().expression(), falseLabel, false);
+            visit(ctx.statement(0));
+            if (ctx.ELSE() != null) {
+                var endLabel = new Label();
+                mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+                mv.visitLabel(falseLabel);
+                visit(ctx.statement(1));
+                mv.visitLabel(endLabel);
+            } else {
+                mv.visitLabel(falseLabel);
+            }
+        } else if (ctx.WHILE() != null) {
+            var startLabel = new Label();
+            var endLabel = new Label();
+            mv.visitLabel(startLabel);
+            emitJump(ctx.parExpression().expression(), endLabel, false);
+            breakStack.push(endLabel);
+            continueStack.push(startLabel);
+            visit(ctx.statement(0));
+            breakStack.pop();
+            continueStack.pop();
+            mv.visitJumpInsn(Opcodes.GOTO, startLabel);
+            mv.visitLabel(endLabel);
+        } else if (ctx.FOR() != null) {
+            visitForStatement(ctx);
+        } else if (ctx.CONTINUE() != null) {
+            if (continueStack.isEmpty()) throw new RuntimeException("Continue statement not within a loop");
+            mv.visitJumpInsn(Opcodes.GOTO, continueStack.peek());
+        } else if (ctx.BREAK() != null) {
+            if (breakStack.isEmpty()) throw new RuntimeException("Break statement not within a loop");
+            mv.visitJumpInsn(Opcodes.GOTO, breakStack.peek());
+        } else if (ctx.RETURN() != null) {
+            visitReturnStatement(ctx);
+        } else if (ctx.expression() != null) {
+            visitExpressionStatement(ctx.expression());
+        } else if (ctx.SEMI() == null || ctx.getChildCount() != 1) {
+            throw new RuntimeException("Unknown statement: " + ctx.getText());
+        }
+        return null;
+    }
+
+    private void visitForStatement(MiniJavaParser.StatementContext ctx) {
+        newSymbolTable();
+        var forControl = ctx.forControl();
+        var forInit = forControl.forInit();
+        if (forInit != null) {
+            if (forInit.localVariableDeclaration() != null) visit(forInit.localVariableDeclaration());
+            else for (var exp : forInit.expressionList().expression()) visitExpressionStatement(exp);
+        }
+        var startLabel = new Label();
+        var updateLabel = new Label();
+        var endLabel = new Label();
+        mv.visitLabel(startLabel);
+        if (forControl.expression() != null) emitJump(forControl.expression(), endLabel, false);
+        breakStack.push(endLabel);
+        continueStack.push(updateLabel);
+        visit(ctx.statement(0));
+        breakStack.pop();
+        continueStack.pop();
+        mv.visitLabel(updateLabel);
+        if (forControl.forUpdate != null) {
+            for (var exp : forControl.forUpdate.expression()) visitExpressionStatement(exp);
+        }
+        mv.visitJumpInsn(Opcodes.GOTO, startLabel);
+        mv.visitLabel(endLabel);
+        removeSymbolTable();
+    }
+
+    private void visitReturnStatement(MiniJavaParser.StatementContext ctx) {
+        if (returnType.isVoid()) {
+            if (ctx.expression() != null) visitExpressionStatement(ctx.expression());
+            mv.visitInsn(Opcodes.RETURN);
+            return;
+        }
+        if (ctx.expression() != null) {
+            visit(ctx.expression());
+            emitCast(semanticsVisitor.getType(ctx.expression()), returnType);
+        } else {
+            pushDefaultValue(returnType);
+        }
+        mv.visitInsn(isReference(returnType) ? Opcodes.ARETURN : Opcodes.IRETURN);
+    }
+
+    // An expression used as a statement, its value is discarded.
+    private void visitExpressionStatement(MiniJavaParser.ExpressionContext ctx) {
+        visit(ctx);
+        var type = semanticsVisitor.getType(ctx);
+        if (type != null && !type.isVoid()) mv.visitInsn(Opcodes.POP);
+    }
+
+    private boolean isConditionExp(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.bop != null) {
+            var bop = ctx.bop.getType();
+            return bop == MiniJavaParser.AND || bop == MiniJavaParser.OR
+                    || bop == MiniJavaParser.EQUAL || bop == MiniJavaParser.NOTEQUAL
+                    || bop == MiniJavaParser.LT || bop == MiniJavaParser.LE
+                    || bop == MiniJavaParser.GT || bop == MiniJavaParser.GE;
+        }
+        return ctx.prefix != null && ctx.prefix.getType() == MiniJavaParser.BANG;
+    }
+
+    private boolean isArithmeticExp(int type) {
+        return type == MiniJavaParser.ADD
+                || type == MiniJavaParser.SUB
+                || type == MiniJavaParser.MUL
+                || type == MiniJavaParser.DIV
+                || type == MiniJavaParser.MOD
+                || type == MiniJavaParser.LSHIFT
+                || type == MiniJavaParser.RSHIFT
+                || type == MiniJavaParser.URSHIFT
+                || type == MiniJavaParser.BITAND
+                || type == MiniJavaParser.BITOR
+                || type == MiniJavaParser.CARET;
+    }
+
+    private int arithmeticOpcode(int type) {
+        switch (type) {
+            case MiniJavaParser.ADD:
+            case MiniJavaParser.ADD_ASSIGN:
+                return Opcodes.IADD;
+            case MiniJavaParser.SUB:
+            case MiniJavaParser.SUB_ASSIGN:
+                return Opcodes.ISUB;
+            case MiniJavaParser.MUL:
+            case MiniJavaParser.MUL_ASSIGN:
+                return Opcodes.IMUL;
+            case MiniJavaParser.DIV:
+            case MiniJavaParser.DIV_ASSIGN:
+                return Opcodes.IDIV;
+            case MiniJavaParser.MOD:
+            case MiniJavaParser.MOD_ASSIGN:
+                return Opcodes.IREM;
+            case MiniJavaParser.LSHIFT:
+            case MiniJavaParser.LSHIFT_ASSIGN:
+                return Opcodes.ISHL;
+            case MiniJavaParser.RSHIFT:
+            case MiniJavaParser.RSHIFT_ASSIGN:
+                return Opcodes.ISHR;
+            case MiniJavaParser.URSHIFT:
+            case MiniJavaParser.URSHIFT_ASSIGN:
+                return Opcodes.IUSHR;
+            case MiniJavaParser.BITAND:
+            case MiniJavaParser.AND_ASSIGN:
+                return Opcodes.IAND;
+            case MiniJavaParser.BITOR:
+            case MiniJavaParser.OR_ASSIGN:
+                return Opcodes.IOR;
+            case MiniJavaParser.CARET:
+            case MiniJavaParser.XOR_ASSIGN:
+                return Opcodes.IXOR;
+            default:
+                throw new RuntimeException("Unknown binary operation: " + type);
+        }
+    }
+
+    // Jump to `target` if the condition is `jumpIf`, logical operators are short-circuited.
+    private void emitJump(MiniJavaParser.ExpressionContext ctx, Label target, boolean jumpIf) {
+        var bop = ctx.bop != null ? ctx.bop.getType() : -1;
+        if (bop == MiniJavaParser.AND || bop == MiniJavaParser.OR) {
+            if ((bop == MiniJavaParser.AND) != jumpIf) {
+                // `a and b` is false if any of them is false, `a or b` is true if any of them is true
+                emitJump(ctx.expression(0), target, jumpIf);
+                emitJump(ctx.expression(1), target, jumpIf);
+            } else {
+                var skipLabel = new Label();
+                emitJump(ctx.expression(0), skipLabel, !jumpIf);
+                emitJump(ctx.expression(1), target, jumpIf);
+                mv.visitLabel(skipLabel);
+            }
+        } else if (ctx.prefix != null && ctx.prefix.getType() == MiniJavaParser.BANG) {
+            emitJump(ctx.expression(0), target, !jumpIf);
+        } else if (ctx.primary() != null && ctx.primary().expression() != null) {
+            emitJump(ctx.primary().expression(), target, jumpIf);
+        } else if (bop == MiniJavaParser.LT || bop == MiniJavaParser.LE || bop == MiniJavaParser.GT || bop == MiniJavaParser.GE) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            int opcode;
+            if (bop == MiniJavaParser.LT) opcode = jumpIf ? Opcodes.IF_ICMPLT : Opcodes.IF_ICMPGE;
+            else if (bop == MiniJavaParser.LE) opcode = jumpIf ? Opcodes.IF_ICMPLE : Opcodes.IF_ICMPGT;
+            else if (bop == MiniJavaParser.GT) opcode = jumpIf ? Opcodes.IF_ICMPGT : Opcodes.IF_ICMPLE;
+            else opcode = jumpIf ? Opcodes.IF_ICMPGE : Opcodes.IF_ICMPLT;
+            mv.visitJumpInsn(opcode, target);
+        } else if (bop == MiniJavaParser.EQUAL || bop == MiniJavaParser.NOTEQUAL) {
+            emitEqualityJump(ctx, target, jumpIf == (bop == MiniJavaParser.EQUAL));
+        } else {
+            visit(ctx);
+            mv.visitJumpInsn(jumpIf ? Opcodes.IFNE : Opcodes.IFEQ, target);
+        }
+    }
+
+    // Numbers are compared by value, strings by `equals`, other references by identity, see `Interpreter.isEqual`.
+    private void emitEqualityJump(MiniJavaParser.ExpressionContext ctx, Label target, boolean jumpIfEqual) {
+        var lhs = semanticsVisitor.getType(ctx.expression(0));
+        var rhs = semanticsVisitor.getType(ctx.expression(1));
+        if (!isReference(lhs) && !isReference(rhs)) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            mv.visitJumpInsn(jumpIfEqual ? Opcodes.IF_ICMPEQ : Opcodes.IF_ICMPNE, target);
+            return;
+        }
+        if (isReference(lhs) && isReference(rhs) && !lhs.isString() && !rhs.isString()) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            mv.visitJumpInsn(jumpIfEqual ? Opcodes.IF_ACMPEQ : Opcodes.IF_ACMPNE, target);
+            return;
+        }
+        visit(ctx.expression(0));
+        if (!isReference(lhs)) emitBox(lhs);
+        visit(ctx.expression(1));
+        if (!isReference(rhs)) emitBox(rhs);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Objects", "equals", "(Ljava/lang/Object;Ljava/lang/Object;)Z", false);
+        mv.visitJumpInsn(jumpIfEqual ? Opcodes.IFNE : Opcodes.IFEQ, target);
+    }
+
+    private void emitBox(MiniJavaType type) {
+        if (type.isChar()) mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Character", "valueOf", "(C)Ljava/lang/Character;", false);
+        else if (type.isBoolean()) mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;", false);
+        else mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+    }
+
+    // The descriptor of the overloads of `StringBuilder.append` and `MiniJavaRuntime.print` for a value of `type`.
+    private static String valueDescriptor(MiniJavaType type) {
+        if (type.isArray()) return "L" + OBJECT_CLASS + ";";
+        if (type.isInt()) return "I";
+        if (type.isChar()) return "C";
+        if (type.isBoolean()) return "Z";
+        if (type.isString()) return "L" + STRING_CLASS + ";";
+        return "L" + OBJECT_CLASS + ";";
+    }
+
+    private boolean isConcatExp(MiniJavaParser.ExpressionContext ctx) {
+        return ctx.bop != null && ctx.bop.getType() == MiniJavaParser.ADD && semanticsVisitor.getType(ctx).isString();
+    }
+
+    // `a + b + c` of strings is a single `StringBuilder`.
+    private void emitConcat(MiniJavaParser.ExpressionContext ctx) {
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "()V", false);
+        appendOperands(ctx);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()L" + STRING_CLASS + ";", false);
+    }
+
+    private void appendOperands(MiniJavaParser.ExpressionContext ctx) {
+        for (var operand : ctx.expression()) {
+            if (isConcatExp(operand)) {
+                appendOperands(operand);
+                continue;
+            }
+            visit(operand);
+            var descriptor = "(" + valueDescriptor(semanticsVisitor.getType(operand)) + ")Ljava/lang/StringBuilder;";
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", descriptor, false);
+        }
+    }
+
+    private void visitArithmeticExp(MiniJavaParser.ExpressionContext ctx) {
+        if (isConcatExp(ctx)) {
+            emitConcat(ctx);
+            return;
+        }
+        visit(ctx.expression(0));
+        visit(ctx.expression(1));
+        mv.visitInsn(arithmeticOpcode(ctx.bop.getType()));
+        if (semanticsVisitor.getType(ctx).isChar()) wrapChar();
+    }
+
+    // When we need a left value expression, the left value may be surrounded by parentheses,
+    // see `BytecodeVisitor.getLeftValueExp`.
+    private MiniJavaParser.ExpressionContext getLeftValueExp(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.primary() != null) {
+            if (ctx.primary().expression() != null) return getLeftValueExp(ctx.primary().expression());
+            if (ctx.primary().identifier() != null) return ctx;
+        }
+        if (ctx.LBRACK() != null) return ctx;
+        if (ctx.bop != null && ctx.bop.getType() == MiniJavaParser.DOT) return ctx;
+        throw new RuntimeException("Unknown left value expression: " + ctx.getText());
+    }
+
+    // Push the object of a field, or the array and the index of an element.
+    private LeftValue prepareLeftValue(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.primary() != null) {
+            var id = ctx.primary().identifier().getText();
+            var local = findLocal(id);
+            if (local != null) return new LeftValue(local, null, null, local.type());
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            var owner = fieldOwner(currentClass, id);
+            return new LeftValue(null, owner, id, fieldType(owner, id));
+        } else if (ctx.LBRACK() != null) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            return new LeftValue(null, null, null, semanticsVisitor.getType(ctx));
+        } else {
+            visit(ctx.expression(0));
+            var id = ctx.identifier().getText();
+            var owner = fieldOwner(semanticsVisitor.getType(ctx.expression(0)).classType, id);
+            return new LeftValue(null, owner, id, fieldType(owner, id));
+        }
+    }
+
+    // Load the value of the left value, the object (or the array and the index) stays below it.
+    private void loadLeftValue(LeftValue leftValue) {
+        if (leftValue.isLocal()) {
+            mv.visitVarInsn(loadOpcode(leftValue.type()), leftValue.local().index());
+        } else if (leftValue.isField()) {
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName(leftValue.owner()), leftValue.field(), descriptor(leftValue.type()));
+        } else {
+            mv.visitInsn(Opcodes.DUP2);
+            mv.visitInsn(arrayLoadOpcode(leftValue.type()));
+        }
+    }
+
+    // Copy the value on the stack below the object (or the array and the index) of the left value.
+    private void dupBelowLeftValue(LeftValue leftValue) {
+        if (leftValue.isLocal()) mv.visitInsn(Opcodes.DUP);
+        else if (leftValue.isField()) mv.visitInsn(Opcodes.DUP_X1);
+        else mv.visitInsn(Opcodes.DUP_X2);
+    }
+
+    // Store the value on the stack into the left value.
+    private void storeLeftValue(LeftValue leftValue) {
+        if (leftValue.isLocal()) mv.visitVarInsn(storeOpcode(leftValue.type()), leftValue.local().index());
+        else if (leftValue.isField()) mv.visitFieldInsn(Opcodes.PUTFIELD, internalName(leftValue.owner()), leftValue.field(), descriptor(leftValue.type()));
+        else mv.visitInsn(arrayStoreOpcode(leftValue.type()));
+    }
+
+    // An assignment is an expression whose value is the assigned value.
+    private void visitAssignExp(MiniJavaParser.ExpressionContext ctx) {
+        var leftValue = prepareLeftValue(getLeftValueExp(ctx.expression(0)));
+        var leftType = leftValue.type();
+        var rightType = semanticsVisitor.getType(ctx.expression(1));
+        if (ctx.bop.getType() == MiniJavaParser.ASSIGN) {
+            visit(ctx.expression(1));
+            emitCast(rightType, leftType);
+        } else if (ctx.bop.getType() == MiniJavaParser.ADD_ASSIGN && leftType.isString()) {
+            loadLeftValue(leftValue);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, STRING_CLASS, "valueOf", "(L" + OBJECT_CLASS + ";)L" + STRING_CLASS + ";", false);
+            visit(ctx.expression(1));
+            var descriptor = rightType.isString() ? "L" + OBJECT_CLASS + ";" : valueDescriptor(rightType);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, STRING_CLASS, "valueOf", "(" + descriptor + ")L" + STRING_CLASS + ";", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STRING_CLASS, "concat", "(L" + STRING_CLASS + ";)L" + STRING_CLASS + ";", false);
+        } else {
+            loadLeftValue(leftValue);
+            visit(ctx.expression(1));
+            mv.visitInsn(arithmeticOpcode(ctx.bop.getType()));
+            // The compound assignment keeps the type of the left value
+            if (leftType.isChar()) wrapChar();
+        }
+        dupBelowLeftValue(leftValue);
+        storeLeftValue(leftValue);
+    }
+
+    private void emitIncrement(int opcode, MiniJavaType type) {
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitInsn(opcode == MiniJavaParser.INC ? Opcodes.IADD : Opcodes.ISUB);
+        if (type.isChar()) wrapChar();
+    }
+
+    // The value of `x++` is the value before the increment.
+    private void visitPostfixExp(MiniJavaParser.ExpressionContext ctx) {
+        var leftValue = prepareLeftValue(getLeftValueExp(ctx.expression(0)));
+        loadLeftValue(leftValue);
+        dupBelowLeftValue(leftValue);
+        emitIncrement(ctx.postfix.getType(), leftValue.type());
+        storeLeftValue(leftValue);
+    }
+
+    private void visitPrefixExp(MiniJavaParser.ExpressionContext ctx) {
+        var prefix = ctx.prefix.getType();
+        if (prefix == MiniJavaParser.INC || prefix == MiniJavaParser.DEC) {
+            var leftValue = prepareLeftValue(getLeftValueExp(ctx.expression(0)));
+            loadLeftValue(leftValue);
+            emitIncrement(prefix, leftValue.type());
+            dupBelowLeftValue(leftValue);
+            storeLeftValue(leftValue);
+            return;
+        }
+        visit(ctx.expression(0));
+        if (prefix == MiniJavaParser.TILDE) {
+            mv.visitInsn(Opcodes.ICONST_M1);
+            mv.visitInsn(Opcodes.IXOR);
+        } else if (prefix == MiniJavaParser.SUB) {
+            mv.visitInsn(Opcodes.INEG);
+        } else if (prefix != MiniJavaParser.ADD) {
+            throw new RuntimeException("Unknown prefix expression: " + ctx.prefix.getText());
+        }
+    }
+
+    // A boolean value of a condition is materialized with jumps.
+    private void visitConditionValue(MiniJavaParser.ExpressionContext ctx) {
+        var falseLabel = new Label();
+        var endLabel = new Label();
+        emitJump(ctx, falseLabel, false);
+        mv.visitInsn(Opcodes.ICONST_1);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(falseLabel);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitLabel(endLabel);
+    }
+
+    private void visitQuestionExp(MiniJavaParser.ExpressionContext ctx) {
+        var type = semanticsVisitor.getType(ctx);
+        var falseLabel = new Label();
+        var endLabel = new Label();
+        emitJump(ctx.expression(0), falseLabel, false);
+        visit(ctx.expression(1));
+        emitCast(semanticsVisitor.getType(ctx.expression(1)), type);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(falseLabel);
+        visit(ctx.expression(2));
+        emitCast(semanticsVisitor.getType(ctx.expression(2)), type);
+        mv.visitLabel(endLabel);
+    }
+
+    private void emitCreator(MiniJavaParser.CreatorContext ctx) {
+        var createdName = ctx.createdName();
+        if (ctx.classCreatorRest() != null) {
+            // Create the object with the field initializers, then run the constructor on it
+            var className = createdName.identifier().getText();
+            var constructor = findMethodSignature(semanticsVisitor.getMangledMethod(ctx));
+            mv.visitTypeInsn(Opcodes.NEW, internalName(className));
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, internalName(className), "<init>", "()V", false);
+            mv.visitInsn(Opcodes.DUP);
+            visitArguments(ctx.classCreatorRest().expressionList(), constructor);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, internalName(className), methodName(constructor), methodDescriptor(constructor), false);
+            return;
+        }
+        var rest = ctx.arrayCreatorRest();
+        var totalDims = rest.LBRACK().size();
+        var arrayType = createdName.primitiveType() != null
+                ? MiniJavaType.newPrimitiveArrayType(createdName.primitiveType().getText(), totalDims)
+                : MiniJavaType.newClassArrayType(createdName.identifier().getText(), totalDims);
+        if (rest.arrayInitializer() != null) {
+            visitArrayInitializer(rest.arrayInitializer(), arrayType);
+            return;
+        }
+        var sizes = rest.expression();
+        for (var size : sizes) visit(size);
+        if (sizes.size() == 1) newArray(arrayType);
+        else mv.visitMultiANewArrayInsn(descriptor(arrayType), sizes.size());
+        // The elements of fully specified `string` arrays are "" instead of null, see `BytecodeVisitor.arrayCreator`
+        if (arrayType.isString() && sizes.size() == totalDims) {
+            pushInt(totalDims);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, "fillStrings", "([L" + OBJECT_CLASS + ";I)[L" + OBJECT_CLASS + ";", false);
+            mv.visitTypeInsn(Opcodes.CHECKCAST, descriptor(arrayType));
+        }
+    }
+
+    // Push the arguments of a call, each argument is converted to the type of the parameter.
+    private void visitArguments(MiniJavaParser.ExpressionListContext ctx, MethodSignature methodSig) {
+        if (ctx == null) return;
+        var arguments = ctx.expression();
+        for (var i = 0; i < arguments.size(); i++) {
+            visit(arguments.get(i));
+            if (methodSig != null) emitCast(semanticsVisitor.getType(arguments.get(i)), methodSig.parameterTypes.get(i));
+        }
+    }
+
+    // The overload is resolved statically by `SemanticsVisitor`, the override is resolved by `invokevirtual`.
+    // A method call without receiver inside a class may resolve to an instance method, in that case it is an invocation on `this`.
+    // An invocation on `super` is `invokespecial`, which starts the lookup from the parent class.
+    private void visitMethodCall(MiniJavaParser.MethodCallContext ctx, String className, boolean isDotMethodCall, boolean isSuper) {
+        var mangledMethod = semanticsVisitor.getMangledMethod(ctx);
+        var methodSig = findMethodSignature(mangledMethod);
+        if (methodSig == null) {
+            visitBuiltinCall(ctx);
+            return;
+        }
+        var isStatic = !isDotMethodCall && mangledMethod.startsWith("global::");
+        if (!isDotMethodCall && !isStatic) mv.visitVarInsn(Opcodes.ALOAD, 0);
+        visitArguments(ctx.arguments().expressionList(), methodSig);
+        if (isStatic) {
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, GLOBAL_CLASS, methodName(methodSig), methodDescriptor(methodSig), false);
+        } else {
+            var opcode = isSuper ? Opcodes.INVOKESPECIAL : Opcodes.INVOKEVIRTUAL;
+            mv.visitMethodInsn(opcode, internalName(className), methodName(methodSig), methodDescriptor(methodSig), false);
+        }
+    }
+
+    private void visitBuiltinCall(MiniJavaParser.MethodCallContext ctx) {
+        var methodName = ctx.identifier().getText();
+        var arguments = ctx.arguments().expressionList() != null ? ctx.arguments().expressionList().expression() : new ArrayList<MiniJavaParser.ExpressionContext>();
+        for (var argument : arguments) visit(argument);
+        switch (methodName) {
+            case "print":
+            case "println": {
+                var type = arguments.isEmpty() ? null : semanticsVisitor.getType(arguments.get(0));
+                String descriptor;
+                if (type == null) descriptor = "()V";
+                else if (isReference(type)) descriptor = "(L" + OBJECT_CLASS + ";)V";
+                else descriptor = "(" + valueDescriptor(type) + ")V";
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, methodName, descriptor, false);
+                break;
+            }
+            case "length":
+                mv.visitInsn(Opcodes.ARRAYLENGTH);
+                break;
+            case "atoi":
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, "atoi", "(L" + STRING_CLASS + ";)I", false);
+                break;
+            case "itoa":
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Integer", "toString", "(I)L" + STRING_CLASS + ";", false);
+                break;
+            case "assert":
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, RUNTIME_CLASS, "assertTrue", "(Z)V", false);
+                break;
+            default:
+                throw new RuntimeException("[ERROR] Method " + methodName + " not found.");
+        }
+    }
+
+    private void visitDotExp(MiniJavaParser.ExpressionContext ctx) {
+        var receiver = ctx.expression(0);
+        var className = semanticsVisitor.getType(receiver).classType;
+        visit(receiver);
+        if (ctx.identifier() != null) {
+            var id = ctx.identifier().getText();
+            var owner = fieldOwner(className, id);
+            mv.visitFieldInsn(Opcodes.GETFIELD, internalName(owner), id, descriptor(fieldType(owner, id)));
+        } else {
+            var isSuper = receiver.primary() != null && receiver.primary().SUPER() != null;
+            visitMethodCall(ctx.methodCall(), className, true, isSuper);
+        }
+    }
+
+    @Override
+    public Void visitExpression(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.LBRACK() != null) {
+            visit(ctx.expression(0));
+            visit(ctx.expression(1));
+            mv.visitInsn(arrayLoadOpcode(semanticsVisitor.getType(ctx)));
+        } else if (ctx.creator() != null) {
+            emitCreator(ctx.creator());
+        } else if (ctx.bop != null && ctx.bop.getType() == MiniJavaParser.DOT) {
+            visitDotExp(ctx);
+        } else if (ctx.methodCall() != null) {
+            visitMethodCall(ctx.methodCall(), currentClass, false, false);
+        } else if (isConditionExp(ctx)) {
+            visitConditionValue(ctx);
+        } else if (ctx.bop != null && ctx.bop.getType() == MiniJavaParser.QUESTION) {
+            visitQuestionExp(ctx);
+        } else if (ctx.bop != null && isArithmeticExp(ctx.bop.getType())) {
+            visitArithmeticExp(ctx);
+        } else if (ctx.bop != null) {
+            visitAssignExp(ctx);
+        } else if (ctx.primary() != null) {
+            visit(ctx.primary());
+        } else if (ctx.postfix != null) {
+            visitPostfixExp(ctx);
+        } else if (ctx.prefix != null) {
+            visitPrefixExp(ctx);
+        } else if (ctx.typeType() != null) {
+            visit(ctx.expression(0));
+            emitCast(semanticsVisitor.getType(ctx.expression(0)), semanticsVisitor.getType(ctx));
+        } else {
+            throw new RuntimeException("Unknown expression: " + ctx.getText());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrimary(MiniJavaParser.PrimaryContext ctx) {
+        if (ctx.expression() != null) {
+            visit(ctx.expression());
+        } else if (ctx.THIS() != null || ctx.SUPER() != null) {
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+        } else if (ctx.literal() != null) {
+            visit(ctx.literal());
+        } else {
+            var id = ctx.identifier().getText();
+            var local = findLocal(id);
+            if (local != null) {
+                mv.visitVarInsn(loadOpcode(local.type()), local.index());
+            } else {
+                // If the variable is not found in the local scope, it must be a field of `this`.
+                var owner = fieldOwner(currentClass, id);
+                mv.visitVarInsn(Opcodes.ALOAD, 0);
+                mv.visitFieldInsn(Opcodes.GETFIELD, internalName(owner), id, descriptor(fieldType(owner, id)));
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLiteral(MiniJavaParser.LiteralContext ctx) {
+        var text = ctx.getText();
+        if (ctx.DECIMAL_LITERAL() != null) {
+            pushInt(Integer.parseInt(text));
+        } else if (ctx.STRING_LITERAL() != null) {
+            mv.visitLdcInsn(unescape(text.substring(1, text.length() - 1)));
+        } else if (ctx.BOOL_LITERAL() != null) {
+            mv.visitInsn("true".equals(text) ? Opcodes.ICONST_1 : Opcodes.ICONST_0);
+        } else if (ctx.CHAR_LITERAL() != null) {
+            pushInt(unescape(text.substring(1, text.length() - 1)).charAt(0) & 0xFF);
+        } else if (ctx.NULL_LITERAL() != null) {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        } else {
+            throw new RuntimeException("Unknown literal: " + text);
+        }
+        return null;
+    }
+
+    // Translate the escape sequences of a char or string literal, see `BytecodeVisitor.unescape`.
+    private String unescape(String literal) {
+        var sb = new StringBuilder();
+        for (var i = 0; i < literal.length(); i++) {
+            var c = literal.charAt(i);
+            if (c != '\\' || i + 1 >= literal.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = literal.charAt(++i);
+            switch (c) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case '0': sb.append('\0'); break;
+                default: sb.append(c); break;
+            }
+        }
+        return sb.toString();
+    }
+}
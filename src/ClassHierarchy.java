@@ -0,0 +1,58 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the class hierarchy analysis of the whole program, built from the class hierarchy of `SemanticsVisitor`.
+ * A MiniJava program is a single file and classes are never loaded at runtime, so the sub classes of each class are known.
+ * An invocation can only run the methods in the slot of its selector in the vtables of the static class of the receiver
+ * and of its sub classes: if they are all the same method, `BytecodeVisitor` calls it directly with `OP_CALL`
+ * instead of dispatching with `OP_INVOKE`, and the call can be inlined.
+ * An invocation on `super` always runs the method of the parent class, so it is always direct.
+ */
+public class ClassHierarchy {
+    private final VirtualTables virtualTables;
+    // The direct sub classes of each class
+    private final Map<String, List<String>> children;
+    public int directSites = 0;
+    public int virtualSites = 0;
+
+    public ClassHierarchy(SemanticsVisitor semanticsVisitor) {
+        this.virtualTables = new VirtualTables(semanticsVisitor);
+        this.children = new HashMap<>();
+        for (var entry : semanticsVisitor.getParentClassMap().entrySet()) {
+            if (entry.getValue() != null) children.computeIfAbsent(entry.getValue(), key -> new ArrayList<>()).add(entry.getKey());
+        }
+    }
+
+    // The class `className` and all the classes which extend it directly or indirectly.
+    public List<String> subclassesOf(String className) {
+        var subclasses = new ArrayList<String>();
+        subclasses.add(className);
+        for (var i = 0; i < subclasses.size(); i++) subclasses.addAll(children.getOrDefault(subclasses.get(i), List.of()));
+        return subclasses;
+    }
+
+    // The mangled name of the only method which an invocation of `selector` can run on a receiver of static class `className`,
+    // or null if the sub classes have different implementations. `isSuper` is true for an invocation on `super`.
+    public String uniqueTarget(String className, String selector, boolean isSuper) {
+        var slot = virtualTables.slotOf(className, selector);
+        var target = virtualTables.tableOf(className).get(slot);
+        if (!isSuper) {
+            for (var subclass : subclassesOf(className)) {
+                if (!virtualTables.tableOf(subclass).get(slot).equals(target)) {
+                    virtualSites++;
+                    return null;
+                }
+            }
+        }
+        directSites++;
+        return target;
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[CHA] %d of %d invocation sites are direct calls%n", directSites, directSites + virtualSites);
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * This class evaluates constant expressions at compile time, with the semantics of the interpreters:
+ * `int` arithmetic wraps around, `char` is an 8-bit integer and `char + char` is a `char`,
+ * `+` concatenates if one of the operands is a `string`, `==` compares numbers by value and strings by content.
+ * A constant is an `Integer`, a `Character`, a `Boolean` or a `String`, and null means that the expression is not constant.
+ * An expression which fails at runtime, e.g. a division by zero or a comparison of strings, is not constant,
+ * so that the error still happens at runtime.
+ */
+public class ConstantFolder {
+    // The constant value of an identifier, null if it is not a constant
+    private final Function<String, Object> identifiers;
+
+    public ConstantFolder(Function<String, Object> identifiers) {
+        this.identifiers = identifiers;
+    }
+
+    public Object fold(MiniJavaParser.ExpressionContext ctx) {
+        if (ctx.primary() != null) return foldPrimary(ctx.primary());
+        if (ctx.prefix != null) return foldPrefix(ctx);
+        if (ctx.typeType() != null && ctx.expression().size() == 1) {
+            var value = fold(ctx.expression(0));
+            return value != null ? cast(value, ctx.typeType().getText()) : null;
+        }
+        if (ctx.bop == null || ctx.bop.getType() == MiniJavaParser.DOT) return null;
+        if (ctx.bop.getType() == MiniJavaParser.QUESTION) {
+            var condition = fold(ctx.expression(0));
+            var a = fold(ctx.expression(1));
+            var b = fold(ctx.expression(2));
+            if (!(condition instanceof Boolean c) || a == null || b == null) return null;
+            return c ? a : b;
+        }
+        if (ctx.expression().size() != 2) return null;
+        var a = fold(ctx.expression(0));
+        if (a == null) return null;
+        var b = fold(ctx.expression(1));
+        if (b == null) return null;
+        return foldBinary(ctx.bop.getType(), a, b);
+    }
+
+    // Convert `value` to `type` like `OP_CAST`, null if the conversion fails at runtime or `type` is not primitive.
+    public static Object cast(Object value, String type) {
+        switch (type) {
+            case "int":
+                return isNumber(value) ? intValue(value) : null;
+            case "char":
+                if (value instanceof Character) return value;
+                return isNumber(value) ? newChar(intValue(value)) : null;
+            case "string":
+                return toDisplayString(value);
+            case "boolean":
+                return value;
+            default:
+                return null;
+        }
+    }
+
+    private Object foldPrimary(MiniJavaParser.PrimaryContext ctx) {
+        if (ctx.expression() != null) return fold(ctx.expression());
+        if (ctx.identifier() != null) return identifiers.apply(ctx.identifier().getText());
+        if (ctx.literal() == null) return null;
+        var literal = ctx.literal();
+        var text = literal.getText();
+        if (literal.DECIMAL_LITERAL() != null) return Integer.parseInt(text);
+        if (literal.STRING_LITERAL() != null) return BytecodeVisitor.unescape(text.substring(1, text.length() - 1));
+        if (literal.CHAR_LITERAL() != null) return BytecodeVisitor.unescape(text.substring(1, text.length() - 1)).charAt(0);
+        if (literal.BOOL_LITERAL() != null) return "true".equals(text);
+        return null;
+    }
+
+    private Object foldPrefix(MiniJavaParser.ExpressionContext ctx) {
+        var value = fold(ctx.expression(0));
+        if (value == null) return null;
+        switch (ctx.prefix.getType()) {
+            case MiniJavaParser.ADD:
+                return isNumber(value) ? value : null;
+            case MiniJavaParser.SUB:
+                return isNumber(value) ? -intValue(value) : null;
+            case MiniJavaParser.TILDE:
+                return isNumber(value) ? ~intValue(value) : null;
+            case MiniJavaParser.BANG:
+                return value instanceof Boolean b ? !b : null;
+            default:
+                return null;
+        }
+    }
+
+    // Evaluate `type` on the constant operands it pops, in stack order, null if the result is not constant.
+    // It is used on the SSA form, see `AlgebraicSimplifier`.
+    public static Object foldBytecode(BytecodeType type, List<Object> operands) {
+        if (operands.size() == 1) {
+            var value = operands.get(0);
+            if (!isNumber(value)) return null;
+            switch (type) {
+                case OP_NEG: return -intValue(value);
+                case OP_BIT_NOT: return ~intValue(value);
+                // A `char` stays a `char`, the two branches of `?:` would be promoted to `int`
+                case OP_INC:
+                    if (value instanceof Character) return newChar(intValue(value) + 1);
+                    return intValue(value) + 1;
+                case OP_DEC:
+                    if (value instanceof Character) return newChar(intValue(value) - 1);
+                    return intValue(value) - 1;
+                default: return null;
+            }
+        }
+        if (operands.size() != 2) return null;
+        int bop;
+        switch (type) {
+            case OP_ADD: bop = MiniJavaParser.ADD; break;
+            case OP_SUB: bop = MiniJavaParser.SUB; break;
+            case OP_MUL: bop = MiniJavaParser.MUL; break;
+            case OP_DIV: bop = MiniJavaParser.DIV; break;
+            case OP_MOD: bop = MiniJavaParser.MOD; break;
+            case OP_LSHIFT: bop = MiniJavaParser.LSHIFT; break;
+            case OP_RSHIFT: bop = MiniJavaParser.RSHIFT; break;
+            case OP_URSHIFT: bop = MiniJavaParser.URSHIFT; break;
+            case OP_BIT_AND: bop = MiniJavaParser.BITAND; break;
+            case OP_BIT_OR: bop = MiniJavaParser.BITOR; break;
+            case OP_BIT_XOR: bop = MiniJavaParser.CARET; break;
+            case OP_EQ: bop = MiniJavaParser.EQUAL; break;
+            case OP_NEQ: bop = MiniJavaParser.NOTEQUAL; break;
+            case OP_LT: bop = MiniJavaParser.LT; break;
+            case OP_LE: bop = MiniJavaParser.LE; break;
+            case OP_GT: bop = MiniJavaParser.GT; break;
+            case OP_GE: bop = MiniJavaParser.GE; break;
+            default: return null;
+        }
+        return foldBinary(bop, operands.get(0), operands.get(1));
+    }
+
+    private static Object foldBinary(int bop, Object a, Object b) {
+        switch (bop) {
+            case MiniJavaParser.ADD:
+                if (a instanceof String || b instanceof String) return toDisplayString(a) + toDisplayString(b);
+                if (a instanceof Character && b instanceof Character) return newChar(intValue(a) + intValue(b));
+                break;
+            case MiniJavaParser.EQUAL:
+                return isEqual(a, b);
+            case MiniJavaParser.NOTEQUAL:
+                return !isEqual(a, b);
+            case MiniJavaParser.AND:
+                return a instanceof Boolean x && b instanceof Boolean y ? x && y : null;
+            case MiniJavaParser.OR:
+                return a instanceof Boolean x && b instanceof Boolean y ? x || y : null;
+            default:
+                break;
+        }
+        if (!isNumber(a) || !isNumber(b)) return null;
+        var x = intValue(a);
+        var y = intValue(b);
+        switch (bop) {
+            case MiniJavaParser.ADD: return x + y;
+            case MiniJavaParser.SUB: return x - y;
+            case MiniJavaParser.MUL: return x * y;
+            case MiniJavaParser.DIV: return y != 0 ? x / y : null;
+            case MiniJavaParser.MOD: return y != 0 ? x % y : null;
+            case MiniJavaParser.LSHIFT: return x << y;
+            case MiniJavaParser.RSHIFT: return x >> y;
+            case MiniJavaParser.URSHIFT: return x >>> y;
+            case MiniJavaParser.BITAND: return x & y;
+            case MiniJavaParser.BITOR: return x | y;
+            case MiniJavaParser.CARET: return x ^ y;
+            case MiniJavaParser.LT: return x < y;
+            case MiniJavaParser.LE: return x <= y;
+            case MiniJavaParser.GT: return x > y;
+            case MiniJavaParser.GE: return x >= y;
+            default: return null;
+        }
+    }
+
+    private static boolean isNumber(Object value) {
+        return value instanceof Integer || value instanceof Character;
+    }
+
+    private static int intValue(Object value) {
+        return value instanceof Character c ? c : (Integer) value;
+    }
+
+    private static Character newChar(int value) {
+        return (char) (value & 0xFF);
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (isNumber(a) && isNumber(b)) return intValue(a) == intValue(b);
+        return Objects.equals(a, b);
+    }
+
+    private static String toDisplayString(Object value) {
+        return String.valueOf(value);
+    }
+}
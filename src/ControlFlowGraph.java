@@ -0,0 +1,536 @@
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * This class is the control flow graph of a method in SSA form, the mid-level IR of the compiler.
+ * It is built from the bytecodes of an `OP_METHOD` section before the labels are resolved:
+ * the bytecodes are split into basic blocks at labels, jumps and `OP_RETURN`,
+ * the blocks which cannot be reached are dropped, and falling off the end of the method becomes `OP_RETURN`.
+ * The first block is an empty entry block, so the entry of the method is never the target of a jump.
+ *
+ * The SSA form is built with the algorithm of Braun et al., "Simple and Efficient Construction of Static Single
+ * Assignment Form": both the variables and the stack slots at the start of a block are SSA variables,
+ * `OP_GET_LOCAL` reads the current value of a variable, `OP_SET_LOCAL` writes it, `OP_DUP` and `OP_POP` only move values.
+ * Phis are created where a variable is read in a block with several predecessors, and removed if they are trivial.
+ * See `SsaLowering` for the way back to bytecodes.
+ */
+public class ControlFlowGraph {
+    public final String name;
+    // The number of variables of the method, the stack slot i is the SSA variable `variableCount + i`
+    public final int variableCount;
+    public final List<BasicBlock> blocks;
+    private int nextValueId = 0;
+    private int nextBlockId = 0;
+
+    // The state of the SSA construction
+    private final HashMap<BasicBlock, HashMap<Integer, SsaValue>> currentDefs = new HashMap<>();
+    private final HashMap<BasicBlock, HashMap<Integer, SsaValue>> incompletePhis = new HashMap<>();
+    private final HashSet<BasicBlock> sealedBlocks = new HashSet<>();
+    private final HashMap<Integer, SsaValue> entryValues = new HashMap<>();
+
+    private ControlFlowGraph(String name, int variableCount) {
+        this.name = name;
+        this.variableCount = variableCount;
+        this.blocks = new ArrayList<>();
+    }
+
+    public static ControlFlowGraph build(String name, List<Bytecode> code, int variableCount) {
+        var graph = new ControlFlowGraph(name, variableCount);
+        var ranges = graph.splitBlocks(code);
+        graph.removeUnreachableBlocks(ranges);
+        graph.buildSsa(code, ranges);
+        graph.removeTrivialPhis();
+        return graph;
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    public BasicBlock newBlock() {
+        return new BasicBlock(nextBlockId++);
+    }
+
+    public SsaValue newValue(SsaValue.Kind kind, Bytecode bytecode, BasicBlock block) {
+        var value = new SsaValue(nextValueId++, kind, bytecode);
+        value.block = block;
+        return value;
+    }
+
+    // Replace every use of `value` with `replacement`.
+    public void replaceAllUses(SsaValue value, SsaValue replacement) {
+        for (var block : blocks) {
+            for (var user : block.allValues()) {
+                user.operands.replaceAll(operand -> operand == value ? replacement : operand);
+            }
+        }
+    }
+
+    // The users of each value, a user is listed once per operand.
+    public HashMap<SsaValue, List<SsaValue>> users() {
+        var users = new HashMap<SsaValue, List<SsaValue>>();
+        for (var block : blocks) {
+            for (var user : block.allValues()) {
+                for (var operand : user.operands) users.computeIfAbsent(operand, key -> new ArrayList<>()).add(user);
+            }
+        }
+        return users;
+    }
+
+    // The blocks in reverse postorder from the entry, a block comes after its dominators.
+    public List<BasicBlock> reversePostorder() {
+        var order = new ArrayList<BasicBlock>();
+        var visited = new HashSet<BasicBlock>();
+        // The successors left to visit of each block on the path
+        var path = new ArrayDeque<BasicBlock>();
+        var pending = new ArrayDeque<ArrayDeque<BasicBlock>>();
+        visited.add(entry());
+        path.push(entry());
+        pending.push(new ArrayDeque<>(entry().successors()));
+        while (!path.isEmpty()) {
+            var successor = pending.peek().poll();
+            if (successor == null) {
+                order.add(path.pop());
+                pending.pop();
+            } else if (visited.add(successor)) {
+                path.push(successor);
+                pending.push(new ArrayDeque<>(successor.successors()));
+            }
+        }
+        return order.reversed();
+    }
+
+    // The immediate dominator of each block, the entry block is its own, with the algorithm of Cooper et al.,
+    // "A Simple, Fast Dominance Algorithm".
+    public HashMap<BasicBlock, BasicBlock> immediateDominators() {
+        var order = reversePostorder();
+        var index = new HashMap<BasicBlock, Integer>();
+        for (var i = 0; i < order.size(); i++) index.put(order.get(i), i);
+        var dominators = new HashMap<BasicBlock, BasicBlock>();
+        dominators.put(entry(), entry());
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : order.subList(1, order.size())) {
+                BasicBlock dominator = null;
+                for (var predecessor : block.predecessors) {
+                    if (!dominators.containsKey(predecessor)) continue;
+                    if (dominator == null) {
+                        dominator = predecessor;
+                        continue;
+                    }
+                    var other = predecessor;
+                    while (dominator != other) {
+                        while (index.get(dominator) > index.get(other)) dominator = dominators.get(dominator);
+                        while (index.get(other) > index.get(dominator)) other = dominators.get(other);
+                    }
+                }
+                if (dominators.get(block) != dominator) {
+                    dominators.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+        return dominators;
+    }
+
+    // Whether every path from the entry to `block` goes through `dominator`.
+    public static boolean dominates(HashMap<BasicBlock, BasicBlock> dominators, BasicBlock dominator, BasicBlock block) {
+        while (block != dominator) {
+            var parent = dominators.get(block);
+            if (parent == block) return false;
+            block = parent;
+        }
+        return true;
+    }
+
+    // The blocks of the natural loop of each header, the smaller loops first so the inner loops come first.
+    // A natural loop comes from a back edge, a jump to a block which dominates its source,
+    // e.g. the jump from the end of the body of a `for` or `while` statement to its condition,
+    // and the loops with the same header are merged.
+    public LinkedHashMap<BasicBlock, HashSet<BasicBlock>> naturalLoops() {
+        var dominators = immediateDominators();
+        var loops = new LinkedHashMap<BasicBlock, HashSet<BasicBlock>>();
+        for (var block : blocks) {
+            for (var successor : block.successors()) {
+                if (!dominates(dominators, successor, block)) continue;
+                var body = loops.computeIfAbsent(successor, key -> new HashSet<>(List.of(key)));
+                // The blocks which reach the source of the back edge without going through the header
+                var worklist = new ArrayDeque<BasicBlock>();
+                if (body.add(block)) worklist.add(block);
+                while (!worklist.isEmpty()) {
+                    for (var predecessor : worklist.poll().predecessors) {
+                        if (body.add(predecessor)) worklist.add(predecessor);
+                    }
+                }
+            }
+        }
+        var sorted = new LinkedHashMap<BasicBlock, HashSet<BasicBlock>>();
+        loops.entrySet().stream()
+                .sorted((a, b) -> a.getValue().size() - b.getValue().size())
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+    // The only block outside the loop which leads to the header, if it does not lead anywhere else.
+    public static BasicBlock preheaderOf(BasicBlock header, HashSet<BasicBlock> body) {
+        BasicBlock preheader = null;
+        for (var predecessor : header.predecessors) {
+            if (body.contains(predecessor)) continue;
+            if (preheader != null) return null;
+            preheader = predecessor;
+        }
+        if (preheader == null || preheader.successors().size() != 1) return null;
+        return preheader;
+    }
+
+    // Add a preheader to each loop without one and return the natural loops.
+    // The edges from outside the loop go to the preheader, which gets the phis of the header for them.
+    public LinkedHashMap<BasicBlock, HashSet<BasicBlock>> addPreheaders() {
+        // The new block belongs to the loops around the header, so the loops are found again after each one
+        while (addPreheader(naturalLoops())) {
+        }
+        return naturalLoops();
+    }
+
+    private boolean addPreheader(LinkedHashMap<BasicBlock, HashSet<BasicBlock>> loops) {
+        for (var loop : loops.entrySet()) {
+            var header = loop.getKey();
+            var body = loop.getValue();
+            if (preheaderOf(header, body) != null) continue;
+
+            var preheader = newBlock();
+            var outside = new ArrayList<Integer>();
+            var inside = new ArrayList<Integer>();
+            for (var i = 0; i < header.predecessors.size(); i++) {
+                (body.contains(header.predecessors.get(i)) ? inside : outside).add(i);
+            }
+            for (var phi : header.phis) {
+                var outsidePhi = newValue(SsaValue.Kind.PHI, null, preheader);
+                preheader.phis.add(outsidePhi);
+                for (var i : outside) outsidePhi.operands.add(phi.operands.get(i));
+                var operands = new ArrayList<SsaValue>();
+                operands.add(outsidePhi);
+                for (var i : inside) operands.add(phi.operands.get(i));
+                phi.operands.clear();
+                phi.operands.addAll(operands);
+            }
+            var predecessors = new ArrayList<BasicBlock>();
+            predecessors.add(preheader);
+            for (var i : inside) predecessors.add(header.predecessors.get(i));
+            for (var i : outside) {
+                var predecessor = header.predecessors.get(i);
+                preheader.predecessors.add(predecessor);
+                if (predecessor.target == header) predecessor.target = preheader;
+                if (predecessor.next == header) predecessor.next = preheader;
+            }
+            header.predecessors.clear();
+            header.predecessors.addAll(predecessors);
+            preheader.next = header;
+            blocks.add(blocks.indexOf(header), preheader);
+            removeTrivialPhis();
+            return true;
+        }
+        return false;
+    }
+
+    // Remove the edge from `block` to `successor`, with the operands of the phis for it.
+    // The caller changes the terminator of `block` to match, e.g. a conditional jump which is never taken.
+    public void removeEdge(BasicBlock block, BasicBlock successor) {
+        if (block.target == successor) block.target = null;
+        else if (block.next == successor) block.next = null;
+        var index = successor.predecessors.indexOf(block);
+        successor.predecessors.remove(index);
+        for (var phi : successor.phis) phi.operands.remove(index);
+    }
+
+    // Remove the blocks which are not reachable from the entry anymore, e.g. after `removeEdge`.
+    public void removeDeadBlocks() {
+        var reachable = new HashSet<>(reversePostorder());
+        if (reachable.size() == blocks.size()) return;
+        for (var block : blocks) {
+            if (reachable.contains(block)) continue;
+            for (var successor : block.successors()) {
+                if (reachable.contains(successor)) removeEdge(block, successor);
+            }
+        }
+        blocks.removeIf(block -> !reachable.contains(block));
+        removeTrivialPhis();
+    }
+
+    // Split `code` into blocks after the entry block, and link them with their successors.
+    // Returns the range of bytecodes `[from, to)` of each block.
+    private HashMap<BasicBlock, int[]> splitBlocks(List<Bytecode> code) {
+        var ranges = new HashMap<BasicBlock, int[]>();
+        var entry = newBlock();
+        blocks.add(entry);
+        var blockOfLabel = new HashMap<Integer, BasicBlock>();
+        BasicBlock current = null;
+        for (var i = 0; i < code.size(); i++) {
+            var bytecode = code.get(i);
+            var previous = i > 0 ? code.get(i - 1) : null;
+            var isLeader = current == null
+                    || bytecode.type == BytecodeType.OP_LABEL && previous.type != BytecodeType.OP_LABEL
+                    || previous.type == BytecodeType.OP_RETURN || BytecodeLoader.isJump(previous.type);
+            if (isLeader) {
+                current = newBlock();
+                blocks.add(current);
+                ranges.put(current, new int[] { i, i });
+            }
+            ranges.get(current)[1] = i + 1;
+            if (bytecode.type == BytecodeType.OP_LABEL) blockOfLabel.put(bytecode.arg1, current);
+        }
+        // Falling off the end of the method returns
+        var exit = newBlock();
+        blocks.add(exit);
+        ranges.put(exit, new int[] { code.size(), code.size() });
+
+        for (var i = 0; i < blocks.size() - 1; i++) {
+            var block = blocks.get(i);
+            var range = ranges.get(block);
+            var last = range != null && range[1] > range[0] ? code.get(range[1] - 1) : null;
+            if (last != null && BytecodeLoader.isJump(last.type)) {
+                block.target = blockOfLabel.get(last.arg1);
+                if (block.target == null) throw new RuntimeException("[ERROR] Label " + last.arg1 + " not found");
+            }
+            if (last == null || last.type != BytecodeType.OP_JUMP && last.type != BytecodeType.OP_RETURN) block.next = blocks.get(i + 1);
+        }
+        return ranges;
+    }
+
+    private void removeUnreachableBlocks(HashMap<BasicBlock, int[]> ranges) {
+        var reachable = new HashSet<BasicBlock>();
+        var worklist = new ArrayDeque<BasicBlock>();
+        reachable.add(entry());
+        worklist.add(entry());
+        while (!worklist.isEmpty()) {
+            for (var successor : worklist.poll().successors()) {
+                if (reachable.add(successor)) worklist.add(successor);
+            }
+        }
+        blocks.removeIf(block -> !reachable.contains(block));
+        for (var block : blocks) {
+            for (var successor : block.successors()) successor.predecessors.add(block);
+        }
+    }
+
+    private void buildSsa(List<Bytecode> code, HashMap<BasicBlock, int[]> ranges) {
+        var depths = stackDepths(code, ranges);
+        var filled = new HashSet<BasicBlock>();
+        sealBlock(entry());
+        for (var block : blocks) {
+            fillBlock(block, code, ranges.get(block), depths.get(block));
+            filled.add(block);
+            // A block is sealed once all its predecessors are filled, its phis then get their operands
+            for (var successor : block.successors()) {
+                if (!sealedBlocks.contains(successor) && filled.containsAll(successor.predecessors)) sealBlock(successor);
+            }
+        }
+        for (var block : blocks) {
+            if (!sealedBlocks.contains(block)) sealBlock(block);
+        }
+    }
+
+    // The stack height at the start of each block.
+    private HashMap<BasicBlock, Integer> stackDepths(List<Bytecode> code, HashMap<BasicBlock, int[]> ranges) {
+        var depths = new HashMap<BasicBlock, Integer>();
+        depths.put(entry(), 0);
+        var worklist = new ArrayDeque<BasicBlock>();
+        worklist.add(entry());
+        while (!worklist.isEmpty()) {
+            var block = worklist.poll();
+            var depth = depths.get(block);
+            var range = ranges.get(block);
+            for (var i = range == null ? 0 : range[0]; range != null && i < range[1]; i++) {
+                var bytecode = code.get(i);
+                if (bytecode.type == BytecodeType.OP_RETURN) break;
+                if (bytecode.type != BytecodeType.OP_LABEL) depth += bytecode.stackEffect();
+            }
+            for (var successor : block.successors()) {
+                var old = depths.putIfAbsent(successor, depth);
+                if (old == null) worklist.add(successor);
+                else if (old != depth) throw new RuntimeException("[ERROR] Inconsistent stack height at " + successor + " of " + name);
+            }
+        }
+        return depths;
+    }
+
+    // Translate the bytecodes of `block`, the stack values left at its end are written to the stack variables.
+    private void fillBlock(BasicBlock block, List<Bytecode> code, int[] range, int depth) {
+        var stack = new ArrayList<SsaValue>();
+        for (var i = 0; i < depth; i++) stack.add(readVariable(variableCount + i, block));
+        var from = range == null ? 0 : range[0];
+        var to = range == null ? 0 : range[1];
+        for (var i = from; i < to; i++) {
+            var bytecode = code.get(i);
+            switch (bytecode.type) {
+                case OP_LABEL:
+                    break;
+                case OP_GET_LOCAL:
+                    stack.add(readVariable(bytecode.arg1, block));
+                    break;
+                case OP_SET_LOCAL:
+                    writeVariable(bytecode.arg1, block, stack.getLast());
+                    break;
+                case OP_DUP:
+                    stack.add(stack.getLast());
+                    break;
+                case OP_POP:
+                    stack.removeLast();
+                    break;
+                default: {
+                    var value = newValue(SsaValue.Kind.BYTECODE, copyOf(bytecode), block);
+                    var popCount = bytecode.type == BytecodeType.OP_RETURN ? Math.min(stack.size(), 1) : bytecode.popCount();
+                    var operands = stack.subList(stack.size() - popCount, stack.size());
+                    value.operands.addAll(operands);
+                    operands.clear();
+                    if (value.hasResult()) {
+                        stack.add(value);
+                        block.values.add(value);
+                    } else {
+                        block.terminator = value;
+                    }
+                }
+            }
+        }
+        if (block.terminator == null && block.next == null) {
+            var value = newValue(SsaValue.Kind.BYTECODE, new Bytecode(BytecodeType.OP_RETURN), block);
+            if (!stack.isEmpty()) value.operands.add(stack.removeLast());
+            block.terminator = value;
+        }
+        for (var i = 0; i < stack.size(); i++) writeVariable(variableCount + i, block, stack.get(i));
+    }
+
+    // The jumps point to blocks, so their label is dropped.
+    private static Bytecode copyOf(Bytecode bytecode) {
+        if (BytecodeLoader.isJump(bytecode.type)) return new Bytecode(bytecode.type);
+        var copy = new Bytecode(bytecode.type, bytecode.arg1, bytecode.arg2);
+        copy.name = bytecode.name;
+        return copy;
+    }
+
+    private void writeVariable(int variable, BasicBlock block, SsaValue value) {
+        currentDefs.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+    }
+
+    private SsaValue readVariable(int variable, BasicBlock block) {
+        var defs = currentDefs.get(block);
+        if (defs != null && defs.containsKey(variable)) return defs.get(variable);
+        SsaValue value;
+        if (block == entry()) {
+            if (variable >= variableCount) throw new RuntimeException("[ERROR] Empty stack at the entry of " + name);
+            value = entryValues.computeIfAbsent(variable, key -> {
+                var entry = newValue(SsaValue.Kind.ENTRY, new Bytecode(BytecodeType.OP_GET_LOCAL, key), entry());
+                entry().values.add(entry);
+                return entry;
+            });
+        } else if (!sealedBlocks.contains(block)) {
+            value = newPhi(block);
+            incompletePhis.computeIfAbsent(block, key -> new HashMap<>()).put(variable, value);
+        } else if (block.predecessors.size() == 1) {
+            value = readVariable(variable, block.predecessors.get(0));
+        } else {
+            value = newPhi(block);
+            writeVariable(variable, block, value);
+            addPhiOperands(variable, value);
+        }
+        writeVariable(variable, block, value);
+        return value;
+    }
+
+    private SsaValue newPhi(BasicBlock block) {
+        var phi = newValue(SsaValue.Kind.PHI, null, block);
+        block.phis.add(phi);
+        return phi;
+    }
+
+    private void addPhiOperands(int variable, SsaValue phi) {
+        for (var predecessor : phi.block.predecessors) phi.operands.add(readVariable(variable, predecessor));
+    }
+
+    private void sealBlock(BasicBlock block) {
+        var phis = incompletePhis.remove(block);
+        if (phis != null) {
+            for (var entry : phis.entrySet()) addPhiOperands(entry.getKey(), entry.getValue());
+        }
+        sealedBlocks.add(block);
+    }
+
+    // A phi is trivial if its operands are itself or one other value, which replaces it.
+    // Removing a phi can make the phis which use it trivial, so this runs until nothing changes.
+    public void removeTrivialPhis() {
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : blocks) {
+                for (var phi : new ArrayList<>(block.phis)) {
+                    SsaValue same = null;
+                    var isTrivial = true;
+                    for (var operand : phi.operands) {
+                        if (operand == phi || operand == same) continue;
+                        if (same != null) {
+                            isTrivial = false;
+                            break;
+                        }
+                        same = operand;
+                    }
+                    if (!isTrivial || same == null) continue;
+                    block.phis.remove(phi);
+                    replaceAllUses(phi, same);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    // Print the graph, e.g.
+    // B1 <- B0, B2 -> B2, B3
+    //     v4 = phi(B0: v0, B2: v7)
+    //     v5 = OP_CONSTANT 1
+    //     v6 = OP_ADD v4 v5
+    //     OP_IF_LT v6 v0 -> B2
+    public void dump(PrintWriter writer) {
+        writer.printf("========= %s =========%n", name);
+        for (var block : blocks) {
+            writer.print(block);
+            if (!block.predecessors.isEmpty()) writer.print(" <- " + joined(block.predecessors));
+            if (!block.successors().isEmpty()) writer.print(" -> " + joined(block.successors()));
+            writer.println();
+            for (var phi : block.phis) {
+                var operands = new ArrayList<String>();
+                for (var i = 0; i < phi.operands.size(); i++) operands.add(block.predecessors.get(i) + ": " + phi.operands.get(i));
+                writer.printf("    %s = phi(%s)%n", phi, String.join(", ", operands));
+            }
+            for (var value : block.values) writer.printf("    %s = %s%n", value, describe(value));
+            if (block.terminator != null) {
+                writer.print("    " + describe(block.terminator));
+                if (block.target != null) writer.print(" -> " + block.target);
+                writer.println();
+            }
+        }
+        writer.println();
+    }
+
+    private static String describe(SsaValue value) {
+        var text = new StringBuilder();
+        if (value.kind == SsaValue.Kind.ENTRY) {
+            text.append("entry ").append(value.bytecode.arg1);
+        } else {
+            text.append(value.bytecode.type);
+            if (value.bytecode.arg1 != null) text.append(' ').append(value.bytecode.arg1);
+            if (value.bytecode.arg2 != null) text.append(' ').append(value.bytecode.arg2);
+        }
+        for (var operand : value.operands) text.append(' ').append(operand);
+        return text.toString();
+    }
+
+    private static String joined(List<BasicBlock> blocks) {
+        return blocks.stream().map(BasicBlock::toString).collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class removes the dead code of each method emitted by `BytecodeVisitor`, before the labels are resolved.
+ * A method is split into basic blocks: a block starts at `OP_LABEL` or after a jump or `OP_RETURN`,
+ * and it ends with a jump, `OP_RETURN`, or right before the next label.
+ * The blocks which cannot be reached from the first block of the method are removed,
+ * e.g. the code after `return`, `break` and `continue`, or the branch of a constant condition,
+ * then the labels which are not the target of any jump anymore.
+ * At last, `OP_SET_LOCAL` is removed if the method never reads the local, the stored value stays on the stack.
+ */
+public class DeadCodeEliminator {
+    public int removedBlocks = 0;
+    public int removedBytecodes = 0;
+    public int removedLabels = 0;
+    public int removedStores = 0;
+
+    public void eliminate(List<Bytecode> bytecodes) {
+        BytecodeLoader.rewriteSections(bytecodes, section -> {
+            if (!section.isMethod()) return section.code();
+            var code = new ArrayList<>(section.code());
+            removeUnreachableBlocks(code);
+            removeUnusedLabels(code);
+            removeDeadStores(code);
+            return code;
+        });
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[DCE] removed %d unreachable blocks (%d bytecodes), %d labels, %d dead stores%n",
+                removedBlocks, removedBytecodes, removedLabels, removedStores);
+    }
+
+    // Whether the instruction after `bytecode` is never executed right after it
+    private static boolean endsFlow(Bytecode bytecode) {
+        return bytecode.type == BytecodeType.OP_JUMP || bytecode.type == BytecodeType.OP_RETURN;
+    }
+
+    private void removeUnreachableBlocks(List<Bytecode> section) {
+        // The first instruction of each block
+        var starts = new ArrayList<Integer>();
+        var blockOfLabel = new HashMap<Integer, Integer>();
+        for (var i = 0; i < section.size(); i++) {
+            var bytecode = section.get(i);
+            var previous = i > 0 ? section.get(i - 1) : null;
+            // Consecutive labels start the same block
+            var isLeader = previous == null
+                    || bytecode.type == BytecodeType.OP_LABEL && previous.type != BytecodeType.OP_LABEL
+                    || BytecodeLoader.isJump(previous.type) || endsFlow(previous);
+            if (isLeader) starts.add(i);
+            if (bytecode.type == BytecodeType.OP_LABEL) blockOfLabel.put(bytecode.arg1, starts.size() - 1);
+        }
+        starts.add(section.size());
+
+        var reachable = new boolean[starts.size() - 1];
+        var worklist = new ArrayDeque<Integer>();
+        if (reachable.length > 0) {
+            reachable[0] = true;
+            worklist.add(0);
+        }
+        while (!worklist.isEmpty()) {
+            var block = worklist.poll();
+            var last = section.get(starts.get(block + 1) - 1);
+            var successors = new ArrayList<Integer>();
+            if (BytecodeLoader.isJump(last.type)) successors.add(blockOfLabel.get(last.arg1));
+            if (!endsFlow(last) && block + 1 < reachable.length) successors.add(block + 1);
+            for (var successor : successors) {
+                if (successor == null) throw new RuntimeException("[ERROR] Label " + last.arg1 + " not found");
+                if (reachable[successor]) continue;
+                reachable[successor] = true;
+                worklist.add(successor);
+            }
+        }
+
+        for (var block = reachable.length - 1; block >= 0; block--) {
+            if (reachable[block]) continue;
+            var from = starts.get(block);
+            var to = starts.get(block + 1);
+            // A jump to a label of this block would make it reachable, so its labels go away with it
+            removedBlocks++;
+            for (var i = from; i < to; i++) {
+                if (section.get(i).type != BytecodeType.OP_LABEL) removedBytecodes++;
+            }
+            section.subList(from, to).clear();
+        }
+    }
+
+    private void removeUnusedLabels(List<Bytecode> section) {
+        var targets = new HashSet<Integer>();
+        for (var bytecode : section) {
+            if (BytecodeLoader.isJump(bytecode.type)) targets.add(bytecode.arg1);
+        }
+        var before = section.size();
+        section.removeIf(bytecode -> bytecode.type == BytecodeType.OP_LABEL && !targets.contains(bytecode.arg1));
+        removedLabels += before - section.size();
+    }
+
+    private void removeDeadStores(List<Bytecode> section) {
+        var read = new HashSet<Integer>();
+        for (var bytecode : section) {
+            if (bytecode.type == BytecodeType.OP_GET_LOCAL) read.add(bytecode.arg1);
+        }
+        var before = section.size();
+        section.removeIf(bytecode -> bytecode.type == BytecodeType.OP_SET_LOCAL && !read.contains(bytecode.arg1));
+        removedStores += before - section.size();
+    }
+}
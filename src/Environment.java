@@ -4,6 +4,7 @@ import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -27,9 +28,15 @@ public class Environment {
     // The symbol table is a map of variable names to MiniJava objects.
     // Each symbol table is a list of maps, where each map represents a symbol table for a specific block(used for variable shadowing).
     public final ArrayList<Map<String, MiniJavaObject>> symbolTable;
+    // The virtual method table of each class, in the order of the program, see `VirtualTables`.
+    public final LinkedHashMap<String, List<String>> vtables;
+    // The field layout of each class, in the order of the program, see `FieldLayouts`.
+    public final LinkedHashMap<String, List<String>> fieldLayouts;
 
     public Environment() {
         pools = new LinkedHashMap<>();
+        vtables = new LinkedHashMap<>();
+        fieldLayouts = new LinkedHashMap<>();
         symbolTable = new ArrayList<>();
     }
 
@@ -74,6 +81,7 @@ public class Environment {
         newPools(pool);
         newSymbolTable();
         for (var parameter : parameters) newVariable(parameter.type, parameter.name);
+        pools.get(pool).parameterCount = parameters.size();
     }
     
 
@@ -94,15 +102,24 @@ public class Environment {
     }
 
     // Register a new constant
-    // 1. set the constant scope to the current scope
-    // 2. set the constant index to the current constant index
-    // 3. add the constant to the constant pool
+    // 1. reuse the constant with the same type and value in the current pool if there is one
+    // 2. set the constant scope to the current scope
+    // 3. set the constant index to the current constant index
+    // 4. add the constant to the constant pool
     public MiniJavaObject newConstant(String type, Object value) {
+        return newConstant(currentPool, type, value);
+    }
+
+    // Register a new constant in the pools of `poolName`, for the optimizations which run after the code generation
+    public MiniJavaObject newConstant(String poolName, String type, Object value) {
+        var pool = pools.get(poolName);
+        var existing = pool.findConstant(type, value);
+        if (existing != null) return existing;
         var object = new MiniJavaObject(type, value);
-        object.pool = currentPool;
-        object.index = pools.get(currentPool).constantIndex++;
+        object.pool = poolName;
+        object.index = pool.constantIndex++;
 
-        pools.get(currentPool).constantPool.add(object);
+        pool.addConstant(object);
         return object;
     }
 
@@ -118,6 +135,24 @@ public class Environment {
                 entry.getValue().displayPools(writer);
                 writer.print("\n\n\n");
             }
+            for (var entry : vtables.entrySet()) {
+                writer.println("================= VTable: " + entry.getKey() + " =================");
+                writer.printf("%-5s %-10s %-10s%n", "Slot", "Selector", "Method");
+                var table = entry.getValue();
+                for (var slot = 0; slot < table.size(); slot++) {
+                    writer.printf("%-5d %-10s %-10s%n", slot, VirtualTables.selectorOf(table.get(slot)), table.get(slot));
+                }
+                writer.print("\n\n\n");
+            }
+            for (var entry : fieldLayouts.entrySet()) {
+                writer.println("================= Fields: " + entry.getKey() + " =================");
+                writer.printf("%-5s %-10s%n", "Slot", "Name");
+                var layout = entry.getValue();
+                for (var slot = 0; slot < layout.size(); slot++) {
+                    writer.printf("%-5d %-10s%n", slot, layout.get(slot));
+                }
+                writer.print("\n\n\n");
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,42 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class builds the field layout of each class from the class hierarchy of `SemanticsVisitor`.
+ * The layout of a class starts with the layout of its parent class, and the fields declared in the class follow
+ * in the order of declaration, a field with the name of a parent field shares the slot of the parent field.
+ * So a field has the same slot in a class and in all its sub classes,
+ * and `OP_GET_FIELD`/`OP_SET_FIELD` carry the slot of the field in the layout of the static class of the object.
+ */
+public class FieldLayouts {
+    private final Map<String, Map<String, MiniJavaType>> classFieldMap;
+    private final Map<String, String> parentClassMap;
+    // The names of the fields of each class indexed by slot
+    private final Map<String, List<String>> layouts;
+
+    public FieldLayouts(SemanticsVisitor semanticsVisitor) {
+        this.classFieldMap = semanticsVisitor.getClassFieldMap();
+        this.parentClassMap = semanticsVisitor.getParentClassMap();
+        this.layouts = new HashMap<>();
+    }
+
+    public List<String> layoutOf(String className) {
+        var layout = layouts.get(className);
+        if (layout != null) return layout;
+        var parentName = parentClassMap.get(className);
+        layout = parentName != null ? new ArrayList<>(layoutOf(parentName)) : new ArrayList<>();
+        for (var field : classFieldMap.getOrDefault(className, Map.of()).keySet()) {
+            if (!layout.contains(field)) layout.add(field);
+        }
+        layouts.put(className, layout);
+        return layout;
+    }
+
+    public int slotOf(String className, String field) {
+        var slot = layoutOf(className).indexOf(field);
+        if (slot < 0) throw new RuntimeException("[ERROR] Field " + field + " not found in class " + className);
+        return slot;
+    }
+}
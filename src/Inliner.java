@@ -0,0 +1,248 @@
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class replaces the calls of small methods with a copy of their bytecodes, before the labels are resolved.
+ * The callees are the global methods and the instance methods called by `OP_CALL`, i.e. devirtualized by `ClassHierarchy`.
+ * Constructors, built-in methods and class initializers are never inlined.
+ * A callee is inlined if it has at most `maxSize` instructions (labels excluded), does not use `OP_SUPER`,
+ * and is not already being inlined on the current path, so recursive methods are never expanded.
+ * The copy runs on top of the operand stack of the caller:
+ * each variable of the callee becomes a new variable of the caller, the arguments are stored in the parameters,
+ * the constants are interned in the constant pool of the caller and the labels are renamed with `Environment.newLabel`.
+ * `OP_RETURN` jumps to the end of the copy with the result on the stack, a void method leaves `OP_NIL` which is popped.
+ * The receiver of an instance method is stored in a variable which replaces `OP_THIS`,
+ * a null receiver takes the original call instead, which throws the null pointer error.
+ * The calls in a copy are inlined in turn, up to `maxDepth` nested copies.
+ */
+public class Inliner {
+    public static final int DEFAULT_MAX_SIZE = 24;
+    public static final int DEFAULT_MAX_DEPTH = 2;
+
+    // A method which can be inlined, `heights` is the height of the operand stack before each bytecode of `code`
+    private record Callee(String className, List<Bytecode> code, Pools pools, int variableCount, boolean isInstanceMethod,
+            boolean returnsValue, int[] heights) {
+    }
+
+    private final Environment environment;
+    private final int maxSize;
+    private final int maxDepth;
+    // The bytecodes of each method as emitted, without the `OP_METHOD` header
+    private final HashMap<String, List<Bytecode>> methods = new HashMap<>();
+    // The number of variables of each method before the copies add theirs
+    private final HashMap<String, Integer> variableCounts = new HashMap<>();
+    // The inlinable methods, null for a method which cannot be inlined
+    private final HashMap<String, Callee> callees = new HashMap<>();
+    public int inlinedCalls = 0;
+    public int inlinedBytecodes = 0;
+
+    public Inliner(Environment environment, int maxSize, int maxDepth) {
+        this.environment = environment;
+        this.maxSize = maxSize;
+        this.maxDepth = maxDepth;
+    }
+
+    public void inline(List<Bytecode> bytecodes) {
+        for (var section : BytecodeLoader.sections(bytecodes)) {
+            if (!section.isMethod()) continue;
+            var name = section.header().name;
+            methods.put(name, new ArrayList<>(section.code()));
+            variableCounts.put(name, environment.pools.get(name).variablePool.size());
+        }
+        BytecodeLoader.rewriteSections(bytecodes, section -> {
+            if (!section.isMethod()) return section.code();
+            var path = new ArrayDeque<String>();
+            path.push(section.header().name);
+            return inlineCalls(methods.get(section.header().name), section.header().name, path, 0);
+        });
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[INLINE] inlined %d calls (%d bytecodes)%n", inlinedCalls, inlinedBytecodes);
+    }
+
+    // Inline the calls of `code`, a method of the pool `caller` or a copy inlined in it, `depth` copies deep.
+    // `path` holds the methods which are being inlined.
+    private List<Bytecode> inlineCalls(List<Bytecode> code, String caller, ArrayDeque<String> path, int depth) {
+        var pools = environment.pools.get(caller);
+        var result = new ArrayList<Bytecode>(code.size());
+        for (var bytecode : code) {
+            if (bytecode.type == BytecodeType.OP_CALL && depth < maxDepth) {
+                var name = (String) pools.constantPool.get(bytecode.arg1).value;
+                var callee = calleeOf(name);
+                if (callee != null && !path.contains(name)) {
+                    path.push(name);
+                    result.addAll(inlineCalls(copyOf(callee, bytecode, caller), caller, path, depth + 1));
+                    path.pop();
+                    inlinedCalls++;
+                    inlinedBytecodes += callee.code.size();
+                    continue;
+                }
+            }
+            result.add(bytecode);
+        }
+        return result;
+    }
+
+    private Callee calleeOf(String name) {
+        if (callees.containsKey(name)) return callees.get(name);
+        var callee = analyze(name);
+        callees.put(name, callee);
+        return callee;
+    }
+
+    private Callee analyze(String name) {
+        var code = methods.get(name);
+        if (code == null) return null;
+        var className = name.substring(0, name.indexOf("::"));
+        if (VirtualTables.selectorOf(name).startsWith(className + "(")) return null;
+        var size = 0;
+        for (var bytecode : code) {
+            if (bytecode.type == BytecodeType.OP_SUPER) return null;
+            if (bytecode.type != BytecodeType.OP_LABEL) size++;
+        }
+        if (size > maxSize) return null;
+
+        // Each return must leave the result alone on the stack, or nothing for a void method
+        var heights = stackHeights(code);
+        var returnsValue = false;
+        var returnsVoid = heights[code.size()] == 0;
+        for (var i = 0; i < code.size(); i++) {
+            if (code.get(i).type != BytecodeType.OP_RETURN || heights[i] < 0) continue;
+            if (heights[i] == 1) returnsValue = true;
+            else if (heights[i] == 0) returnsVoid = true;
+            else return null;
+        }
+        if (returnsValue && returnsVoid || heights[code.size()] > 0) return null;
+        return new Callee(className, code, environment.pools.get(name), variableCounts.get(name), !className.equals("global"),
+                returnsValue, heights);
+    }
+
+    // The height of the operand stack before each bytecode of `code`, and at the end of the method, -1 if it is unreachable.
+    private static int[] stackHeights(List<Bytecode> code) {
+        var labels = new HashMap<Integer, Integer>();
+        for (var i = 0; i < code.size(); i++) {
+            if (code.get(i).type == BytecodeType.OP_LABEL) labels.put(code.get(i).arg1, i);
+        }
+        var heights = new int[code.size() + 1];
+        Arrays.fill(heights, -1);
+        var worklist = new ArrayDeque<Integer>();
+        heights[0] = 0;
+        worklist.add(0);
+        while (!worklist.isEmpty()) {
+            var i = worklist.poll();
+            if (i == code.size()) continue;
+            var bytecode = code.get(i);
+            if (bytecode.type == BytecodeType.OP_RETURN) continue;
+            var height = heights[i] + bytecode.stackEffect();
+            var successors = new ArrayList<Integer>(2);
+            if (BytecodeLoader.isJump(bytecode.type)) successors.add(labels.get(bytecode.arg1));
+            if (bytecode.type != BytecodeType.OP_JUMP) successors.add(i + 1);
+            for (var successor : successors) {
+                if (heights[successor] >= 0) continue;
+                heights[successor] = height;
+                worklist.add(successor);
+            }
+        }
+        return heights;
+    }
+
+    // The bytecodes which replace `call` in the pool `caller`, the arguments of the call are on the stack.
+    private List<Bytecode> copyOf(Callee callee, Bytecode call, String caller) {
+        var pools = environment.pools.get(caller);
+        var copy = new ArrayList<Bytecode>(callee.code.size() + 16);
+        var id = inlinedCalls;
+
+        var variables = new int[callee.variableCount];
+        for (var i = 0; i < variables.length; i++) {
+            var variable = callee.pools.variablePool.get(i);
+            variables[i] = newVariable(pools, caller, variable.type, variable.name + "@" + id);
+        }
+        var labels = new HashMap<Integer, Integer>();
+        for (var bytecode : callee.code) {
+            if (bytecode.type == BytecodeType.OP_LABEL) labels.put(bytecode.arg1, environment.newLabel());
+        }
+        var end = environment.newLabel();
+        var nullReceiver = environment.newLabel();
+
+        var parameterCount = callee.pools.parameterCount;
+        for (var i = parameterCount - 1; i >= 0; i--) {
+            copy.add(new Bytecode(BytecodeType.OP_SET_LOCAL, variables[i]));
+            copy.add(new Bytecode(BytecodeType.OP_POP));
+        }
+        var self = -1;
+        if (callee.isInstanceMethod) {
+            self = newVariable(pools, caller, MiniJavaType.newClassType(callee.className), "this@" + id);
+            copy.add(new Bytecode(BytecodeType.OP_SET_LOCAL, self));
+            copy.add(new Bytecode(BytecodeType.OP_POP));
+            copy.add(new Bytecode(BytecodeType.OP_GET_LOCAL, self));
+            copy.add(new Bytecode(BytecodeType.OP_IF_EQ_NULL, nullReceiver));
+        }
+
+        for (var i = 0; i < callee.code.size(); i++) {
+            var bytecode = callee.code.get(i);
+            if (callee.heights[i] < 0) continue;
+            switch (bytecode.type) {
+                case OP_GET_LOCAL:
+                case OP_SET_LOCAL:
+                    copy.add(new Bytecode(bytecode.type, variables[bytecode.arg1]));
+                    break;
+                case OP_CONSTANT:
+                case OP_CAST:
+                case OP_INSTANCE_OF:
+                case OP_CALL:
+                case OP_NEW_ARRAY:
+                case OP_NEW_ARRAY_FROM_POOL:
+                    var constant = callee.pools.constantPool.get(bytecode.arg1);
+                    copy.add(copyWith(bytecode, environment.newConstant(caller, constant.type.toString(), constant.value).index));
+                    break;
+                case OP_THIS:
+                    copy.add(new Bytecode(BytecodeType.OP_GET_LOCAL, self));
+                    break;
+                case OP_RETURN:
+                    if (!callee.returnsValue) copy.add(new Bytecode(BytecodeType.OP_NIL));
+                    copy.add(new Bytecode(BytecodeType.OP_JUMP, end));
+                    break;
+                default:
+                    if (bytecode.type == BytecodeType.OP_LABEL || BytecodeLoader.isJump(bytecode.type)) {
+                        copy.add(copyWith(bytecode, labels.get(bytecode.arg1)));
+                    } else {
+                        copy.add(copyWith(bytecode, bytecode.arg1));
+                    }
+                    break;
+            }
+        }
+        // Falling off the end of a void method returns
+        if (callee.heights[callee.code.size()] == 0) {
+            copy.add(new Bytecode(BytecodeType.OP_NIL));
+            copy.add(new Bytecode(BytecodeType.OP_JUMP, end));
+        }
+
+        if (callee.isInstanceMethod) {
+            copy.add(new Bytecode(BytecodeType.OP_LABEL, nullReceiver));
+            copy.add(new Bytecode(BytecodeType.OP_GET_LOCAL, self));
+            for (var i = 0; i < parameterCount; i++) copy.add(new Bytecode(BytecodeType.OP_GET_LOCAL, variables[i]));
+            copy.add(copyWith(call, call.arg1));
+        }
+        copy.add(new Bytecode(BytecodeType.OP_LABEL, end));
+        return copy;
+    }
+
+    private static Bytecode copyWith(Bytecode bytecode, Integer arg1) {
+        var copy = new Bytecode(bytecode.type, arg1, bytecode.arg2);
+        copy.name = bytecode.name;
+        return copy;
+    }
+
+    private static int newVariable(Pools pools, String poolName, MiniJavaType type, String name) {
+        var variable = new MiniJavaObject(type, name);
+        variable.pool = poolName;
+        variable.index = pools.variableIndex++;
+        pools.variablePool.add(variable);
+        return variable.index;
+    }
+}
@@ -0,0 +1,600 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class is a stack-based interpreter for the bytecodes emitted by `BytecodeGenerator`.
+ * It executes the methods loaded by `BytecodeLoader` directly, without writing the bytecodes and pools to text files.
+ * Every runtime value is a `MiniJavaObject`, as described in `MiniJavaObject`:
+ * 1. `int`, `char`, `boolean` and `string` values are `Integer`, `Character`, `Boolean` and `String`.
+ * 2. arrays are `ArrayList<MiniJavaObject>`, objects are `MiniJavaObject[]` of fields indexed by field slot.
+ * 3. `null` is an object of type `null` whose value is null, `void` is returned by methods without return value.
+ * The operand stack is shared by all frames, each frame only uses the part above its base.
+ */
+public class Interpreter {
+    private static final MiniJavaType INT_TYPE = MiniJavaType.newPrimitiveType("int");
+    private static final MiniJavaType CHAR_TYPE = MiniJavaType.newPrimitiveType("char");
+    private static final MiniJavaType BOOLEAN_TYPE = MiniJavaType.newPrimitiveType("boolean");
+    private static final MiniJavaType STRING_TYPE = MiniJavaType.newPrimitiveType("string");
+    private static final MiniJavaType ARRAY_TYPE = new MiniJavaType(null, null, 1);
+
+    private static final MiniJavaObject NULL = new MiniJavaObject("null", null);
+    private static final MiniJavaObject VOID = new MiniJavaObject("void", null);
+    private static final MiniJavaObject TRUE = new MiniJavaObject("boolean", true);
+    private static final MiniJavaObject FALSE = new MiniJavaObject("boolean", false);
+    // The name of the view pushed by `OP_SUPER`, its value is the instance of the current class.
+    private static final String SUPER = "super";
+
+    private final BytecodeLoader loader;
+    private final PrintStream out;
+    private MiniJavaObject[] stack;
+    private int sp = 0;
+    private final IdentityHashMap<MiniJavaObject, ArrayList<MiniJavaObject>> tables = new IdentityHashMap<>();
+
+    public Interpreter(BytecodeLoader loader, PrintStream out) {
+        this.loader = loader;
+        this.out = out;
+        this.stack = new MiniJavaObject[1024];
+    }
+
+    // Run `global::main()`, the return value of `main` is the exit code of the program.
+    public int run() {
+        var main = loader.methods.get("global::main()");
+        if (main == null) throw new RuntimeException("[ERROR] Method global::main() not found.");
+        try {
+            var result = execute(main, null, main.defaultLocals().clone());
+            return result.value instanceof Integer exitCode ? exitCode : 0;
+        } finally {
+            out.flush();
+        }
+    }
+
+    private static MiniJavaObject box(MiniJavaType type, Object value) {
+        var object = new MiniJavaObject(type, (String) null);
+        object.value = value;
+        return object;
+    }
+
+    private static MiniJavaObject newInt(int value) {
+        return box(INT_TYPE, value);
+    }
+
+    // `char` is an 8-bit integer in MiniJava
+    private static MiniJavaObject newChar(int value) {
+        return box(CHAR_TYPE, (char) (value & 0xFF));
+    }
+
+    private static MiniJavaObject newBoolean(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    private static boolean isNumber(MiniJavaObject object) {
+        return object.value instanceof Integer || object.value instanceof Character;
+    }
+
+    private static int intValue(MiniJavaObject object) {
+        if (object.value instanceof Integer value) return value;
+        if (object.value instanceof Character value) return value;
+        throw new RuntimeException("[ERROR] " + object.type + " is not a number");
+    }
+
+    private static boolean booleanValue(MiniJavaObject object) {
+        if (object.value instanceof Boolean value) return value;
+        throw new RuntimeException("[ERROR] " + object.type + " is not a boolean");
+    }
+
+    // The view pushed by `OP_SUPER` shares everything but method dispatch with the instance.
+    private static MiniJavaObject unwrap(MiniJavaObject object) {
+        return SUPER.equals(object.name) ? (MiniJavaObject) object.value : object;
+    }
+
+    private static MiniJavaObject[] fieldsOf(MiniJavaObject object) {
+        object = unwrap(object);
+        if (object.value == null) throw new RuntimeException("[ERROR] Null pointer: access a field of null");
+        return (MiniJavaObject[]) object.value;
+    }
+
+    // The elements of an array constant of `OP_NEW_ARRAY_FROM_POOL`, boxed once, the values are never modified in place.
+    private ArrayList<MiniJavaObject> tableOf(MiniJavaObject constant) {
+        return tables.computeIfAbsent(constant, key -> {
+            var elements = new ArrayList<MiniJavaObject>();
+            for (var value : (List<?>) key.value) {
+                if (value instanceof Integer) elements.add(box(INT_TYPE, value));
+                else if (value instanceof Character) elements.add(box(CHAR_TYPE, value));
+                else if (value instanceof Boolean) elements.add(box(BOOLEAN_TYPE, value));
+                else elements.add(box(STRING_TYPE, value));
+            }
+            return elements;
+        });
+    }
+
+    // The array of the dimensions from `dimension`, the elements of the last dimension are `fill`.
+    private static MiniJavaObject newMultiArray(int[] sizes, int dimension, MiniJavaObject fill) {
+        var size = sizes[dimension];
+        var elements = new ArrayList<MiniJavaObject>(size);
+        for (var i = 0; i < size; i++) elements.add(dimension + 1 < sizes.length ? newMultiArray(sizes, dimension + 1, fill) : fill);
+        return box(ARRAY_TYPE, elements);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<MiniJavaObject> elementsOf(MiniJavaObject object) {
+        if (object.value == null) throw new RuntimeException("[ERROR] Null pointer: access an element of null");
+        return (ArrayList<MiniJavaObject>) object.value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ArrayList<MiniJavaObject> uncheckedElementsOf(MiniJavaObject object) {
+        return (ArrayList<MiniJavaObject>) object.value;
+    }
+
+    private static String toDisplayString(MiniJavaObject object) {
+        if (object.value == null) return "null";
+        if (object.type.isClass() || object.type.isArray()) {
+            object = unwrap(object);
+            return object.type + "@" + Integer.toHexString(System.identityHashCode(object.value));
+        }
+        return String.valueOf(object.value);
+    }
+
+    private static boolean isEqual(MiniJavaObject a, MiniJavaObject b) {
+        if (isNumber(a) && isNumber(b)) return intValue(a) == intValue(b);
+        if (a.value instanceof String || a.value instanceof Boolean) return Objects.equals(a.value, b.value);
+        // Arrays and objects are compared by reference
+        return unwrap(a).value == unwrap(b).value;
+    }
+
+    private void push(MiniJavaObject object) {
+        if (sp == stack.length) {
+            var newStack = new MiniJavaObject[stack.length * 2];
+            System.arraycopy(stack, 0, newStack, 0, sp);
+            stack = newStack;
+        }
+        stack[sp++] = object;
+    }
+
+    private MiniJavaObject pop() {
+        return stack[--sp];
+    }
+
+    // Pop `count` arguments from the stack and store them in the first variables of the callee.
+    private MiniJavaObject[] popArguments(RuntimeMethod method, int count) {
+        var locals = method.defaultLocals().clone();
+        sp -= count;
+        System.arraycopy(stack, sp, locals, 0, count);
+        return locals;
+    }
+
+    private MiniJavaObject execute(RuntimeMethod method, MiniJavaObject self, MiniJavaObject[] locals) {
+        var code = method.code();
+        var constants = method.pools().constantPool;
+        var base = sp;
+        var pc = 0;
+        while (pc < code.length) {
+            var bytecode = code[pc++];
+            switch (bytecode.type) {
+                case OP_CONSTANT:
+                    push(constants.get(bytecode.arg1));
+                    break;
+                case OP_NIL:
+                    push(NULL);
+                    break;
+                case OP_TRUE:
+                    push(TRUE);
+                    break;
+                case OP_FALSE:
+                    push(FALSE);
+                    break;
+                case OP_POP:
+                    sp--;
+                    break;
+                case OP_DUP:
+                    push(stack[sp - 1]);
+                    break;
+                case OP_GET_LOCAL:
+                    push(locals[bytecode.arg1]);
+                    break;
+                case OP_SET_LOCAL:
+                    locals[bytecode.arg1] = stack[sp - 1];
+                    break;
+                case OP_INC: {
+                    var a = pop();
+                    push(a.value instanceof Character ? newChar(intValue(a) + 1) : newInt(intValue(a) + 1));
+                    break;
+                }
+                case OP_DEC: {
+                    var a = pop();
+                    push(a.value instanceof Character ? newChar(intValue(a) - 1) : newInt(intValue(a) - 1));
+                    break;
+                }
+                case OP_ADD: {
+                    var b = pop();
+                    var a = pop();
+                    if (a.value instanceof String || b.value instanceof String) {
+                        push(box(STRING_TYPE, toDisplayString(a) + toDisplayString(b)));
+                    } else if (a.value instanceof Character && b.value instanceof Character) {
+                        push(newChar(intValue(a) + intValue(b)));
+                    } else {
+                        push(newInt(intValue(a) + intValue(b)));
+                    }
+                    break;
+                }
+                case OP_SUB: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) - b));
+                    break;
+                }
+                case OP_MUL: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) * b));
+                    break;
+                }
+                case OP_DIV: {
+                    var b = intValue(pop());
+                    if (b == 0) throw new RuntimeException("[ERROR] Division by zero");
+                    push(newInt(intValue(pop()) / b));
+                    break;
+                }
+                case OP_MOD: {
+                    var b = intValue(pop());
+                    if (b == 0) throw new RuntimeException("[ERROR] Division by zero");
+                    push(newInt(intValue(pop()) % b));
+                    break;
+                }
+                case OP_LSHIFT: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) << b));
+                    break;
+                }
+                case OP_RSHIFT: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) >> b));
+                    break;
+                }
+                case OP_URSHIFT: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) >>> b));
+                    break;
+                }
+                case OP_BIT_AND: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) & b));
+                    break;
+                }
+                case OP_BIT_OR: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) | b));
+                    break;
+                }
+                case OP_BIT_XOR: {
+                    var b = intValue(pop());
+                    push(newInt(intValue(pop()) ^ b));
+                    break;
+                }
+                case OP_BIT_NOT:
+                    push(newInt(~intValue(pop())));
+                    break;
+                case OP_NEG:
+                    push(newInt(-intValue(pop())));
+                    break;
+                case OP_EQ: {
+                    var b = pop();
+                    push(newBoolean(isEqual(pop(), b)));
+                    break;
+                }
+                case OP_NEQ: {
+                    var b = pop();
+                    push(newBoolean(!isEqual(pop(), b)));
+                    break;
+                }
+                case OP_GE: {
+                    var b = intValue(pop());
+                    push(newBoolean(intValue(pop()) >= b));
+                    break;
+                }
+                case OP_LE: {
+                    var b = intValue(pop());
+                    push(newBoolean(intValue(pop()) <= b));
+                    break;
+                }
+                case OP_GT: {
+                    var b = intValue(pop());
+                    push(newBoolean(intValue(pop()) > b));
+                    break;
+                }
+                case OP_LT: {
+                    var b = intValue(pop());
+                    push(newBoolean(intValue(pop()) < b));
+                    break;
+                }
+                case OP_JUMP:
+                    pc = bytecode.arg1;
+                    break;
+                case OP_JUMP_IF_TRUE:
+                    if (booleanValue(pop())) pc = bytecode.arg1;
+                    break;
+                case OP_JUMP_IF_FALSE:
+                    if (!booleanValue(pop())) pc = bytecode.arg1;
+                    break;
+                case OP_IF_EQ: {
+                    var b = pop();
+                    if (isEqual(pop(), b)) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_NE: {
+                    var b = pop();
+                    if (!isEqual(pop(), b)) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_LT: {
+                    var b = intValue(pop());
+                    if (intValue(pop()) < b) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_LE: {
+                    var b = intValue(pop());
+                    if (intValue(pop()) <= b) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_GT: {
+                    var b = intValue(pop());
+                    if (intValue(pop()) > b) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_GE: {
+                    var b = intValue(pop());
+                    if (intValue(pop()) >= b) pc = bytecode.arg1;
+                    break;
+                }
+                case OP_IF_EQ_NULL:
+                    if (isEqual(pop(), NULL)) pc = bytecode.arg1;
+                    break;
+                case OP_IF_NE_NULL:
+                    if (!isEqual(pop(), NULL)) pc = bytecode.arg1;
+                    break;
+                case OP_THIS:
+                    push(self);
+                    break;
+                case OP_SUPER: {
+                    // The view of `this` as an instance of the parent class, see `unwrap`
+                    var parent = loader.classes.get(method.className).parent;
+                    var view = box(MiniJavaType.newClassType(parent.name), self);
+                    view.name = SUPER;
+                    push(view);
+                    break;
+                }
+                case OP_GET_FIELD: {
+                    push(fieldsOf(pop())[bytecode.arg1]);
+                    break;
+                }
+                case OP_SET_FIELD: {
+                    var value = pop();
+                    fieldsOf(pop())[bytecode.arg1] = value;
+                    push(value);
+                    break;
+                }
+                case OP_GET_FIELD_UNCHECKED: {
+                    push(((MiniJavaObject[]) unwrap(pop()).value)[bytecode.arg1]);
+                    break;
+                }
+                case OP_SET_FIELD_UNCHECKED: {
+                    var value = pop();
+                    ((MiniJavaObject[]) unwrap(pop()).value)[bytecode.arg1] = value;
+                    push(value);
+                    break;
+                }
+                case OP_NEW_ARRAY: {
+                    var size = intValue(pop());
+                    if (size < 0) throw new RuntimeException("[ERROR] Negative array size: " + size);
+                    var elements = new ArrayList<MiniJavaObject>(size);
+                    for (var i = 0; i < size; i++) elements.add(NULL);
+                    push(box(ARRAY_TYPE, elements));
+                    break;
+                }
+                case OP_NEW_ARRAY_FROM_POOL:
+                    push(box(ARRAY_TYPE, new ArrayList<>(tableOf(constants.get(bytecode.arg1)))));
+                    break;
+                case OP_NEW_MULTI_ARRAY: {
+                    var fill = pop();
+                    var sizes = new int[bytecode.arg1];
+                    for (var i = sizes.length - 1; i >= 0; i--) sizes[i] = intValue(pop());
+                    for (var size : sizes) {
+                        if (size < 0) throw new RuntimeException("[ERROR] Negative array size: " + size);
+                    }
+                    push(newMultiArray(sizes, 0, fill));
+                    break;
+                }
+                case OP_CONCAT: {
+                    var parts = new String[bytecode.arg1];
+                    var length = 0;
+                    for (var i = parts.length - 1; i >= 0; i--) {
+                        parts[i] = toDisplayString(pop());
+                        length += parts[i].length();
+                    }
+                    var builder = new StringBuilder(length);
+                    for (var part : parts) builder.append(part);
+                    push(box(STRING_TYPE, builder.toString()));
+                    break;
+                }
+                case OP_NEW_BUILDER:
+                    push(box(STRING_TYPE, new StringBuilder(toDisplayString(pop()))));
+                    break;
+                case OP_APPEND: {
+                    var values = new MiniJavaObject[bytecode.arg1];
+                    for (var i = values.length - 1; i >= 0; i--) values[i] = pop();
+                    var builder = (StringBuilder) stack[sp - 1].value;
+                    for (var value : values) builder.append(toDisplayString(value));
+                    break;
+                }
+                case OP_BUILD_STRING:
+                    push(box(STRING_TYPE, pop().value.toString()));
+                    break;
+                case OP_GET_INDEX: {
+                    var index = intValue(pop());
+                    var elements = elementsOf(pop());
+                    if (index < 0 || index >= elements.size()) throw new RuntimeException("[ERROR] Array index out of bounds: " + index);
+                    push(elements.get(index));
+                    break;
+                }
+                case OP_SET_INDEX: {
+                    var value = pop();
+                    var index = intValue(pop());
+                    var elements = elementsOf(pop());
+                    if (index < 0 || index >= elements.size()) throw new RuntimeException("[ERROR] Array index out of bounds: " + index);
+                    elements.set(index, value);
+                    push(value);
+                    break;
+                }
+                case OP_GET_INDEX_UNCHECKED: {
+                    var index = intValue(pop());
+                    push(uncheckedElementsOf(pop()).get(index));
+                    break;
+                }
+                case OP_SET_INDEX_UNCHECKED: {
+                    var value = pop();
+                    var index = intValue(pop());
+                    uncheckedElementsOf(pop()).set(index, value);
+                    push(value);
+                    break;
+                }
+                case OP_CAST:
+                    push(cast(pop(), (String) constants.get(bytecode.arg1).value));
+                    break;
+                case OP_INSTANCE_OF:
+                    push(newBoolean(isInstanceOf(pop(), (String) constants.get(bytecode.arg1).value)));
+                    break;
+                case OP_CALL:
+                    call((String) constants.get(bytecode.arg1).value, bytecode.arg2);
+                    break;
+                case OP_INVOKE:
+                    invoke(bytecode.arg1, bytecode.arg2);
+                    break;
+                case OP_RETURN: {
+                    var result = sp > base ? stack[sp - 1] : VOID;
+                    sp = base;
+                    return result;
+                }
+                default:
+                    throw new RuntimeException("[ERROR] Unexpected bytecode: " + bytecode);
+            }
+        }
+        sp = base;
+        return VOID;
+    }
+
+    // Call a global method, a constructor, an instance method or a built-in method, the arguments are on the stack.
+    private void call(String name, int argc) {
+        var method = loader.methods.get(name);
+        if (method == null) {
+            push(callBuiltin(name, argc));
+        } else if (method.isConstructor) {
+            var locals = popArguments(method, argc);
+            var runtimeClass = loader.classes.get(method.className);
+            var object = box(MiniJavaType.newClassType(runtimeClass.name), new MiniJavaObject[runtimeClass.fieldCount]);
+            initialize(runtimeClass, object);
+            construct(runtimeClass, method, object, locals);
+            push(object);
+        } else if (method.isInstanceMethod) {
+            // A devirtualized invocation, the receiver is the first argument
+            var self = unwrap(stack[sp - argc]);
+            if (self.value == null) throw new RuntimeException("[ERROR] Null pointer: invoke a method on null");
+            var locals = popArguments(method, argc - 1);
+            sp--;
+            push(execute(method, self, locals));
+        } else {
+            push(execute(method, null, popArguments(method, argc)));
+        }
+    }
+
+    // Invoke an instance method, the receiver and the arguments are on the stack.
+    // The method is in the vtable of the class of the receiver,
+    // or of the parent class for the view pushed by `OP_SUPER`.
+    private void invoke(int slot, int argc) {
+        var receiver = stack[sp - argc - 1];
+        var self = unwrap(receiver);
+        if (self.value == null) throw new RuntimeException("[ERROR] Null pointer: invoke a method on null");
+        var method = loader.classes.get(receiver.type.classType).vtable[slot];
+        var locals = popArguments(method, argc);
+        sp--;
+        push(execute(method, self, locals));
+    }
+
+    // Run the class initializers from the root class down, and store the initialized fields in the object.
+    private void initialize(RuntimeClass runtimeClass, MiniJavaObject object) {
+        if (runtimeClass.parent != null) initialize(runtimeClass.parent, object);
+        var initializer = runtimeClass.initializer;
+        var locals = initializer.defaultLocals().clone();
+        execute(initializer, object, locals);
+        var fields = fieldsOf(object);
+        for (var i = 0; i < runtimeClass.fieldIndices.size(); i++) {
+            fields[runtimeClass.fieldSlots.get(i)] = locals[runtimeClass.fieldIndices.get(i)];
+        }
+    }
+
+    // A constructor implicitly starts with the no-argument constructor of the parent class.
+    private void construct(RuntimeClass runtimeClass, RuntimeMethod constructor, MiniJavaObject object, MiniJavaObject[] locals) {
+        for (var parent = runtimeClass.parent; parent != null; parent = parent.parent) {
+            var defaultConstructor = parent.defaultConstructor();
+            if (defaultConstructor != null) {
+                construct(parent, defaultConstructor, object, defaultConstructor.defaultLocals().clone());
+                break;
+            }
+        }
+        execute(constructor, object, locals);
+    }
+
+    private boolean isInstanceOf(MiniJavaObject object, String className) {
+        object = unwrap(object);
+        if (object.value == null || !object.type.isClass()) return false;
+        return loader.classes.get(object.type.classType).isSubclassOf(className);
+    }
+
+    private MiniJavaObject cast(MiniJavaObject object, String type) {
+        switch (type) {
+            case "int":
+                return object.value instanceof Integer ? object : newInt(intValue(object));
+            case "char":
+                return object.value instanceof Character ? object : newChar(intValue(object));
+            case "string":
+                return object.value instanceof String ? object : box(STRING_TYPE, toDisplayString(object));
+            case "boolean":
+                return object;
+            default:
+                // Arrays are not checked, objects must be instances of the class
+                if (object.value == null || type.endsWith("[]")) return object;
+                if (!isInstanceOf(object, type)) throw new RuntimeException("[ERROR] " + object.type + " cannot be cast to " + type);
+                return object;
+        }
+    }
+
+    private MiniJavaObject callBuiltin(String name, int argc) {
+        var methodName = name.substring(name.indexOf("::") + 2, name.indexOf("("));
+        var argument = argc > 0 ? stack[sp - 1] : null;
+        sp -= argc;
+        switch (methodName) {
+            case "print":
+                out.print(toDisplayString(argument));
+                return VOID;
+            case "println":
+                if (argument == null) out.println();
+                else out.println(toDisplayString(argument));
+                return VOID;
+            case "length":
+                return newInt(elementsOf(argument).size());
+            case "atoi":
+                try {
+                    return newInt(Integer.parseInt(((String) argument.value).trim()));
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("[ERROR] atoi: " + argument.value + " is not a number");
+                }
+            case "itoa":
+                return box(STRING_TYPE, String.valueOf(intValue(argument)));
+            case "assert":
+                if (!booleanValue(argument)) throw new RuntimeException("[ERROR] Assertion failed");
+                return VOID;
+            default:
+                throw new RuntimeException("[ERROR] Method " + name + " not found.");
+        }
+    }
+}
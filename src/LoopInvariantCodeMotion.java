@@ -0,0 +1,248 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This pass of `SsaOptimizer` hoists the loop invariant values of each natural loop into the preheader of the loop,
+ * e.g. the loop of the condition and the body of a `for` or `while` statement, see `ControlFlowGraph.naturalLoops`.
+ * The inner loops are optimized first, and a loop without preheader gets one.
+ *
+ * A value is invariant if its operands are defined outside the loop or invariant, and it gives the same result
+ * at each iteration: arithmetic, comparisons, casts between primitive types, `length` of an array,
+ * and the loads of fields and elements which are not written in the loop.
+ * `OP_SET_FIELD` writes the fields of its slot, `OP_SET_INDEX` writes every element,
+ * and `OP_INVOKE` or a call of a method which is not read-only, see `readOnlyMethods`, writes anything.
+ * A value which may raise an error, e.g. a division, a field of a null object or an element out of bounds,
+ * is only hoisted from the header when nothing before it in the header has an effect:
+ * the header runs first whenever the loop is entered, so the error is raised before the same effects.
+ */
+public class LoopInvariantCodeMotion implements SsaOptimizer.Pass {
+    private final Environment environment;
+    // The methods which write no field and no element, directly or through their callees
+    private final HashSet<String> readOnlyMethods;
+    // The constant pool of the method of the graph being optimized
+    private List<MiniJavaObject> constants;
+    // What the loop being optimized writes
+    private final HashSet<Integer> writtenFields = new HashSet<>();
+    private boolean writesElements;
+    private boolean writesAll;
+    public int loopCount = 0;
+    public int hoistedValues = 0;
+
+    public LoopInvariantCodeMotion(Environment environment, List<Bytecode> bytecodes) {
+        this.environment = environment;
+        this.readOnlyMethods = readOnlyMethods(bytecodes);
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[LICM] hoisted %d values out of %d loops%n", hoistedValues, loopCount);
+    }
+
+    // A method is read-only if it has no `OP_SET_FIELD`, `OP_SET_INDEX` or `OP_INVOKE`, and it only calls
+    // built-in methods and read-only methods. Constructors are never read-only.
+    private HashSet<String> readOnlyMethods(List<Bytecode> bytecodes) {
+        var calls = new HashMap<String, List<String>>();
+        String method = null;
+        for (var bytecode : bytecodes) {
+            switch (bytecode.type) {
+                case OP_METHOD:
+                    method = bytecode.name;
+                    calls.put(method, new ArrayList<>());
+                    break;
+                case OP_CLASS:
+                    method = null;
+                    break;
+                case OP_SET_FIELD:
+                case OP_SET_INDEX:
+                case OP_INVOKE:
+                    if (method != null) calls.remove(method);
+                    method = null;
+                    break;
+                case OP_CALL:
+                    if (method != null) {
+                        var callee = (String) environment.pools.get(method).constantPool.get(bytecode.arg1).value;
+                        if (environment.pools.containsKey(callee)) calls.get(method).add(callee);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        calls.keySet().removeIf(VirtualTables::isConstructor);
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var entry : new ArrayList<>(calls.entrySet())) {
+                for (var callee : entry.getValue()) {
+                    if (calls.containsKey(callee)) continue;
+                    calls.remove(entry.getKey());
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return new HashSet<>(calls.keySet());
+    }
+
+    @Override
+    public void run(ControlFlowGraph graph) {
+        constants = environment.pools.get(graph.name).constantPool;
+        var loops = graph.addPreheaders();
+        var order = graph.reversePostorder();
+        for (var loop : loops.entrySet()) {
+            var header = loop.getKey();
+            var body = loop.getValue();
+            loopCount++;
+            hoist(header, body, ControlFlowGraph.preheaderOf(header, body), order);
+        }
+    }
+
+    private void hoist(BasicBlock header, HashSet<BasicBlock> body, BasicBlock preheader, List<BasicBlock> order) {
+        writtenFields.clear();
+        writesElements = false;
+        writesAll = false;
+        for (var block : body) {
+            for (var value : block.values) {
+                switch (value.type()) {
+                    case OP_SET_FIELD:
+                        writtenFields.add(value.bytecode.arg1);
+                        break;
+                    case OP_SET_INDEX:
+                        writesElements = true;
+                        break;
+                    case OP_INVOKE:
+                        writesAll = true;
+                        break;
+                    case OP_CALL:
+                        var callee = calleeOf(value);
+                        if (environment.pools.containsKey(callee) && !readOnlyMethods.contains(callee)) writesAll = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : order) {
+                if (!body.contains(block)) continue;
+                var hasEffect = false;
+                for (var value : new ArrayList<>(block.values)) {
+                    if (isHoistable(value, body) && (!mayRaise(value) || block == header && !hasEffect)) {
+                        block.values.remove(value);
+                        preheader.values.add(value);
+                        value.block = preheader;
+                        hoistedValues++;
+                        changed = true;
+                    } else if (!isQuiet(value)) {
+                        hasEffect = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isHoistable(SsaValue value, HashSet<BasicBlock> body) {
+        if (value.kind != SsaValue.Kind.BYTECODE || value.isRematerializable()) return false;
+        for (var operand : value.operands) {
+            if (body.contains(operand.block) && !(operand.isRematerializable() && operand.operands.isEmpty())) return false;
+        }
+        switch (value.type()) {
+            case OP_GET_FIELD:
+                return !writesAll && !writtenFields.contains(value.bytecode.arg1);
+            case OP_GET_INDEX:
+                return !writesAll && !writesElements;
+            case OP_CALL:
+                return isBuiltin(value, "length");
+            case OP_CAST:
+                return isPrimitiveCast(value);
+            case OP_DIV:
+            case OP_MOD:
+                return true;
+            default:
+                return isQuiet(value);
+        }
+    }
+
+    // Whether the value has no effect and never raises an error.
+    private boolean isQuiet(SsaValue value) {
+        if (value.kind != SsaValue.Kind.BYTECODE) return true;
+        switch (value.type()) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_THIS:
+            case OP_SUPER:
+            case OP_INC:
+            case OP_DEC:
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_BIT_NOT:
+            case OP_NEG:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_GE:
+            case OP_LE:
+            case OP_GT:
+            case OP_LT:
+            case OP_CONCAT:
+                return true;
+            case OP_CAST:
+                return isPrimitiveCast(value);
+            case OP_DIV:
+            case OP_MOD:
+            case OP_GET_FIELD:
+                return !mayRaise(value);
+            default:
+                return false;
+        }
+    }
+
+    private boolean mayRaise(SsaValue value) {
+        switch (value.type()) {
+            case OP_DIV:
+            case OP_MOD: {
+                var divisor = value.operands.get(1);
+                if (divisor.type() != BytecodeType.OP_CONSTANT) return true;
+                var constant = constants.get(divisor.bytecode.arg1).value;
+                return !(constant instanceof Integer number && number != 0 || constant instanceof Character c && c != 0);
+            }
+            case OP_GET_FIELD: {
+                var object = value.operands.get(0).type();
+                return object != BytecodeType.OP_THIS && object != BytecodeType.OP_SUPER;
+            }
+            case OP_GET_INDEX:
+            case OP_CALL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private String calleeOf(SsaValue call) {
+        return (String) constants.get(call.bytecode.arg1).value;
+    }
+
+    // Whether the call is the built-in method `name`, the methods of the program take precedence.
+    private boolean isBuiltin(SsaValue call, String name) {
+        var callee = calleeOf(call);
+        return !environment.pools.containsKey(callee) && callee.substring(callee.indexOf("::") + 2).startsWith(name + "(");
+    }
+
+    private boolean isPrimitiveCast(SsaValue cast) {
+        var type = (String) constants.get(cast.bytecode.arg1).value;
+        return type.equals("int") || type.equals("char") || type.equals("boolean");
+    }
+}
@@ -1,16 +1,83 @@
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
 public class Main {
-    public static void run(String sourcePath) throws Exception {
+    // The engines which can execute the compiled program
+    public static final String BOXED_ENGINE = "boxed";
+    public static final String PRIMITIVE_ENGINE = "primitive";
+    public static final String JVM_ENGINE = "jvm";
+    public static final String TIERED_ENGINE = "tiered";
+
+    // The options of the tiered engine
+    public static int jitInvocationThreshold = TieredCompiler.DEFAULT_INVOCATION_THRESHOLD;
+    public static int jitBackEdgeThreshold = TieredCompiler.DEFAULT_BACK_EDGE_THRESHOLD;
+    public static boolean jitLog = false;
+    // The rules of the peephole optimizer, see `PeepholeOptimizer.RULES`
+    public static List<String> peepholeRules = List.of("all");
+    public static boolean peepholeLog = false;
+    // Remove unreachable blocks, unused labels and dead stores, see `DeadCodeEliminator`
+    public static boolean deadCodeElimination = true;
+    public static boolean dceLog = false;
+    // Call the methods of invocations with a single possible target directly, see `ClassHierarchy`
+    public static boolean devirtualize = true;
+    public static boolean devirtualizeLog = false;
+    // Copy the bytecodes of small callees into their callers, `--inline-depth=0` disables it, see `Inliner`
+    public static int inlineSize = Inliner.DEFAULT_MAX_SIZE;
+    public static int inlineDepth = Inliner.DEFAULT_MAX_DEPTH;
+    public static boolean inlineLog = false;
+    // Run the methods through the SSA form, see `SsaOptimizer`, `--no-ssa` disables it and all the passes below,
+    // and write the graphs next to the source if `ssaDump`
+    public static boolean ssa = true;
+    public static boolean ssaDump = false;
+    // The passes on the SSA form, see `ScalarReplacement`, `LoopInvariantCodeMotion`, `AlgebraicSimplifier`, `StrengthReduction`
+    // and `CheckElimination`
+    public static boolean scalarReplacement = true;
+    public static boolean scalarReplacementLog = false;
+    public static boolean licm = true;
+    public static boolean licmLog = false;
+    public static boolean simplify = true;
+    public static boolean simplifyLog = false;
+    public static boolean strengthReduction = true;
+    public static boolean strengthReductionLog = false;
+    public static boolean checkElimination = true;
+    public static boolean checkEliminationLog = false;
+    // Share the variable slots of the locals with disjoint live ranges, see `SlotAllocator`
+    public static boolean slotReuse = true;
+    // Print the inline cache of each `OP_INVOKE` site after the program of the primitive or the tiered engine
+    public static boolean icLog = false;
+    // Write the program to a binary `.mjc` next to the source instead of the text bytecodes and pools, see `BytecodeFile`,
+    // the text is still written if `disassemble`, which also writes it next to a `.mjc` which is run
+    public static boolean mjc = false;
+    public static boolean disassemble = false;
+    // Print how many methods of a `.mjc` were decoded after the program, see `BytecodeFile.report`
+    public static boolean loadLog = false;
+
+    private static ParseTree parse(String sourcePath) throws Exception {
         var input = CharStreams.fromFileName(sourcePath);
         MiniJavaLexer lexer = new MiniJavaLexer(input);
         CommonTokenStream tokenStream = new CommonTokenStream(lexer);
         MiniJavaParser parser = new MiniJavaParser(tokenStream);
-        ParseTree pt = parser.compilationUnit();
+        return parser.compilationUnit();
+    }
+
+    // Compile the source file, and write the bytecodes and pools next to it if `display` is true.
+    public static BytecodeLoader compile(String sourcePath, boolean display) throws Exception {
+        ParseTree pt = parse(sourcePath);
 
         String bytecodePath = sourcePath.substring(0, sourcePath.length() - 2) + "bc";
         String poolsPath = sourcePath.substring(0, sourcePath.length() - 2) + "pool";
@@ -21,23 +88,269 @@ public class Main {
         SemanticsVisitor semanticsVisitor = new SemanticsVisitor();
         semanticsVisitor.visit(pt);
 
-        BytecodeVisitor bytecodeVisitor = new BytecodeVisitor(bytecode, environment, semanticsVisitor);
+        var classHierarchy = devirtualize ? new ClassHierarchy(semanticsVisitor) : null;
+        BytecodeVisitor bytecodeVisitor = new BytecodeVisitor(bytecode, environment, semanticsVisitor, classHierarchy);
         bytecodeVisitor.visit(pt);
+        if (devirtualizeLog && classHierarchy != null) classHierarchy.report(System.err);
+
+        var peepholeOptimizer = new PeepholeOptimizer(peepholeRules);
+        peepholeOptimizer.optimize(bytecode.bytecodes);
+        if (inlineDepth > 0) {
+            var inliner = new Inliner(environment, inlineSize, inlineDepth);
+            inliner.inline(bytecode.bytecodes);
+            if (inlineLog) inliner.report(System.err);
+            // The arguments of the copies are stored and loaded right away
+            peepholeOptimizer.optimize(bytecode.bytecodes);
+        }
+        if (deadCodeElimination) {
+            var deadCodeEliminator = new DeadCodeEliminator();
+            deadCodeEliminator.eliminate(bytecode.bytecodes);
+            if (dceLog) deadCodeEliminator.report(System.err);
+            // The removed stores and blocks leave new windows for the peephole rules, e.g. `OP_CONSTANT c; OP_POP`
+            peepholeOptimizer.optimize(bytecode.bytecodes);
+        }
+        if (ssa || ssaDump) {
+            var ssaOptimizer = new SsaOptimizer(environment);
+            var scalarReplacer = new ScalarReplacement(environment, bytecode.bytecodes, semanticsVisitor.getParentClassMap());
+            var loopInvariantCodeMotion = new LoopInvariantCodeMotion(environment, bytecode.bytecodes);
+            var algebraicSimplifier = new AlgebraicSimplifier(environment);
+            var strengthReducer = new StrengthReduction(environment);
+            var checkEliminator = new CheckElimination(environment);
+            if (scalarReplacement) ssaOptimizer.passes.add(scalarReplacer);
+            if (licm) ssaOptimizer.passes.add(loopInvariantCodeMotion);
+            if (simplify) ssaOptimizer.passes.add(algebraicSimplifier);
+            if (strengthReduction) {
+                ssaOptimizer.passes.add(strengthReducer);
+                // The strides of the new induction variables are folded
+                if (simplify) ssaOptimizer.passes.add(algebraicSimplifier);
+            }
+            // The ranges are proven on the final values, e.g. the new induction variables
+            if (checkElimination) ssaOptimizer.passes.add(checkEliminator);
+            ssaOptimizer.optimize(bytecode.bytecodes, ssa, ssaDump ? sourcePath.substring(0, sourcePath.length() - 2) + "ssa" : null);
+            if (scalarReplacement && scalarReplacementLog) scalarReplacer.report(System.err);
+            if (licm && licmLog) loopInvariantCodeMotion.report(System.err);
+            if (simplify && simplifyLog) algebraicSimplifier.report(System.err);
+            if (strengthReduction && strengthReductionLog) strengthReducer.report(System.err);
+            if (checkElimination && checkEliminationLog) checkEliminator.report(System.err);
+            // The lowered methods store values which are loaded right away
+            if (ssa) peepholeOptimizer.optimize(bytecode.bytecodes);
+        }
+        if (slotReuse) {
+            new SlotAllocator(environment).allocate(bytecode.bytecodes);
+            // Variables sharing a slot make new windows match, e.g. the copy of a variable to itself
+            peepholeOptimizer.optimize(bytecode.bytecodes);
+        }
+        if (peepholeLog) peepholeOptimizer.report(System.err);
+        bytecode.resolveJumps();
+
+        if (display && (!mjc || disassemble)) {
+            bytecode.displayBytecodes(bytecodePath);
+            environment.displayEnvironment(poolsPath);
+        }
+        var loader = new BytecodeLoader(bytecode.bytecodes, environment, semanticsVisitor);
+        if (display && mjc) BytecodeFile.write(bytecode.bytecodes, environment, loader, sourcePath + "c");
+        return loader;
+    }
+
+    // Compile the source file to JVM class files, one per MiniJava class and `minijava/global` for the global methods.
+    // The keys are the internal names of the classes.
+    public static Map<String, byte[]> compileClassFiles(String sourcePath) throws Exception {
+        ParseTree pt = parse(sourcePath);
+
+        SemanticsVisitor semanticsVisitor = new SemanticsVisitor();
+        semanticsVisitor.visit(pt);
+
+        ClassFileVisitor classFileVisitor = new ClassFileVisitor(semanticsVisitor);
+        classFileVisitor.visit(pt);
+        return classFileVisitor.getClassFiles();
+    }
 
-        bytecode.displayBytecodes(bytecodePath);
-        environment.displayEnvironment(poolsPath);
+    // Write a runnable jar with the class files and `MiniJavaRuntime`, which is the main class of the jar.
+    public static void writeJar(Map<String, byte[]> classFiles, String jarPath) throws Exception {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, MiniJavaRuntime.class.getName());
+        try (var jar = new JarOutputStream(new FileOutputStream(jarPath), manifest)) {
+            for (var entry : classFiles.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+            try (var runtime = MiniJavaRuntime.class.getResourceAsStream("MiniJavaRuntime.class")) {
+                if (runtime == null) throw new RuntimeException("Error: MiniJavaRuntime.class not found.");
+                jar.putNextEntry(new JarEntry("MiniJavaRuntime.class"));
+                runtime.transferTo(jar);
+                jar.closeEntry();
+            }
+        }
+    }
+
+    // Returns the exit code of the program if it is executed by `engine`, otherwise 0.
+    public static int run(String sourcePath, String engine, boolean jar) throws Exception {
+        var loader = compile(sourcePath, true);
+        Map<String, byte[]> classFiles = null;
+        if (jar || JVM_ENGINE.equals(engine)) classFiles = compileClassFiles(sourcePath);
+        if (jar) writeJar(classFiles, sourcePath.substring(0, sourcePath.length() - 2) + "jar");
+        if (engine == null) return 0;
+        var out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        if (JVM_ENGINE.equals(engine)) {
+            var classLoader = new ClassFileLoader(classFiles);
+            return runWithLargeStack(() -> classLoader.run(out));
+        }
+        return execute(loader, engine, out);
+    }
+
+    // Load the program of a `.mjc` file, returns the exit code of the program if it is executed by `engine`, otherwise 0.
+    // The jvm engine compiles the source, so it cannot run a `.mjc` file.
+    public static int runBytecodeFile(String path, String engine) throws Exception {
+        var file = BytecodeFile.load(path);
+        if (disassemble) file.disassemble(path.substring(0, path.length() - 3) + "bc", path.substring(0, path.length() - 3) + "pool");
+        if (engine == null) return 0;
+        if (JVM_ENGINE.equals(engine)) throw new RuntimeException("Error: The jvm engine cannot run a .mjc file.");
+        var out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        try {
+            return execute(file.loader, engine, out);
+        } finally {
+            if (loadLog) file.report(System.err);
+        }
+    }
+
+    // Execute the program with `engine`, the output of the program is written to `out`.
+    public static int execute(BytecodeLoader loader, String engine, PrintStream out) throws Exception {
+        return runWithLargeStack(newEngine(loader, engine, out));
+    }
+
+    // Returns the `run` method of a new interpreter of the program.
+    public static Callable<Integer> newEngine(BytecodeLoader loader, String engine, PrintStream out) {
+        switch (engine) {
+            case BOXED_ENGINE:
+                return new Interpreter(loader, out)::run;
+            case PRIMITIVE_ENGINE:
+                return withInlineCacheLog(new PrimitiveInterpreter(loader, out));
+            case TIERED_ENGINE: {
+                var compiler = new TieredCompiler(jitInvocationThreshold, jitBackEdgeThreshold, jitLog ? System.err : null);
+                return withInlineCacheLog(new PrimitiveInterpreter(loader, out, compiler));
+            }
+            default:
+                throw new RuntimeException("Error: Unknown engine " + engine + ".");
+        }
+    }
+
+    private static Callable<Integer> withInlineCacheLog(PrimitiveInterpreter interpreter) {
+        if (!icLog) return interpreter::run;
+        return () -> {
+            try {
+                return interpreter.run();
+            } finally {
+                interpreter.reportInlineCaches(System.err);
+            }
+        };
+    }
+
+    // MiniJava method calls are executed on the Java stack,
+    // so we run the program on a thread with a large stack to support deep recursion.
+    public static int runWithLargeStack(Callable<Integer> program) throws Exception {
+        var result = new Object[1];
+        var thread = new Thread(null, () -> {
+            try {
+                result[0] = program.call();
+            } catch (Throwable e) {
+                result[0] = e;
+            }
+        }, "minijava", 1L << 30);
+        thread.start();
+        thread.join();
+        if (result[0] instanceof Exception e) throw e;
+        if (result[0] instanceof Throwable e) throw new RuntimeException(e);
+        return (Integer) result[0];
     }
 
     public static void main(String[] args) throws Exception {
-        if (args.length != 1) {
-            System.err.println("Error: One argument required: <source.mj>.");
+        String source = null;
+        String engine = null;
+        var jar = false;
+        for (var arg : args) {
+            if (arg.equals("--jar")) {
+                jar = true;
+            } else if (arg.equals("--run")) {
+                if (engine == null) engine = PRIMITIVE_ENGINE;
+            } else if (arg.startsWith("--engine=")) {
+                engine = arg.substring("--engine=".length());
+            } else if (arg.startsWith("--jit-invocations=")) {
+                jitInvocationThreshold = Integer.parseInt(arg.substring("--jit-invocations=".length()));
+            } else if (arg.startsWith("--jit-backedges=")) {
+                jitBackEdgeThreshold = Integer.parseInt(arg.substring("--jit-backedges=".length()));
+            } else if (arg.equals("--jit-log")) {
+                jitLog = true;
+            } else if (arg.startsWith("--peephole=")) {
+                peepholeRules = Arrays.asList(arg.substring("--peephole=".length()).split(","));
+            } else if (arg.equals("--peephole-log")) {
+                peepholeLog = true;
+            } else if (arg.equals("--no-dce")) {
+                deadCodeElimination = false;
+            } else if (arg.equals("--dce-log")) {
+                dceLog = true;
+            } else if (arg.equals("--no-devirtualize")) {
+                devirtualize = false;
+            } else if (arg.equals("--devirtualize-log")) {
+                devirtualizeLog = true;
+            } else if (arg.startsWith("--inline-size=")) {
+                inlineSize = Integer.parseInt(arg.substring("--inline-size=".length()));
+            } else if (arg.startsWith("--inline-depth=")) {
+                inlineDepth = Integer.parseInt(arg.substring("--inline-depth=".length()));
+            } else if (arg.equals("--inline-log")) {
+                inlineLog = true;
+            } else if (arg.equals("--no-ssa")) {
+                ssa = false;
+            } else if (arg.equals("--ssa-dump")) {
+                ssaDump = true;
+            } else if (arg.equals("--no-scalar-replacement")) {
+                scalarReplacement = false;
+            } else if (arg.equals("--scalar-replacement-log")) {
+                scalarReplacementLog = true;
+            } else if (arg.equals("--no-licm")) {
+                licm = false;
+            } else if (arg.equals("--licm-log")) {
+                licmLog = true;
+            } else if (arg.equals("--no-simplify")) {
+                simplify = false;
+            } else if (arg.equals("--simplify-log")) {
+                simplifyLog = true;
+            } else if (arg.equals("--no-strength-reduction")) {
+                strengthReduction = false;
+            } else if (arg.equals("--strength-reduction-log")) {
+                strengthReductionLog = true;
+            } else if (arg.equals("--no-check-elimination")) {
+                checkElimination = false;
+            } else if (arg.equals("--check-elimination-log")) {
+                checkEliminationLog = true;
+            } else if (arg.equals("--no-slot-reuse")) {
+                slotReuse = false;
+            } else if (arg.equals("--ic-log")) {
+                icLog = true;
+            } else if (arg.equals("--mjc")) {
+                mjc = true;
+            } else if (arg.equals("--disassemble")) {
+                disassemble = true;
+            } else if (arg.equals("--load-log")) {
+                loadLog = true;
+            } else if (source == null) {
+                source = arg;
+            } else {
+                source = null;
+                break;
+            }
+        }
+        if (source == null) {
+            System.err.println("Error: Usage: [--run] [--engine=boxed|primitive|tiered|jvm] [--jit-invocations=N] [--jit-backedges=N] [--jit-log] [--ic-log] [--peephole=all|none|rule,...] [--peephole-log] [--no-dce] [--dce-log] [--no-devirtualize] [--devirtualize-log] [--inline-size=N] [--inline-depth=N] [--inline-log] [--no-ssa] [--ssa-dump] [--no-scalar-replacement] [--scalar-replacement-log] [--no-licm] [--licm-log] [--no-simplify] [--simplify-log] [--no-strength-reduction] [--strength-reduction-log] [--no-check-elimination] [--check-elimination-log] [--no-slot-reuse] [--jar] [--mjc] [--disassemble] [--load-log] <source.mj|program.mjc>.");
             throw new RuntimeException("Incorrect number of arguments.");
         }
-    
-        String sourcePath = new File(args[0]).getAbsolutePath();
-        if (!sourcePath.endsWith(".mj")) {
-            throw new RuntimeException("Error: Source file must end with .mj.");
+
+        String sourcePath = new File(source).getAbsolutePath();
+        if (!sourcePath.endsWith(".mj") && !sourcePath.endsWith(".mjc")) {
+            throw new RuntimeException("Error: Source file must end with .mj or .mjc.");
         }
-        run(sourcePath);
+        var exitCode = sourcePath.endsWith(".mjc") ? runBytecodeFile(sourcePath, engine) : run(sourcePath, engine, jar);
+        if (engine != null) System.exit(exitCode);
     }
-}
\ No newline at end of file
+}
@@ -10,6 +10,8 @@ public class MethodSignature {
     public String className;
     public String methodName;
     public ArrayList<MiniJavaType> parameterTypes;
+    // The declared return type, only known for declarations (constructors return their class type).
+    public MiniJavaType returnType = null;
 
     public MethodSignature(String className, String methodName, ArrayList<MiniJavaType> parameterTypes) {
         this.className = className;
@@ -17,6 +19,11 @@ public class MethodSignature {
         this.parameterTypes = parameterTypes;
     }
 
+    public MethodSignature(String className, String methodName, ArrayList<MiniJavaType> parameterTypes, MiniJavaType returnType) {
+        this(className, methodName, parameterTypes);
+        this.returnType = returnType;
+    }
+
 
     public String mangle() {
         StringBuilder sb = new StringBuilder();
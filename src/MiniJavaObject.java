@@ -4,7 +4,7 @@
  * Based on the type of object, it can represent a primitive type or an array or a class.
  * For primitive types, Object value = Integer/String/...
  * For arrays, Object value = ArrayList<MiniJavaObject>
- * For classes, Object value = HashMap<MiniJavaObject>
+ * For classes, Object value = MiniJavaObject[] of fields, indexed by the slots of `FieldLayouts`
  */
 public class MiniJavaObject {
     public MiniJavaType type = null;
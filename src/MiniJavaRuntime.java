@@ -0,0 +1,149 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * This class is the runtime support of the class files emitted by `ClassFileVisitor`.
+ * The built-in methods which are not a single JVM instruction are static methods of this class,
+ * and it is the entry point of the runnable jar: `main` runs `global::main()` of the class `minijava.global`.
+ * It must only depend on the JDK, because it is copied into the jar without the compiler.
+ */
+public class MiniJavaRuntime {
+    // The package of the classes of the program, and the name of the class holding the global methods, see `ClassFileVisitor`
+    public static final String PACKAGE = "minijava.";
+    public static final String GLOBAL_CLASS = PACKAGE + "global";
+
+    public static PrintStream out = System.out;
+
+    public static void print(int value) {
+        out.print(value);
+    }
+
+    public static void print(char value) {
+        out.print(value);
+    }
+
+    public static void print(boolean value) {
+        out.print(value);
+    }
+
+    public static void print(Object value) {
+        out.print(String.valueOf(value));
+    }
+
+    public static void println() {
+        out.println();
+    }
+
+    public static void println(int value) {
+        out.println(value);
+    }
+
+    public static void println(char value) {
+        out.println(value);
+    }
+
+    public static void println(boolean value) {
+        out.println(value);
+    }
+
+    public static void println(Object value) {
+        out.println(String.valueOf(value));
+    }
+
+    public static int atoi(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("[ERROR] atoi: " + value + " is not a number");
+        }
+    }
+
+    public static void assertTrue(boolean value) {
+        if (!value) throw new RuntimeException("[ERROR] Assertion failed");
+    }
+
+    // The elements of a `string` array are "" instead of null when created, `depth` is the number of dimensions.
+    public static Object[] fillStrings(Object[] array, int depth) {
+        if (depth == 1) {
+            Arrays.fill(array, "");
+        } else {
+            for (var element : array) fillStrings((Object[]) element, depth - 1);
+        }
+        return array;
+    }
+
+    // Run `global::main()` of `globalClass` with the output written to `output`,
+    // the return value of `main` is the exit code of the program.
+    public static int run(Class<?> globalClass, PrintStream output) throws Exception {
+        out = output;
+        try {
+            var result = globalClass.getMethod("main").invoke(null);
+            return result instanceof Integer exitCode ? exitCode : 0;
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw toError(cause);
+            if (e.getCause() instanceof Exception cause) throw cause;
+            throw new RuntimeException(e.getCause());
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException("[ERROR] Method global::main() not found.");
+        } finally {
+            out.flush();
+        }
+    }
+
+    // The error of the other engines for an exception thrown by a JVM instruction,
+    // e.g. `[ERROR] Division by zero` for the `ArithmeticException` of `idiv`.
+    // The exceptions of the built-in methods are already errors.
+    static RuntimeException toError(RuntimeException e) {
+        var message = e.getMessage() != null ? e.getMessage() : "";
+        if (e instanceof ArithmeticException) return new RuntimeException("[ERROR] Division by zero");
+        if (e instanceof ArrayIndexOutOfBoundsException) {
+            var matcher = Pattern.compile("Index (-?\\d+) out of bounds").matcher(message);
+            return new RuntimeException("[ERROR] Array index out of bounds: " + (matcher.find() ? matcher.group(1) : message));
+        }
+        if (e instanceof NegativeArraySizeException) return new RuntimeException("[ERROR] Negative array size: " + message);
+        if (e instanceof NullPointerException) {
+            // The message of the JVM tells the instruction which failed, e.g. `Cannot read field "x" because ...`
+            if (message.startsWith("Cannot invoke")) return new RuntimeException("[ERROR] Null pointer: invoke a method on null");
+            if (message.startsWith("Cannot read field") || message.startsWith("Cannot assign field")) return new RuntimeException("[ERROR] Null pointer: access a field of null");
+            return new RuntimeException("[ERROR] Null pointer: access an element of null");
+        }
+        if (e instanceof ClassCastException) {
+            var matcher = Pattern.compile("class (\\S+) cannot be cast to class (\\S+)").matcher(message);
+            if (matcher.find()) {
+                return new RuntimeException("[ERROR] " + className(matcher.group(1)) + " cannot be cast to " + className(matcher.group(2)));
+            }
+        }
+        return e;
+    }
+
+    // The MiniJava name of the class `minijava.C`
+    private static String className(String binaryName) {
+        return binaryName.startsWith(PACKAGE) ? binaryName.substring(PACKAGE.length()) : binaryName;
+    }
+
+    // The entry point of the runnable jar, the program runs on a thread with a large stack to support deep recursion.
+    public static void main(String[] args) throws Exception {
+        var output = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+        var globalClass = Class.forName(GLOBAL_CLASS);
+        var result = new Object[1];
+        var thread = new Thread(null, () -> {
+            try {
+                result[0] = run(globalClass, output);
+            } catch (Throwable e) {
+                result[0] = e;
+            }
+        }, "minijava", 1L << 30);
+        thread.start();
+        thread.join();
+        if (result[0] instanceof Throwable e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+        System.exit((Integer) result[0]);
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Map;
 import java.util.Objects;
 
 /**
@@ -90,19 +91,31 @@ public class MiniJavaType {
 
     // `int` can be explicitly cast to `char`
     // all primitive types can be explicitly cast to `string`
-    public boolean canExplicitCastTo(MiniJavaType other) {
-        if (this.canImplicitlyCastTo(other)) return true;
+    // a class can be explicitly cast to its sub class
+    // The casts between classes are checked with the parent class of each class, see `SemanticsVisitor.getParentClassMap`.
+    public boolean canExplicitCastTo(MiniJavaType other, Map<String, String> parentClassMap) {
+        if (this.canImplicitlyCastTo(other, parentClassMap)) return true;
         if (this.isPrimitive() && other.isString()) return true;
         if (this.isInt() && other.isChar()) return true;
+        if (this.isClass() && other.isClass() && other.isSubclassOf(this.classType, parentClassMap)) return true;
         return false;
     }
 
     // Only `char` can be implicitly cast to `int`
-    // Only `null` can be implicitly cast to `array[]`
-    public boolean canImplicitlyCastTo(MiniJavaType toType) {
+    // Only `null` can be implicitly cast to `array[]` and classes
+    // A class can be implicitly cast to its super class
+    public boolean canImplicitlyCastTo(MiniJavaType toType, Map<String, String> parentClassMap) {
         if (this.isEqual(toType)) return true;
         if (this.isChar() && toType.isInt()) return true;
-        if (this.isNull() && toType.isArray()) return true;
+        if (this.isNull() && (toType.isArray() || toType.isClass())) return true;
+        if (this.isClass() && toType.isClass() && this.isSubclassOf(toType.classType, parentClassMap)) return true;
+        return false;
+    }
+
+    public boolean isSubclassOf(String className, Map<String, String> parentClassMap) {
+        for (var currentClass = classType; currentClass != null; currentClass = parentClassMap.get(currentClass)) {
+            if (currentClass.equals(className)) return true;
+        }
         return false;
     }
 
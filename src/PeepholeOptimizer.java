@@ -0,0 +1,155 @@
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class is a peephole optimizer for the bytecodes emitted by `BytecodeVisitor`.
+ * Each rule looks at the window of bytecodes starting at an offset, and rewrites it in place if it matches.
+ * The rules are applied at every offset until none of them matches anymore,
+ * because a rewrite can make a new window match.
+ * The windows never contain `OP_LABEL` (except for `jump-next`), so a jump never lands inside a rewritten window.
+ * The number of bytecodes removed by each rule is counted in `removed`.
+ */
+public class PeepholeOptimizer {
+    // A rule rewrites the window starting at `start` and returns the number of removed bytecodes, 0 if it does not match.
+    public interface Rule {
+        int apply(List<Bytecode> bytecodes, int start);
+    }
+
+    // All rules by name, in the order in which they are tried at each offset
+    public static final LinkedHashMap<String, Rule> RULES = new LinkedHashMap<>();
+
+    static {
+        RULES.put("store-load", PeepholeOptimizer::storeLoad);
+        RULES.put("jump-next", PeepholeOptimizer::jumpNext);
+        RULES.put("push-pop", PeepholeOptimizer::pushPop);
+        RULES.put("postfix-pop", PeepholeOptimizer::postfixPop);
+        RULES.put("store-store", PeepholeOptimizer::storeStore);
+        RULES.put("self-copy", PeepholeOptimizer::selfCopy);
+    }
+
+    private final LinkedHashMap<String, Rule> rules;
+    public final LinkedHashMap<String, Integer> removed;
+
+    // `ruleNames` are names of `RULES`, or `all` for all of them.
+    public PeepholeOptimizer(List<String> ruleNames) {
+        this.rules = new LinkedHashMap<>();
+        this.removed = new LinkedHashMap<>();
+        for (var name : ruleNames) {
+            if (name.equals("all")) {
+                rules.putAll(RULES);
+            } else if (RULES.containsKey(name)) {
+                rules.put(name, RULES.get(name));
+            } else if (!name.equals("none")) {
+                throw new RuntimeException("Error: Unknown peephole rule " + name + ".");
+            }
+        }
+        for (var name : rules.keySet()) removed.put(name, 0);
+    }
+
+    public void optimize(List<Bytecode> bytecodes) {
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var i = 0; i < bytecodes.size(); i++) {
+                for (var rule : rules.entrySet()) {
+                    var count = rule.getValue().apply(bytecodes, i);
+                    if (count == 0) continue;
+                    removed.merge(rule.getKey(), count, Integer::sum);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    public void report(PrintStream log) {
+        for (var entry : removed.entrySet()) {
+            log.printf("[PEEPHOLE] %s removed %d bytecodes%n", entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static boolean matches(List<Bytecode> bytecodes, int index, BytecodeType type) {
+        return index < bytecodes.size() && bytecodes.get(index).type == type;
+    }
+
+    private static void removeRange(List<Bytecode> bytecodes, int from, int to) {
+        bytecodes.subList(from, to).clear();
+    }
+
+    // `OP_SET_LOCAL n; OP_POP; OP_GET_LOCAL n` -> `OP_SET_LOCAL n`, the stored value is still on the stack.
+    private static int storeLoad(List<Bytecode> bytecodes, int start) {
+        if (!matches(bytecodes, start, BytecodeType.OP_SET_LOCAL)
+                || !matches(bytecodes, start + 1, BytecodeType.OP_POP)
+                || !matches(bytecodes, start + 2, BytecodeType.OP_GET_LOCAL)) return 0;
+        if (!Objects.equals(bytecodes.get(start).arg1, bytecodes.get(start + 2).arg1)) return 0;
+        removeRange(bytecodes, start + 1, start + 3);
+        return 2;
+    }
+
+    // `OP_JUMP L; OP_LABEL ...; OP_LABEL L` -> `OP_LABEL ...; OP_LABEL L`, the jump falls through to its target.
+    private static int jumpNext(List<Bytecode> bytecodes, int start) {
+        if (!matches(bytecodes, start, BytecodeType.OP_JUMP)) return 0;
+        var target = bytecodes.get(start).arg1;
+        for (var i = start + 1; matches(bytecodes, i, BytecodeType.OP_LABEL); i++) {
+            if (Objects.equals(bytecodes.get(i).arg1, target)) {
+                bytecodes.remove(start);
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    // A value without side effects which is popped right away is not pushed at all,
+    // e.g. `OP_CONSTANT c; OP_POP` for an expression statement.
+    private static int pushPop(List<Bytecode> bytecodes, int start) {
+        if (start >= bytecodes.size() || !matches(bytecodes, start + 1, BytecodeType.OP_POP)) return 0;
+        switch (bytecodes.get(start).type) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_GET_LOCAL:
+            case OP_THIS:
+            case OP_DUP:
+                removeRange(bytecodes, start, start + 2);
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    // The original value of `n++` as a statement is popped, see `BytecodeVisitor.visitPostExp`:
+    // `OP_GET_LOCAL n; OP_GET_LOCAL n; OP_INC; OP_SET_LOCAL n; OP_POP; OP_POP` -> `OP_GET_LOCAL n; OP_INC; OP_SET_LOCAL n; OP_POP`
+    private static int postfixPop(List<Bytecode> bytecodes, int start) {
+        if (!matches(bytecodes, start, BytecodeType.OP_GET_LOCAL)
+                || !matches(bytecodes, start + 1, BytecodeType.OP_GET_LOCAL)
+                || !(matches(bytecodes, start + 2, BytecodeType.OP_INC) || matches(bytecodes, start + 2, BytecodeType.OP_DEC))
+                || !matches(bytecodes, start + 3, BytecodeType.OP_SET_LOCAL)
+                || !matches(bytecodes, start + 4, BytecodeType.OP_POP)
+                || !matches(bytecodes, start + 5, BytecodeType.OP_POP)) return 0;
+        var local = bytecodes.get(start).arg1;
+        if (!Objects.equals(local, bytecodes.get(start + 1).arg1) || !Objects.equals(local, bytecodes.get(start + 3).arg1)) return 0;
+        bytecodes.remove(start + 5);
+        bytecodes.remove(start);
+        return 2;
+    }
+
+    // `OP_SET_LOCAL n; OP_SET_LOCAL n` -> `OP_SET_LOCAL n`, e.g. a value stored in the variable of a phi of the same slot.
+    private static int storeStore(List<Bytecode> bytecodes, int start) {
+        if (!matches(bytecodes, start, BytecodeType.OP_SET_LOCAL) || !matches(bytecodes, start + 1, BytecodeType.OP_SET_LOCAL)) return 0;
+        if (!Objects.equals(bytecodes.get(start).arg1, bytecodes.get(start + 1).arg1)) return 0;
+        bytecodes.remove(start + 1);
+        return 1;
+    }
+
+    // `OP_GET_LOCAL n; OP_SET_LOCAL n; OP_POP` -> nothing, a variable is copied to itself.
+    private static int selfCopy(List<Bytecode> bytecodes, int start) {
+        if (!matches(bytecodes, start, BytecodeType.OP_GET_LOCAL)
+                || !matches(bytecodes, start + 1, BytecodeType.OP_SET_LOCAL)
+                || !matches(bytecodes, start + 2, BytecodeType.OP_POP)) return 0;
+        if (!Objects.equals(bytecodes.get(start).arg1, bytecodes.get(start + 1).arg1)) return 0;
+        removeRange(bytecodes, start, start + 3);
+        return 3;
+    }
+}
@@ -1,5 +1,8 @@
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
 
 /**
@@ -7,16 +10,36 @@ import java.util.ArrayList;
  * The constant pool is used to store constant values, while the variable pool is used to store variables.
  * Each Method in MiniJava has its own pool of objects.
  * `constantIndex` and `variableIndex` are used when creating new objects.
+ * Constants are interned: a constant with the type and the value of an existing constant reuses its index.
  */
 public class Pools {
     public ArrayList<MiniJavaObject> constantPool;
     public ArrayList<MiniJavaObject> variablePool;
     Integer constantIndex = 0;
     Integer variableIndex = 0;
+    // The parameters of a method are the first variables of its variable pool
+    Integer parameterCount = 0;
+    // The constants of the constant pool, keyed by `[type, value]`
+    private final HashMap<List<Object>, MiniJavaObject> constants;
 
     public Pools() {
         constantPool = new ArrayList<>();
         variablePool = new ArrayList<>();
+        constants = new HashMap<>();
+    }
+
+    // Find the constant with `type` and `value`, null if there is none.
+    public MiniJavaObject findConstant(String type, Object value) {
+        return constants.get(constantKey(type, value));
+    }
+
+    public void addConstant(MiniJavaObject constant) {
+        constantPool.add(constant);
+        constants.put(constantKey(constant.type.toString(), constant.value), constant);
+    }
+
+    private static List<Object> constantKey(String type, Object value) {
+        return Arrays.asList(type, value);
     }
 
     public void displayPools(PrintWriter writer) {
@@ -0,0 +1,1147 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class is an interpreter for the bytecodes emitted by `BytecodeGenerator`,
+ * which never boxes `int`, `char` and `boolean` values.
+ * Every value lives in a tagged slot: a `long` in `prims` and an `Object` in `refs` at the same index.
+ * For primitive values, the `Object` is one of the tags `INT`, `CHAR` and `BOOLEAN` and the `long` holds the value,
+ * for references, the `Object` is the value itself: a `String`, an `Instance`, a `SlotArray`, or null,
+ * and the `StringBuilder` of a local string which is appended to in a loop, see `OP_NEW_BUILDER`.
+ * The variables and the operands of all frames share the same slots:
+ * a frame starts with its variables at `fp`, the arguments of a call become the first variables of the callee in place,
+ * and the operand stack of the frame grows above its variables.
+ * So arithmetic, comparisons, local variables, fields and array elements never allocate,
+ * and the arrays of `int`, `char` and `boolean` hold their elements unboxed, see `SlotArray`.
+ * With a `TieredCompiler`, the invocations and the loop back-edges of each method are counted,
+ * and a hot method is compiled to JVM bytecode, which replaces the interpretation of the method from then on.
+ */
+public class PrimitiveInterpreter {
+    // The tags of primitive values and `void`
+    private static final Object INT = new Tag("int");
+    private static final Object CHAR = new Tag("char");
+    private static final Object BOOLEAN = new Tag("boolean");
+    private static final Object VOID = new Tag("void");
+
+    private static final class Tag {
+        private final String name;
+
+        Tag(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    // An object is a flat pair of slots, the slot of each field is given by `FieldLayouts` at compile time.
+    private static final class Instance {
+        final PreparedClass preparedClass;
+        final long[] prims;
+        final Object[] refs;
+
+        Instance(PreparedClass preparedClass) {
+            this.preparedClass = preparedClass;
+            this.prims = new long[preparedClass.runtimeClass.fieldCount];
+            this.refs = new Object[preparedClass.runtimeClass.fieldCount];
+        }
+    }
+
+    // An array, whose elements are read and written as slots.
+    // The elements of `int[]`, `char[]` and `boolean[]` are stored unboxed in a Java array of the element type,
+    // the type is given by `OP_NEW_ARRAY`, by the default value of `OP_NEW_MULTI_ARRAY` or by the array constant.
+    // Elements are null (or 0) when created.
+    private abstract static class SlotArray {
+        abstract int length();
+
+        abstract long prim(int index);
+
+        abstract Object ref(int index);
+
+        abstract void set(int index, long prim, Object ref);
+
+        abstract SlotArray copy();
+    }
+
+    private static final class IntArray extends SlotArray {
+        final int[] elements;
+
+        IntArray(int[] elements) {
+            this.elements = elements;
+        }
+
+        int length() {
+            return elements.length;
+        }
+
+        long prim(int index) {
+            return elements[index];
+        }
+
+        Object ref(int index) {
+            return INT;
+        }
+
+        void set(int index, long prim, Object ref) {
+            elements[index] = (int) prim;
+        }
+
+        SlotArray copy() {
+            return new IntArray(elements.clone());
+        }
+    }
+
+    // A `char` is 8-bit, see `ConstantFolder.newChar`, so it fits in a `byte`.
+    private static final class CharArray extends SlotArray {
+        final byte[] elements;
+
+        CharArray(byte[] elements) {
+            this.elements = elements;
+        }
+
+        int length() {
+            return elements.length;
+        }
+
+        long prim(int index) {
+            return elements[index] & 0xFF;
+        }
+
+        Object ref(int index) {
+            return CHAR;
+        }
+
+        void set(int index, long prim, Object ref) {
+            elements[index] = (byte) prim;
+        }
+
+        SlotArray copy() {
+            return new CharArray(elements.clone());
+        }
+    }
+
+    private static final class BooleanArray extends SlotArray {
+        final boolean[] elements;
+
+        BooleanArray(boolean[] elements) {
+            this.elements = elements;
+        }
+
+        int length() {
+            return elements.length;
+        }
+
+        long prim(int index) {
+            return elements[index] ? 1 : 0;
+        }
+
+        Object ref(int index) {
+            return BOOLEAN;
+        }
+
+        void set(int index, long prim, Object ref) {
+            elements[index] = prim != 0;
+        }
+
+        SlotArray copy() {
+            return new BooleanArray(elements.clone());
+        }
+    }
+
+    // An array of references, e.g. `string[]`, `int[][]` or `MyClass[]`.
+    private static final class RefArray extends SlotArray {
+        final Object[] elements;
+
+        RefArray(Object[] elements) {
+            this.elements = elements;
+        }
+
+        int length() {
+            return elements.length;
+        }
+
+        long prim(int index) {
+            return 0;
+        }
+
+        Object ref(int index) {
+            return elements[index];
+        }
+
+        void set(int index, long prim, Object ref) {
+            elements[index] = ref;
+        }
+
+        SlotArray copy() {
+            return new RefArray(elements.clone());
+        }
+    }
+
+    // The view pushed by `OP_SUPER`, methods are looked up from the parent class.
+    private static final class SuperView {
+        final Instance self;
+        final PreparedClass preparedClass;
+
+        SuperView(Instance self, PreparedClass preparedClass) {
+            this.self = self;
+            this.preparedClass = preparedClass;
+        }
+    }
+
+    // The code of a method compiled by `TieredCompiler`, it runs the method from `entryPc` with the variables at `fp`.
+    interface CompiledMethod {
+        void run(PrimitiveInterpreter interpreter, Instance self, int fp, int entryPc);
+    }
+
+    // A method decoded for execution: the operands of `OP_CALL`, `OP_NEW_ARRAY`,
+    // `OP_CAST` and `OP_INSTANCE_OF` are resolved from the constant pool into `operands`,
+    // and the constants and the initial variables are split into slots.
+    // A method is decoded by `prepare(PreparedMethod)` when it is first executed, until then `types` is null.
+    static final class PreparedMethod {
+        final RuntimeMethod method;
+        BytecodeType[] types;
+        int[] arg1;
+        int[] arg2;
+        Object[] operands;
+        long[] constantPrims;
+        Object[] constantRefs;
+        long[] defaultPrims;
+        Object[] defaultRefs;
+        final int parameterCount;
+        int localCount;
+        int maxStack;
+        // The height of the operand stack before each instruction, -1 if it is unreachable
+        int[] stackDepths;
+        PreparedClass owner;
+        // The profile of the tiered compilation, class initializers are never compiled
+        int invocationCount = 0;
+        int backEdgeCount = 0;
+        boolean isCompilable;
+        CompiledMethod compiled = null;
+
+        PreparedMethod(RuntimeMethod method) {
+            this.method = method;
+            this.parameterCount = method.parameterCount;
+            this.isCompilable = !method.isInitializer;
+        }
+
+        private void decode() {
+            var code = method.code();
+            this.types = new BytecodeType[code.length];
+            this.arg1 = new int[code.length];
+            this.arg2 = new int[code.length];
+            this.operands = new Object[code.length];
+            for (var i = 0; i < code.length; i++) {
+                types[i] = code[i].type;
+                if (code[i].arg1 != null) arg1[i] = code[i].arg1;
+                if (code[i].arg2 != null) arg2[i] = code[i].arg2;
+            }
+            var constants = method.pools().constantPool;
+            this.constantPrims = new long[constants.size()];
+            this.constantRefs = new Object[constants.size()];
+            for (var i = 0; i < constants.size(); i++) {
+                toSlot(constants.get(i), constantPrims, constantRefs, i);
+            }
+            var defaultLocals = method.defaultLocals();
+            this.localCount = defaultLocals.length;
+            this.defaultPrims = new long[localCount];
+            this.defaultRefs = new Object[localCount];
+            for (var i = 0; i < localCount; i++) {
+                toSlot(defaultLocals[i], defaultPrims, defaultRefs, i);
+            }
+            this.stackDepths = new int[code.length];
+            this.maxStack = computeMaxStack(code, stackDepths);
+        }
+    }
+
+    static final class PreparedClass {
+        final RuntimeClass runtimeClass;
+        PreparedClass parent = null;
+        PreparedMethod initializer = null;
+        // The methods declared in this class, indexed by selector
+        final HashMap<String, PreparedMethod> methods = new HashMap<>();
+        // The methods called by `OP_INVOKE`, indexed by vtable slot
+        PreparedMethod[] vtable;
+
+        PreparedClass(RuntimeClass runtimeClass) {
+            this.runtimeClass = runtimeClass;
+        }
+    }
+
+    // The inline cache of an `OP_INVOKE` site remembers the receiver classes seen at the site with their targets.
+    // It is monomorphic with one class and polymorphic with up to `POLYMORPHIC_LIMIT` classes,
+    // one more class makes it megamorphic: the classes which are not cached then take the target from their vtable.
+    static final class InlineCache {
+        static final int POLYMORPHIC_LIMIT = 4;
+
+        // The method and the offset of the site, e.g. `global::main()@12`
+        final String site;
+        final int slot;
+        final PreparedClass[] receiverClasses = new PreparedClass[POLYMORPHIC_LIMIT];
+        final PreparedMethod[] targets = new PreparedMethod[POLYMORPHIC_LIMIT];
+        int size = 0;
+        boolean isMegamorphic = false;
+        long hits = 0;
+        long misses = 0;
+
+        InlineCache(String site, int slot) {
+            this.site = site;
+            this.slot = slot;
+        }
+
+        PreparedMethod lookup(PreparedClass receiverClass) {
+            for (var i = 0; i < size; i++) {
+                if (receiverClasses[i] == receiverClass) {
+                    hits++;
+                    return targets[i];
+                }
+            }
+            misses++;
+            var target = receiverClass.vtable[slot];
+            if (size < POLYMORPHIC_LIMIT) {
+                receiverClasses[size] = receiverClass;
+                targets[size++] = target;
+            } else {
+                isMegamorphic = true;
+            }
+            return target;
+        }
+
+        String state() {
+            if (isMegamorphic) return "megamorphic";
+            if (size > 1) return "polymorphic";
+            return size == 1 ? "monomorphic" : "uninitialized";
+        }
+    }
+
+    private final BytecodeLoader loader;
+    private final PrintStream out;
+    private final HashMap<String, PreparedMethod> methods;
+    private final HashMap<String, PreparedClass> classes;
+    // Null if the methods are only interpreted
+    private final TieredCompiler compiler;
+    private long[] prims;
+    private Object[] refs;
+    // The return value of the last executed method
+    private long resultPrim;
+    private Object resultRef;
+
+    public PrimitiveInterpreter(BytecodeLoader loader, PrintStream out) {
+        this(loader, out, null);
+    }
+
+    public PrimitiveInterpreter(BytecodeLoader loader, PrintStream out, TieredCompiler compiler) {
+        this.loader = loader;
+        this.out = out;
+        this.compiler = compiler;
+        this.methods = new HashMap<>();
+        this.classes = new HashMap<>();
+        this.prims = new long[1024];
+        this.refs = new Object[1024];
+        prepare();
+    }
+
+    // Link the methods and the classes, the methods are decoded when they are first executed.
+    private void prepare() {
+        for (var method : loader.methods.values()) {
+            methods.put(method.name, new PreparedMethod(method));
+        }
+        for (var runtimeClass : loader.classes.values()) {
+            var preparedClass = new PreparedClass(runtimeClass);
+            preparedClass.initializer = new PreparedMethod(runtimeClass.initializer);
+            preparedClass.initializer.owner = preparedClass;
+            for (var method : runtimeClass.methods.values()) {
+                var preparedMethod = methods.get(method.name);
+                preparedMethod.owner = preparedClass;
+                preparedClass.methods.put(method.selector, preparedMethod);
+            }
+            classes.put(runtimeClass.name, preparedClass);
+        }
+        for (var preparedClass : classes.values()) {
+            var runtimeClass = preparedClass.runtimeClass;
+            if (runtimeClass.parent != null) preparedClass.parent = classes.get(runtimeClass.parent.name);
+            preparedClass.vtable = new PreparedMethod[runtimeClass.vtable.length];
+            for (var slot = 0; slot < runtimeClass.vtable.length; slot++) {
+                preparedClass.vtable[slot] = methods.get(runtimeClass.vtable[slot].name);
+            }
+        }
+    }
+
+    // Decode `preparedMethod`, and resolve the operands in the constant pool: callees of `OP_CALL` (the name of built-in methods),
+    // and the names of types. Each `OP_INVOKE` site gets its own inline cache.
+    private void prepare(PreparedMethod preparedMethod) {
+        preparedMethod.decode();
+        var code = preparedMethod.method.code();
+        var constants = preparedMethod.method.pools().constantPool;
+        for (var i = 0; i < code.length; i++) {
+            switch (code[i].type) {
+                case OP_CALL: {
+                    var name = (String) constants.get(code[i].arg1).value;
+                    var target = methods.get(name);
+                    preparedMethod.operands[i] = target != null ? target : name.substring(name.indexOf("::") + 2, name.indexOf("("));
+                    break;
+                }
+                case OP_INVOKE:
+                    preparedMethod.operands[i] = new InlineCache(preparedMethod.method.name + "@" + i, code[i].arg1);
+                    break;
+                case OP_CAST:
+                case OP_INSTANCE_OF:
+                    preparedMethod.operands[i] = constants.get(code[i].arg1).value;
+                    break;
+                case OP_NEW_ARRAY:
+                    preparedMethod.operands[i] = elementTag((String) constants.get(code[i].arg1).value);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    // Compute the height of the operand stack before each instruction into `depths` by following the control flow,
+    // and return the maximal height.
+    private static int computeMaxStack(Bytecode[] code, int[] depths) {
+        Arrays.fill(depths, -1);
+        var worklist = new ArrayList<int[]>();
+        worklist.add(new int[] { 0, 0 });
+        var maxStack = 0;
+        while (!worklist.isEmpty()) {
+            var entry = worklist.remove(worklist.size() - 1);
+            var pc = entry[0];
+            var depth = entry[1];
+            while (pc < code.length && depths[pc] == -1) {
+                depths[pc] = depth;
+                var bytecode = code[pc];
+                depth += bytecode.stackEffect();
+                maxStack = Math.max(maxStack, depth);
+                if (BytecodeLoader.isJump(bytecode.type)) worklist.add(new int[] { bytecode.arg1, depth });
+                if (bytecode.type == BytecodeType.OP_JUMP || bytecode.type == BytecodeType.OP_RETURN) break;
+                pc++;
+            }
+        }
+        return maxStack;
+    }
+
+    // An array constant of `OP_NEW_ARRAY_FROM_POOL` becomes the array which is copied by the instruction.
+    private static void toSlot(MiniJavaObject object, long[] prims, Object[] refs, int index) {
+        if (object.value instanceof List<?> elements) {
+            var size = elements.size();
+            var elementPrims = new long[size];
+            var elementRefs = new Object[size];
+            var table = newArray(size, elementTag(object.type.toString().replace("[]", "")));
+            for (var i = 0; i < size; i++) {
+                toSlot(elements.get(i), elementPrims, elementRefs, i);
+                table.set(i, elementPrims[i], elementRefs[i]);
+            }
+            refs[index] = table;
+        } else {
+            toSlot(object.value, prims, refs, index);
+        }
+    }
+
+    private static void toSlot(Object value, long[] prims, Object[] refs, int index) {
+        if (value instanceof Integer i) {
+            prims[index] = i;
+            refs[index] = INT;
+        } else if (value instanceof Character c) {
+            prims[index] = c;
+            refs[index] = CHAR;
+        } else if (value instanceof Boolean b) {
+            prims[index] = b ? 1 : 0;
+            refs[index] = BOOLEAN;
+        } else {
+            refs[index] = value;
+        }
+    }
+
+    // Run `global::main()`, the return value of `main` is the exit code of the program.
+    public int run() {
+        var main = methods.get("global::main()");
+        if (main == null) throw new RuntimeException("[ERROR] Method global::main() not found.");
+        try {
+            execute(main, null, 0);
+            return resultRef == INT ? (int) resultPrim : 0;
+        } finally {
+            out.flush();
+        }
+    }
+
+    // Print the state and the hit rate of the inline cache of each `OP_INVOKE` site which was executed.
+    public void reportInlineCaches(PrintStream log) {
+        for (var method : loader.methods.values()) reportInlineCaches(log, methods.get(method.name));
+        for (var runtimeClass : loader.classes.values()) reportInlineCaches(log, classes.get(runtimeClass.name).initializer);
+    }
+
+    private static void reportInlineCaches(PrintStream log, PreparedMethod method) {
+        if (method.operands == null) return;
+        for (var operand : method.operands) {
+            if (!(operand instanceof InlineCache inlineCache)) continue;
+            var total = inlineCache.hits + inlineCache.misses;
+            if (total == 0) continue;
+            log.printf("[IC] %s slot %d %s: %d hits, %d misses (%.1f%% hits)%n", inlineCache.site, inlineCache.slot,
+                    inlineCache.state(), inlineCache.hits, inlineCache.misses, 100.0 * inlineCache.hits / total);
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= prims.length) return;
+        var capacity = prims.length;
+        while (capacity < size) capacity *= 2;
+        prims = Arrays.copyOf(prims, capacity);
+        refs = Arrays.copyOf(refs, capacity);
+    }
+
+    private static String toDisplayString(long prim, Object ref) {
+        if (ref == INT) return Integer.toString((int) prim);
+        if (ref == CHAR) return String.valueOf((char) prim);
+        if (ref == BOOLEAN) return prim != 0 ? "true" : "false";
+        if (ref == null) return "null";
+        if (ref instanceof String s) return s;
+        if (ref instanceof SuperView view) ref = view.self;
+        if (ref instanceof Instance instance) {
+            return instance.preparedClass.runtimeClass.name + "@" + Integer.toHexString(System.identityHashCode(instance));
+        }
+        return "array@" + Integer.toHexString(System.identityHashCode(ref));
+    }
+
+    private static boolean isEqual(long primA, Object refA, long primB, Object refB) {
+        if (refA instanceof Tag && refB instanceof Tag) return primA == primB;
+        if (refA instanceof String a) return a.equals(refB);
+        if (refA instanceof SuperView view) refA = view.self;
+        if (refB instanceof SuperView view) refB = view.self;
+        return refA == refB;
+    }
+
+    private static Instance instanceOf(Object ref) {
+        if (ref instanceof Instance instance) return instance;
+        if (ref instanceof SuperView view) return view.self;
+        throw new RuntimeException("[ERROR] Null pointer: access a field of null");
+    }
+
+    // The object is known not to be null, it may still be the view of `super`.
+    private static Instance uncheckedInstanceOf(Object ref) {
+        return ref instanceof SuperView view ? view.self : (Instance) ref;
+    }
+
+    private static SlotArray arrayOf(Object ref, long index) {
+        if (ref == null) throw new RuntimeException("[ERROR] Null pointer: access an element of null");
+        var array = (SlotArray) ref;
+        if (index < 0 || index >= array.length()) throw new RuntimeException("[ERROR] Array index out of bounds: " + index);
+        return array;
+    }
+
+    // Execute `method` with its variables starting at `fp`, the return value is stored in `resultPrim` and `resultRef`.
+    private void execute(PreparedMethod method, Instance self, int fp) {
+        if (method.types == null) prepare(method);
+        var localCount = method.localCount;
+        ensureCapacity(fp + localCount + method.maxStack + 1);
+        var p = prims;
+        var r = refs;
+        // The arguments are already in place, the other variables start with their default values
+        var argc = method.parameterCount;
+        System.arraycopy(method.defaultPrims, argc, p, fp + argc, localCount - argc);
+        System.arraycopy(method.defaultRefs, argc, r, fp + argc, localCount - argc);
+        if (compiler != null && (method.compiled != null || isHot(method))) {
+            method.compiled.run(this, self, fp, 0);
+            return;
+        }
+
+        var types = method.types;
+        var arg1 = method.arg1;
+        var arg2 = method.arg2;
+        var operands = method.operands;
+        var sp = fp + localCount;
+        var pc = 0;
+        while (pc < types.length) {
+            var i = pc++;
+            switch (types[i]) {
+                case OP_CONSTANT:
+                    p[sp] = method.constantPrims[arg1[i]];
+                    r[sp] = method.constantRefs[arg1[i]];
+                    sp++;
+                    break;
+                case OP_NIL:
+                    r[sp++] = null;
+                    break;
+                case OP_TRUE:
+                    p[sp] = 1;
+                    r[sp++] = BOOLEAN;
+                    break;
+                case OP_FALSE:
+                    p[sp] = 0;
+                    r[sp++] = BOOLEAN;
+                    break;
+                case OP_POP:
+                    sp--;
+                    break;
+                case OP_DUP:
+                    p[sp] = p[sp - 1];
+                    r[sp] = r[sp - 1];
+                    sp++;
+                    break;
+                case OP_GET_LOCAL:
+                    p[sp] = p[fp + arg1[i]];
+                    r[sp] = r[fp + arg1[i]];
+                    sp++;
+                    break;
+                case OP_SET_LOCAL:
+                    p[fp + arg1[i]] = p[sp - 1];
+                    r[fp + arg1[i]] = r[sp - 1];
+                    break;
+                case OP_INC:
+                    p[sp - 1] = r[sp - 1] == CHAR ? (p[sp - 1] + 1) & 0xFF : (int) p[sp - 1] + 1;
+                    break;
+                case OP_DEC:
+                    p[sp - 1] = r[sp - 1] == CHAR ? (p[sp - 1] - 1) & 0xFF : (int) p[sp - 1] - 1;
+                    break;
+                case OP_ADD: {
+                    sp--;
+                    var a = r[sp - 1];
+                    var b = r[sp];
+                    if (a instanceof Tag && b instanceof Tag) {
+                        if (a == CHAR && b == CHAR) {
+                            p[sp - 1] = (p[sp - 1] + p[sp]) & 0xFF;
+                        } else {
+                            p[sp - 1] = (int) p[sp - 1] + (int) p[sp];
+                            r[sp - 1] = INT;
+                        }
+                    } else {
+                        r[sp - 1] = toDisplayString(p[sp - 1], a) + toDisplayString(p[sp], b);
+                    }
+                    break;
+                }
+                case OP_SUB:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] - (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_MUL:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] * (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_DIV:
+                    sp--;
+                    if (p[sp] == 0) throw new RuntimeException("[ERROR] Division by zero");
+                    p[sp - 1] = (int) p[sp - 1] / (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_MOD:
+                    sp--;
+                    if (p[sp] == 0) throw new RuntimeException("[ERROR] Division by zero");
+                    p[sp - 1] = (int) p[sp - 1] % (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_LSHIFT:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] << (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_RSHIFT:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] >> (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_URSHIFT:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] >>> (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_BIT_AND:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] & (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_BIT_OR:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] | (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_BIT_XOR:
+                    sp--;
+                    p[sp - 1] = (int) p[sp - 1] ^ (int) p[sp];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_BIT_NOT:
+                    p[sp - 1] = ~(int) p[sp - 1];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_NEG:
+                    p[sp - 1] = -(int) p[sp - 1];
+                    r[sp - 1] = INT;
+                    break;
+                case OP_EQ:
+                    sp--;
+                    p[sp - 1] = isEqual(p[sp - 1], r[sp - 1], p[sp], r[sp]) ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_NEQ:
+                    sp--;
+                    p[sp - 1] = isEqual(p[sp - 1], r[sp - 1], p[sp], r[sp]) ? 0 : 1;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_GE:
+                    sp--;
+                    p[sp - 1] = p[sp - 1] >= p[sp] ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_LE:
+                    sp--;
+                    p[sp - 1] = p[sp - 1] <= p[sp] ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_GT:
+                    sp--;
+                    p[sp - 1] = p[sp - 1] > p[sp] ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_LT:
+                    sp--;
+                    p[sp - 1] = p[sp - 1] < p[sp] ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                // Loops are closed by a backward jump, a hot loop continues in the compiled method
+                case OP_JUMP:
+                    pc = arg1[i];
+                    if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    break;
+                case OP_JUMP_IF_TRUE:
+                    if (p[--sp] != 0) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_JUMP_IF_FALSE:
+                    if (p[--sp] == 0) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_EQ:
+                    sp -= 2;
+                    if (isEqual(p[sp], r[sp], p[sp + 1], r[sp + 1])) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_NE:
+                    sp -= 2;
+                    if (!isEqual(p[sp], r[sp], p[sp + 1], r[sp + 1])) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_LT:
+                    sp -= 2;
+                    if (p[sp] < p[sp + 1]) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_LE:
+                    sp -= 2;
+                    if (p[sp] <= p[sp + 1]) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_GT:
+                    sp -= 2;
+                    if (p[sp] > p[sp + 1]) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_GE:
+                    sp -= 2;
+                    if (p[sp] >= p[sp + 1]) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_EQ_NULL:
+                    if (r[--sp] == null) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_IF_NE_NULL:
+                    if (r[--sp] != null) {
+                        pc = arg1[i];
+                        if (pc <= i && runCompiledLoop(method, self, fp, pc)) return;
+                    }
+                    break;
+                case OP_THIS:
+                    r[sp++] = self;
+                    break;
+                case OP_SUPER:
+                    r[sp++] = new SuperView(self, method.owner.parent);
+                    break;
+                case OP_GET_FIELD: {
+                    var instance = instanceOf(r[sp - 1]);
+                    p[sp - 1] = instance.prims[arg1[i]];
+                    r[sp - 1] = instance.refs[arg1[i]];
+                    break;
+                }
+                case OP_SET_FIELD: {
+                    sp--;
+                    var instance = instanceOf(r[sp - 1]);
+                    instance.prims[arg1[i]] = p[sp - 1] = p[sp];
+                    instance.refs[arg1[i]] = r[sp - 1] = r[sp];
+                    break;
+                }
+                case OP_GET_FIELD_UNCHECKED: {
+                    var instance = uncheckedInstanceOf(r[sp - 1]);
+                    p[sp - 1] = instance.prims[arg1[i]];
+                    r[sp - 1] = instance.refs[arg1[i]];
+                    break;
+                }
+                case OP_SET_FIELD_UNCHECKED: {
+                    sp--;
+                    var instance = uncheckedInstanceOf(r[sp - 1]);
+                    instance.prims[arg1[i]] = p[sp - 1] = p[sp];
+                    instance.refs[arg1[i]] = r[sp - 1] = r[sp];
+                    break;
+                }
+                case OP_NEW_ARRAY:
+                    r[sp - 1] = newArray((int) p[sp - 1], operands[i]);
+                    break;
+                case OP_NEW_ARRAY_FROM_POOL:
+                    r[sp++] = ((SlotArray) method.constantRefs[arg1[i]]).copy();
+                    break;
+                case OP_NEW_MULTI_ARRAY:
+                    sp -= arg1[i];
+                    r[sp - 1] = newMultiArray(p, r, sp - 1, arg1[i]);
+                    break;
+                case OP_CONCAT:
+                    sp -= arg1[i] - 1;
+                    r[sp - 1] = concat(p, r, sp - 1, arg1[i]);
+                    break;
+                case OP_NEW_BUILDER:
+                    r[sp - 1] = newBuilder(p[sp - 1], r[sp - 1]);
+                    break;
+                case OP_APPEND:
+                    sp -= arg1[i];
+                    append((StringBuilder) r[sp - 1], p, r, sp, arg1[i]);
+                    break;
+                case OP_BUILD_STRING:
+                    r[sp - 1] = r[sp - 1].toString();
+                    break;
+                case OP_GET_INDEX: {
+                    sp--;
+                    var index = (int) p[sp];
+                    var array = arrayOf(r[sp - 1], index);
+                    p[sp - 1] = array.prim(index);
+                    r[sp - 1] = array.ref(index);
+                    break;
+                }
+                case OP_SET_INDEX: {
+                    sp -= 2;
+                    var index = (int) p[sp];
+                    var array = arrayOf(r[sp - 1], index);
+                    array.set(index, p[sp - 1] = p[sp + 1], r[sp - 1] = r[sp + 1]);
+                    break;
+                }
+                case OP_GET_INDEX_UNCHECKED: {
+                    sp--;
+                    var index = (int) p[sp];
+                    var array = (SlotArray) r[sp - 1];
+                    p[sp - 1] = array.prim(index);
+                    r[sp - 1] = array.ref(index);
+                    break;
+                }
+                case OP_SET_INDEX_UNCHECKED: {
+                    sp -= 2;
+                    var index = (int) p[sp];
+                    var array = (SlotArray) r[sp - 1];
+                    array.set(index, p[sp - 1] = p[sp + 1], r[sp - 1] = r[sp + 1]);
+                    break;
+                }
+                case OP_CAST:
+                    cast(p, r, sp - 1, (String) operands[i]);
+                    break;
+                case OP_INSTANCE_OF:
+                    p[sp - 1] = isInstanceOf(r[sp - 1], (String) operands[i]) ? 1 : 0;
+                    r[sp - 1] = BOOLEAN;
+                    break;
+                case OP_CALL: {
+                    var count = arg2[i];
+                    if (operands[i] instanceof PreparedMethod callee) {
+                        if (callee.method.isConstructor) construct(callee, sp - count);
+                        else if (callee.method.isInstanceMethod) invoke(callee, sp - count);
+                        else execute(callee, null, sp - count);
+                    } else {
+                        callBuiltin((String) operands[i], sp - count, count);
+                    }
+                    p = prims;
+                    r = refs;
+                    sp -= count;
+                    p[sp] = resultPrim;
+                    r[sp++] = resultRef;
+                    break;
+                }
+                case OP_INVOKE: {
+                    var receiverSlot = sp - arg2[i] - 1;
+                    invoke((InlineCache) operands[i], receiverSlot);
+                    p = prims;
+                    r = refs;
+                    sp = receiverSlot;
+                    p[sp] = resultPrim;
+                    r[sp++] = resultRef;
+                    break;
+                }
+                case OP_RETURN:
+                    if (sp > fp + localCount) {
+                        resultPrim = p[sp - 1];
+                        resultRef = r[sp - 1];
+                    } else {
+                        resultRef = VOID;
+                    }
+                    return;
+                default:
+                    throw new RuntimeException("[ERROR] Unexpected bytecode: " + types[i]);
+            }
+        }
+        resultRef = VOID;
+    }
+
+    // The invocation count is checked when a method is called, the method is compiled when it reaches the threshold.
+    private boolean isHot(PreparedMethod method) {
+        if (!method.isCompilable || ++method.invocationCount < compiler.invocationThreshold) return false;
+        return compile(method);
+    }
+
+    // The back-edge count is checked when a loop jumps back to `target`,
+    // the interpretation can continue in the compiled method if the operand stack is empty at `target`.
+    private boolean isHotLoop(PreparedMethod method, int target) {
+        if (method.compiled == null) {
+            if (!method.isCompilable || ++method.backEdgeCount < compiler.backEdgeThreshold) return false;
+            if (!compile(method)) return false;
+        }
+        return method.stackDepths[target] == 0;
+    }
+
+    // Continue the interpretation of `method` at the loop head `target` in the compiled method if the loop is hot,
+    // returns false if the interpretation goes on.
+    private boolean runCompiledLoop(PreparedMethod method, Instance self, int fp, int target) {
+        if (compiler == null || !isHotLoop(method, target)) return false;
+        method.compiled.run(this, self, fp, target);
+        return true;
+    }
+
+    // A method which cannot be compiled is interpreted from then on.
+    private boolean compile(PreparedMethod method) {
+        method.compiled = compiler.compile(method);
+        if (method.compiled == null) method.isCompilable = false;
+        return method.compiled != null;
+    }
+
+    // Invoke the method of the site of `inlineCache` on the receiver at `receiverSlot`, the arguments follow the receiver.
+    private void invoke(InlineCache inlineCache, int receiverSlot) {
+        var receiver = refs[receiverSlot];
+        Instance instance;
+        PreparedClass preparedClass;
+        if (receiver instanceof Instance object) {
+            instance = object;
+            preparedClass = object.preparedClass;
+        } else if (receiver instanceof SuperView view) {
+            instance = view.self;
+            preparedClass = view.preparedClass;
+        } else {
+            throw new RuntimeException("[ERROR] Null pointer: invoke a method on null");
+        }
+        execute(inlineCache.lookup(preparedClass), instance, receiverSlot + 1);
+    }
+
+    // Invoke `callee` on the receiver at `receiverSlot` without dispatch, the call site was devirtualized by `ClassHierarchy`.
+    private void invoke(PreparedMethod callee, int receiverSlot) {
+        var receiver = refs[receiverSlot];
+        Instance instance;
+        if (receiver instanceof Instance object) instance = object;
+        else if (receiver instanceof SuperView view) instance = view.self;
+        else throw new RuntimeException("[ERROR] Null pointer: invoke a method on null");
+        execute(callee, instance, receiverSlot + 1);
+    }
+
+    // The element type of an array of `OP_NEW_ARRAY`: the tag of a primitive type, or null for references.
+    private static Object elementTag(String type) {
+        switch (type) {
+            case "int":
+                return INT;
+            case "char":
+                return CHAR;
+            case "boolean":
+                return BOOLEAN;
+            default:
+                return null;
+        }
+    }
+
+    // A new array of `size` elements, the elements are unboxed if `tag` is the tag of their primitive type.
+    private static SlotArray newArray(int size, Object tag) {
+        if (size < 0) throw new RuntimeException("[ERROR] Negative array size: " + size);
+        if (tag == INT) return new IntArray(new int[size]);
+        if (tag == CHAR) return new CharArray(new byte[size]);
+        if (tag == BOOLEAN) return new BooleanArray(new boolean[size]);
+        return new RefArray(new Object[size]);
+    }
+
+    // The sizes of `OP_NEW_MULTI_ARRAY` are the `count` slots from `base`, the default value is the slot after them.
+    private static SlotArray newMultiArray(long[] p, Object[] r, int base, int count) {
+        var sizes = new int[count];
+        for (var i = 0; i < count; i++) {
+            sizes[i] = (int) p[base + i];
+            if (sizes[i] < 0) throw new RuntimeException("[ERROR] Negative array size: " + sizes[i]);
+        }
+        return newMultiArray(sizes, 0, r[base + count]);
+    }
+
+    // The default values of the primitive types are 0, so only the arrays of references are filled with `fill`.
+    private static SlotArray newMultiArray(int[] sizes, int dimension, Object fill) {
+        if (dimension + 1 == sizes.length) {
+            var array = newArray(sizes[dimension], fill instanceof Tag ? fill : null);
+            if (array instanceof RefArray refArray) Arrays.fill(refArray.elements, fill);
+            return array;
+        }
+        var array = new RefArray(new Object[sizes[dimension]]);
+        for (var i = 0; i < array.elements.length; i++) {
+            array.elements[i] = newMultiArray(sizes, dimension + 1, fill);
+        }
+        return array;
+    }
+
+    // The display strings of the `count` slots from `base` joined, the result is sized once.
+    private static String concat(long[] p, Object[] r, int base, int count) {
+        var parts = new String[count];
+        var length = 0;
+        for (var i = 0; i < count; i++) {
+            parts[i] = toDisplayString(p[base + i], r[base + i]);
+            length += parts[i].length();
+        }
+        var builder = new StringBuilder(length);
+        for (var part : parts) builder.append(part);
+        return builder.toString();
+    }
+
+    private static StringBuilder newBuilder(long prim, Object ref) {
+        return new StringBuilder(toDisplayString(prim, ref));
+    }
+
+    // Append the display strings of the `count` slots from `base` to `builder`, the primitive values are appended directly.
+    private static void append(StringBuilder builder, long[] p, Object[] r, int base, int count) {
+        for (var i = base; i < base + count; i++) {
+            if (r[i] == INT) builder.append((int) p[i]);
+            else if (r[i] == CHAR) builder.append((char) p[i]);
+            else if (r[i] == BOOLEAN) builder.append(p[i] != 0);
+            else builder.append(toDisplayString(p[i], r[i]));
+        }
+    }
+
+    // Create an object for the constructor whose arguments start at `fp`, the object is the result.
+    private void construct(PreparedMethod constructor, int fp) {
+        var preparedClass = constructor.owner;
+        var instance = new Instance(preparedClass);
+        // The class initializers and the parent constructor run above the arguments
+        var top = fp + constructor.parameterCount;
+        initialize(preparedClass, instance, top);
+        construct(preparedClass, constructor, instance, fp, top);
+        resultRef = instance;
+    }
+
+    // Run the class initializers from the root class down, and store the initialized fields in the object.
+    private void initialize(PreparedClass preparedClass, Instance instance, int fp) {
+        if (preparedClass.parent != null) initialize(preparedClass.parent, instance, fp);
+        var initializer = preparedClass.initializer;
+        execute(initializer, instance, fp);
+        var runtimeClass = preparedClass.runtimeClass;
+        for (var i = 0; i < runtimeClass.fieldIndices.size(); i++) {
+            var slot = runtimeClass.fieldSlots.get(i);
+            var index = runtimeClass.fieldIndices.get(i);
+            instance.prims[slot] = prims[fp + index];
+            instance.refs[slot] = refs[fp + index];
+        }
+    }
+
+    // A constructor implicitly starts with the no-argument constructor of the parent class.
+    private void construct(PreparedClass preparedClass, PreparedMethod constructor, Instance instance, int fp, int top) {
+        for (var parent = preparedClass.parent; parent != null; parent = parent.parent) {
+            var defaultConstructor = parent.methods.get(parent.runtimeClass.name + "()");
+            if (defaultConstructor != null) {
+                construct(parent, defaultConstructor, instance, top, top);
+                break;
+            }
+        }
+        execute(constructor, instance, fp);
+    }
+
+    private boolean isInstanceOf(Object ref, String className) {
+        if (ref instanceof SuperView view) ref = view.self;
+        if (!(ref instanceof Instance instance)) return false;
+        return instance.preparedClass.runtimeClass.isSubclassOf(className);
+    }
+
+    private void cast(long[] p, Object[] r, int slot, String type) {
+        switch (type) {
+            case "int":
+                r[slot] = INT;
+                break;
+            case "char":
+                p[slot] = p[slot] & 0xFF;
+                r[slot] = CHAR;
+                break;
+            case "string":
+                r[slot] = toDisplayString(p[slot], r[slot]);
+                break;
+            case "boolean":
+                break;
+            default:
+                // Arrays are not checked, objects must be instances of the class
+                if (r[slot] == null || type.endsWith("[]")) break;
+                if (!isInstanceOf(r[slot], type)) {
+                    throw new RuntimeException("[ERROR] " + uncheckedInstanceOf(r[slot]).preparedClass.runtimeClass.name + " cannot be cast to " + type);
+                }
+                break;
+        }
+    }
+
+    // Call a built-in method whose arguments start at `fp`.
+    private void callBuiltin(String methodName, int fp, int argc) {
+        var p = prims;
+        var r = refs;
+        resultRef = VOID;
+        switch (methodName) {
+            case "print":
+                out.print(toDisplayString(p[fp], r[fp]));
+                break;
+            case "println":
+                if (argc == 0) out.println();
+                else out.println(toDisplayString(p[fp], r[fp]));
+                break;
+            case "length":
+                if (r[fp] == null) throw new RuntimeException("[ERROR] Null pointer: access an element of null");
+                resultPrim = ((SlotArray) r[fp]).length();
+                resultRef = INT;
+                break;
+            case "atoi":
+                try {
+                    resultPrim = Integer.parseInt(((String) r[fp]).trim());
+                    resultRef = INT;
+                } catch (NumberFormatException e) {
+                    throw new RuntimeException("[ERROR] atoi: " + r[fp] + " is not a number");
+                }
+                break;
+            case "itoa":
+                resultRef = Integer.toString((int) p[fp]);
+                break;
+            case "assert":
+                if (p[fp] == 0) throw new RuntimeException("[ERROR] Assertion failed");
+                break;
+            default:
+                throw new RuntimeException("[ERROR] Method " + methodName + " not found.");
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents a class which is ready to be instantiated.
+ * It is created by `BytecodeLoader` and linked with its parent class, its methods and its fields.
+ * Creating an object runs the class initializers from the root class down to the class itself,
+ * then the selected constructor, which implicitly starts with the no-argument constructor of the parent class if there is one.
+ */
+public class RuntimeClass {
+    public final String name;
+    public RuntimeClass parent = null;
+    // The class initializer evaluates the field initializers, its variable pool holds the fields.
+    public RuntimeMethod initializer = null;
+    // The fields declared in this class, as indices into the variable pool of the initializer.
+    public final ArrayList<Integer> fieldIndices;
+    // The slot in an object of each field in `fieldIndices`, objects are flat arrays of `fieldCount` slots.
+    public final ArrayList<Integer> fieldSlots;
+    public int fieldCount = 0;
+    // The methods (including constructors) declared in this class, indexed by selector.
+    public final Map<String, RuntimeMethod> methods;
+    // The virtual method table, `OP_INVOKE` calls the method in a slot of the table of the receiver's class.
+    public RuntimeMethod[] vtable = new RuntimeMethod[0];
+
+    public RuntimeClass(String name) {
+        this.name = name;
+        this.fieldIndices = new ArrayList<>();
+        this.fieldSlots = new ArrayList<>();
+        this.methods = new HashMap<>();
+    }
+
+    public boolean isSubclassOf(String className) {
+        for (var runtimeClass = this; runtimeClass != null; runtimeClass = runtimeClass.parent) {
+            if (runtimeClass.name.equals(className)) return true;
+        }
+        return false;
+    }
+
+    public RuntimeMethod defaultConstructor() {
+        return methods.get(name + "()");
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.function.Supplier;
+
+/**
+ * This class represents a method which is ready to be executed.
+ * It is created by `BytecodeLoader` from a `OP_METHOD` (or `OP_CLASS`) section of the bytecodes.
+ * The operand of every jump instruction is the offset of its target in `code`, see `BytecodeGenerator.resolveJumps`.
+ * A class initializer, which evaluates the field initializers of a class, is also represented as a method,
+ * its name is the class name and its variable pool holds the fields of the class.
+ * A method loaded from a `.mjc` file is decoded from the file the first time its code or its pools are used, see `BytecodeFile`.
+ */
+public class RuntimeMethod {
+    // The mangled name of the method, e.g. `Parent::foo(int)`, or the class name for a class initializer.
+    public final String name;
+    public final String className;
+    // The selector is the mangled name without the class name, e.g. `foo(int)`.
+    public final String selector;
+    public final int parameterCount;
+    public final boolean isConstructor;
+    public final boolean isInitializer;
+    // An instance method called by `OP_CALL` takes the receiver as its first argument, see `ClassHierarchy`.
+    public final boolean isInstanceMethod;
+    private Pools pools;
+    private Bytecode[] code;
+    // The initial value of each variable in the variable pool, indexed by variable index.
+    private MiniJavaObject[] defaultLocals;
+    // Decode the pools and the code of a method which is not decoded yet, null once they are decoded
+    private Supplier<Pools> poolsDecoder;
+    private Supplier<Bytecode[]> codeDecoder;
+
+    public RuntimeMethod(String name, String className, Pools pools, Bytecode[] code, int parameterCount) {
+        this(name, className, parameterCount, null, null);
+        this.pools = pools;
+        this.code = code;
+    }
+
+    // A method whose pools and code are decoded on first use.
+    public RuntimeMethod(String name, String className, int parameterCount, Supplier<Pools> poolsDecoder, Supplier<Bytecode[]> codeDecoder) {
+        this.name = name;
+        this.className = className;
+        this.selector = name.contains("::") ? name.substring(name.indexOf("::") + 2) : null;
+        this.parameterCount = parameterCount;
+        this.isInitializer = selector == null;
+        this.isConstructor = !isInitializer && selector.startsWith(className + "(");
+        this.isInstanceMethod = !isInitializer && !isConstructor && !className.equals("global");
+        this.poolsDecoder = poolsDecoder;
+        this.codeDecoder = codeDecoder;
+    }
+
+    public Pools pools() {
+        if (pools == null) {
+            pools = poolsDecoder.get();
+            poolsDecoder = null;
+        }
+        return pools;
+    }
+
+    public Bytecode[] code() {
+        if (code == null) {
+            code = codeDecoder.get();
+            codeDecoder = null;
+        }
+        return code;
+    }
+
+    public MiniJavaObject[] defaultLocals() {
+        if (defaultLocals == null) {
+            var variablePool = pools().variablePool;
+            defaultLocals = new MiniJavaObject[variablePool.size()];
+            for (var i = 0; i < defaultLocals.length; i++) {
+                defaultLocals[i] = defaultValue(variablePool.get(i).type);
+            }
+        }
+        return defaultLocals;
+    }
+
+    // Whether the code of the method has been decoded, see `BytecodeFile.report`.
+    public boolean isDecoded() {
+        return code != null;
+    }
+
+    // The default value of a variable without initializer.
+    public static MiniJavaObject defaultValue(MiniJavaType type) {
+        if (type.isArray()) return new MiniJavaObject("null", null);
+        if (type.isInt()) return new MiniJavaObject("int", 0);
+        if (type.isChar()) return new MiniJavaObject("char", '\0');
+        if (type.isBoolean()) return new MiniJavaObject("boolean", false);
+        if (type.isString()) return new MiniJavaObject("string", "");
+        return new MiniJavaObject("null", null);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
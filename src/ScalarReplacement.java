@@ -0,0 +1,354 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This pass of `SsaOptimizer` replaces the objects which never leave the method that creates them with their fields:
+ * the allocation `new C(...)`, i.e. the `OP_CALL` of a constructor, is removed,
+ * and each `OP_GET_FIELD` of the object gets the value last stored in the field, with phis where the stores merge.
+ * An object does not escape if it is only used as the object of `OP_GET_FIELD` and `OP_SET_FIELD`,
+ * after the null checks of the object, e.g. the guards of the inlined methods, are resolved since it is never null.
+ *
+ * Creating the object must have no effect besides its fields, so the constructor is copied in its place:
+ * the class initializers of the class and its parents must only store constants into the fields,
+ * no parent class may have a no-argument constructor, which runs implicitly,
+ * and the constructor must be a single block of arithmetic which never raises an error and accesses of the fields of `this`.
+ */
+public class ScalarReplacement implements SsaOptimizer.Pass {
+    private final Environment environment;
+    private final Map<String, String> parentClassMap;
+    // The code of the class initializers and of the constructors
+    private final HashMap<String, List<Bytecode>> sections = new HashMap<>();
+    // The initial value of each field slot of an object of each class, null if the class initializers are not constants
+    private final HashMap<String, HashMap<Integer, MiniJavaObject>> initialFields = new HashMap<>();
+    private ControlFlowGraph graph;
+    public int allocationCount = 0;
+    public int replacedAllocations = 0;
+
+    public ScalarReplacement(Environment environment, List<Bytecode> bytecodes, Map<String, String> parentClassMap) {
+        this.environment = environment;
+        this.parentClassMap = parentClassMap;
+        for (var section : BytecodeLoader.sections(bytecodes)) {
+            var name = section.header().name;
+            if (!section.isMethod() || VirtualTables.isConstructor(name)) sections.put(name, new ArrayList<>(section.code()));
+        }
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[ESCAPE] replaced %d of %d allocations with their fields%n", replacedAllocations, allocationCount);
+    }
+
+    @Override
+    public void run(ControlFlowGraph graph) {
+        this.graph = graph;
+        var constants = environment.pools.get(graph.name).constantPool;
+        for (var block : new ArrayList<>(graph.blocks)) {
+            for (var value : new ArrayList<>(block.values)) {
+                // Resolving the null checks may remove blocks
+                if (!graph.blocks.contains(block) || value.block != block || value.type() != BytecodeType.OP_CALL) continue;
+                var callee = (String) constants.get(value.bytecode.arg1).value;
+                if (!environment.pools.containsKey(callee) || !VirtualTables.isConstructor(callee)) continue;
+                allocationCount++;
+                if (replace(value, callee)) replacedAllocations++;
+            }
+        }
+    }
+
+    private boolean replace(SsaValue allocation, String constructor) {
+        var className = constructor.substring(0, constructor.indexOf("::"));
+        var fields = initialFieldsOf(className);
+        if (fields == null) return false;
+        var body = constructorBody(constructor, allocation.bytecode.arg2);
+        if (body == null) return false;
+
+        resolveNullChecks(allocation);
+        var users = graph.users().getOrDefault(allocation, List.of());
+        for (var user : users) {
+            var isField = user.type() == BytecodeType.OP_GET_FIELD
+                    || user.type() == BytecodeType.OP_SET_FIELD && user.operands.get(1) != allocation;
+            if (user.kind != SsaValue.Kind.BYTECODE || !isField) return false;
+        }
+
+        inlineConstructor(allocation, body);
+        var slots = new ArrayList<Integer>();
+        for (var user : graph.users().getOrDefault(allocation, List.of())) {
+            if (!slots.contains(user.bytecode.arg1)) slots.add(user.bytecode.arg1);
+        }
+        for (var slot : slots) new FieldRenaming(allocation, slot, fields.get(slot)).rename();
+        allocation.block.values.remove(allocation);
+        allocation.block = null;
+        graph.removeTrivialPhis();
+        return true;
+    }
+
+    // The object is never null, so `OP_IF_EQ_NULL` of the object is never taken and `OP_IF_NE_NULL` always is.
+    private void resolveNullChecks(SsaValue allocation) {
+        var changed = false;
+        for (var block : graph.blocks) {
+            var terminator = block.terminator;
+            if (terminator == null || terminator.operands.size() != 1 || terminator.operands.get(0) != allocation) continue;
+            if (terminator.type() == BytecodeType.OP_IF_EQ_NULL) {
+                graph.removeEdge(block, block.target);
+                block.terminator = null;
+                changed = true;
+            } else if (terminator.type() == BytecodeType.OP_IF_NE_NULL) {
+                graph.removeEdge(block, block.next);
+                block.terminator = graph.newValue(SsaValue.Kind.BYTECODE, new Bytecode(BytecodeType.OP_JUMP), block);
+                changed = true;
+            }
+        }
+        if (changed) graph.removeDeadBlocks();
+    }
+
+    // The values of the constructor in order, null if creating the object may have another effect than its fields.
+    private List<SsaValue> constructorBody(String constructor, int argumentCount) {
+        var code = sections.get(constructor);
+        if (code == null) return null;
+        var pools = environment.pools.get(constructor);
+        var body = ControlFlowGraph.build(constructor, code, pools.variablePool.size());
+        var values = new ArrayList<SsaValue>();
+        for (var block : body.reversePostorder()) {
+            if (!block.phis.isEmpty()) return null;
+            var terminator = block.terminator;
+            if (terminator != null && (terminator.type() != BytecodeType.OP_RETURN || !terminator.operands.isEmpty())) return null;
+            for (var value : block.values) {
+                if (!isConstructorValue(value, argumentCount)) return null;
+                values.add(value);
+            }
+        }
+        return values;
+    }
+
+    private static boolean isConstructorValue(SsaValue value, int argumentCount) {
+        // The locals which are not parameters start with their default values
+        if (value.kind == SsaValue.Kind.ENTRY) return value.bytecode.arg1 < argumentCount;
+        switch (value.type()) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_THIS:
+            case OP_INC:
+            case OP_DEC:
+            case OP_ADD:
+            case OP_SUB:
+            case OP_MUL:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_BIT_NOT:
+            case OP_NEG:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_GE:
+            case OP_LE:
+            case OP_GT:
+            case OP_LT:
+            case OP_CONCAT:
+                return true;
+            case OP_GET_FIELD:
+                return value.operands.get(0).type() == BytecodeType.OP_THIS;
+            case OP_SET_FIELD:
+                return value.operands.get(0).type() == BytecodeType.OP_THIS && value.operands.get(1).type() != BytecodeType.OP_THIS;
+            default:
+                return false;
+        }
+    }
+
+    // Copy the values of the constructor after the allocation, with its arguments for the parameters and the object for `this`.
+    private void inlineConstructor(SsaValue allocation, List<SsaValue> body) {
+        var constructor = (String) environment.pools.get(graph.name).constantPool.get(allocation.bytecode.arg1).value;
+        var constants = environment.pools.get(constructor).constantPool;
+        var copies = new HashMap<SsaValue, SsaValue>();
+        var block = allocation.block;
+        var position = block.values.indexOf(allocation) + 1;
+        for (var value : body) {
+            if (value.kind == SsaValue.Kind.ENTRY) {
+                copies.put(value, allocation.operands.get(value.bytecode.arg1));
+                continue;
+            }
+            if (value.type() == BytecodeType.OP_THIS) {
+                copies.put(value, allocation);
+                continue;
+            }
+            var bytecode = new Bytecode(value.bytecode.type, value.bytecode.arg1, value.bytecode.arg2);
+            if (bytecode.type == BytecodeType.OP_CONSTANT) {
+                var constant = constants.get(bytecode.arg1);
+                bytecode.arg1 = environment.newConstant(graph.name, constant.type.toString(), constant.value).index;
+            }
+            var copy = graph.newValue(SsaValue.Kind.BYTECODE, bytecode, block);
+            for (var operand : value.operands) copy.operands.add(copies.get(operand));
+            block.values.add(position++, copy);
+            copies.put(value, copy);
+        }
+        allocation.operands.clear();
+    }
+
+    // The initial value of the fields of a new object of `className`, from the class initializers of the class and its parents.
+    private HashMap<Integer, MiniJavaObject> initialFieldsOf(String className) {
+        if (initialFields.containsKey(className)) return initialFields.get(className);
+        HashMap<Integer, MiniJavaObject> fields = null;
+        var parentName = parentClassMap.get(className);
+        var parentFields = parentName != null ? initialFieldsOf(parentName) : new HashMap<Integer, MiniJavaObject>();
+        var hasImplicitConstructor = parentName != null && environment.pools.containsKey(parentName + "::" + parentName + "()");
+        if (parentFields != null && !hasImplicitConstructor) {
+            fields = new HashMap<>(parentFields);
+            if (!addInitializer(className, fields)) fields = null;
+        }
+        initialFields.put(className, fields);
+        return fields;
+    }
+
+    // Add the fields declared in `className` with their initial values, false if an initializer is not a constant.
+    private boolean addInitializer(String className, HashMap<Integer, MiniJavaObject> fields) {
+        var code = sections.get(className);
+        var pools = environment.pools.get(className);
+        if (code == null || pools == null) return false;
+        var layout = environment.fieldLayouts.getOrDefault(className, List.of());
+        var variables = pools.variablePool;
+        var locals = new HashMap<Integer, MiniJavaObject>();
+        var stack = new ArrayList<MiniJavaObject>();
+        for (var bytecode : code) {
+            switch (bytecode.type) {
+                case OP_CONSTANT:
+                    stack.add(pools.constantPool.get(bytecode.arg1));
+                    break;
+                case OP_NIL:
+                    stack.add(new MiniJavaObject("null", null));
+                    break;
+                case OP_TRUE:
+                case OP_FALSE:
+                    stack.add(new MiniJavaObject("boolean", bytecode.type == BytecodeType.OP_TRUE));
+                    break;
+                case OP_SET_LOCAL:
+                    if (stack.isEmpty()) return false;
+                    locals.put(bytecode.arg1, stack.getLast());
+                    break;
+                case OP_POP:
+                    if (stack.isEmpty()) return false;
+                    stack.removeLast();
+                    break;
+                case OP_LABEL:
+                    break;
+                default:
+                    return false;
+            }
+        }
+        // The temporary variables of the initializers are not in the layout
+        for (var i = 0; i < variables.size(); i++) {
+            var slot = layout.indexOf(variables.get(i).name);
+            if (slot < 0) continue;
+            fields.put(slot, locals.containsKey(i) ? locals.get(i) : RuntimeMethod.defaultValue(variables.get(i).type));
+        }
+        return true;
+    }
+
+    // The SSA construction of one field of the object, after "Simple and Efficient Construction of SSA Form" by Braun et al.
+    // like `ControlFlowGraph`: the loads get the value of the last store in their block,
+    // or the value at the start of their block, which is a phi of the values at the end of the predecessors.
+    // Every load is dominated by the allocation, so the lookup stops at its block.
+    private class FieldRenaming {
+        private final SsaValue allocation;
+        private final int slot;
+        private final MiniJavaObject initial;
+        private SsaValue initialValue = null;
+        private final HashMap<BasicBlock, SsaValue> lastStores = new HashMap<>();
+        private final HashMap<BasicBlock, SsaValue> entryValues = new HashMap<>();
+        // The value which replaced each load
+        private final HashMap<SsaValue, SsaValue> replacements = new HashMap<>();
+
+        FieldRenaming(SsaValue allocation, int slot, MiniJavaObject initial) {
+            this.allocation = allocation;
+            this.slot = slot;
+            this.initial = initial;
+        }
+
+        void rename() {
+            for (var block : graph.blocks) {
+                for (var value : block.values) {
+                    if (isStore(value)) lastStores.put(block, value);
+                }
+            }
+            for (var block : new ArrayList<>(graph.blocks)) {
+                SsaValue current = null;
+                for (var value : new ArrayList<>(block.values)) {
+                    if (value == allocation) {
+                        current = initialValue();
+                    } else if (isStore(value)) {
+                        current = resolve(value.operands.get(1));
+                        graph.replaceAllUses(value, current);
+                        block.values.remove(value);
+                    } else if (isLoad(value)) {
+                        var replacement = current != null ? current : readEntry(block);
+                        replacements.put(value, replacement);
+                        graph.replaceAllUses(value, replacement);
+                        block.values.remove(value);
+                    }
+                }
+            }
+        }
+
+        private boolean isStore(SsaValue value) {
+            return value.type() == BytecodeType.OP_SET_FIELD && value.operands.get(0) == allocation && value.bytecode.arg1 == slot;
+        }
+
+        private boolean isLoad(SsaValue value) {
+            return value.type() == BytecodeType.OP_GET_FIELD && value.operands.get(0) == allocation && value.bytecode.arg1 == slot;
+        }
+
+        // The value of the field at the end of `block`.
+        private SsaValue readEnd(BasicBlock block) {
+            var store = lastStores.get(block);
+            if (store != null) return resolve(store.operands.get(1));
+            if (block == allocation.block) return initialValue();
+            return readEntry(block);
+        }
+
+        // The value of the field at the start of `block`.
+        private SsaValue readEntry(BasicBlock block) {
+            var value = entryValues.get(block);
+            if (value != null) return resolve(value);
+            if (block == graph.entry()) throw new RuntimeException("[ERROR] Field of an allocation read before it in " + graph.name);
+            if (block.predecessors.size() == 1) {
+                value = readEnd(block.predecessors.get(0));
+            } else {
+                value = graph.newValue(SsaValue.Kind.PHI, null, block);
+                block.phis.add(value);
+                // The phi is the value of the loops back to this block
+                entryValues.put(block, value);
+                for (var predecessor : block.predecessors) value.operands.add(readEnd(predecessor));
+            }
+            entryValues.put(block, value);
+            return value;
+        }
+
+        // The stores and the cached values may refer to a load which is replaced since.
+        private SsaValue resolve(SsaValue value) {
+            while (replacements.containsKey(value)) value = replacements.get(value);
+            return value;
+        }
+
+        // The initial value of the field is computed in place of the allocation.
+        private SsaValue initialValue() {
+            if (initialValue != null) return initialValue;
+            Bytecode bytecode;
+            var type = initial.type.toString();
+            if (type.equals("null")) {
+                bytecode = new Bytecode(BytecodeType.OP_NIL);
+            } else if (type.equals("boolean")) {
+                bytecode = new Bytecode((Boolean) initial.value ? BytecodeType.OP_TRUE : BytecodeType.OP_FALSE);
+            } else {
+                bytecode = new Bytecode(BytecodeType.OP_CONSTANT, environment.newConstant(graph.name, type, initial.value).index);
+            }
+            var block = allocation.block;
+            initialValue = graph.newValue(SsaValue.Kind.BYTECODE, bytecode, block);
+            block.values.add(block.values.indexOf(allocation), initialValue);
+            return initialValue;
+        }
+    }
+}
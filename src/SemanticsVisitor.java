@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -65,6 +66,20 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         typeMap.put(ctx, type);
     }
 
+    // The following getters expose the class hierarchy collected in the pre-visit,
+    // they are used after semantic analysis to link classes, fields and methods.
+    public Map<String, List<MethodSignature>> getClassMethodMap() {
+        return classMethodMap;
+    }
+
+    public Map<String, Map<String, MiniJavaType>> getClassFieldMap() {
+        return classFieldMap;
+    }
+
+    public Map<String, String> getParentClassMap() {
+        return parentClassMap;
+    }
+
     // When enter a new block, we create a new symbol table
     private void newSymbolTable() {
         symbolTable.add(new HashMap<>());
@@ -108,7 +123,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         var currentClass = currentClassName;
         while (currentClass != null) {
             var classFields = classFieldMap.get(currentClass);
-            if (classFields.containsKey(name)) {
+            if (classFields != null && classFields.containsKey(name)) {
                 return classFields.get(name);
             }
             currentClass = parentClassMap.get(currentClass);
@@ -116,22 +131,73 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         throw new RuntimeException("[ERROR] Variable " + name + " not found");
     }
 
-    private boolean isConditionExp(MiniJavaParser.ExpressionContext ctx) {
-        if (ctx.bop != null) {
-            if (ctx.bop.getType() == MiniJavaParser.AND
-                    || ctx.bop.getType() == MiniJavaParser.OR
-                    || ctx.bop.getType() == MiniJavaParser.EQUAL
-                    || ctx.bop.getType() == MiniJavaParser.NOTEQUAL
-                    || ctx.bop.getType() == MiniJavaParser.LT
-                    || ctx.bop.getType() == MiniJavaParser.LE
-                    || ctx.bop.getType() == MiniJavaParser.GT
-                    || ctx.bop.getType() == MiniJavaParser.GE) {
-                return true;
+    private boolean isLogicExp(MiniJavaParser.ExpressionContext ctx) {
+        return ctx.bop.getType() == MiniJavaParser.AND
+                || ctx.bop.getType() == MiniJavaParser.OR;
+    }
+
+    private boolean isRelationalExp(MiniJavaParser.ExpressionContext ctx) {
+        return ctx.bop.getType() == MiniJavaParser.LT
+                || ctx.bop.getType() == MiniJavaParser.LE
+                || ctx.bop.getType() == MiniJavaParser.GT
+                || ctx.bop.getType() == MiniJavaParser.GE;
+    }
+
+    // Built-in methods are resolved as global methods named `global::<name>(<argument types>)`,
+    // they are only used when no user defined method with the same name is visible.
+    private boolean isBuiltinMethod(String methodName) {
+        return methodName.equals("print")
+                || methodName.equals("println")
+                || methodName.equals("length")
+                || methodName.equals("atoi")
+                || methodName.equals("itoa")
+                || methodName.equals("assert");
+    }
+
+    // This method is used to check whether a method name is declared in the class, its super classes or the global class.
+    private boolean isDeclaredMethod(String methodName, String className) {
+        while (className != null) {
+            var methodSignatures = classMethodMap.get(className);
+            if (methodSignatures != null) {
+                for (var methodSig : methodSignatures) {
+                    if (methodSig.methodName.equals(methodName)) return true;
+                }
             }
+            className = parentClassMap.get(className);
+        }
+        var globalMethods = classMethodMap.get("global");
+        if (globalMethods == null) return false;
+        for (var methodSig : globalMethods) {
+            if (methodSig.methodName.equals(methodName)) return true;
         }
         return false;
     }
 
+    // This method checks the arguments of a built-in method call and returns its return type.
+    private MiniJavaType checkBuiltinMethod(String methodName, ArrayList<MiniJavaType> paramTypes) {
+        var argc = paramTypes.size();
+        switch (methodName) {
+            case "print":
+            case "println":
+                if (argc == 0 && methodName.equals("println")) return MiniJavaType.newPrimitiveType("void");
+                if (argc == 1 && paramTypes.get(0).isPrimitive()) return MiniJavaType.newPrimitiveType("void");
+                break;
+            case "length":
+                if (argc == 1 && paramTypes.get(0).isArray()) return MiniJavaType.newPrimitiveType("int");
+                break;
+            case "atoi":
+                if (argc == 1 && paramTypes.get(0).isString()) return MiniJavaType.newPrimitiveType("int");
+                break;
+            case "itoa":
+                if (argc == 1 && (paramTypes.get(0).isInt() || paramTypes.get(0).isChar())) return MiniJavaType.newPrimitiveType("string");
+                break;
+            case "assert":
+                if (argc == 1 && paramTypes.get(0).isBoolean()) return MiniJavaType.newPrimitiveType("void");
+                break;
+        }
+        throw new RuntimeException("[ERROR] Built-in method " + methodName + " can not be applied to " + paramTypes);
+    }
+
     private boolean isArithmeticAssignExp(int type) {
         return type == MiniJavaParser.ASSIGN
                 || type == MiniJavaParser.ADD_ASSIGN
@@ -283,7 +349,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
                 continue;
             }
             // If an implicit conversion is allowed from callType to candidateType, count it.
-            if (callType.canImplicitlyCastTo(candidateType)) {
+            if (callType.canImplicitlyCastTo(candidateType, parentClassMap)) {
                 count++;
             } else {
                 // If conversion is not possible, mark candidate as incompatible.
@@ -296,6 +362,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
     // pre-visit method declaration, add the method signature to the classMethodMap
     private void preVisitMethodDeclaration(MiniJavaParser.MethodDeclarationContext ctx, String className) {
         var methodName = ctx.identifier().getText();
+        var returnType = ctx.typeType() != null ? visit(ctx.typeType()) : MiniJavaType.newPrimitiveType("void");
         var paramTypes = new ArrayList<MiniJavaType>();
         var paramList = ctx.formalParameters().formalParameterList();
         if (paramList != null) {
@@ -304,7 +371,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
                 paramTypes.add(type);
             }
         }
-        var methodSig = new MethodSignature(className, methodName, paramTypes);
+        var methodSig = new MethodSignature(className, methodName, paramTypes, returnType);
         addMethodSignature(methodSig);
     }
 
@@ -319,7 +386,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
                 paramTypes.add(type);
             }
         }
-        var methodSig = new MethodSignature(className, methodName, paramTypes);
+        var methodSig = new MethodSignature(className, methodName, paramTypes, MiniJavaType.newClassType(className));
         addMethodSignature(methodSig);
     }
 
@@ -328,7 +395,8 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         var fieldType = visit(ctx.typeType());
         var fieldName = ctx.variableDeclarator().identifier().getText();
         if (!classFieldMap.containsKey(className)) {
-            classFieldMap.put(className, new HashMap<>());
+            // The fields keep the order of declaration for the field layout, see `FieldLayouts`
+            classFieldMap.put(className, new LinkedHashMap<>());
         }
         classFieldMap.get(className).put(fieldName, fieldType);
     }
@@ -346,6 +414,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         if (ctx.parentClassDeclaration() != null)
             parentClassName = ctx.parentClassDeclaration().identifier().getText();
         parentClassMap.put(className, parentClassName);
+        classFieldMap.putIfAbsent(className, new HashMap<>());
         var classBodyDecls = ctx.classBody().classBodyDeclaration();
         for (var classBodeDecl: classBodyDecls) preVisitClassBodyDeclaration(classBodeDecl, className);
     }
@@ -422,7 +491,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             return null;
         }
         var varInit = visit(varDecl.variableInitializer());
-        if (varInit.canExplicitCastTo(typeType)) {
+        if (varInit.canExplicitCastTo(typeType, parentClassMap)) {
             return null;
         } else {
             throw new RuntimeException("[ERROR] Type mismatch: " + typeType + " != " + varInit);
@@ -496,7 +565,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             return null;
         }
         var varInit = visit(varDecl.variableInitializer());
-        if (varInit.canExplicitCastTo(typeType)) {
+        if (varInit.canExplicitCastTo(typeType, parentClassMap)) {
             setVariableType(id, typeType);
             return null;
         } else {
@@ -530,7 +599,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
         for (var initializer : initializerList) {
             var initType = visit(initializer);
             if (type == null) type = initType;
-            if (!initType.canImplicitlyCastTo(type)) {
+            if (!initType.canImplicitlyCastTo(type, parentClassMap)) {
                 throw new RuntimeException("[ERROR] Type mismatch: " + type + " != " + initType);
             }
         }
@@ -621,8 +690,8 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             setType(ctx, ret);
             return ret;
         } else if (ctx.identifier() != null) {
-            var id = visit(ctx.identifier());
-            var ret = new MiniJavaType(null, id.classType, dimension);
+            // A class type is referred by its name, so it must not be looked up as a variable.
+            var ret = new MiniJavaType(null, ctx.identifier().getText(), dimension);
             setType(ctx, ret);
             return ret;
         }
@@ -632,13 +701,20 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
     private MiniJavaType visitBopExpression(MiniJavaParser.ExpressionContext ctx) {
         var lhs = visit(ctx.expression(0));
         var rhs = visit(ctx.expression(1));
-        if (isConditionExp(ctx)) {
+        if (isLogicExp(ctx)) {
             // For logic operators, we need to check if the expression is of type boolean
             if (!lhs.isBoolean() || !rhs.isBoolean()) {
                 throw new RuntimeException("[ERROR] Type mismatch: " + lhs + " and " + rhs + " should be boolean");
             }
             return MiniJavaType.newPrimitiveType("boolean");
         }
+        if (isRelationalExp(ctx)) {
+            // For relational operators, we need to check if the expression is of type int or char
+            if (!(lhs.isInt() || lhs.isChar()) || !(rhs.isInt() || rhs.isChar())) {
+                throw new RuntimeException("[ERROR] Type mismatch: " + lhs + " and " + rhs + " should be int or char");
+            }
+            return MiniJavaType.newPrimitiveType("boolean");
+        }
         if (ctx.bop.getType() == MiniJavaParser.QUESTION) {
             // For ternary operator, we need to make sure the condition is of type boolean,
             // and the true and false expressions are of the same type
@@ -646,7 +722,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
                 throw new RuntimeException("[ERROR] Type mismatch: " + lhs + " should be boolean");
             }
             var false_exp = visit(ctx.expression(2));
-            if (!false_exp.canImplicitlyCastTo(rhs) && !rhs.canImplicitlyCastTo(false_exp)) {
+            if (!false_exp.canImplicitlyCastTo(rhs, parentClassMap) && !rhs.canImplicitlyCastTo(false_exp, parentClassMap)) {
                 throw new RuntimeException("[ERROR] Type mismatch: " + false_exp + " should be " + rhs);
             }
             return rhs;
@@ -672,7 +748,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
                 throw new RuntimeException("[ERROR] Type mismatch: " + lhs + " += " + rhs + " is not allowed");
             }
             if (ctx.bop.getType() == MiniJavaParser.ASSIGN) {
-                if (rhs.canImplicitlyCastTo(lhs)) return lhs;
+                if (rhs.canImplicitlyCastTo(lhs, parentClassMap)) return lhs;
                 throw new RuntimeException("[ERROR] Type mismatch: " + lhs + " = " + rhs + " is not allowed");
             }
             if ((lhs.isChar() || lhs.isInt()) || (rhs.isChar() || rhs.isInt())) {
@@ -708,10 +784,16 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             for (var arg : ctx.arguments().expressionList().expression())
                 paramTypes.add(visit(arg));
         var methodSig = new MethodSignature(className, methodName, paramTypes);
+        if (!isDotMethodCall && isBuiltinMethod(methodName) && !isDeclaredMethod(methodName, className)) {
+            var returnType = checkBuiltinMethod(methodName, paramTypes);
+            methodMap.put(ctx, new MethodSignature("global", methodName, paramTypes).mangle());
+            return returnType;
+        }
         var closestMethod = findClosestMethod(methodSig, isDotMethodCall);
         var mangledMethod = closestMethod.mangle();
         methodMap.put(ctx, mangledMethod);
-        return MiniJavaType.newAnyType();
+        // The overload is resolved statically, so the declared return type is the type of the call.
+        return closestMethod.returnType;
     }
 
     private MiniJavaType visitDotExp(MiniJavaParser.ExpressionContext ctx) {
@@ -722,7 +804,7 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             var thisClass = exp.classType;
             while (thisClass != null) {
                 var classFields = classFieldMap.get(thisClass);
-                if (classFields.containsKey(id)) {
+                if (classFields != null && classFields.containsKey(id)) {
                     return classFields.get(id);
                 }
                 thisClass = parentClassMap.get(thisClass);
@@ -769,13 +851,16 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             // For logic operators, we need to check if the expression is of type boolean
             if (ctx.prefix.getType() == MiniJavaParser.BANG)
                 if (!ret.isBoolean()) throw new RuntimeException("[ERROR] Type mismatch: " + ret + " should be boolean");
+            // `-c` and `~c` of a char `c` are ints, like `OP_NEG` and `OP_BIT_NOT` compute them
+            var prefix = ctx.prefix.getType();
+            if (ret.isChar() && (prefix == MiniJavaParser.SUB || prefix == MiniJavaParser.TILDE)) ret = MiniJavaType.newPrimitiveType("int");
             setType(ctx, ret);
             return ret;
         } else if (ctx.typeType() != null) {
             var type = visit(ctx.typeType());
             var exp = visit(ctx.expression(0));
             // For explicit cast, we need to check if the expression can be casted to the type
-            if (!exp.canExplicitCastTo(type)) throw new RuntimeException("[ERROR] Type mismatch: " + exp + " cannot be cast to " + type);
+            if (!exp.canExplicitCastTo(type, parentClassMap)) throw new RuntimeException("[ERROR] Type mismatch: " + exp + " cannot be cast to " + type);
             setType(ctx, type);
             return type;
         } else if (ctx.creator() != null) {
@@ -802,13 +887,19 @@ public class SemanticsVisitor extends MiniJavaParserBaseVisitor<MiniJavaType> {
             var initializer = visit(creatorRest.arrayInitializer());
             var dim = ctx.arrayCreatorRest().LBRACK().size();
             var declType = new MiniJavaType(createdName.primitiveType, createdName.classType, dim);
-            if (!initializer.canExplicitCastTo(declType)) {
+            if (!initializer.canExplicitCastTo(declType, parentClassMap)) {
                 throw new RuntimeException("[ERROR] Type mismatch: " + initializer + " should be " + declType);
             }
             return initializer;
         }
         else {
-            // For array creation, just return the type of the array
+            // For array creation, the sizes must be integers
+            for (var size : creatorRest.expression()) {
+                var sizeType = visit(size);
+                if (!sizeType.canImplicitlyCastTo(MiniJavaType.newPrimitiveType("int"), parentClassMap)) {
+                    throw new RuntimeException("[ERROR] Type mismatch: " + sizeType + " should be int");
+                }
+            }
             var dim = ctx.arrayCreatorRest().LBRACK().size();
             var declType = new MiniJavaType(createdName.primitiveType, createdName.classType, dim);
             return declType;
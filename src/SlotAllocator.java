@@ -0,0 +1,133 @@
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class shares the variable pool slots of a method between the variables whose live ranges are disjoint,
+ * e.g. the locals of sibling blocks and the temporaries of `Environment.newTemp`.
+ * The liveness of each variable is computed backwards over the bytecodes of the method, before the labels are resolved.
+ * Two variables interfere if one is stored while the other is live, or if both are live when the method is entered:
+ * the parameters and the variables read before they are stored, which start with their default value.
+ * The variables are colored greedily in the order of the pool, the parameters keep their slots,
+ * and the pool is rewritten with one variable per slot, named after all the variables it holds.
+ */
+public class SlotAllocator {
+    private final Environment environment;
+    public int removedSlots = 0;
+
+    public SlotAllocator(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void allocate(List<Bytecode> bytecodes) {
+        for (var section : BytecodeLoader.sections(bytecodes)) {
+            if (section.isMethod()) allocateMethod(section.code(), environment.pools.get(section.header().name));
+        }
+    }
+
+    private void allocateMethod(List<Bytecode> code, Pools pools) {
+        var variables = pools.variablePool;
+        var count = variables.size();
+        if (count == 0) return;
+
+        // The offset of each label, to find the successors of the jumps
+        var labels = new HashMap<Integer, Integer>();
+        for (var i = 0; i < code.size(); i++) {
+            if (code.get(i).type == BytecodeType.OP_LABEL) labels.put(code.get(i).arg1, i);
+        }
+
+        // live[i] is the set of variables which are live before the instruction i
+        var live = new BitSet[code.size() + 1];
+        for (var i = 0; i < live.length; i++) live[i] = new BitSet(count);
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var i = code.size() - 1; i >= 0; i--) {
+                var in = liveOut(code, labels, live, i);
+                var bytecode = code.get(i);
+                if (bytecode.type == BytecodeType.OP_SET_LOCAL) in.clear(bytecode.arg1);
+                if (bytecode.type == BytecodeType.OP_GET_LOCAL) in.set(bytecode.arg1);
+                if (!in.equals(live[i])) {
+                    live[i] = in;
+                    changed = true;
+                }
+            }
+        }
+
+        var interference = new BitSet[count];
+        for (var v = 0; v < count; v++) interference[v] = new BitSet(count);
+        // The variables defined when the method is entered
+        var entry = (BitSet) live[0].clone();
+        entry.set(0, Math.min(pools.parameterCount, count));
+        for (var v = entry.nextSetBit(0); v >= 0; v = entry.nextSetBit(v + 1)) interference[v].or(entry);
+        for (var i = 0; i < code.size(); i++) {
+            var bytecode = code.get(i);
+            if (bytecode.type != BytecodeType.OP_SET_LOCAL) continue;
+            var out = liveOut(code, labels, live, i);
+            interference[bytecode.arg1].or(out);
+            for (var v = out.nextSetBit(0); v >= 0; v = out.nextSetBit(v + 1)) interference[v].set(bytecode.arg1);
+        }
+
+        var slots = new int[count];
+        var slotCount = 0;
+        for (var v = 0; v < count; v++) {
+            if (v < pools.parameterCount) {
+                slots[v] = v;
+                slotCount = v + 1;
+                continue;
+            }
+            var taken = new BitSet(slotCount);
+            for (var w = interference[v].nextSetBit(0); w >= 0 && w < v; w = interference[v].nextSetBit(w + 1)) {
+                taken.set(slots[w]);
+            }
+            slots[v] = taken.nextClearBit(0);
+            slotCount = Math.max(slotCount, slots[v] + 1);
+        }
+        if (slotCount == count) return;
+
+        // The variables which are never used, e.g. after constant propagation, are left out of the names
+        var referenced = new BitSet(count);
+        referenced.set(0, Math.min(pools.parameterCount, count));
+        for (var bytecode : code) {
+            if (bytecode.type == BytecodeType.OP_GET_LOCAL || bytecode.type == BytecodeType.OP_SET_LOCAL) referenced.set(bytecode.arg1);
+        }
+        for (var i = 0; i < code.size(); i++) {
+            var bytecode = code.get(i);
+            if (bytecode.type == BytecodeType.OP_GET_LOCAL || bytecode.type == BytecodeType.OP_SET_LOCAL) {
+                code.set(i, new Bytecode(bytecode.type, slots[bytecode.arg1]));
+            }
+        }
+
+        // A slot takes the type of the variable which is live at the entry, whose default value is read
+        var pool = new ArrayList<MiniJavaObject>(slotCount);
+        var names = new ArrayList<List<String>>(slotCount);
+        for (var slot = 0; slot < slotCount; slot++) {
+            pool.add(null);
+            names.add(new ArrayList<>());
+        }
+        for (var v = 0; v < count; v++) {
+            var variable = variables.get(v);
+            if (referenced.get(v)) names.get(slots[v]).add(variable.name);
+            if (pool.get(slots[v]) == null || entry.get(v)) pool.set(slots[v], variable);
+        }
+        for (var slot = 0; slot < slotCount; slot++) {
+            var name = names.get(slot).isEmpty() ? pool.get(slot).name : String.join("/", names.get(slot));
+            var shared = new MiniJavaObject(pool.get(slot).type, name);
+            shared.pool = pool.get(slot).pool;
+            shared.index = slot;
+            pool.set(slot, shared);
+        }
+        removedSlots += count - slotCount;
+        pools.variablePool = pool;
+        pools.variableIndex = slotCount;
+    }
+
+    private static BitSet liveOut(List<Bytecode> code, HashMap<Integer, Integer> labels, BitSet[] live, int i) {
+        var bytecode = code.get(i);
+        var out = new BitSet();
+        if (bytecode.type != BytecodeType.OP_JUMP && bytecode.type != BytecodeType.OP_RETURN) out.or(live[i + 1]);
+        if (BytecodeLoader.isJump(bytecode.type)) out.or(live[labels.get(bytecode.arg1)]);
+        return out;
+    }
+}
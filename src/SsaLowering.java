@@ -0,0 +1,186 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class lowers a `ControlFlowGraph` back to bytecodes with labels, in the order of its blocks.
+ * A value which is used once, later in its own block, stays on the stack if it is right below the other operands
+ * of its user when the user runs, e.g. `a[i] + 1`.
+ * Constants, `this` and the initial values of the variables are computed again at each use which does not find them
+ * on the stack, and the initial values are read from the original variables, which are never written.
+ * Any other value, and each phi, gets a new variable of the pool.
+ * The phis are assigned at the end of the predecessors as a parallel copy through the stack,
+ * a taken conditional jump goes through a block of copies placed after the method.
+ * The slots are compacted afterwards by `SlotAllocator`, and the stores followed by loads by `PeepholeOptimizer`.
+ */
+public class SsaLowering {
+    private final ControlFlowGraph graph;
+    private final Pools pools;
+    private final Environment environment;
+    private final List<Bytecode> code;
+    private final HashMap<SsaValue, List<SsaValue>> users;
+    // The values which stay on the stack between their definition and their user
+    private final HashSet<SsaValue> onStack;
+    private final HashMap<SsaValue, Integer> slots;
+    private final HashMap<BasicBlock, Integer> labels;
+
+    public SsaLowering(ControlFlowGraph graph, Pools pools, Environment environment) {
+        this.graph = graph;
+        this.pools = pools;
+        this.environment = environment;
+        this.code = new ArrayList<>();
+        this.users = graph.users();
+        this.onStack = new HashSet<>();
+        this.slots = new HashMap<>();
+        this.labels = new HashMap<>();
+    }
+
+    public List<Bytecode> lower() {
+        for (var block : graph.blocks) chooseStackValues(block);
+        // The copies of the taken conditional jumps to blocks with phis, placed after the method
+        var trampolines = new ArrayList<Runnable>();
+        for (var i = 0; i < graph.blocks.size(); i++) {
+            var block = graph.blocks.get(i);
+            var layoutNext = i + 1 < graph.blocks.size() ? graph.blocks.get(i + 1) : null;
+            code.add(new Bytecode(BytecodeType.OP_LABEL, labelOf(block)));
+            for (var phi : block.phis) slotOf(phi);
+            for (var value : block.values) emitValue(value);
+            var terminator = block.terminator;
+            if (terminator == null) {
+                emitCopies(block, block.next);
+                if (block.next != layoutNext) code.add(new Bytecode(BytecodeType.OP_JUMP, labelOf(block.next)));
+            } else if (terminator.type() == BytecodeType.OP_RETURN) {
+                emitOperands(terminator);
+                code.add(new Bytecode(BytecodeType.OP_RETURN));
+            } else if (terminator.type() == BytecodeType.OP_JUMP) {
+                emitCopies(block, block.target);
+                code.add(new Bytecode(BytecodeType.OP_JUMP, labelOf(block.target)));
+            } else {
+                emitOperands(terminator);
+                var target = block.target;
+                if (target.phis.isEmpty()) {
+                    code.add(new Bytecode(terminator.type(), labelOf(target)));
+                } else {
+                    var trampoline = environment.newLabel();
+                    code.add(new Bytecode(terminator.type(), trampoline));
+                    trampolines.add(() -> {
+                        code.add(new Bytecode(BytecodeType.OP_LABEL, trampoline));
+                        emitCopies(block, target);
+                        code.add(new Bytecode(BytecodeType.OP_JUMP, labelOf(target)));
+                    });
+                }
+                emitCopies(block, block.next);
+                if (block.next != layoutNext) code.add(new Bytecode(BytecodeType.OP_JUMP, labelOf(block.next)));
+            }
+        }
+        for (var trampoline : trampolines) trampoline.run();
+        removeUnusedLabels();
+        return code;
+    }
+
+    // Simulate the stack of `block` to choose the values which stay on it, see `isStackCandidate`.
+    // The operands of a user which are on top of the stack in order are popped,
+    // the other operands are loaded, so if one of them is a candidate deeper in the stack, it is stored instead.
+    private void chooseStackValues(BasicBlock block) {
+        var stack = new ArrayList<SsaValue>();
+        var sequence = new ArrayList<>(block.values);
+        if (block.terminator != null) sequence.add(block.terminator);
+        for (var value : sequence) {
+            var operands = value.operands;
+            var count = stackPrefix(stack, operands);
+            stack.subList(stack.size() - count, stack.size()).clear();
+            for (var i = count; i < operands.size(); i++) {
+                if (stack.remove(operands.get(i))) onStack.remove(operands.get(i));
+            }
+            if (value.hasResult() && isStackCandidate(value)) {
+                stack.add(value);
+                onStack.add(value);
+            }
+        }
+        for (var value : stack) onStack.remove(value);
+    }
+
+    // The largest count such that the first `count` operands are the top of the stack in order.
+    private static int stackPrefix(List<SsaValue> stack, List<SsaValue> operands) {
+        for (var count = Math.min(stack.size(), operands.size()); count > 0; count--) {
+            if (stack.subList(stack.size() - count, stack.size()).equals(operands.subList(0, count))) return count;
+        }
+        return 0;
+    }
+
+    // A value may stay on the stack if its only user comes later in the same block and is not a phi.
+    private boolean isStackCandidate(SsaValue value) {
+        if (value.kind != SsaValue.Kind.BYTECODE) return false;
+        var valueUsers = users.get(value);
+        if (valueUsers == null || valueUsers.size() != 1) return false;
+        var user = valueUsers.get(0);
+        return !user.isPhi() && user.block == value.block;
+    }
+
+    private void emitValue(SsaValue value) {
+        // A value which is computed again at each use is not computed here
+        if (value.isRematerializable() && !onStack.contains(value)) return;
+        emitOperands(value);
+        code.add(copyOf(value.bytecode));
+        if (onStack.contains(value)) return;
+        if (users.containsKey(value)) code.add(new Bytecode(BytecodeType.OP_SET_LOCAL, slotOf(value)));
+        code.add(new Bytecode(BytecodeType.OP_POP));
+    }
+
+    // Push the operands of `value` which are not on the stack yet, they are after the ones which are.
+    private void emitOperands(SsaValue value) {
+        for (var operand : value.operands) {
+            if (!onStack.contains(operand)) emitLoad(operand);
+        }
+    }
+
+    private void emitLoad(SsaValue value) {
+        if (value.isRematerializable()) code.add(copyOf(value.bytecode));
+        else code.add(new Bytecode(BytecodeType.OP_GET_LOCAL, slotOf(value)));
+    }
+
+    // Assign the phis of `successor` with their operands from `block`, all the operands are read before any phi is written.
+    private void emitCopies(BasicBlock block, BasicBlock successor) {
+        var index = successor.predecessors.indexOf(block);
+        var phis = new ArrayList<SsaValue>();
+        for (var phi : successor.phis) {
+            var source = phi.operands.get(index);
+            if (source == phi) continue;
+            emitLoad(source);
+            phis.add(phi);
+        }
+        for (var i = phis.size() - 1; i >= 0; i--) {
+            code.add(new Bytecode(BytecodeType.OP_SET_LOCAL, slotOf(phis.get(i))));
+            code.add(new Bytecode(BytecodeType.OP_POP));
+        }
+    }
+
+    private static Bytecode copyOf(Bytecode bytecode) {
+        var copy = new Bytecode(bytecode.type, bytecode.arg1, bytecode.arg2);
+        copy.name = bytecode.name;
+        return copy;
+    }
+
+    private int slotOf(SsaValue value) {
+        return slots.computeIfAbsent(value, key -> {
+            var variable = new MiniJavaObject(MiniJavaType.newPrimitiveType("int"), key.id + "_ssa");
+            variable.pool = graph.name;
+            variable.index = pools.variableIndex++;
+            pools.variablePool.add(variable);
+            return variable.index;
+        });
+    }
+
+    private int labelOf(BasicBlock block) {
+        return labels.computeIfAbsent(block, key -> environment.newLabel());
+    }
+
+    private void removeUnusedLabels() {
+        var targets = new HashSet<Integer>();
+        for (var bytecode : code) {
+            if (BytecodeLoader.isJump(bytecode.type)) targets.add(bytecode.arg1);
+        }
+        code.removeIf(bytecode -> bytecode.type == BytecodeType.OP_LABEL && !targets.contains(bytecode.arg1));
+    }
+}
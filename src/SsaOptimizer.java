@@ -0,0 +1,50 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class runs the mid-level optimizations on the SSA form of each method, see `ControlFlowGraph`.
+ * Each `OP_METHOD` section is built into a graph, the passes transform the graph,
+ * and `SsaLowering` turns it back into bytecodes with labels, before the labels are resolved.
+ * The graphs can also be dumped without lowering them, to debug the IR.
+ */
+public class SsaOptimizer {
+    // A pass transforms the graph of a method in place.
+    public interface Pass {
+        void run(ControlFlowGraph graph);
+    }
+
+    private final Environment environment;
+    public final List<Pass> passes;
+
+    public SsaOptimizer(Environment environment) {
+        this.environment = environment;
+        this.passes = new ArrayList<>();
+    }
+
+    // Build the graph of each method and run the passes, then write the graphs to `dumpPath` if it is not null,
+    // and replace the bytecodes of the methods with the lowered graphs if `lower` is true.
+    public void optimize(List<Bytecode> bytecodes, boolean lower, String dumpPath) {
+        var graphs = new ArrayList<ControlFlowGraph>();
+        BytecodeLoader.rewriteSections(bytecodes, section -> {
+            if (!section.isMethod()) return section.code();
+            var name = section.header().name;
+            var pools = environment.pools.get(name);
+            var graph = ControlFlowGraph.build(name, section.code(), pools.variablePool.size());
+            for (var pass : passes) pass.run(graph);
+            graphs.add(graph);
+            return lower ? new SsaLowering(graph, pools, environment).lower() : section.code();
+        });
+        if (dumpPath != null) dump(graphs, dumpPath);
+    }
+
+    private static void dump(List<ControlFlowGraph> graphs, String filePath) {
+        try (var writer = new PrintWriter(new FileWriter(filePath))) {
+            for (var graph : graphs) graph.dump(writer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
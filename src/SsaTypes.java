@@ -0,0 +1,193 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This class infers the type of the values of a `ControlFlowGraph` which is known from the bytecodes alone:
+ * the constants, the initial values of the variables, and the results of arithmetic with the rules of the interpreters,
+ * i.e. `+` with a `string` is a `string`, `char + char` and `++`/`--` of a `char` are a `char`,
+ * and any other arithmetic is an `int`. The type of a phi is the type of all its operands.
+ * The type is null if it is unknown, e.g. for a load or a call.
+ * It also finds the values which are never negative, for the rewrites which only hold for them.
+ */
+public class SsaTypes {
+    private static final String UNKNOWN = "?";
+
+    private final Environment environment;
+    private final List<MiniJavaObject> constants;
+    private final List<MiniJavaObject> variables;
+    private final HashMap<SsaValue, String> types = new HashMap<>();
+    private final HashMap<SsaValue, Boolean> nonNegative = new HashMap<>();
+
+    public SsaTypes(ControlFlowGraph graph, Environment environment) {
+        var pools = environment.pools.get(graph.name);
+        this.environment = environment;
+        this.constants = pools.constantPool;
+        this.variables = pools.variablePool;
+        // The types only go up from unset to a type to unknown, so this ends
+        var order = graph.reversePostorder();
+        var changed = true;
+        while (changed) {
+            changed = false;
+            for (var block : order) {
+                for (var value : block.allValues()) {
+                    if (!value.hasResult()) continue;
+                    var type = infer(value);
+                    if (type != null && !type.equals(types.get(value))) {
+                        types.put(value, type);
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    public String typeOf(SsaValue value) {
+        var type = types.get(value);
+        return type == null || type.equals(UNKNOWN) ? null : type;
+    }
+
+    public boolean isInt(SsaValue value) {
+        return "int".equals(typeOf(value));
+    }
+
+    // The value of a constant, null if it is not a constant.
+    public Object constantOf(SsaValue value) {
+        return value.type() == BytecodeType.OP_CONSTANT ? constants.get(value.bytecode.arg1).value : null;
+    }
+
+    // The type of `value` from the types of its operands, null if they are not inferred yet.
+    private String infer(SsaValue value) {
+        if (value.kind == SsaValue.Kind.ENTRY) {
+            var index = value.bytecode.arg1;
+            return index < variables.size() ? primitiveType(variables.get(index).type.toString()) : UNKNOWN;
+        }
+        if (value.isPhi()) {
+            String type = null;
+            for (var operand : value.operands) {
+                var operandType = types.get(operand);
+                if (operandType == null) continue;
+                if (type != null && !type.equals(operandType)) return UNKNOWN;
+                type = operandType;
+            }
+            return type;
+        }
+        switch (value.type()) {
+            case OP_CONSTANT:
+                return primitiveType(constants.get(value.bytecode.arg1).type.toString());
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_EQ:
+            case OP_NEQ:
+            case OP_LT:
+            case OP_LE:
+            case OP_GT:
+            case OP_GE:
+            case OP_INSTANCE_OF:
+                return "boolean";
+            case OP_SUB:
+            case OP_MUL:
+            case OP_DIV:
+            case OP_MOD:
+            case OP_LSHIFT:
+            case OP_RSHIFT:
+            case OP_URSHIFT:
+            case OP_BIT_AND:
+            case OP_BIT_OR:
+            case OP_BIT_XOR:
+            case OP_BIT_NOT:
+            case OP_NEG:
+                return "int";
+            case OP_INC:
+            case OP_DEC:
+                return types.get(value.operands.get(0));
+            case OP_ADD: {
+                var a = types.get(value.operands.get(0));
+                var b = types.get(value.operands.get(1));
+                if ("string".equals(a) || "string".equals(b)) return "string";
+                if (a == null || b == null) return null;
+                if (a.equals("char") && b.equals("char")) return "char";
+                if (isNumber(a) && isNumber(b)) return "int";
+                return UNKNOWN;
+            }
+            case OP_CONCAT:
+            case OP_BUILD_STRING:
+                return "string";
+            case OP_CAST:
+                return primitiveType((String) constants.get(value.bytecode.arg1).value);
+            case OP_CALL:
+                return isBuiltin(value, "length") || isBuiltin(value, "atoi") ? "int" : UNKNOWN;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    // Whether the call is the built-in method `name`, the methods of the program take precedence.
+    private boolean isBuiltin(SsaValue call, String name) {
+        var callee = (String) constants.get(call.bytecode.arg1).value;
+        return !environment.pools.containsKey(callee) && callee.substring(callee.indexOf("::") + 2).startsWith(name + "(");
+    }
+
+    private static String primitiveType(String type) {
+        switch (type) {
+            case "int":
+            case "char":
+            case "boolean":
+            case "string":
+                return type;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    private static boolean isNumber(String type) {
+        return type.equals("int") || type.equals("char");
+    }
+
+    // Whether the value is never negative: a `char`, a constant, `length` of an array, and the results of
+    // `&`, `>>>`, `>>`, `/` and `%` which keep or make the sign positive.
+    public boolean isNonNegative(SsaValue value) {
+        return isNonNegative(value, new HashSet<>());
+    }
+
+    private boolean isNonNegative(SsaValue value, HashSet<SsaValue> visiting) {
+        var known = nonNegative.get(value);
+        if (known != null) return known;
+        // A phi which depends on itself is not proven, e.g. a counter which may overflow
+        if (!visiting.add(value)) return false;
+        var result = computeNonNegative(value, visiting);
+        visiting.remove(value);
+        nonNegative.put(value, result);
+        return result;
+    }
+
+    private boolean computeNonNegative(SsaValue value, HashSet<SsaValue> visiting) {
+        if ("char".equals(typeOf(value))) return true;
+        if (value.isPhi()) {
+            for (var operand : value.operands) {
+                if (!isNonNegative(operand, visiting)) return false;
+            }
+            return true;
+        }
+        if (value.kind != SsaValue.Kind.BYTECODE) return false;
+        switch (value.type()) {
+            case OP_CONSTANT:
+                return constantOf(value) instanceof Integer number && number >= 0;
+            case OP_BIT_AND:
+                return isNonNegative(value.operands.get(0), visiting) || isNonNegative(value.operands.get(1), visiting);
+            case OP_URSHIFT:
+                return constantOf(value.operands.get(1)) instanceof Integer shift && (shift & 31) != 0
+                        || isNonNegative(value.operands.get(0), visiting);
+            case OP_RSHIFT:
+            case OP_MOD:
+                return isNonNegative(value.operands.get(0), visiting);
+            case OP_DIV:
+                return isNonNegative(value.operands.get(0), visiting)
+                        && constantOf(value.operands.get(1)) instanceof Integer divisor && divisor > 0;
+            case OP_CALL:
+                return isBuiltin(value, "length");
+            default:
+                return false;
+        }
+    }
+}
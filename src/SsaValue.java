@@ -0,0 +1,68 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a value of the SSA form of a method, see `ControlFlowGraph`.
+ * Each value is defined exactly once:
+ * by a bytecode, whose operands are the values it pops in stack order,
+ * by a phi at the start of a block, whose operand of index i comes from the predecessor of index i,
+ * or by the entry of the method, for the initial value of a variable, i.e. a parameter or a default value.
+ * Jumps and `OP_RETURN` are values without result, they are the terminators of the blocks.
+ */
+public class SsaValue {
+    public enum Kind {
+        BYTECODE,
+        PHI,
+        ENTRY,
+    }
+
+    public final int id;
+    public final Kind kind;
+    // The bytecode of a `BYTECODE` value, the target of a jump is the target of its block instead of a label.
+    // The value of `ENTRY` is `OP_GET_LOCAL <variable_index>` of the original variable.
+    public final Bytecode bytecode;
+    public final List<SsaValue> operands;
+    public BasicBlock block;
+
+    public SsaValue(int id, Kind kind, Bytecode bytecode) {
+        this.id = id;
+        this.kind = kind;
+        this.bytecode = bytecode;
+        this.operands = new ArrayList<>();
+    }
+
+    public boolean isPhi() {
+        return kind == Kind.PHI;
+    }
+
+    public BytecodeType type() {
+        return bytecode != null ? bytecode.type : null;
+    }
+
+    // Whether the value is pushed on the stack, jumps and `OP_RETURN` have no result.
+    public boolean hasResult() {
+        return kind != Kind.BYTECODE || bytecode.type != BytecodeType.OP_RETURN && !BytecodeLoader.isJump(bytecode.type);
+    }
+
+    // Whether the value can be computed again wherever it is used instead of being kept in a variable:
+    // it has no side effects, and does not depend on anything which can change in the method.
+    public boolean isRematerializable() {
+        if (kind == Kind.ENTRY) return true;
+        if (kind != Kind.BYTECODE) return false;
+        switch (bytecode.type) {
+            case OP_CONSTANT:
+            case OP_NIL:
+            case OP_TRUE:
+            case OP_FALSE:
+            case OP_THIS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "v" + id;
+    }
+}
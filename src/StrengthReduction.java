@@ -0,0 +1,145 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * This pass of `SsaOptimizer` replaces the multiplications of an induction variable by a loop invariant value
+ * with a new induction variable, which is incremented along with the original one, e.g. `a[i * stride]`.
+ * An induction variable is an `int` phi of a loop header whose operands from inside the loop are all
+ * `i + c`, `c + i`, `i - c`, `i++` or `i--` of the phi itself with an `int` constant `c`.
+ * For `j = i * s`, the new phi `k` starts from `init * s` in the preheader and gets `k + c * s`
+ * right after the increment of `i`, so `k` is `i * s` wherever `j` is used, with the same 32-bit overflow.
+ * The multiplications by a power of two are shifts already, see `AlgebraicSimplifier`.
+ */
+public class StrengthReduction implements SsaOptimizer.Pass {
+    private final Environment environment;
+    private ControlFlowGraph graph;
+    public int reducedValues = 0;
+
+    public StrengthReduction(Environment environment) {
+        this.environment = environment;
+    }
+
+    public void report(PrintStream log) {
+        log.printf("[STRENGTH] reduced %d multiplications to additions%n", reducedValues);
+    }
+
+    @Override
+    public void run(ControlFlowGraph graph) {
+        this.graph = graph;
+        var types = new SsaTypes(graph, environment);
+        var loops = graph.addPreheaders();
+        for (var loop : loops.entrySet()) {
+            var header = loop.getKey();
+            var body = loop.getValue();
+            var preheader = ControlFlowGraph.preheaderOf(header, body);
+            if (preheader == null) continue;
+            for (var phi : new ArrayList<>(header.phis)) {
+                if (!types.isInt(phi)) continue;
+                var increment = incrementOf(phi, preheader, types);
+                if (increment == null) continue;
+                reduce(phi, increment, body, preheader, types);
+            }
+        }
+    }
+
+    // The value which increments `phi` at each iteration, null if it is not an induction variable.
+    private SsaValue incrementOf(SsaValue phi, BasicBlock preheader, SsaTypes types) {
+        var header = phi.block;
+        SsaValue increment = null;
+        for (var i = 0; i < header.predecessors.size(); i++) {
+            if (header.predecessors.get(i) == preheader) continue;
+            var operand = phi.operands.get(i);
+            if (increment != null && operand != increment) return null;
+            increment = operand;
+        }
+        if (increment == null || stepOf(phi, increment, types) == null) return null;
+        return increment;
+    }
+
+    // The constant added to `phi` by `increment`, null if it is not an increment of `phi`.
+    private static Integer stepOf(SsaValue phi, SsaValue increment, SsaTypes types) {
+        if (increment.kind != SsaValue.Kind.BYTECODE) return null;
+        var operands = increment.operands;
+        switch (increment.type()) {
+            case OP_INC:
+                return operands.get(0) == phi ? 1 : null;
+            case OP_DEC:
+                return operands.get(0) == phi ? -1 : null;
+            case OP_ADD:
+                if (operands.get(0) == phi && types.constantOf(operands.get(1)) instanceof Integer step) return step;
+                if (operands.get(1) == phi && types.constantOf(operands.get(0)) instanceof Integer step) return step;
+                return null;
+            case OP_SUB:
+                if (operands.get(0) == phi && types.constantOf(operands.get(1)) instanceof Integer step) return -step;
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private void reduce(SsaValue phi, SsaValue increment, HashSet<BasicBlock> body, BasicBlock preheader, SsaTypes types) {
+        var step = stepOf(phi, increment, types);
+        var init = phi.operands.get(phi.block.predecessors.indexOf(preheader));
+        // The new induction variable of each invariant factor
+        var reduced = new HashMap<SsaValue, SsaValue>();
+        for (var block : body) {
+            for (var value : new ArrayList<>(block.values)) {
+                if (value.type() != BytecodeType.OP_MUL) continue;
+                SsaValue factor;
+                if (value.operands.get(0) == phi) factor = value.operands.get(1);
+                else if (value.operands.get(1) == phi) factor = value.operands.get(0);
+                else continue;
+                if (!isInvariant(factor, body)) continue;
+                var inductionVariable = reduced.get(factor);
+                if (inductionVariable == null) {
+                    inductionVariable = newInductionVariable(phi, increment, init, step, factor, preheader, types);
+                    reduced.put(factor, inductionVariable);
+                }
+                graph.replaceAllUses(value, inductionVariable);
+                block.values.remove(value);
+                value.block = null;
+                reducedValues++;
+            }
+        }
+    }
+
+    private static boolean isInvariant(SsaValue value, HashSet<BasicBlock> body) {
+        return !body.contains(value.block) || value.isRematerializable() && value.operands.isEmpty();
+    }
+
+    private SsaValue newInductionVariable(SsaValue phi, SsaValue increment, SsaValue init, int step,
+                                          SsaValue factor, BasicBlock preheader, SsaTypes types) {
+        var start = append(preheader, new Bytecode(BytecodeType.OP_MUL), init, factor);
+        SsaValue stride;
+        if (types.constantOf(factor) instanceof Integer constant) {
+            stride = append(preheader, constant(step * constant));
+        } else if (step == 1) {
+            stride = factor;
+        } else {
+            stride = append(preheader, new Bytecode(BytecodeType.OP_MUL), append(preheader, constant(step)), factor);
+        }
+
+        var header = phi.block;
+        var inductionVariable = graph.newValue(SsaValue.Kind.PHI, null, header);
+        header.phis.add(inductionVariable);
+        var next = graph.newValue(SsaValue.Kind.BYTECODE, new Bytecode(BytecodeType.OP_ADD), increment.block);
+        next.operands.addAll(List.of(inductionVariable, stride));
+        increment.block.values.add(increment.block.values.indexOf(increment) + 1, next);
+        for (var predecessor : header.predecessors) inductionVariable.operands.add(predecessor == preheader ? start : next);
+        return inductionVariable;
+    }
+
+    private Bytecode constant(int value) {
+        return new Bytecode(BytecodeType.OP_CONSTANT, environment.newConstant(graph.name, "int", value).index);
+    }
+
+    private SsaValue append(BasicBlock block, Bytecode bytecode, SsaValue... operands) {
+        var value = graph.newValue(SsaValue.Kind.BYTECODE, bytecode, block);
+        value.operands.addAll(List.of(operands));
+        block.values.add(value);
+        return value;
+    }
+}
@@ -0,0 +1,855 @@
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.TreeSet;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * This class compiles the hot methods of the `PrimitiveInterpreter` to JVM bytecode.
+ * A method is compiled when it has been called `invocationThreshold` times,
+ * or when its loops have jumped back `backEdgeThreshold` times, then the interpreter calls the compiled code instead.
+ * The compiled code is a hidden class implementing `CompiledMethod`, defined as a nestmate of `PrimitiveInterpreter`,
+ * so it uses the same tagged slots, objects and helper methods as the interpreter.
+ * The variables and the operand stack of the method are JVM local variables, each slot is a `long` and an `Object`,
+ * they are only written to the slots of the interpreter to pass the arguments of a call.
+ * A compiled method can be entered at the start, or at the target of a backward jump whose operand stack is empty:
+ * the interpreter switches to the compiled code in the middle of a hot loop.
+ */
+public class TieredCompiler {
+    public static final int DEFAULT_INVOCATION_THRESHOLD = 1000;
+    public static final int DEFAULT_BACK_EDGE_THRESHOLD = 10000;
+
+    private static final String INTERPRETER = "PrimitiveInterpreter";
+    private static final String TAG = INTERPRETER + "$Tag";
+    private static final String INSTANCE = INTERPRETER + "$Instance";
+    private static final String SLOT_ARRAY = INTERPRETER + "$SlotArray";
+    private static final String SUPER_VIEW = INTERPRETER + "$SuperView";
+    private static final String PREPARED_METHOD = INTERPRETER + "$PreparedMethod";
+    private static final String PREPARED_CLASS = INTERPRETER + "$PreparedClass";
+    private static final String INLINE_CACHE = INTERPRETER + "$InlineCache";
+    private static final String COMPILED_METHOD = INTERPRETER + "$CompiledMethod";
+    private static final String OBJECT = "java/lang/Object";
+    private static final String STRING = "java/lang/String";
+    private static final String STRING_BUILDER = "java/lang/StringBuilder";
+
+    // The JVM local variables of `run`, the slots of the method start at `BASE`
+    private static final int INTERPRETER_VAR = 1;
+    private static final int SELF_VAR = 2;
+    private static final int FP_VAR = 3;
+    private static final int ENTRY_PC_VAR = 4;
+    private static final int BASE = 5;
+
+    public final int invocationThreshold;
+    public final int backEdgeThreshold;
+    // Null if the compiled methods are not logged
+    public final PrintStream log;
+
+    private int compiledCount = 0;
+
+    // The state of the method being compiled
+    private PrimitiveInterpreter.PreparedMethod method;
+    private MethodVisitor mv;
+    private String className;
+    // The objects used by the compiled code, they are the class data of the hidden class
+    private ArrayList<Object> data;
+    private int scratchRef;
+    private int scratchInt;
+
+    public TieredCompiler(int invocationThreshold, int backEdgeThreshold, PrintStream log) {
+        this.invocationThreshold = invocationThreshold;
+        this.backEdgeThreshold = backEdgeThreshold;
+        this.log = log;
+    }
+
+    public TieredCompiler() {
+        this(DEFAULT_INVOCATION_THRESHOLD, DEFAULT_BACK_EDGE_THRESHOLD, null);
+    }
+
+    // Compile `method` to a hidden class, returns null if the method cannot be compiled.
+    PrimitiveInterpreter.CompiledMethod compile(PrimitiveInterpreter.PreparedMethod method) {
+        var start = System.nanoTime();
+        try {
+            var bytes = generate(method);
+            var lookup = MethodHandles.privateLookupIn(PrimitiveInterpreter.class, MethodHandles.lookup());
+            var hiddenLookup = lookup.defineHiddenClassWithClassData(bytes, data.toArray(), true, MethodHandles.Lookup.ClassOption.NESTMATE);
+            var constructor = hiddenLookup.findConstructor(hiddenLookup.lookupClass(), MethodType.methodType(void.class));
+            var compiled = (PrimitiveInterpreter.CompiledMethod) constructor.invoke();
+            if (log != null) {
+                log.printf("[JIT] compiled %s after %d invocations and %d back-edges: %d bytecodes to %d bytes in %.2f ms%n",
+                        method.method.name, method.invocationCount, method.backEdgeCount, method.types.length, bytes.length, (System.nanoTime() - start) / 1e6);
+            }
+            return compiled;
+        } catch (Throwable e) {
+            if (log != null) log.printf("[JIT] failed to compile %s: %s%n", method.method.name, e);
+            return null;
+        } finally {
+            this.method = null;
+            this.mv = null;
+            this.data = null;
+        }
+    }
+
+    private byte[] generate(PrimitiveInterpreter.PreparedMethod method) {
+        this.method = method;
+        this.data = new ArrayList<>();
+        this.className = INTERPRETER + "$Compiled" + (compiledCount++);
+        var cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V21, Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, className, null, OBJECT, new String[] { COMPILED_METHOD });
+        cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "DATA", "[L" + OBJECT + ";", null, null).visitEnd();
+
+        // The class data is loaded once into a static final field, which the JIT of the JVM treats as a constant
+        mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;", false);
+        mv.visitLdcInsn("_");
+        mv.visitLdcInsn(Type.getType("[L" + OBJECT + ";"));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)L" + OBJECT + ";", false);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "[L" + OBJECT + ";");
+        mv.visitFieldInsn(Opcodes.PUTSTATIC, className, "DATA", "[L" + OBJECT + ";");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(L" + INTERPRETER + ";L" + INSTANCE + ";II)V", null, null);
+        mv.visitCode();
+        generateRun();
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private void generateRun() {
+        var types = method.types;
+        var depths = method.stackDepths;
+        var slotCount = method.localCount + method.maxStack + 1;
+        scratchRef = BASE + 3 * slotCount;
+        scratchInt = scratchRef + 1;
+
+        // The variables are loaded from the frame of the interpreter, the operand stack starts empty
+        for (var slot = 0; slot < slotCount; slot++) {
+            if (slot < method.localCount) {
+                loadFromFrame(slot);
+            } else {
+                mv.visitInsn(Opcodes.LCONST_0);
+                mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+                mv.visitInsn(Opcodes.ACONST_NULL);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+            }
+        }
+
+        var labels = new Label[types.length + 1];
+        for (var i = 0; i < labels.length; i++) labels[i] = new Label();
+
+        // The entries are the start and the targets of backward jumps with an empty operand stack
+        var entries = new TreeSet<Integer>();
+        for (var i = 0; i < types.length; i++) {
+            var target = method.arg1[i];
+            if (BytecodeLoader.isJump(types[i]) && depths[i] >= 0 && target <= i && depths[target] == 0) entries.add(target);
+        }
+        entries.remove(0);
+        if (!entries.isEmpty()) {
+            var keys = new int[entries.size()];
+            var targets = new Label[entries.size()];
+            var k = 0;
+            for (var entry : entries) {
+                keys[k] = entry;
+                targets[k++] = labels[entry];
+            }
+            mv.visitVarInsn(Opcodes.ILOAD, ENTRY_PC_VAR);
+            mv.visitLookupSwitchInsn(labels[0], keys, targets);
+        }
+
+        for (var i = 0; i < types.length; i++) {
+            mv.visitLabel(labels[i]);
+            if (depths[i] < 0) continue;
+            generateInstruction(i, method.localCount + depths[i], labels);
+        }
+        mv.visitLabel(labels[types.length]);
+        returnVoid();
+    }
+
+    // The JVM local variables of a slot
+    private static int prim(int slot) {
+        return BASE + 3 * slot;
+    }
+
+    private static int ref(int slot) {
+        return BASE + 3 * slot + 2;
+    }
+
+    // Emit the instruction at `i`, `top` is the slot above the operand stack.
+    private void generateInstruction(int i, int top, Label[] labels) {
+        var arg1 = method.arg1[i];
+        var arg2 = method.arg2[i];
+        switch (method.types[i]) {
+            case OP_CONSTANT:
+                mv.visitLdcInsn(method.constantPrims[arg1]);
+                mv.visitVarInsn(Opcodes.LSTORE, prim(top));
+                pushConstantRef(method.constantRefs[arg1]);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top));
+                break;
+            case OP_NIL:
+                mv.visitInsn(Opcodes.ACONST_NULL);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top));
+                break;
+            case OP_TRUE:
+            case OP_FALSE:
+                mv.visitInsn(method.types[i] == BytecodeType.OP_TRUE ? Opcodes.LCONST_1 : Opcodes.LCONST_0);
+                storeTagged(top, "BOOLEAN");
+                break;
+            case OP_POP:
+                break;
+            case OP_DUP:
+                copy(top - 1, top);
+                break;
+            case OP_GET_LOCAL:
+                copy(arg1, top);
+                break;
+            case OP_SET_LOCAL:
+                copy(top - 1, arg1);
+                break;
+            case OP_INC:
+            case OP_DEC:
+                generateIncrement(top - 1, method.types[i] == BytecodeType.OP_INC ? Opcodes.LADD : Opcodes.LSUB);
+                break;
+            case OP_ADD:
+                generateAdd(top - 2, top - 1);
+                break;
+            case OP_SUB:
+                generateIntOperation(top - 2, top - 1, Opcodes.ISUB);
+                break;
+            case OP_MUL:
+                generateIntOperation(top - 2, top - 1, Opcodes.IMUL);
+                break;
+            case OP_DIV:
+                checkDivisor(top - 1);
+                generateIntOperation(top - 2, top - 1, Opcodes.IDIV);
+                break;
+            case OP_MOD:
+                checkDivisor(top - 1);
+                generateIntOperation(top - 2, top - 1, Opcodes.IREM);
+                break;
+            case OP_LSHIFT:
+                generateIntOperation(top - 2, top - 1, Opcodes.ISHL);
+                break;
+            case OP_RSHIFT:
+                generateIntOperation(top - 2, top - 1, Opcodes.ISHR);
+                break;
+            case OP_URSHIFT:
+                generateIntOperation(top - 2, top - 1, Opcodes.IUSHR);
+                break;
+            case OP_BIT_AND:
+                generateIntOperation(top - 2, top - 1, Opcodes.IAND);
+                break;
+            case OP_BIT_OR:
+                generateIntOperation(top - 2, top - 1, Opcodes.IOR);
+                break;
+            case OP_BIT_XOR:
+                generateIntOperation(top - 2, top - 1, Opcodes.IXOR);
+                break;
+            case OP_BIT_NOT:
+                mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                mv.visitInsn(Opcodes.L2I);
+                mv.visitInsn(Opcodes.ICONST_M1);
+                mv.visitInsn(Opcodes.IXOR);
+                mv.visitInsn(Opcodes.I2L);
+                storeTagged(top - 1, "INT");
+                break;
+            case OP_NEG:
+                mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                mv.visitInsn(Opcodes.L2I);
+                mv.visitInsn(Opcodes.INEG);
+                mv.visitInsn(Opcodes.I2L);
+                storeTagged(top - 1, "INT");
+                break;
+            case OP_EQ:
+            case OP_NEQ:
+                loadSlot(top - 2);
+                loadSlot(top - 1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "isEqual", "(JL" + OBJECT + ";JL" + OBJECT + ";)Z", false);
+                if (method.types[i] == BytecodeType.OP_NEQ) {
+                    mv.visitInsn(Opcodes.ICONST_1);
+                    mv.visitInsn(Opcodes.IXOR);
+                }
+                mv.visitInsn(Opcodes.I2L);
+                storeTagged(top - 2, "BOOLEAN");
+                break;
+            case OP_GE:
+                generateComparison(top - 2, top - 1, Opcodes.IFLT);
+                break;
+            case OP_LE:
+                generateComparison(top - 2, top - 1, Opcodes.IFGT);
+                break;
+            case OP_GT:
+                generateComparison(top - 2, top - 1, Opcodes.IFLE);
+                break;
+            case OP_LT:
+                generateComparison(top - 2, top - 1, Opcodes.IFGE);
+                break;
+            case OP_JUMP:
+                mv.visitJumpInsn(Opcodes.GOTO, labels[arg1]);
+                break;
+            case OP_JUMP_IF_TRUE:
+            case OP_JUMP_IF_FALSE:
+                mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                mv.visitInsn(Opcodes.LCONST_0);
+                mv.visitInsn(Opcodes.LCMP);
+                mv.visitJumpInsn(method.types[i] == BytecodeType.OP_JUMP_IF_TRUE ? Opcodes.IFNE : Opcodes.IFEQ, labels[arg1]);
+                break;
+            case OP_IF_EQ:
+            case OP_IF_NE:
+                loadSlot(top - 2);
+                loadSlot(top - 1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "isEqual", "(JL" + OBJECT + ";JL" + OBJECT + ";)Z", false);
+                mv.visitJumpInsn(method.types[i] == BytecodeType.OP_IF_EQ ? Opcodes.IFNE : Opcodes.IFEQ, labels[arg1]);
+                break;
+            case OP_IF_LT:
+                generateCompareAndBranch(top - 2, top - 1, Opcodes.IFLT, labels[arg1]);
+                break;
+            case OP_IF_LE:
+                generateCompareAndBranch(top - 2, top - 1, Opcodes.IFLE, labels[arg1]);
+                break;
+            case OP_IF_GT:
+                generateCompareAndBranch(top - 2, top - 1, Opcodes.IFGT, labels[arg1]);
+                break;
+            case OP_IF_GE:
+                generateCompareAndBranch(top - 2, top - 1, Opcodes.IFGE, labels[arg1]);
+                break;
+            case OP_IF_EQ_NULL:
+            case OP_IF_NE_NULL:
+                mv.visitVarInsn(Opcodes.ALOAD, ref(top - 1));
+                mv.visitJumpInsn(method.types[i] == BytecodeType.OP_IF_EQ_NULL ? Opcodes.IFNULL : Opcodes.IFNONNULL, labels[arg1]);
+                break;
+            case OP_THIS:
+                mv.visitVarInsn(Opcodes.ALOAD, SELF_VAR);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top));
+                break;
+            case OP_SUPER:
+                mv.visitTypeInsn(Opcodes.NEW, SUPER_VIEW);
+                mv.visitInsn(Opcodes.DUP);
+                mv.visitVarInsn(Opcodes.ALOAD, SELF_VAR);
+                pushData(method.owner.parent, PREPARED_CLASS);
+                mv.visitMethodInsn(Opcodes.INVOKESPECIAL, SUPER_VIEW, "<init>", "(L" + INSTANCE + ";L" + PREPARED_CLASS + ";)V", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top));
+                break;
+            case OP_GET_FIELD:
+                generateInstance(top - 1, arg1);
+                loadElements(INSTANCE, top - 1);
+                break;
+            case OP_SET_FIELD:
+                generateInstance(top - 2, arg1);
+                storeElements(INSTANCE, top - 1);
+                copy(top - 1, top - 2);
+                break;
+            case OP_GET_FIELD_UNCHECKED:
+                generateUncheckedInstance(top - 1, arg1);
+                loadElements(INSTANCE, top - 1);
+                break;
+            case OP_SET_FIELD_UNCHECKED:
+                generateUncheckedInstance(top - 2, arg1);
+                storeElements(INSTANCE, top - 1);
+                copy(top - 1, top - 2);
+                break;
+            case OP_NEW_ARRAY:
+                mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                mv.visitInsn(Opcodes.L2I);
+                // The element type is the tag of a primitive type, e.g. `INT`, or null
+                var tag = method.operands[i];
+                if (tag != null) mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, tag.toString().toUpperCase(), "L" + OBJECT + ";");
+                else mv.visitInsn(Opcodes.ACONST_NULL);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "newArray", "(IL" + OBJECT + ";)L" + SLOT_ARRAY + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top - 1));
+                break;
+            case OP_NEW_ARRAY_FROM_POOL:
+                pushData(method.constantRefs[arg1], SLOT_ARRAY);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SLOT_ARRAY, "copy", "()L" + SLOT_ARRAY + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top));
+                break;
+            case OP_NEW_MULTI_ARRAY: {
+                // The sizes and the default value are read from the slots of the interpreter
+                var base = top - arg1 - 1;
+                for (var slot = base; slot < top; slot++) storeToFrame(slot);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+                pushFrameSlot(base);
+                mv.visitLdcInsn(arg1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "newMultiArray", "([J[L" + OBJECT + ";II)L" + SLOT_ARRAY + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(base));
+                break;
+            }
+            case OP_CONCAT: {
+                // The values are read from the slots of the interpreter like for `OP_NEW_MULTI_ARRAY`
+                var base = top - arg1;
+                for (var slot = base; slot < top; slot++) storeToFrame(slot);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+                pushFrameSlot(base);
+                mv.visitLdcInsn(arg1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "concat", "([J[L" + OBJECT + ";II)L" + STRING + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(base));
+                break;
+            }
+            case OP_NEW_BUILDER:
+                mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                mv.visitVarInsn(Opcodes.ALOAD, ref(top - 1));
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "newBuilder", "(JL" + OBJECT + ";)L" + STRING_BUILDER + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top - 1));
+                break;
+            case OP_APPEND: {
+                var base = top - arg1;
+                for (var slot = base; slot < top; slot++) storeToFrame(slot);
+                mv.visitVarInsn(Opcodes.ALOAD, ref(base - 1));
+                mv.visitTypeInsn(Opcodes.CHECKCAST, STRING_BUILDER);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+                pushFrameSlot(base);
+                mv.visitLdcInsn(arg1);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "append", "(L" + STRING_BUILDER + ";[J[L" + OBJECT + ";II)V", false);
+                break;
+            }
+            case OP_BUILD_STRING:
+                mv.visitVarInsn(Opcodes.ALOAD, ref(top - 1));
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, OBJECT, "toString", "()L" + STRING + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(top - 1));
+                break;
+            case OP_GET_INDEX:
+                generateElementIndex(top - 2, top - 1);
+                loadElement(top - 2);
+                break;
+            case OP_SET_INDEX:
+                generateElementIndex(top - 3, top - 2);
+                storeElement(top - 1);
+                copy(top - 1, top - 3);
+                break;
+            case OP_GET_INDEX_UNCHECKED:
+                generateUncheckedElementIndex(top - 2, top - 1);
+                loadElement(top - 2);
+                break;
+            case OP_SET_INDEX_UNCHECKED:
+                generateUncheckedElementIndex(top - 3, top - 2);
+                storeElement(top - 1);
+                copy(top - 1, top - 3);
+                break;
+            case OP_CAST:
+                generateCast(top - 1, (String) method.operands[i]);
+                break;
+            case OP_INSTANCE_OF:
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitVarInsn(Opcodes.ALOAD, ref(top - 1));
+                mv.visitLdcInsn(method.operands[i]);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "isInstanceOf", "(L" + OBJECT + ";L" + STRING + ";)Z", false);
+                mv.visitInsn(Opcodes.I2L);
+                storeTagged(top - 1, "BOOLEAN");
+                break;
+            case OP_CALL:
+                generateCall(i, top - arg2, arg2);
+                break;
+            case OP_INVOKE: {
+                var receiver = top - arg2 - 1;
+                for (var slot = receiver; slot < top; slot++) storeToFrame(slot);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                pushData(method.operands[i], INLINE_CACHE);
+                pushFrameSlot(receiver);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "invoke", "(L" + INLINE_CACHE + ";I)V", false);
+                loadResult(receiver);
+                break;
+            }
+            case OP_RETURN:
+                if (top > method.localCount) {
+                    mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                    mv.visitVarInsn(Opcodes.LLOAD, prim(top - 1));
+                    mv.visitFieldInsn(Opcodes.PUTFIELD, INTERPRETER, "resultPrim", "J");
+                    mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                    mv.visitVarInsn(Opcodes.ALOAD, ref(top - 1));
+                    mv.visitFieldInsn(Opcodes.PUTFIELD, INTERPRETER, "resultRef", "L" + OBJECT + ";");
+                    mv.visitInsn(Opcodes.RETURN);
+                } else {
+                    returnVoid();
+                }
+                break;
+            default:
+                throw new RuntimeException("[ERROR] Unexpected bytecode: " + method.types[i]);
+        }
+    }
+
+    private void returnVoid() {
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, "VOID", "L" + OBJECT + ";");
+        mv.visitFieldInsn(Opcodes.PUTFIELD, INTERPRETER, "resultRef", "L" + OBJECT + ";");
+        mv.visitInsn(Opcodes.RETURN);
+    }
+
+    private void pushConstantRef(Object value) {
+        if (value == null) {
+            mv.visitInsn(Opcodes.ACONST_NULL);
+        } else if (value instanceof String string) {
+            mv.visitLdcInsn(string);
+        } else {
+            // The tags are compared by identity, `Tag.toString` is the name of the tag
+            mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, value.toString().toUpperCase(), "L" + OBJECT + ";");
+        }
+    }
+
+    // Push an object of the class data, cast to `type`.
+    private void pushData(Object value, String type) {
+        var index = data.indexOf(value);
+        if (index < 0) {
+            index = data.size();
+            data.add(value);
+        }
+        mv.visitFieldInsn(Opcodes.GETSTATIC, className, "DATA", "[L" + OBJECT + ";");
+        mv.visitLdcInsn(index);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, type);
+    }
+
+    private void copy(int from, int to) {
+        if (from == to) return;
+        mv.visitVarInsn(Opcodes.LLOAD, prim(from));
+        mv.visitVarInsn(Opcodes.LSTORE, prim(to));
+        mv.visitVarInsn(Opcodes.ALOAD, ref(from));
+        mv.visitVarInsn(Opcodes.ASTORE, ref(to));
+    }
+
+    private void loadSlot(int slot) {
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+    }
+
+    // Store the `long` on the JVM stack into `slot`, with the tag `tag`.
+    private void storeTagged(int slot, String tag) {
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+        mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, tag, "L" + OBJECT + ";");
+        mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+    }
+
+    // Push `fp + slot`, the index of a slot in the frame of the interpreter.
+    private void pushFrameSlot(int slot) {
+        mv.visitVarInsn(Opcodes.ILOAD, FP_VAR);
+        mv.visitLdcInsn(slot);
+        mv.visitInsn(Opcodes.IADD);
+    }
+
+    private void loadFromFrame(int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+        pushFrameSlot(slot);
+        mv.visitInsn(Opcodes.LALOAD);
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+        pushFrameSlot(slot);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+    }
+
+    // The slots of the interpreter are reloaded after each call, because a call may grow them.
+    private void storeToFrame(int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+        pushFrameSlot(slot);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitInsn(Opcodes.LASTORE);
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+        pushFrameSlot(slot);
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitInsn(Opcodes.AASTORE);
+    }
+
+    private void loadResult(int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "resultPrim", "J");
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "resultRef", "L" + OBJECT + ";");
+        mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+    }
+
+    // `char` stays an 8-bit `char`, other values become `int`, see `OP_INC` in the interpreter.
+    private void generateIncrement(int slot, int opcode) {
+        var intLabel = new Label();
+        var endLabel = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, "CHAR", "L" + OBJECT + ";");
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, intLabel);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitInsn(opcode);
+        mv.visitLdcInsn(0xFFL);
+        mv.visitInsn(Opcodes.LAND);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(intLabel);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitInsn(opcode);
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitLabel(endLabel);
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+    }
+
+    // Numbers are added, `char + char` is a `char`, otherwise the display strings are concatenated.
+    private void generateAdd(int a, int b) {
+        var charLabel = new Label();
+        var intLabel = new Label();
+        var concatLabel = new Label();
+        var endLabel = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, ref(a));
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, TAG);
+        mv.visitJumpInsn(Opcodes.IFEQ, concatLabel);
+        mv.visitVarInsn(Opcodes.ALOAD, ref(b));
+        mv.visitTypeInsn(Opcodes.INSTANCEOF, TAG);
+        mv.visitJumpInsn(Opcodes.IFEQ, concatLabel);
+        mv.visitVarInsn(Opcodes.ALOAD, ref(a));
+        mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, "CHAR", "L" + OBJECT + ";");
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, intLabel);
+        mv.visitVarInsn(Opcodes.ALOAD, ref(b));
+        mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, "CHAR", "L" + OBJECT + ";");
+        mv.visitJumpInsn(Opcodes.IF_ACMPEQ, charLabel);
+        mv.visitLabel(intLabel);
+        generateIntOperation(a, b, Opcodes.IADD);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(charLabel);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(a));
+        mv.visitVarInsn(Opcodes.LLOAD, prim(b));
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitLdcInsn(0xFFL);
+        mv.visitInsn(Opcodes.LAND);
+        mv.visitVarInsn(Opcodes.LSTORE, prim(a));
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(concatLabel);
+        loadSlot(a);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "toDisplayString", "(JL" + OBJECT + ";)L" + STRING + ";", false);
+        loadSlot(b);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "toDisplayString", "(JL" + OBJECT + ";)L" + STRING + ";", false);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, STRING, "concat", "(L" + STRING + ";)L" + STRING + ";", false);
+        mv.visitVarInsn(Opcodes.ASTORE, ref(a));
+        mv.visitLabel(endLabel);
+    }
+
+    private void generateIntOperation(int a, int b, int opcode) {
+        mv.visitVarInsn(Opcodes.LLOAD, prim(a));
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(b));
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitInsn(opcode);
+        mv.visitInsn(Opcodes.I2L);
+        storeTagged(a, "INT");
+    }
+
+    private void checkDivisor(int slot) {
+        var nonZeroLabel = new Label();
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(Opcodes.IFNE, nonZeroLabel);
+        throwError("[ERROR] Division by zero");
+        mv.visitLabel(nonZeroLabel);
+    }
+
+    private void throwError(String message) {
+        mv.visitTypeInsn(Opcodes.NEW, "java/lang/RuntimeException");
+        mv.visitInsn(Opcodes.DUP);
+        mv.visitLdcInsn(message);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/RuntimeException", "<init>", "(L" + STRING + ";)V", false);
+        mv.visitInsn(Opcodes.ATHROW);
+    }
+
+    // `falseOpcode` jumps on the result of `LCMP` when the comparison is false.
+    private void generateComparison(int a, int b, int falseOpcode) {
+        var falseLabel = new Label();
+        var endLabel = new Label();
+        mv.visitVarInsn(Opcodes.LLOAD, prim(a));
+        mv.visitVarInsn(Opcodes.LLOAD, prim(b));
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(falseOpcode, falseLabel);
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitJumpInsn(Opcodes.GOTO, endLabel);
+        mv.visitLabel(falseLabel);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitLabel(endLabel);
+        storeTagged(a, "BOOLEAN");
+    }
+
+    private void generateCompareAndBranch(int a, int b, int opcode, Label target) {
+        mv.visitVarInsn(Opcodes.LLOAD, prim(a));
+        mv.visitVarInsn(Opcodes.LLOAD, prim(b));
+        mv.visitInsn(Opcodes.LCMP);
+        mv.visitJumpInsn(opcode, target);
+    }
+
+    // Store the object of `slot` in `scratchRef` and the field slot `fieldSlot` in `scratchInt`.
+    private void generateInstance(int slot, int fieldSlot) {
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "instanceOf", "(L" + OBJECT + ";)L" + INSTANCE + ";", false);
+        mv.visitVarInsn(Opcodes.ASTORE, scratchRef);
+        mv.visitLdcInsn(fieldSlot);
+        mv.visitVarInsn(Opcodes.ISTORE, scratchInt);
+    }
+
+    // Store the checked array of `arraySlot` in `scratchRef` and the index of `indexSlot` in `scratchInt`.
+    private void generateElementIndex(int arraySlot, int indexSlot) {
+        mv.visitVarInsn(Opcodes.ALOAD, ref(arraySlot));
+        mv.visitVarInsn(Opcodes.LLOAD, prim(indexSlot));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "arrayOf", "(L" + OBJECT + ";J)L" + SLOT_ARRAY + ";", false);
+        mv.visitVarInsn(Opcodes.ASTORE, scratchRef);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(indexSlot));
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitVarInsn(Opcodes.ISTORE, scratchInt);
+    }
+
+    // Like `generateInstance` for an object which is known not to be null.
+    private void generateUncheckedInstance(int slot, int fieldSlot) {
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "uncheckedInstanceOf", "(L" + OBJECT + ";)L" + INSTANCE + ";", false);
+        mv.visitVarInsn(Opcodes.ASTORE, scratchRef);
+        mv.visitLdcInsn(fieldSlot);
+        mv.visitVarInsn(Opcodes.ISTORE, scratchInt);
+    }
+
+    // Like `generateElementIndex` for an array which is known not to be null and an index known to be in bounds.
+    private void generateUncheckedElementIndex(int arraySlot, int indexSlot) {
+        mv.visitVarInsn(Opcodes.ALOAD, ref(arraySlot));
+        mv.visitVarInsn(Opcodes.ASTORE, scratchRef);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(indexSlot));
+        mv.visitInsn(Opcodes.L2I);
+        mv.visitVarInsn(Opcodes.ISTORE, scratchInt);
+    }
+
+    // Load the field slot `scratchInt` of the object `scratchRef` into `slot`.
+    private void loadElements(String owner, int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitFieldInsn(Opcodes.GETFIELD, owner, "prims", "[J");
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitInsn(Opcodes.LALOAD);
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitFieldInsn(Opcodes.GETFIELD, owner, "refs", "[L" + OBJECT + ";");
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitInsn(Opcodes.AALOAD);
+        mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+    }
+
+    private void storeElements(String owner, int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitFieldInsn(Opcodes.GETFIELD, owner, "prims", "[J");
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitInsn(Opcodes.LASTORE);
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, owner);
+        mv.visitFieldInsn(Opcodes.GETFIELD, owner, "refs", "[L" + OBJECT + ";");
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitInsn(Opcodes.AASTORE);
+    }
+
+    // Load the element `scratchInt` of the array `scratchRef` into `slot`, the elements may be unboxed, see `SlotArray`.
+    private void loadElement(int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, SLOT_ARRAY);
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SLOT_ARRAY, "prim", "(I)J", false);
+        mv.visitVarInsn(Opcodes.LSTORE, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, SLOT_ARRAY);
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SLOT_ARRAY, "ref", "(I)L" + OBJECT + ";", false);
+        mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+    }
+
+    private void storeElement(int slot) {
+        mv.visitVarInsn(Opcodes.ALOAD, scratchRef);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, SLOT_ARRAY);
+        mv.visitVarInsn(Opcodes.ILOAD, scratchInt);
+        mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+        mv.visitVarInsn(Opcodes.ALOAD, ref(slot));
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, SLOT_ARRAY, "set", "(IJL" + OBJECT + ";)V", false);
+    }
+
+    // The casts to primitive types are inlined, the casts to classes are checked by the interpreter.
+    private void generateCast(int slot, String type) {
+        switch (type) {
+            case "int":
+                mv.visitFieldInsn(Opcodes.GETSTATIC, INTERPRETER, "INT", "L" + OBJECT + ";");
+                mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+                break;
+            case "char":
+                mv.visitVarInsn(Opcodes.LLOAD, prim(slot));
+                mv.visitLdcInsn(0xFFL);
+                mv.visitInsn(Opcodes.LAND);
+                storeTagged(slot, "CHAR");
+                break;
+            case "string":
+                loadSlot(slot);
+                mv.visitMethodInsn(Opcodes.INVOKESTATIC, INTERPRETER, "toDisplayString", "(JL" + OBJECT + ";)L" + STRING + ";", false);
+                mv.visitVarInsn(Opcodes.ASTORE, ref(slot));
+                break;
+            case "boolean":
+                break;
+            default:
+                storeToFrame(slot);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "prims", "[J");
+                mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+                mv.visitFieldInsn(Opcodes.GETFIELD, INTERPRETER, "refs", "[L" + OBJECT + ";");
+                pushFrameSlot(slot);
+                mv.visitLdcInsn(type);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "cast", "([J[L" + OBJECT + ";IL" + STRING + ";)V", false);
+                break;
+        }
+    }
+
+    // The arguments are passed in the slots of the interpreter, the callee runs interpreted or compiled.
+    private void generateCall(int i, int first, int count) {
+        for (var slot = first; slot < first + count; slot++) storeToFrame(slot);
+        mv.visitVarInsn(Opcodes.ALOAD, INTERPRETER_VAR);
+        if (method.operands[i] instanceof PrimitiveInterpreter.PreparedMethod callee) {
+            pushData(callee, PREPARED_METHOD);
+            if (callee.method.isConstructor) {
+                pushFrameSlot(first);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "construct", "(L" + PREPARED_METHOD + ";I)V", false);
+            } else if (callee.method.isInstanceMethod) {
+                pushFrameSlot(first);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "invoke", "(L" + PREPARED_METHOD + ";I)V", false);
+            } else {
+                mv.visitInsn(Opcodes.ACONST_NULL);
+                pushFrameSlot(first);
+                mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "execute", "(L" + PREPARED_METHOD + ";L" + INSTANCE + ";I)V", false);
+            }
+        } else {
+            mv.visitLdcInsn(method.operands[i]);
+            pushFrameSlot(first);
+            mv.visitLdcInsn(count);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INTERPRETER, "callBuiltin", "(L" + STRING + ";II)V", false);
+        }
+        loadResult(first);
+    }
+}
@@ -0,0 +1,65 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class builds the virtual method table of each class from the class hierarchy of `SemanticsVisitor`.
+ * The table of a class starts with the table of its parent class,
+ * a method overriding a parent method takes the slot of the parent method, and a new selector gets the next slot.
+ * So a selector has the same slot in a class and in all its sub classes,
+ * and `OP_INVOKE` carries the slot of the selector in the table of the static class of the receiver.
+ * Constructors are not virtual, they are called by `OP_CALL`.
+ */
+public class VirtualTables {
+    private final Map<String, List<MethodSignature>> classMethodMap;
+    private final Map<String, String> parentClassMap;
+    // The mangled names of the methods of each class indexed by slot, e.g. `Parent::foo(int)`
+    private final Map<String, List<String>> tables;
+
+    public VirtualTables(SemanticsVisitor semanticsVisitor) {
+        this.classMethodMap = semanticsVisitor.getClassMethodMap();
+        this.parentClassMap = semanticsVisitor.getParentClassMap();
+        this.tables = new HashMap<>();
+    }
+
+    // The selector is the mangled name without the class name, e.g. `foo(int)`.
+    public static String selectorOf(String mangledMethod) {
+        return mangledMethod.substring(mangledMethod.indexOf("::") + 2);
+    }
+
+    // A constructor is named after its class, e.g. `Parent::Parent(int)`.
+    public static boolean isConstructor(String mangledMethod) {
+        var className = mangledMethod.substring(0, mangledMethod.indexOf("::"));
+        return selectorOf(mangledMethod).startsWith(className + "(");
+    }
+
+    public List<String> tableOf(String className) {
+        var table = tables.get(className);
+        if (table != null) return table;
+        var parentName = parentClassMap.get(className);
+        table = parentName != null ? new ArrayList<>(tableOf(parentName)) : new ArrayList<>();
+        for (var methodSig : classMethodMap.getOrDefault(className, List.of())) {
+            if (methodSig.methodName.equals(className)) continue;
+            var mangledMethod = methodSig.mangle();
+            var slot = slotOf(table, selectorOf(mangledMethod));
+            if (slot >= 0) table.set(slot, mangledMethod);
+            else table.add(mangledMethod);
+        }
+        tables.put(className, table);
+        return table;
+    }
+
+    public int slotOf(String className, String selector) {
+        var slot = slotOf(tableOf(className), selector);
+        if (slot < 0) throw new RuntimeException("[ERROR] Method " + selector + " not found in class " + className);
+        return slot;
+    }
+
+    private static int slotOf(List<String> table, String selector) {
+        for (var slot = 0; slot < table.size(); slot++) {
+            if (selectorOf(table.get(slot)).equals(selector)) return slot;
+        }
+        return -1;
+    }
+}